@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Provider;
+import java.security.Security;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.PasswordCallback;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import javax.security.sasl.RealmCallback;
+import javax.security.sasl.RealmChoiceCallback;
+
+import org.wildfly.security.WildFlyElytronProvider;
+import org.wildfly.security.auth.permission.LoginPermission;
+import org.wildfly.security.auth.realm.SimpleMapBackedSecurityRealm;
+import org.wildfly.security.auth.realm.SimpleRealmEntry;
+import org.wildfly.security.auth.server.SecurityDomain;
+import org.wildfly.security.credential.Credential;
+import org.wildfly.security.credential.PasswordCredential;
+import org.wildfly.security.password.Password;
+import org.wildfly.security.password.PasswordFactory;
+import org.wildfly.security.password.interfaces.ClearPassword;
+import org.wildfly.security.password.interfaces.ScramDigestPassword;
+import org.wildfly.security.password.spec.ClearPasswordSpec;
+import org.wildfly.security.password.spec.EncryptablePasswordSpec;
+import org.wildfly.security.password.spec.IteratedSaltedPasswordAlgorithmSpec;
+import org.wildfly.security.permission.PermissionVerifier;
+
+/**
+ * Shared fixtures of the benchmarks.
+ */
+final class BenchmarkSupport {
+
+    static final String PASSWORD = "password";
+    static final int USER_COUNT = 1000;
+    static final int SCRAM_ITERATION_COUNT = 4096;
+
+    static final Provider PROVIDER = new WildFlyElytronProvider();
+
+    static {
+        Security.insertProviderAt(PROVIDER, 1);
+    }
+
+    private BenchmarkSupport() {
+    }
+
+    static String userName(int index) {
+        return "user" + index;
+    }
+
+    static byte[] salt(int index) {
+        return String.format("salt%08d", index).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static Password createPassword(String algorithm, AlgorithmParameterSpec parameters) throws Exception {
+        PasswordFactory passwordFactory = PasswordFactory.getInstance(algorithm, PROVIDER);
+        if (ClearPassword.ALGORITHM_CLEAR.equals(algorithm)) {
+            return passwordFactory.generatePassword(new ClearPasswordSpec(PASSWORD.toCharArray()));
+        }
+        return passwordFactory.generatePassword(new EncryptablePasswordSpec(PASSWORD.toCharArray(), parameters));
+    }
+
+    /**
+     * Create a security domain backed by a {@link SimpleMapBackedSecurityRealm} holding {@link #USER_COUNT} users, each with a clear
+     * and a SCRAM-SHA-256 password and permitted to log in. Every SCRAM password has its own salt, as it would in a real realm.
+     */
+    static SecurityDomain createSecurityDomain() throws Exception {
+        Password clear = createPassword(ClearPassword.ALGORITHM_CLEAR, null);
+
+        Map<String, SimpleRealmEntry> users = new HashMap<>();
+        for (int i = 0; i < USER_COUNT; i++) {
+            Password scram = createPassword(ScramDigestPassword.ALGORITHM_SCRAM_SHA_256,
+                    new IteratedSaltedPasswordAlgorithmSpec(SCRAM_ITERATION_COUNT, salt(i)));
+            List<Credential> credentials = new ArrayList<>();
+            credentials.add(new PasswordCredential(clear));
+            credentials.add(new PasswordCredential(scram));
+            users.put(userName(i), new SimpleRealmEntry(credentials));
+        }
+
+        SimpleMapBackedSecurityRealm realm = new SimpleMapBackedSecurityRealm(() -> new Provider[] { PROVIDER });
+        realm.setPasswordMap(users);
+
+        return SecurityDomain.builder()
+                .addRealm("default", realm).build()
+                .setDefaultRealmName("default")
+                .setPermissionMapper((permissionMappable, roles) -> PermissionVerifier.from(LoginPermission.getInstance()))
+                .build();
+    }
+
+    /**
+     * Create a client side {@link CallbackHandler} supplying the given name and the benchmark password.
+     */
+    static CallbackHandler createClientCallbackHandler(String name) {
+        return (Callback[] callbacks) -> {
+            for (Callback callback : callbacks) {
+                if (callback instanceof NameCallback) {
+                    ((NameCallback) callback).setName(name);
+                } else if (callback instanceof PasswordCallback) {
+                    ((PasswordCallback) callback).setPassword(PASSWORD.toCharArray());
+                } else if (callback instanceof RealmCallback) {
+                    RealmCallback realmCallback = (RealmCallback) callback;
+                    realmCallback.setText(realmCallback.getDefaultText());
+                } else if (callback instanceof RealmChoiceCallback) {
+                    ((RealmChoiceCallback) callback).setSelectedIndex(0);
+                } else {
+                    throw new UnsupportedCallbackException(callback);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.benchmark;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.security.auth.server.HttpAuthenticationFactory;
+import org.wildfly.security.auth.server.MechanismConfiguration;
+import org.wildfly.security.auth.server.MechanismConfigurationSelector;
+import org.wildfly.security.auth.server.MechanismRealmConfiguration;
+import org.wildfly.security.auth.server.SecurityIdentity;
+import org.wildfly.security.http.HttpAuthenticationException;
+import org.wildfly.security.http.HttpAuthenticator;
+import org.wildfly.security.http.HttpConstants;
+import org.wildfly.security.http.HttpExchangeSpi;
+import org.wildfly.security.http.HttpScope;
+import org.wildfly.security.http.HttpServerAuthenticationMechanism;
+import org.wildfly.security.http.HttpServerCookie;
+import org.wildfly.security.http.impl.ServerMechanismFactoryImpl;
+import org.wildfly.security.util.ByteIterator;
+
+/**
+ * Benchmarks of HTTP authentication, driving the mechanisms through an {@link HttpAuthenticator} against an in-memory exchange.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpBenchmark {
+
+    private static final String GET = "GET";
+    private static final String REALM_NAME = "Elytron";
+    private static final String REQUEST_URI = "http://localhost:8080/app/secured";
+    private static final String FORM_POST_URI = "http://localhost:8080/app/j_security_check";
+
+    @Param({ HttpConstants.BASIC_NAME, HttpConstants.DIGEST_NAME, HttpConstants.FORM_NAME })
+    public String mechanism;
+
+    private HttpAuthenticationFactory authenticationFactory;
+
+    @Setup
+    public void setup() throws Exception {
+        MechanismConfiguration mechanismConfiguration = MechanismConfiguration.builder()
+                .addMechanismRealm(MechanismRealmConfiguration.builder().setRealmName(REALM_NAME).build())
+                .build();
+        authenticationFactory = HttpAuthenticationFactory.builder()
+                .setSecurityDomain(BenchmarkSupport.createSecurityDomain())
+                .setMechanismConfigurationSelector(MechanismConfigurationSelector.constantSelector(mechanismConfiguration))
+                .setFactory(new ServerMechanismFactoryImpl(BenchmarkSupport.PROVIDER))
+                .build();
+    }
+
+    @Benchmark
+    public SecurityIdentity authenticate() throws Exception {
+        String name = BenchmarkSupport.userName(ThreadLocalRandom.current().nextInt(BenchmarkSupport.USER_COUNT));
+        Exchange exchange;
+        switch (mechanism) {
+            case HttpConstants.BASIC_NAME:
+                exchange = new Exchange(GET, REQUEST_URI);
+                exchange.addRequestHeader(HttpConstants.AUTHORIZATION, "Basic " + Base64.getEncoder()
+                        .encodeToString((name + ":" + BenchmarkSupport.PASSWORD).getBytes(UTF_8)));
+                break;
+            case HttpConstants.DIGEST_NAME:
+                Exchange challenge = new Exchange(GET, REQUEST_URI);
+                authenticate(challenge);
+                String nonce = directive(challenge.getResponseHeader(HttpConstants.WWW_AUTHENTICATE), HttpConstants.NONCE);
+                exchange = new Exchange(GET, REQUEST_URI);
+                exchange.addRequestHeader(HttpConstants.AUTHORIZATION, digestAuthorization(name, nonce, GET, "/app/secured"));
+                break;
+            case HttpConstants.FORM_NAME:
+                exchange = new Exchange(HttpConstants.POST, FORM_POST_URI);
+                exchange.addRequestParameter("j_username", name);
+                exchange.addRequestParameter("j_password", BenchmarkSupport.PASSWORD);
+                break;
+            default:
+                throw new IllegalStateException(mechanism);
+        }
+        authenticate(exchange);
+        if (exchange.securityIdentity == null) {
+            throw new IllegalStateException("Authentication using " + mechanism + " failed");
+        }
+        return exchange.securityIdentity;
+    }
+
+    private void authenticate(Exchange exchange) throws HttpAuthenticationException {
+        List<HttpServerAuthenticationMechanism> mechanisms = Collections.singletonList(authenticationFactory.createMechanism(mechanism));
+        HttpAuthenticator.builder()
+                .setMechanismSupplier(() -> mechanisms)
+                .setHttpExchangeSpi(exchange)
+                .setRequired(true)
+                .build()
+                .authenticate();
+    }
+
+    private static String digestAuthorization(String name, String nonce, String method, String uri) throws Exception {
+        MessageDigest md5 = MessageDigest.getInstance(HttpConstants.MD5);
+        String hA1 = hex(md5.digest((name + ":" + REALM_NAME + ":" + BenchmarkSupport.PASSWORD).getBytes(UTF_8)));
+        String hA2 = hex(md5.digest((method + ":" + uri).getBytes(UTF_8)));
+        String response = hex(md5.digest((hA1 + ":" + nonce + ":" + hA2).getBytes(UTF_8)));
+        return "Digest username=\"" + name + "\", realm=\"" + REALM_NAME + "\", nonce=\"" + nonce + "\", uri=\"" + uri
+                + "\", response=\"" + response + "\", algorithm=" + HttpConstants.MD5;
+    }
+
+    private static String hex(byte[] bytes) {
+        return ByteIterator.ofBytes(bytes).hexEncode().drainToString();
+    }
+
+    private static String directive(String header, String name) {
+        if (header != null) {
+            String prefix = name + "=\"";
+            int start = header.indexOf(prefix);
+            if (start >= 0) {
+                start += prefix.length();
+                return header.substring(start, header.indexOf('"', start));
+            }
+        }
+        throw new IllegalStateException("No " + name + " in challenge " + header);
+    }
+
+    /**
+     * A minimal in-memory {@link HttpExchangeSpi} with a session scope which always exists.
+     */
+    static final class Exchange implements HttpExchangeSpi {
+
+        private final String method;
+        private final URI requestUri;
+        private final Map<String, List<String>> requestHeaders = new HashMap<>();
+        private final Map<String, List<String>> requestParameters = new HashMap<>();
+        private final Map<String, List<String>> responseHeaders = new HashMap<>();
+        private final HttpScope session = new SessionScope();
+        private final HttpScope exchangeScope = new SessionScope();
+        SecurityIdentity securityIdentity;
+
+        Exchange(String method, String requestUri) {
+            this.method = method;
+            this.requestUri = URI.create(requestUri);
+        }
+
+        void addRequestHeader(String headerName, String headerValue) {
+            requestHeaders.computeIfAbsent(headerName, k -> new ArrayList<>()).add(headerValue);
+        }
+
+        void addRequestParameter(String name, String value) {
+            requestParameters.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+        }
+
+        String getResponseHeader(String headerName) {
+            List<String> values = responseHeaders.get(headerName);
+            return values == null ? null : values.get(0);
+        }
+
+        @Override
+        public List<String> getRequestHeaderValues(String headerName) {
+            return requestHeaders.get(headerName);
+        }
+
+        @Override
+        public void addResponseHeader(String headerName, String headerValue) {
+            responseHeaders.computeIfAbsent(headerName, k -> new ArrayList<>()).add(headerValue);
+        }
+
+        @Override
+        public void setStatusCode(int statusCode) {
+        }
+
+        @Override
+        public void authenticationComplete(SecurityIdentity securityIdentity, String mechanismName) {
+            this.securityIdentity = securityIdentity;
+        }
+
+        @Override
+        public void authenticationFailed(String message, String mechanismName) {
+        }
+
+        @Override
+        public void badRequest(HttpAuthenticationException error, String mechanismName) {
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return method;
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return requestUri;
+        }
+
+        @Override
+        public String getRequestPath() {
+            return requestUri.getPath();
+        }
+
+        @Override
+        public Map<String, List<String>> getRequestParameters() {
+            return requestParameters;
+        }
+
+        @Override
+        public List<HttpServerCookie> getCookies() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public InputStream getRequestInputStream() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getSourceAddress() {
+            return null;
+        }
+
+        @Override
+        public void setResponseCookie(HttpServerCookie cookie) {
+        }
+
+        @Override
+        public OutputStream getResponseOutputStream() {
+            return null;
+        }
+
+        @Override
+        public HttpScope getScope(org.wildfly.security.http.Scope scope) {
+            switch (scope) {
+                case SESSION:
+                    return session;
+                case EXCHANGE:
+                    return exchangeScope;
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public Collection<String> getScopeIds(org.wildfly.security.http.Scope scope) {
+            return null;
+        }
+
+        @Override
+        public HttpScope getScope(org.wildfly.security.http.Scope scope, String id) {
+            return null;
+        }
+    }
+
+    private static final class SessionScope implements HttpScope {
+
+        private final Map<String, Object> attachments = new HashMap<>();
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public boolean supportsAttachments() {
+            return true;
+        }
+
+        @Override
+        public void setAttachment(String key, Object value) {
+            if (value == null) {
+                attachments.remove(key);
+            } else {
+                attachments.put(key, value);
+            }
+        }
+
+        @Override
+        public Object getAttachment(String key) {
+            return attachments.get(key);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.benchmark;
+
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.security.password.Password;
+import org.wildfly.security.password.PasswordFactory;
+import org.wildfly.security.password.spec.DigestPasswordAlgorithmSpec;
+
+/**
+ * Benchmarks of {@link PasswordFactory#verify(Password, char[])} for the supported password algorithms, using their default
+ * parameters. One-time passwords are not included, as they are verified by the OTP SASL mechanism rather than by
+ * {@link PasswordFactory#verify(Password, char[])}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PasswordFactoryBenchmark {
+
+    @Param({
+            "clear",
+            "bcrypt",
+            "bsd-crypt-des",
+            "crypt-des",
+            "crypt-md5",
+            "crypt-sha-256",
+            "crypt-sha-512",
+            "sun-crypt-md5",
+            "sun-crypt-md5-bare-salt",
+            "digest-md5",
+            "digest-sha",
+            "digest-sha-256",
+            "digest-sha-512",
+            "simple-digest-md2",
+            "simple-digest-md5",
+            "simple-digest-sha-1",
+            "simple-digest-sha-256",
+            "simple-digest-sha-384",
+            "simple-digest-sha-512",
+            "password-salt-digest-md5",
+            "password-salt-digest-sha-1",
+            "password-salt-digest-sha-256",
+            "password-salt-digest-sha-384",
+            "password-salt-digest-sha-512",
+            "salt-password-digest-md5",
+            "salt-password-digest-sha-1",
+            "salt-password-digest-sha-256",
+            "salt-password-digest-sha-384",
+            "salt-password-digest-sha-512",
+            "scram-sha-1",
+            "scram-sha-256",
+            "scram-sha-384",
+            "scram-sha-512",
+            "masked-MD5-DES",
+            "masked-MD5-DES-CBC-PKCS5",
+            "masked-MD5-3DES",
+            "masked-MD5-3DES-CBC-PKCS5",
+            "masked-SHA1-DES-EDE",
+            "masked-SHA1-DES-EDE-CBC-PKCS5",
+            "masked-SHA1-RC2-40",
+            "masked-SHA1-RC2-40-CBC-PKCS5",
+            "masked-SHA1-RC2-128",
+            "masked-SHA1-RC2-128-CBC-PKCS5",
+            "masked-SHA1-RC4-40",
+            "masked-SHA1-RC4-40-ECB",
+            "masked-SHA1-RC4-128",
+            "masked-SHA1-RC4-128-ECB",
+            "masked-HMAC-SHA1-AES-128",
+            "masked-HMAC-SHA224-AES-128",
+            "masked-HMAC-SHA256-AES-128",
+            "masked-HMAC-SHA384-AES-128",
+            "masked-HMAC-SHA512-AES-128",
+            "masked-HMAC-SHA1-AES-256",
+            "masked-HMAC-SHA224-AES-256",
+            "masked-HMAC-SHA256-AES-256",
+            "masked-HMAC-SHA384-AES-256",
+            "masked-HMAC-SHA512-AES-256",
+            "masked-PBKDF-HMAC-SHA1",
+            "masked-PBKDF-HMAC-SHA224",
+            "masked-PBKDF-HMAC-SHA256",
+            "masked-PBKDF-HMAC-SHA384",
+            "masked-PBKDF-HMAC-SHA512"
+    })
+    public String algorithm;
+
+    private PasswordFactory passwordFactory;
+    private Password password;
+    private final char[] guess = BenchmarkSupport.PASSWORD.toCharArray();
+
+    @Setup
+    public void setup() throws Exception {
+        AlgorithmParameterSpec parameters = algorithm.startsWith("digest-") ? new DigestPasswordAlgorithmSpec("user0", "Elytron") : null;
+        passwordFactory = PasswordFactory.getInstance(algorithm, BenchmarkSupport.PROVIDER);
+        password = BenchmarkSupport.createPassword(algorithm, parameters);
+        if (! passwordFactory.verify(password, guess)) {
+            throw new IllegalStateException("Verification of " + algorithm + " password failed");
+        }
+    }
+
+    @Benchmark
+    public boolean verify() throws Exception {
+        return passwordFactory.verify(password, guess);
+    }
+}
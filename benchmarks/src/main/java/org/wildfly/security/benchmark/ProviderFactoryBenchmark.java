@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.benchmark;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.sasl.SaslClient;
+import javax.security.sasl.SaslClientFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.security.http.HttpConstants;
+import org.wildfly.security.http.HttpServerAuthenticationMechanism;
+import org.wildfly.security.http.HttpServerAuthenticationMechanismFactory;
+import org.wildfly.security.http.util.SecurityProviderServerMechanismFactory;
+import org.wildfly.security.sasl.util.SecurityProviderSaslClientFactory;
+
+/**
+ * Benchmarks of the creation of mechanisms through the factories which locate mechanism factories using the installed security
+ * providers, as done for each outbound connection. The {@code scan} benchmarks instantiate the factory of every provider
+ * service on each call, which is what the provider based factories did before caching their factories, to show the cost
+ * saved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProviderFactoryBenchmark {
+
+    private static final String PROTOCOL = "test";
+    private static final String SERVER_NAME = "localhost";
+
+    @Param({ "SCRAM-SHA-256", "DIGEST-MD5" })
+    public String saslMechanism;
+
+    private final Map<String, ?> properties = Collections.emptyMap();
+    private CallbackHandler callbackHandler;
+    private SaslClientFactory saslClientFactory;
+    private HttpServerAuthenticationMechanismFactory httpMechanismFactory;
+
+    @Setup
+    public void setup() {
+        callbackHandler = BenchmarkSupport.createClientCallbackHandler(BenchmarkSupport.userName(0));
+        saslClientFactory = new SecurityProviderSaslClientFactory(Security::getProviders);
+        httpMechanismFactory = new SecurityProviderServerMechanismFactory(Security::getProviders);
+    }
+
+    @Benchmark
+    public SaslClient createSaslClient() throws Exception {
+        SaslClient client = saslClientFactory.createSaslClient(new String[] { saslMechanism }, null, PROTOCOL, SERVER_NAME, properties, callbackHandler);
+        client.dispose();
+        return client;
+    }
+
+    @Benchmark
+    public SaslClient createSaslClientScan() throws Exception {
+        for (Provider provider : Security.getProviders()) {
+            for (Provider.Service service : provider.getServices()) {
+                if (SaslClientFactory.class.getSimpleName().equals(service.getType())) {
+                    try {
+                        SaslClient client = ((SaslClientFactory) service.newInstance(null)).createSaslClient(new String[] { saslMechanism },
+                                null, PROTOCOL, SERVER_NAME, properties, callbackHandler);
+                        if (client != null) {
+                            client.dispose();
+                            return client;
+                        }
+                    } catch (NoSuchAlgorithmException ignored) {
+                    }
+                }
+            }
+        }
+        throw new IllegalStateException(saslMechanism);
+    }
+
+    @Benchmark
+    public HttpServerAuthenticationMechanism createHttpMechanism() throws Exception {
+        return httpMechanismFactory.createAuthenticationMechanism(HttpConstants.BASIC_NAME, properties, callbackHandler);
+    }
+
+    @Benchmark
+    public HttpServerAuthenticationMechanism createHttpMechanismScan() throws Exception {
+        for (Provider provider : Security.getProviders()) {
+            for (Provider.Service service : provider.getServices()) {
+                if (HttpServerAuthenticationMechanismFactory.class.getSimpleName().equals(service.getType())) {
+                    try {
+                        HttpServerAuthenticationMechanism mechanism = ((HttpServerAuthenticationMechanismFactory) service.newInstance(null))
+                                .createAuthenticationMechanism(HttpConstants.BASIC_NAME, properties, callbackHandler);
+                        if (mechanism != null) {
+                            return mechanism;
+                        }
+                    } catch (NoSuchAlgorithmException ignored) {
+                    }
+                }
+            }
+        }
+        throw new IllegalStateException(HttpConstants.BASIC_NAME);
+    }
+}
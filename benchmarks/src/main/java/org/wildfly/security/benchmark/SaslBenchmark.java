@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.sasl.SaslClient;
+import javax.security.sasl.SaslClientFactory;
+import javax.security.sasl.SaslException;
+import javax.security.sasl.SaslServer;
+import javax.security.sasl.SaslServerFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.security.auth.server.MechanismConfiguration;
+import org.wildfly.security.auth.server.MechanismConfigurationSelector;
+import org.wildfly.security.auth.server.MechanismRealmConfiguration;
+import org.wildfly.security.auth.server.SaslAuthenticationFactory;
+import org.wildfly.security.sasl.digest.DigestClientFactory;
+import org.wildfly.security.sasl.digest.DigestServerFactory;
+import org.wildfly.security.sasl.scram.ScramSaslClientFactory;
+import org.wildfly.security.sasl.WildFlySasl;
+import org.wildfly.security.sasl.scram.ScramSaslServerFactory;
+import org.wildfly.security.sasl.util.PropertiesSaslServerFactory;
+import org.wildfly.security.sasl.util.ProtocolSaslServerFactory;
+import org.wildfly.security.sasl.util.ServerNameSaslServerFactory;
+
+/**
+ * Benchmarks of complete SASL authentication exchanges, from the creation of the client and server to the completion of the
+ * authentication.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SaslBenchmark {
+
+    private static final String PROTOCOL = "test";
+    private static final String SERVER_NAME = "localhost";
+
+    @Param({ "SCRAM-SHA-256", "DIGEST-MD5" })
+    public String mechanism;
+
+    private SaslAuthenticationFactory authenticationFactory;
+    private SaslClientFactory clientFactory;
+
+    @Setup
+    public void setup() throws Exception {
+        SaslServerFactory serverFactory;
+        if (mechanism.startsWith("SCRAM-")) {
+            // cache the derived keys of every user, the cache is opt-in
+            serverFactory = new PropertiesSaslServerFactory(new ScramSaslServerFactory(BenchmarkSupport.PROVIDER),
+                    Collections.singletonMap(WildFlySasl.SCRAM_SERVER_KEY_CACHE_SIZE, Integer.toString(BenchmarkSupport.USER_COUNT)));
+            clientFactory = new ScramSaslClientFactory(BenchmarkSupport.PROVIDER);
+        } else {
+            serverFactory = new DigestServerFactory(BenchmarkSupport.PROVIDER);
+            clientFactory = new DigestClientFactory(BenchmarkSupport.PROVIDER);
+        }
+        serverFactory = new ServerNameSaslServerFactory(new ProtocolSaslServerFactory(serverFactory, PROTOCOL), SERVER_NAME);
+
+        authenticationFactory = SaslAuthenticationFactory.builder()
+                .setFactory(serverFactory)
+                .setSecurityDomain(BenchmarkSupport.createSecurityDomain())
+                .setMechanismConfigurationSelector(MechanismConfigurationSelector.constantSelector(MechanismConfiguration.builder()
+                        .addMechanismRealm(MechanismRealmConfiguration.builder().setRealmName(SERVER_NAME).build())
+                        .build()))
+                .build();
+    }
+
+    @Benchmark
+    public String authenticate() throws Exception {
+        String name = BenchmarkSupport.userName(ThreadLocalRandom.current().nextInt(BenchmarkSupport.USER_COUNT));
+        SaslServer server = authenticationFactory.createMechanism(mechanism);
+        SaslClient client = clientFactory.createSaslClient(new String[] { mechanism }, null, PROTOCOL, SERVER_NAME,
+                Collections.emptyMap(), BenchmarkSupport.createClientCallbackHandler(name));
+        try {
+            byte[] message = client.hasInitialResponse() ? client.evaluateChallenge(new byte[0]) : new byte[0];
+            while (! server.isComplete()) {
+                message = server.evaluateResponse(message);
+                if (message != null && ! client.isComplete()) {
+                    message = client.evaluateChallenge(message);
+                }
+            }
+            if (! client.isComplete() && message != null) {
+                client.evaluateChallenge(message);
+            }
+            if (! client.isComplete()) {
+                throw new SaslException("Client did not complete the " + mechanism + " exchange");
+            }
+            return server.getAuthorizationID();
+        } finally {
+            server.dispose();
+            client.dispose();
+        }
+    }
+}
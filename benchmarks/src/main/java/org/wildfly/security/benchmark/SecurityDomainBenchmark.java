@@ -0,0 +1,78 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wildfly.security.auth.permission.LoginPermission;
+import org.wildfly.security.auth.permission.RunAsPrincipalPermission;
+import org.wildfly.security.auth.server.SecurityDomain;
+import org.wildfly.security.auth.server.SecurityIdentity;
+import org.wildfly.security.evidence.PasswordGuessEvidence;
+
+/**
+ * Benchmarks of {@link SecurityDomain} password authentication and {@link SecurityIdentity} permission checks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecurityDomainBenchmark {
+
+    private SecurityDomain securityDomain;
+    private SecurityIdentity securityIdentity;
+    private final LoginPermission grantedPermission = LoginPermission.getInstance();
+    private final RunAsPrincipalPermission deniedPermission = new RunAsPrincipalPermission("admin");
+
+    @Setup
+    public void setup() throws Exception {
+        securityDomain = BenchmarkSupport.createSecurityDomain();
+        securityIdentity = securityDomain.authenticate(BenchmarkSupport.userName(0),
+                new PasswordGuessEvidence(BenchmarkSupport.PASSWORD.toCharArray()));
+    }
+
+    @Benchmark
+    public SecurityIdentity authenticate() throws Exception {
+        String name = BenchmarkSupport.userName(ThreadLocalRandom.current().nextInt(BenchmarkSupport.USER_COUNT));
+        return securityDomain.authenticate(name, new PasswordGuessEvidence(BenchmarkSupport.PASSWORD.toCharArray()));
+    }
+
+    @Benchmark
+    public boolean impliesGranted() {
+        return securityIdentity.implies(grantedPermission);
+    }
+
+    @Benchmark
+    public boolean impliesDenied() {
+        return securityIdentity.implies(deniedPermission);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.ssl;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the exploration of a ClientHello by {@link SSLExplorer}, as done by a selecting SSL engine for each new
+ * connection. The ClientHello is recorded from a client {@link SSLEngine} of the default SSL context requesting a host name and
+ * ALPN protocols, and can be split across two TLS records. Run with {@code -prof gc} to see the allocation per exploration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SSLExplorerBenchmark {
+
+    private static final String HOST_NAME = "www.example.com";
+
+    @Param({ "1", "2" })
+    public int records;
+
+    private ByteBuffer clientHello;
+
+    @Setup
+    public void setup() throws Exception {
+        SSLEngine engine = SSLContext.getDefault().createSSLEngine(HOST_NAME, 443);
+        engine.setUseClientMode(true);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setServerNames(Collections.singletonList(new SNIHostName(HOST_NAME)));
+        parameters.setApplicationProtocols(new String[] { "h2", "http/1.1" });
+        engine.setSSLParameters(parameters);
+        ByteBuffer record = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        engine.wrap(ByteBuffer.allocate(0), record);
+        record.flip();
+        clientHello = records == 1 ? record : split(record);
+    }
+
+    @Benchmark
+    public Object exploreHostName() throws Exception {
+        return SSLExplorer.explore(clientHello).getSNIServerNames().get(0);
+    }
+
+    @Benchmark
+    public void exploreAll(Blackhole blackhole) throws Exception {
+        SSLConnectionInformation information = SSLExplorer.explore(clientHello);
+        blackhole.consume(information.getRecordVersion());
+        blackhole.consume(information.getHelloVersion());
+        blackhole.consume(information.getSNIServerNames().get(0));
+        blackhole.consume(information.getProtocols().size());
+        for (String cipherSuite : information.getCipherSuites()) {
+            blackhole.consume(cipherSuite);
+        }
+    }
+
+    /**
+     * Split the handshake message of a single record ClientHello between two records.
+     */
+    private static ByteBuffer split(ByteBuffer record) {
+        byte type = record.get(0);
+        byte major = record.get(1);
+        byte minor = record.get(2);
+        int length = record.remaining() - SSLExplorer.RECORD_HEADER_SIZE;
+        int first = length / 2;
+        ByteBuffer split = ByteBuffer.allocate(length + 2 * SSLExplorer.RECORD_HEADER_SIZE);
+        split.put(type).put(major).put(minor).putShort((short) first);
+        split.put((ByteBuffer) record.duplicate().position(SSLExplorer.RECORD_HEADER_SIZE).limit(SSLExplorer.RECORD_HEADER_SIZE + first));
+        split.put(type).put(major).put(minor).putShort((short) (length - first));
+        split.put((ByteBuffer) record.duplicate().position(SSLExplorer.RECORD_HEADER_SIZE + first));
+        split.flip();
+        return split;
+    }
+}
@@ -623,6 +623,53 @@ public interface ElytronMessages extends BasicLogger {
     @Message(id = 1156, value = "Cannot obtain a credential from a security factory")
     IOException cannotObtainCredentialFromFactory(@Cause GeneralSecurityException e);
 
+    @Message(id = 1157, value = "Failed to load JSON Web Key Set from [%s]")
+    RealmUnavailableException tokenRealmJwtJwksLoadFailed(String url, @Cause Throwable cause);
+
+    @LogMessage(level = WARN)
+    @Message(id = 1158, value = "Failed to refresh JSON Web Key Set from [%s]. Keeping the previously loaded keys.")
+    void tokenRealmJwtWarnJwksRefreshFailed(String url, @Cause Throwable cause);
+
+    @Message(id = 1159, value = "JDBC-backed realm is not configured to allow iterate over identities (identity iterator query has to be set)")
+    RealmUnavailableException jdbcRealmNotConfiguredToSupportIteratingOverIdentities();
+
+    @Message(id = 1160, value = "Batch query \"%s\" must contain exactly one parameter marker")
+    IllegalArgumentException jdbcRealmInvalidBatchQuery(String sql);
+
+    @Message(id = 1161, value = "Timed out after %d milliseconds waiting for a connection from LDAP connection pool \"%s\"")
+    NamingException ldapConnectionPoolTimeout(long maxWait, String poolName);
+
+    @Message(id = 1162, value = "Filter \"%s\" must contain an equality assertion on the distinguished name of the identity ({1}) to use the in chain matching rule")
+    IllegalArgumentException ldapRealmFilterNotSuitableForMatchingRuleInChain(String filter);
+
+    @LogMessage(level = WARN)
+    @Message(id = 1163, value = "Unable to index identity file \"%s\" of filesystem-backed realm")
+    void fileSystemRealmUnableToIndex(Path path, @Cause Throwable cause);
+
+    @LogMessage(level = WARN)
+    @Message(id = 1164, value = "Unable to watch directory \"%s\" of filesystem-backed realm for changes")
+    void fileSystemRealmUnableToWatch(Path path, @Cause Throwable cause);
+
+    @LogMessage(level = WARN)
+    @Message(id = 1165, value = "Discarding the incomplete record at offset %d of identity segment file \"%s\"")
+    void segmentFileRealmDiscardingTail(long offset, Path path);
+
+    @Message(id = 1166, value = "File \"%s\" is not an identity segment file")
+    IOException segmentFileRealmInvalidFile(Path path);
+
+    @Message(id = 1167, value = "Failed to write identity segment file \"%s\"")
+    RealmUnavailableException segmentFileRealmFailedToWrite(Path path, @Cause IOException cause);
+
+    @Message(id = 1168, value = "Identity segment file \"%s\" contains a corrupt record at offset %d")
+    IOException segmentFileRealmCorruptRecord(Path path, long offset);
+
+    @LogMessage(level = WARN)
+    @Message(id = 1169, value = "Unable to compact identity segment file \"%s\"")
+    void segmentFileRealmUnableToCompact(Path path, @Cause Throwable cause);
+
+    @Message(id = 1170, value = "Identity segment file \"%s\" has reached the maximum size of 2 GiB")
+    RealmUnavailableException segmentFileRealmFull(Path path);
+
     /* keystore package */
 
     @Message(id = 2001, value = "Invalid key store entry password for alias \"%s\"")
@@ -907,6 +954,16 @@ public interface ElytronMessages extends BasicLogger {
     @Message(id = 4026, value = "Could not create trust manager [%s]")
     IllegalStateException sslErrorCreatingTrustManager(String name, @Cause Throwable cause);
 
+    @Message(id = 4027, value = "Certificate [%s] has been revoked")
+    CertificateException certificateRevoked(String subject);
+
+    @Message(id = 4028, value = "Unable to verify the certificate revocation list issued by [%s]")
+    CertificateException unableToVerifyCrl(String issuer, @Cause Throwable cause);
+
+    @LogMessage(level = WARN)
+    @Message(id = 4029, value = "Failed to reload the certificate revocation lists, the previously loaded lists are still used")
+    void failedToReloadCrls(@Cause Throwable cause);
+
     /* mechanism package */
 
     @Message(id = 5001, value = "[%s] Authentication mechanism exchange received a message after authentication was already complete")
@@ -1779,6 +1836,10 @@ public interface ElytronMessages extends BasicLogger {
     @Message(id = 9530, value = "Automatic storage creation for the Credential Store is disabled \"%s\"")
     CredentialStoreException automaticStorageCreationDisabled(String location);
 
+    @LogMessage(level = WARN)
+    @Message(id = 9531, value = "Discarding incomplete changes at offset %d of credential store change log \"%s\"")
+    void credentialStoreDiscardingChangeLogTail(long offset, Path path);
+
     /* X.500 exceptions */
 
     @Message(id = 10000, value = "X.509 certificate extension with OID %s already exists")
@@ -1834,4 +1895,16 @@ public interface ElytronMessages extends BasicLogger {
 
     @Message(id = 11002, value = "Invalid EventPriority '%s' passed to AuditEndpoint.")
     IllegalArgumentException invalidEventPriority(EventPriority eventPriority);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 11003, value = "Unable to synchronize audit file '%s'")
+    void unableToSynchronizeAuditFile(String location, @Cause Throwable cause);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 11004, value = "Unable to send audit events to syslog server '%s', retrying in %d milliseconds")
+    void syslogServerUnavailable(String serverAddress, long delay, @Cause Throwable cause);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 11005, value = "Unable to write audit event to the spill file")
+    void unableToSpillAuditEvent(@Cause Throwable cause);
 }
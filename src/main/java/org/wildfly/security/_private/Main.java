@@ -23,11 +23,17 @@ import static java.lang.System.exit;
 import static java.lang.System.out;
 import static java.util.Arrays.asList;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
+import java.security.Security;
 import java.util.List;
 import java.util.ListIterator;
 
 import org.wildfly.security.Version;
+import org.wildfly.security.WildFlyElytronProvider;
+import org.wildfly.security.auth.realm.FileSystemSecurityRealm;
+import org.wildfly.security.auth.realm.SegmentFileSecurityRealm;
 import org.wildfly.security.sasl.util.UsernamePasswordHashUtil;
 
 /**
@@ -89,6 +95,12 @@ public final class Main {
                 case "UsernamePasswordHashUtil":
                     usernamePasswordHash(operationArgs);
                 break;
+                case "FileSystemRealmImport":
+                    fileSystemRealmImport(operationArgs);
+                break;
+                case "FileSystemRealmExport":
+                    fileSystemRealmExport(operationArgs);
+                break;
                 default:
                     err.printf("Unrecognized operation \"%s\"%n", operationName);
                     printHelp();
@@ -108,6 +120,10 @@ public final class Main {
         out.printf("and options include:%n");
         out.printf("     -help          Display this message and exit%n");
         out.printf("     -version       Print the version%n%n");
+        out.printf("and operations include:%n");
+        out.printf("     UsernamePasswordHashUtil UserName [Realm] Password%n");
+        out.printf("     FileSystemRealmImport FileSystemRealmPath Levels SegmentFile%n");
+        out.printf("     FileSystemRealmExport SegmentFile FileSystemRealmPath Levels%n%n");
     }
 
     private static void usernamePasswordHash(String[] args) {
@@ -136,4 +152,36 @@ public final class Main {
         }
     }
 
+    private static void fileSystemRealmImport(String[] args) {
+        if (args.length != 3) {
+            out.printf("Usage: java [-jvmoptions...] -jar %s.jar [-options...] FileSystemRealmImport FileSystemRealmPath Levels SegmentFile%n", Version.getJarName());
+            return;
+        }
+
+        Security.addProvider(new WildFlyElytronProvider());
+        FileSystemSecurityRealm source = new FileSystemSecurityRealm(Paths.get(args[0]), Integer.parseInt(args[1]));
+        try (SegmentFileSecurityRealm target = new SegmentFileSecurityRealm(Paths.get(args[2]))) {
+            out.printf("Imported %d identities%n", target.importIdentities(source));
+        } catch (IOException e) {
+            err.printf("Unable to import identities: %s%n", e.getMessage());
+            exit(1);
+        }
+    }
+
+    private static void fileSystemRealmExport(String[] args) {
+        if (args.length != 3) {
+            out.printf("Usage: java [-jvmoptions...] -jar %s.jar [-options...] FileSystemRealmExport SegmentFile FileSystemRealmPath Levels%n", Version.getJarName());
+            return;
+        }
+
+        Security.addProvider(new WildFlyElytronProvider());
+        FileSystemSecurityRealm target = new FileSystemSecurityRealm(Paths.get(args[1]), Integer.parseInt(args[2]));
+        try (SegmentFileSecurityRealm source = new SegmentFileSecurityRealm(Paths.get(args[0]))) {
+            out.printf("Exported %d identities%n", source.exportIdentities(target));
+        } catch (IOException e) {
+            err.printf("Unable to export identities: %s%n", e.getMessage());
+            exit(1);
+        }
+    }
+
 }
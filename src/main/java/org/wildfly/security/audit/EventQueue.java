@@ -0,0 +1,196 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.security.audit;
+
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded multiple producer, single consumer queue of audit events used by the asynchronous audit endpoints.
+ *
+ * <p>Producers never take a lock unless the queue is full and the {@link OverflowPolicy} requires them to wait for space. The
+ * consumer parks while the queue is empty and is only woken up by producers when it is actually parked.
+ */
+final class EventQueue {
+
+    private final ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final LongAdder discarded = new LongAdder();
+
+    private final Object spaceMonitor = new Object();
+    private volatile int blockedProducers; // only modified while holding spaceMonitor
+
+    private volatile Thread parkedConsumer;
+    private volatile boolean closed;
+
+    EventQueue(int capacity, OverflowPolicy overflowPolicy) {
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Add an event to the queue, applying the overflow policy if the queue is full.
+     *
+     * @param event the event to add
+     * @return {@code true} if the event was queued, {@code false} if it was discarded or the queue is closed
+     * @throws InterruptedIOException if the calling thread was interrupted while waiting for space in the queue
+     */
+    boolean offer(Event event) throws InterruptedIOException {
+        for (;;) {
+            if (closed) {
+                return false;
+            }
+            int current = size.get();
+            if (current < capacity) {
+                if (size.compareAndSet(current, current + 1)) {
+                    queue.offer(event);
+                    if (closed && queue.remove(event)) {
+                        // closed concurrently, the consumer may already have drained the queue for the last time
+                        size.decrementAndGet();
+                        discarded.increment();
+                        return false;
+                    }
+                    Thread consumer = parkedConsumer;
+                    if (consumer != null) {
+                        LockSupport.unpark(consumer);
+                    }
+                    return true;
+                }
+                continue;
+            }
+            if (overflowPolicy == OverflowPolicy.DISCARD
+                    || overflowPolicy == OverflowPolicy.DISCARD_LOW_PRIORITY && event.priority.compareTo(EventPriority.WARNING) > 0) {
+                discarded.increment();
+                return false;
+            }
+            awaitSpace();
+        }
+    }
+
+    private void awaitSpace() throws InterruptedIOException {
+        synchronized (spaceMonitor) {
+            blockedProducers++;
+            try {
+                while (size.get() >= capacity && ! closed) {
+                    spaceMonitor.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } finally {
+                blockedProducers--;
+            }
+        }
+    }
+
+    /**
+     * Move up to {@code maxEvents} events from the queue to the given collection. Must only be called by the consumer thread.
+     *
+     * @param events the collection to add the events to
+     * @param maxEvents the maximum number of events to move
+     * @return the number of events moved
+     */
+    int drainTo(Collection<Event> events, int maxEvents) {
+        int count = 0;
+        Event event;
+        while (count < maxEvents && (event = queue.poll()) != null) {
+            events.add(event);
+            count++;
+        }
+        if (count > 0) {
+            size.addAndGet(-count);
+            if (blockedProducers > 0) {
+                synchronized (spaceMonitor) {
+                    spaceMonitor.notifyAll();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Wait until the queue is not empty, the queue is closed or the timeout elapses. Must only be called by the consumer thread.
+     *
+     * @param timeout the maximum time to wait in nanoseconds, or {@code 0} to wait without a timeout
+     */
+    void await(long timeout) {
+        parkedConsumer = Thread.currentThread();
+        try {
+            if (queue.isEmpty() && ! closed) {
+                if (timeout > 0) {
+                    LockSupport.parkNanos(this, timeout);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        } finally {
+            parkedConsumer = null;
+        }
+    }
+
+    /**
+     * Close the queue, further events are rejected and any blocked producer or parked consumer is released.
+     *
+     * @param consumer the consumer thread to wake up
+     */
+    void close(Thread consumer) {
+        closed = true;
+        synchronized (spaceMonitor) {
+            spaceMonitor.notifyAll();
+        }
+        LockSupport.unpark(consumer);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    long getDiscardedCount() {
+        return discarded.sum();
+    }
+
+    /**
+     * An audit event waiting to be written.
+     */
+    static final class Event {
+
+        final long timestamp;
+        final EventPriority priority;
+        final String message;
+
+        Event(long timestamp, EventPriority priority, String message) {
+            this.timestamp = timestamp;
+            this.priority = priority;
+            this.message = message;
+        }
+    }
+}
@@ -17,105 +17,377 @@
  */
 package org.wildfly.security.audit;
 
+import static org.wildfly.common.Assert.checkMinimumParameter;
 import static org.wildfly.common.Assert.checkNotNullParam;
 import static org.wildfly.security._private.ElytronMessages.audit;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileDescriptor;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 /**
  * An audit endpoint to record all audit events to a local file.
  *
+ * <p>By default events are written by the thread accepting them. In asynchronous mode events are instead added to a bounded
+ * queue and written in batches by a dedicated writer thread, so that a single write and, if {@link Builder#setSyncOnAccept(boolean)}
+ * is enabled, a single synchronization of the file covers all the events accepted while the previous batch was being written.
+ *
+ * <p>The file can optionally be rotated once it reaches a given size or has been written to for a given time, in which case
+ * the current file is renamed by appending the time of the rotation to its name and a new file is started.
+ *
  * @author <a href="mailto:darran.lofthouse@jboss.com">Darran Lofthouse</a>
  */
 public class FileAuditEndpoint implements AuditEndpoint {
 
     private static final byte[] LINE_TERMINATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final byte[][] PRIORITY_FIELDS;
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final DateTimeFormatter ROTATION_SUFFIX_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss").withZone(ZoneId.systemDefault());
+
+    static {
+        EventPriority[] priorities = EventPriority.values();
+        PRIORITY_FIELDS = new byte[priorities.length][];
+        for (EventPriority priority : priorities) {
+            PRIORITY_FIELDS[priority.ordinal()] = (',' + priority.toString() + ',').getBytes(StandardCharsets.UTF_8);
+        }
+    }
 
     private volatile boolean accepting = true;
 
-    private final Supplier<DateFormat> dateFormatSupplier;
+    private final TimestampFormatter timestampFormatter;
     private final boolean syncOnAccept;
+    private final long syncInterval;
+    private final Path location;
+    private final long rotateSize;
+    private final long rotateInterval;
+    private final boolean asynchronous;
 
-    private final FileDescriptor fileDescriptor;
-    private final OutputStream outputStream;
+    /*
+     * The current file, only accessed while holding the lock of this endpoint in synchronous mode or from the writer thread in
+     * asynchronous mode.
+     */
+    private FileChannel channel;
+    private OutputStream outputStream;
+    private long fileSize;
+    private long fileOpened;
+
+    private final EventQueue queue;
+    private final Thread writer;
+    private volatile IOException closeFailure;
 
     /**
      *
      */
     FileAuditEndpoint(Builder builder) throws IOException {
-        this.dateFormatSupplier = builder.dateFormatSupplier;
+        this.timestampFormatter = new TimestampFormatter(builder.dateFormatSupplier.get());
         this.syncOnAccept = builder.syncOnAccept;
+        this.syncInterval = TimeUnit.MILLISECONDS.toNanos(builder.syncInterval);
+        this.location = builder.location;
+        this.rotateSize = builder.rotateSize;
+        this.rotateInterval = builder.rotateInterval;
+        this.asynchronous = builder.asynchronous;
 
-        FileOutputStream fos = new FileOutputStream(builder.location.toFile(), true);
-        try {
-            this.fileDescriptor = fos.getFD();
-        } catch (IOException e) {
-            fos.close();
-            throw e;
-        }
+        openFile(System.currentTimeMillis());
 
-        this.outputStream = new BufferedOutputStream(fos);
+        if (asynchronous) {
+            queue = new EventQueue(builder.queueCapacity, builder.overflowPolicy);
+            writer = new Thread(this::writeEvents, "FileAuditEndpoint-" + location.getFileName());
+            writer.setDaemon(true);
+            writer.start();
+        } else {
+            queue = null;
+            writer = null;
+        }
     }
 
     @Override
     public void accept(EventPriority t, String u) throws IOException {
         if (!accepting) return;
 
+        if (queue != null) {
+            queue.offer(new EventQueue.Event(System.currentTimeMillis(), t, u));
+            return;
+        }
+
         synchronized(this) {
             if (!accepting) return; // We may have been waiting to get in here.
 
+            long now = System.currentTimeMillis();
+            byte[] timestamp = timestampFormatter.format(now);
+            byte[] priority = PRIORITY_FIELDS[t.ordinal()];
+            byte[] message = u.getBytes(StandardCharsets.UTF_8);
+            long length = timestamp.length + priority.length + message.length + LINE_TERMINATOR.length;
+
+            if (isRotationRequired(now, 0, length)) {
+                rotate(now);
+            }
+
             boolean started = false;
 
             try {
-                outputStream.write(dateFormatSupplier.get().format(new Date()).getBytes(StandardCharsets.UTF_8));
+                outputStream.write(timestamp);
                 started = true;
-                outputStream.write(',');
-                outputStream.write(t.toString().getBytes(StandardCharsets.UTF_8));
-                outputStream.write(',');
-                outputStream.write(u.getBytes(StandardCharsets.UTF_8));
+                outputStream.write(priority);
+                outputStream.write(message);
                 outputStream.write(LINE_TERMINATOR);
+                fileSize += length;
             } catch (IOException e) {
                 throw started ? audit.partialSecurityEventWritten(e) : e;
             }
 
             if (syncOnAccept) {
                 outputStream.flush();
-                fileDescriptor.sync();
+                channel.force(true);
             }
         }
     }
 
+    /**
+     * Get the number of events discarded because the queue of this endpoint was full, as allowed by the {@link OverflowPolicy}.
+     *
+     * @return the number of discarded events, always {@code 0} if this endpoint is not asynchronous
+     */
+    public long getDiscardedEventCount() {
+        return queue == null ? 0 : queue.getDiscardedCount();
+    }
+
     @Override
     public void close() throws IOException {
         accepting = false;
 
+        if (queue != null) {
+            queue.close(writer);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            IOException failure = closeFailure;
+            if (failure != null) {
+                throw failure;
+            }
+            return;
+        }
+
         synchronized (this) {
+            closeFile();
+        }
+    }
+
+    private void writeEvents() {
+        List<EventQueue.Event> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        ByteBuffer[] buffers = new ByteBuffer[MAX_BATCH_SIZE * 4];
+        boolean unsynced = false;
+        long lastSync = System.nanoTime();
+
+        for (;;) {
+            if (queue.drainTo(batch, MAX_BATCH_SIZE) == 0) {
+                if (queue.isClosed() && queue.isEmpty()) {
+                    break;
+                }
+                long timeout = 0;
+                if (unsynced) {
+                    long now = System.nanoTime();
+                    timeout = lastSync + syncInterval - now;
+                    if (timeout <= 0) {
+                        try {
+                            channel.force(true);
+                        } catch (IOException e) {
+                            audit.unableToSynchronizeAuditFile(location.toString(), e);
+                        }
+                        lastSync = now;
+                        unsynced = false;
+                        continue;
+                    }
+                }
+                queue.await(timeout);
+                continue;
+            }
+
+            try {
+                writeBatch(batch, buffers);
+                if (syncOnAccept) {
+                    long now = System.nanoTime();
+                    if (syncInterval == 0 || now - lastSync >= syncInterval) {
+                        channel.force(true);
+                        lastSync = now;
+                        unsynced = false;
+                    } else {
+                        unsynced = true;
+                    }
+                }
+            } catch (Throwable cause) {
+                for (EventQueue.Event event : batch) {
+                    audit.endpointUnavaiable(event.priority.toString(), event.message, cause);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+
+        try {
+            closeFile();
+        } catch (IOException e) {
+            closeFailure = e;
+        }
+    }
+
+    private void writeBatch(List<EventQueue.Event> batch, ByteBuffer[] buffers) throws IOException {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        long pending = 0;
+
+        for (EventQueue.Event event : batch) {
+            byte[] timestamp = timestampFormatter.format(event.timestamp);
+            byte[] priority = PRIORITY_FIELDS[event.priority.ordinal()];
+            byte[] message = event.message.getBytes(StandardCharsets.UTF_8);
+            long length = timestamp.length + priority.length + message.length + LINE_TERMINATOR.length;
+
+            if (isRotationRequired(now, pending, length)) {
+                write(buffers, count);
+                count = 0;
+                pending = 0;
+                rotate(now);
+            }
+
+            buffers[count++] = ByteBuffer.wrap(timestamp);
+            buffers[count++] = ByteBuffer.wrap(priority);
+            buffers[count++] = ByteBuffer.wrap(message);
+            buffers[count++] = ByteBuffer.wrap(LINE_TERMINATOR);
+            pending += length;
+        }
+
+        write(buffers, count);
+    }
+
+    private void write(ByteBuffer[] buffers, int count) throws IOException {
+        int offset = 0;
+        while (offset < count) {
+            fileSize += channel.write(buffers, offset, count - offset);
+            while (offset < count && ! buffers[offset].hasRemaining()) {
+                buffers[offset++] = null;
+            }
+        }
+    }
+
+    private boolean isRotationRequired(long now, long pending, long length) {
+        long size = fileSize + pending;
+        if (rotateSize > 0 && size > 0 && size + length > rotateSize) {
+            return true;
+        }
+        return rotateInterval > 0 && now - fileOpened >= rotateInterval;
+    }
+
+    private void rotate(long now) throws IOException {
+        if (fileSize == 0) {
+            fileOpened = now;
+            return;
+        }
+
+        closeFile();
+        try {
+            String prefix = location.getFileName() + "." + ROTATION_SUFFIX_FORMATTER.format(Instant.ofEpochMilli(now));
+            Path target = location.resolveSibling(prefix);
+            for (int i = 1; Files.exists(target); i++) {
+                target = location.resolveSibling(prefix + "." + i);
+            }
+            Files.move(location, target);
+        } finally {
+            openFile(now);
+        }
+    }
+
+    private void openFile(long now) throws IOException {
+        channel = FileChannel.open(location, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            fileSize = channel.size();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        fileOpened = now;
+
+        if (! asynchronous) {
+            outputStream = new BufferedOutputStream(Channels.newOutputStream(channel));
+        }
+    }
+
+    private void closeFile() throws IOException {
+        if (! channel.isOpen()) {
+            return;
+        }
+        if (outputStream != null) {
             outputStream.flush();
-            fileDescriptor.sync();
-            outputStream.close();
         }
+        channel.force(true);
+        channel.close();
     }
 
     public static Builder builder() {
         return new Builder();
     }
 
+    /**
+     * Formats event timestamps, reusing the last formatted value while the timestamp stays within the precision of the format.
+     * Not thread safe, only used while holding the lock of the endpoint or from its writer thread.
+     */
+    private static final class TimestampFormatter {
+
+        private final DateFormat dateFormat;
+        private final long precision;
+        private final Date date = new Date();
+        private long cachedPeriod = Long.MIN_VALUE;
+        private byte[] cachedValue;
+
+        TimestampFormatter(DateFormat dateFormat) {
+            this.dateFormat = checkNotNullParam("dateFormat", dateFormat);
+            // formats without a milliseconds field yield the same value for a whole second
+            boolean millisecondPrecision = ! (dateFormat instanceof SimpleDateFormat) || ((SimpleDateFormat) dateFormat).toPattern().indexOf('S') != -1;
+            this.precision = millisecondPrecision ? 1 : 1000;
+        }
+
+        byte[] format(long timestamp) {
+            long period = Math.floorDiv(timestamp, precision);
+            if (period != cachedPeriod) {
+                date.setTime(timestamp);
+                cachedValue = dateFormat.format(date).getBytes(StandardCharsets.UTF_8);
+                cachedPeriod = period;
+            }
+            return cachedValue;
+        }
+    }
+
     public static class Builder {
 
         private Supplier<DateFormat> dateFormatSupplier = SimpleDateFormat::new;
         private Path location = new File("audit.log").toPath();
         private boolean syncOnAccept = true;
+        private boolean asynchronous = false;
+        private int queueCapacity = 8192;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+        private long syncInterval = 0;
+        private long rotateSize = 0;
+        private long rotateInterval = 0;
 
         Builder() {
         }
@@ -145,7 +417,10 @@ public class FileAuditEndpoint implements AuditEndpoint {
         }
 
         /**
-         * Sets if the output should be flushed and system buffers forces to sychronize on each event accepted.
+         * <p>Sets if the output should be flushed and system buffers forces to sychronize on each event accepted.
+         *
+         * <p>In asynchronous mode the output is synchronized once per batch of events written, or at most once per sync interval
+         * if one is set.
          *
          * @param syncOnAccept should the output be flushed and system buffers forces to sychronize on each event accepted.
          * @return this builder.
@@ -156,6 +431,85 @@ public class FileAuditEndpoint implements AuditEndpoint {
             return this;
         }
 
+        /**
+         * Sets if events should be queued and written by a dedicated thread instead of the thread accepting them.
+         *
+         * @param asynchronous should events be written asynchronously.
+         * @return this builder.
+         */
+        public Builder setAsynchronous(boolean asynchronous) {
+            this.asynchronous = asynchronous;
+
+            return this;
+        }
+
+        /**
+         * Set the maximum number of events waiting to be written in asynchronous mode, defaults to 8192.
+         *
+         * @param queueCapacity the maximum number of events waiting to be written.
+         * @return this builder.
+         */
+        public Builder setQueueCapacity(int queueCapacity) {
+            checkMinimumParameter("queueCapacity", 1, queueCapacity);
+            this.queueCapacity = queueCapacity;
+
+            return this;
+        }
+
+        /**
+         * Set the action taken in asynchronous mode when an event is accepted while the queue is full, defaults to
+         * {@link OverflowPolicy#BLOCK}.
+         *
+         * @param overflowPolicy the action taken when the queue is full.
+         * @return this builder.
+         */
+        public Builder setOverflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = checkNotNullParam("overflowPolicy", overflowPolicy);
+
+            return this;
+        }
+
+        /**
+         * Set the minimum time in milliseconds between two synchronizations of the file in asynchronous mode when sync on accept
+         * is enabled. Events written in the meantime are synchronized once the interval has elapsed. Defaults to {@code 0},
+         * synchronizing the file after each batch of events.
+         *
+         * @param syncInterval the minimum time in milliseconds between two synchronizations of the file.
+         * @return this builder.
+         */
+        public Builder setSyncInterval(long syncInterval) {
+            checkMinimumParameter("syncInterval", 0, syncInterval);
+            this.syncInterval = syncInterval;
+
+            return this;
+        }
+
+        /**
+         * Set the size in bytes the file may reach before it is rotated, {@code 0} to disable size based rotation (the default).
+         *
+         * @param rotateSize the size in bytes the file may reach before it is rotated.
+         * @return this builder.
+         */
+        public Builder setRotateSize(long rotateSize) {
+            checkMinimumParameter("rotateSize", 0, rotateSize);
+            this.rotateSize = rotateSize;
+
+            return this;
+        }
+
+        /**
+         * Set the time in milliseconds after which the file is rotated, {@code 0} to disable time based rotation (the default).
+         *
+         * @param rotateInterval the time in milliseconds after which the file is rotated.
+         * @return this builder.
+         */
+        public Builder setRotateInterval(long rotateInterval) {
+            checkMinimumParameter("rotateInterval", 0, rotateInterval);
+            this.rotateInterval = rotateInterval;
+
+            return this;
+        }
+
         public AuditEndpoint build() throws IOException {
             return new FileAuditEndpoint(this);
         }
@@ -0,0 +1,41 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.security.audit;
+
+/**
+ * The action taken by an asynchronous audit endpoint when a new event is accepted while its queue is full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Block the calling thread until the event can be queued.
+     */
+    BLOCK,
+
+    /**
+     * Discard the event.
+     */
+    DISCARD,
+
+    /**
+     * Discard the event if its priority is less severe than {@link EventPriority#WARNING}, otherwise block the calling thread
+     * until the event can be queued.
+     */
+    DISCARD_LOW_PRIORITY;
+
+}
@@ -17,11 +17,29 @@
  */
 package org.wildfly.security.audit;
 
+import static org.wildfly.common.Assert.checkMinimumParameter;
 import static org.wildfly.common.Assert.checkNotNullParam;
 import static org.wildfly.security._private.ElytronMessages.audit;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 
 import org.jboss.logmanager.ExtLogRecord;
@@ -32,27 +50,95 @@ import org.jboss.logmanager.handlers.SyslogHandler.Protocol;
 /**
  * An {@link AuditEndpoint} that logs to syslog.
  *
+ * <p>By default events are sent by the thread accepting them. In asynchronous mode events are instead added to a bounded queue
+ * and sent in batches by a dedicated thread, so that a slow or unreachable syslog server never delays the accepting threads
+ * unless the queue is full and the {@link OverflowPolicy} requires them to wait. In this mode:
+ * <ul>
+ *     <li>TCP messages are framed using octet counting as defined by RFC 6587, and each batch is sent using a single write.</li>
+ *     <li>UDP messages can optionally be coalesced into datagrams of up to {@value #MAX_DATAGRAM_SIZE} bytes, separated by
+ *     line feeds.</li>
+ *     <li>The connection is re-established after a failure, with an exponentially increasing delay between attempts.</li>
+ *     <li>Events which cannot be sent while the server is unreachable can be spilled to a local file, and are sent once the
+ *     connection is re-established.</li>
+ * </ul>
+ *
  * @author <a href="mailto:darran.lofthouse@jboss.com">Darran Lofthouse</a>
  */
 public class SyslogAuditEndpoint implements AuditEndpoint {
 
+    static final int MAX_DATAGRAM_SIZE = 2048;
+
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final long INITIAL_RECONNECT_DELAY = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX_RECONNECT_DELAY = TimeUnit.SECONDS.toNanos(30);
+
     private volatile boolean accepting = true;
 
     private final SyslogHandler syslogHandler;
 
+    private final InetSocketAddress serverAddress;
+    private final boolean tcp;
+    private final boolean coalesceDatagrams;
+    private final EventQueue queue;
+    private final Thread sender;
+
+    /*
+     * State of the asynchronous mode, only accessed by the sender thread.
+     */
+    private final FrameCapture frameCapture = new FrameCapture();
+    private final SpillFile spillFile;
+    private final List<byte[]> unsentFrames = new ArrayList<>();
+    private ByteChannel channel;
+    private long reconnectDelay = INITIAL_RECONNECT_DELAY;
+    private long nextConnectAttempt = System.nanoTime();
+
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder sendCount = new LongAdder();
+    private final LongAdder sendTime = new LongAdder();
+
     /**
      *
      */
     SyslogAuditEndpoint(Builder builder) throws IOException {
         syslogHandler = new SyslogHandler(checkNotNullParam("serverAddress", builder.serverAddress), builder.port, Facility.SECURITY,
                 null, builder.tcp ? Protocol.TCP : Protocol.UDP, checkNotNullParam("hostName", builder.hostName));
+        serverAddress = new InetSocketAddress(builder.serverAddress, builder.port);
+        tcp = builder.tcp;
+        coalesceDatagrams = builder.coalesceDatagrams;
 
+        if (builder.asynchronous) {
+            // the handler is only used to format the messages, which are captured and sent by the sender thread
+            if (tcp) {
+                syslogHandler.setUseCountingFraming(true);
+                syslogHandler.setUseMessageDelimiter(false);
+            }
+            syslogHandler.setOutputStream(frameCapture);
+            spillFile = builder.spillLocation == null ? null : new SpillFile(builder.spillLocation, builder.spillMaxSize);
+            queue = new EventQueue(builder.queueCapacity, builder.overflowPolicy);
+            sender = new Thread(this::sendEvents, "SyslogAuditEndpoint-" + builder.serverAddress.getHostAddress() + ":" + builder.port);
+            sender.setDaemon(true);
+            sender.start();
+        } else {
+            spillFile = null;
+            queue = null;
+            sender = null;
+        }
     }
 
     @Override
     public void accept(EventPriority t, String u) throws IOException {
         if (!accepting) return;
 
+        if (queue != null) {
+            if (t == EventPriority.OFF) {
+                throw audit.invalidEventPriority(t);
+            }
+            queue.offer(new EventQueue.Event(System.currentTimeMillis(), t, u));
+            return;
+        }
+
         synchronized(this) {
             if (!accepting) return;
 
@@ -78,25 +164,431 @@ public class SyslogAuditEndpoint implements AuditEndpoint {
         }
     }
 
+    /**
+     * Get the number of events waiting to be sent in asynchronous mode, excluding the events spilled to disk.
+     *
+     * @return the number of queued events
+     */
+    public int getQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Get the number of events discarded in asynchronous mode, either because the queue was full and the {@link OverflowPolicy}
+     * allowed it, because the spill file was full, or because the server was unreachable when the endpoint was closed.
+     *
+     * @return the number of discarded events
+     */
+    public long getDiscardedEventCount() {
+        return queue == null ? 0 : queue.getDiscardedCount() + discarded.sum();
+    }
+
+    /**
+     * Get the number of events sent to the syslog server in asynchronous mode.
+     *
+     * @return the number of events sent
+     */
+    public long getSentEventCount() {
+        return sent.sum();
+    }
+
+    /**
+     * Get the average time in nanoseconds taken to send a batch of events to the syslog server in asynchronous mode.
+     *
+     * @return the average send latency in nanoseconds, or {@code 0} if nothing was sent yet
+     */
+    public long getAverageSendLatency() {
+        long count = sendCount.sum();
+        return count == 0 ? 0 : sendTime.sum() / count;
+    }
+
     @Override
     public void close() throws IOException {
         accepting = false;
 
+        if (queue != null) {
+            queue.close(sender);
+            try {
+                sender.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
         synchronized(this) {
             syslogHandler.close();
         }
     }
 
+    private void sendEvents() {
+        List<EventQueue.Event> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        List<byte[]> frames = new ArrayList<>(MAX_BATCH_SIZE);
+        boolean closeAttempted = false;
+
+        for (;;) {
+            boolean closed = queue.isClosed();
+            // once closed, make a single connection attempt regardless of the reconnect delay
+            boolean force = closed && ! closeAttempted;
+            closeAttempted |= closed;
+
+            if (! connect(force)) {
+                if (spillFile != null) {
+                    if (queue.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+                        format(batch, frames);
+                        spill(frames);
+                    } else if (closed) {
+                        break;
+                    } else {
+                        queue.await(nextConnectAttempt - System.nanoTime());
+                    }
+                } else if (closed) {
+                    break;
+                } else {
+                    LockSupport.parkNanos(this, nextConnectAttempt - System.nanoTime());
+                }
+                batch.clear();
+                frames.clear();
+                continue;
+            }
+
+            try {
+                if (! unsentFrames.isEmpty()) {
+                    send(unsentFrames);
+                    unsentFrames.clear();
+                }
+                if (spillFile != null && ! spillFile.isEmpty()) {
+                    while (spillFile.read(frames, MAX_BATCH_SIZE) > 0) {
+                        try {
+                            send(frames);
+                        } catch (IOException e) {
+                            // messages which were not written stay in the file
+                            spillFile.consumed(frames);
+                            throw e;
+                        }
+                        spillFile.consumed(frames);
+                    }
+                }
+                if (queue.drainTo(batch, MAX_BATCH_SIZE) == 0) {
+                    if (closed) {
+                        break;
+                    }
+                    queue.await(0);
+                    continue;
+                }
+                format(batch, frames);
+                send(frames);
+            } catch (IOException e) {
+                disconnect(e);
+                if (spillFile != null) {
+                    spill(unsentFrames);
+                    unsentFrames.clear();
+                    if (! batch.isEmpty()) {
+                        spill(frames);
+                    }
+                } else if (! batch.isEmpty()) {
+                    unsentFrames.addAll(frames);
+                }
+            } catch (RuntimeException e) {
+                // drop whatever failed rather than letting the sender stop, which would leave blocked producers waiting
+                disconnect(null);
+                discarded.add(unsentFrames.size() + batch.size());
+                unsentFrames.clear();
+                for (EventQueue.Event event : batch) {
+                    audit.endpointUnavaiable(event.priority.toString(), event.message, e);
+                }
+                if (batch.isEmpty() && ! frames.isEmpty()) {
+                    discarded.add(frames.size());
+                    try {
+                        spillFile.consumed(Collections.emptyList());
+                    } catch (IOException ignored) {
+                    }
+                }
+            } finally {
+                batch.clear();
+                frames.clear();
+            }
+        }
+
+        // the server could not be reached when closing, whatever is left cannot be sent
+        queue.drainTo(batch, Integer.MAX_VALUE);
+        discarded.add(unsentFrames.size() + batch.size());
+        for (EventQueue.Event event : batch) {
+            audit.endpointUnavaiable(event.priority.toString(), event.message, null);
+        }
+        disconnect(null);
+        if (spillFile != null) {
+            spillFile.close();
+        }
+    }
+
+    private void format(List<EventQueue.Event> batch, List<byte[]> frames) {
+        for (EventQueue.Event event : batch) {
+            ExtLogRecord record = new ExtLogRecord(toLevel(event.priority), event.message, SyslogAuditEndpoint.class.getName());
+            record.setMillis(event.timestamp);
+            frameCapture.reset();
+            syslogHandler.doPublish(record);
+            byte[] frame = frameCapture.takeFrame();
+            if (frame != null) {
+                frames.add(frame);
+            }
+        }
+    }
+
+    private void spill(List<byte[]> frames) {
+        for (byte[] frame : frames) {
+            try {
+                if (! spillFile.append(frame)) {
+                    discarded.increment();
+                }
+            } catch (IOException e) {
+                audit.unableToSpillAuditEvent(e);
+                discarded.increment();
+            }
+        }
+    }
+
+    /**
+     * Send the given frames, removing each frame from the list once it has been written in full. If sending fails, the list
+     * holds the frames which still have to be sent, including one which was only partially written as the connection it was
+     * written to is not reused.
+     */
+    private void send(List<byte[]> frames) throws IOException {
+        long start = System.nanoTime();
+        int written = 0;
+        try {
+            if (tcp) {
+                ByteBuffer[] buffers = new ByteBuffer[frames.size()];
+                for (int i = 0; i < buffers.length; i++) {
+                    buffers[i] = ByteBuffer.wrap(frames.get(i));
+                }
+                SocketChannel socketChannel = (SocketChannel) channel;
+                while (written < buffers.length) {
+                    socketChannel.write(buffers, written, buffers.length - written);
+                    while (written < buffers.length && ! buffers[written].hasRemaining()) {
+                        written++;
+                    }
+                }
+            } else if (coalesceDatagrams) {
+                ByteBuffer datagram = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+                // the frames before this index are either written or held by the datagram
+                int pending = 0;
+                for (byte[] frame : frames) {
+                    int required = datagram.position() == 0 ? frame.length : frame.length + 1;
+                    if (datagram.position() > 0 && required > datagram.remaining()) {
+                        datagram.flip();
+                        channel.write(datagram);
+                        datagram.clear();
+                        written = pending;
+                    }
+                    if (frame.length > datagram.capacity()) {
+                        channel.write(ByteBuffer.wrap(frame));
+                        written = ++pending;
+                        continue;
+                    }
+                    if (datagram.position() > 0) {
+                        datagram.put((byte) '\n');
+                    }
+                    datagram.put(frame);
+                    pending++;
+                }
+                if (datagram.position() > 0) {
+                    datagram.flip();
+                    channel.write(datagram);
+                    written = pending;
+                }
+            } else {
+                for (byte[] frame : frames) {
+                    channel.write(ByteBuffer.wrap(frame));
+                    written++;
+                }
+            }
+        } finally {
+            frames.subList(0, written).clear();
+            sent.add(written);
+        }
+        sendTime.add(System.nanoTime() - start);
+        sendCount.increment();
+    }
+
+    private boolean connect(boolean force) {
+        if (channel != null) {
+            return true;
+        }
+        long now = System.nanoTime();
+        if (! force && now - nextConnectAttempt < 0) {
+            return false;
+        }
+        try {
+            if (tcp) {
+                SocketChannel socketChannel = SocketChannel.open();
+                try {
+                    socketChannel.socket().connect(serverAddress, CONNECT_TIMEOUT);
+                } catch (IOException e) {
+                    socketChannel.close();
+                    throw e;
+                }
+                channel = socketChannel;
+            } else {
+                channel = DatagramChannel.open().connect(serverAddress);
+            }
+            reconnectDelay = INITIAL_RECONNECT_DELAY;
+            return true;
+        } catch (IOException e) {
+            disconnect(e);
+            return false;
+        }
+    }
+
+    private void disconnect(IOException cause) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+        if (cause != null) {
+            audit.syslogServerUnavailable(serverAddress.toString(), TimeUnit.NANOSECONDS.toMillis(reconnectDelay), cause);
+            nextConnectAttempt = System.nanoTime() + reconnectDelay;
+            reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY);
+        }
+    }
+
     public static Builder builder() {
         return new Builder();
     }
 
+    /**
+     * Captures the messages formatted by the {@link SyslogHandler}. Everything written while a single record is published,
+     * however many write calls the handler uses, makes up the frame of that record.
+     */
+    private static final class FrameCapture extends ByteArrayOutputStream {
+
+        /**
+         * Take the frame written since the last call.
+         *
+         * @return the frame, or {@code null} if nothing was written
+         */
+        byte[] takeFrame() {
+            if (count == 0) {
+                return null;
+            }
+            byte[] frame = toByteArray();
+            reset();
+            return frame;
+        }
+    }
+
+    /**
+     * A file holding the messages which could not be sent while the server was unreachable, each prefixed by its length.
+     * Messages left over by a previous run are sent once the server is reachable.
+     */
+    private static final class SpillFile implements Closeable {
+
+        private final FileChannel channel;
+        private final long maxSize;
+        private final ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        private long readPosition;
+        private long pendingPosition;
+        private long writePosition;
+
+        SpillFile(Path location, long maxSize) throws IOException {
+            this.channel = FileChannel.open(location, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.maxSize = maxSize;
+            this.writePosition = channel.size();
+        }
+
+        boolean isEmpty() {
+            return readPosition >= writePosition;
+        }
+
+        boolean append(byte[] frame) throws IOException {
+            if (writePosition + 4 + frame.length > maxSize) {
+                return false;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(4 + frame.length);
+            buffer.putInt(frame.length).put(frame).flip();
+            while (buffer.hasRemaining()) {
+                writePosition += channel.write(buffer, writePosition);
+            }
+            return true;
+        }
+
+        /**
+         * Read up to {@code maxFrames} messages, which are only removed from the file once {@link #consumed(List)} is called.
+         */
+        int read(List<byte[]> frames, int maxFrames) throws IOException {
+            long position = readPosition;
+            int count = 0;
+            while (count < maxFrames && position + 4 <= writePosition) {
+                lengthBuffer.clear();
+                readFully(lengthBuffer, position);
+                int length = lengthBuffer.getInt(0);
+                if (length < 0 || position + 4 + length > writePosition) {
+                    // truncated by an earlier failure, nothing beyond this point can be trusted
+                    writePosition = position;
+                    break;
+                }
+                ByteBuffer frame = ByteBuffer.allocate(length);
+                readFully(frame, position + 4);
+                frames.add(frame.array());
+                position += 4 + length;
+                count++;
+            }
+            pendingPosition = position;
+            if (count == 0) {
+                consumed(Collections.emptyList());
+            }
+            return count;
+        }
+
+        /**
+         * Remove the messages returned by the last {@link #read(List, int)} from the file, except for the given ones which
+         * were read last and are kept to be read again.
+         */
+        void consumed(List<byte[]> unsent) throws IOException {
+            long position = pendingPosition;
+            for (byte[] frame : unsent) {
+                position -= 4 + frame.length;
+            }
+            readPosition = pendingPosition = position;
+            if (readPosition >= writePosition) {
+                channel.truncate(0);
+                readPosition = pendingPosition = writePosition = 0;
+            }
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    throw new IOException();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
     public static class Builder {
 
         private InetAddress serverAddress;
         private int port;
         private boolean tcp = true;
         private String hostName;
+        private boolean asynchronous = false;
+        private int queueCapacity = 8192;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+        private boolean coalesceDatagrams = false;
+        private Path spillLocation;
+        private long spillMaxSize = 64 * 1024 * 1024;
 
         Builder() {
         }
@@ -149,6 +641,83 @@ public class SyslogAuditEndpoint implements AuditEndpoint {
             return this;
         }
 
+        /**
+         * Set if events should be queued and sent by a dedicated thread instead of the thread accepting them.
+         *
+         * @param asynchronous should events be sent asynchronously.
+         * @return this builder.
+         */
+        public Builder setAsynchronous(boolean asynchronous) {
+            this.asynchronous = asynchronous;
+
+            return this;
+        }
+
+        /**
+         * Set the maximum number of events waiting to be sent in asynchronous mode, defaults to 8192.
+         *
+         * @param queueCapacity the maximum number of events waiting to be sent.
+         * @return this builder.
+         */
+        public Builder setQueueCapacity(int queueCapacity) {
+            checkMinimumParameter("queueCapacity", 1, queueCapacity);
+            this.queueCapacity = queueCapacity;
+
+            return this;
+        }
+
+        /**
+         * Set the action taken in asynchronous mode when an event is accepted while the queue is full, defaults to
+         * {@link OverflowPolicy#BLOCK}.
+         *
+         * @param overflowPolicy the action taken when the queue is full.
+         * @return this builder.
+         */
+        public Builder setOverflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = checkNotNullParam("overflowPolicy", overflowPolicy);
+
+            return this;
+        }
+
+        /**
+         * Set if multiple messages should be sent in a single UDP datagram in asynchronous mode, separated by line feeds. The
+         * syslog server must be able to split such datagrams.
+         *
+         * @param coalesceDatagrams should multiple messages be sent in a single datagram.
+         * @return this builder.
+         */
+        public Builder setCoalesceDatagrams(boolean coalesceDatagrams) {
+            this.coalesceDatagrams = coalesceDatagrams;
+
+            return this;
+        }
+
+        /**
+         * Set the file events are written to in asynchronous mode while the syslog server is unreachable. If not set, events
+         * stay in the queue until the server can be reached again.
+         *
+         * @param spillLocation the file events are written to while the syslog server is unreachable.
+         * @return this builder.
+         */
+        public Builder setSpillLocation(Path spillLocation) {
+            this.spillLocation = checkNotNullParam("spillLocation", spillLocation);
+
+            return this;
+        }
+
+        /**
+         * Set the maximum size in bytes of the spill file, events which do not fit are discarded. Defaults to 64 MiB.
+         *
+         * @param spillMaxSize the maximum size in bytes of the spill file.
+         * @return this builder.
+         */
+        public Builder setSpillMaxSize(long spillMaxSize) {
+            checkMinimumParameter("spillMaxSize", 1, spillMaxSize);
+            this.spillMaxSize = spillMaxSize;
+
+            return this;
+        }
+
         /**
          * Build a new {@link AuditEndpoint} configured to pass all messages using Syslog.
          *
@@ -52,6 +52,10 @@ public final class AuthenticationContext implements Contextual<AuthenticationCon
     final RuleNode<AuthenticationConfiguration> authRules;
     final RuleNode<SecurityFactory<SSLContext>> sslRules;
 
+    // built on first use, racing threads may each build an equivalent index
+    private volatile RuleIndex<AuthenticationConfiguration> authRuleIndex;
+    private volatile RuleIndex<SecurityFactory<SSLContext>> sslRuleIndex;
+
     static final AuthenticationContext EMPTY = new AuthenticationContext();
 
     private AuthenticationContext() {
@@ -256,21 +260,23 @@ public final class AuthenticationContext implements Contextual<AuthenticationCon
     }
 
     RuleNode<AuthenticationConfiguration> authRuleMatching(URI uri, String abstractType, String abstractTypeAuthority, String purpose) {
-        RuleNode<AuthenticationConfiguration> node = this.authRules;
-        while (node != null) {
-            if (node.getRule().matches(uri, abstractType, abstractTypeAuthority, purpose)) return node;
-            node = node.getNext();
+        final RuleNode<AuthenticationConfiguration> authRules = this.authRules;
+        if (authRules == null) return null;
+        RuleIndex<AuthenticationConfiguration> index = this.authRuleIndex;
+        if (index == null) {
+            this.authRuleIndex = index = new RuleIndex<>(authRules);
         }
-        return null;
+        return index.matching(uri, abstractType, abstractTypeAuthority, purpose);
     }
 
     RuleNode<SecurityFactory<SSLContext>> sslRuleMatching(URI uri, String abstractType, String abstractTypeAuthority, String purpose) {
-        RuleNode<SecurityFactory<SSLContext>> node = this.sslRules;
-        while (node != null) {
-            if (node.getRule().matches(uri, abstractType, abstractTypeAuthority, purpose)) return node;
-            node = node.getNext();
+        final RuleNode<SecurityFactory<SSLContext>> sslRules = this.sslRules;
+        if (sslRules == null) return null;
+        RuleIndex<SecurityFactory<SSLContext>> index = this.sslRuleIndex;
+        if (index == null) {
+            this.sslRuleIndex = index = new RuleIndex<>(sslRules);
         }
-        return null;
+        return index.matching(uri, abstractType, abstractTypeAuthority, purpose);
     }
 
     /**
@@ -0,0 +1,197 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.client;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.wildfly.common.net.Inet;
+
+/**
+ * An index of the rules of a {@link RuleNode} list, which finds the first rule matching a URI without evaluating every rule.
+ *
+ * <p>Rules which match a host name are indexed by that host, rules which match a protocol but no host are indexed by that
+ * protocol, and all other rules are kept in a list which is always evaluated. The candidates for a URI are evaluated in the
+ * order of the original list using {@link MatchRule#matches(URI, String, String, String)}, so the first matching rule is
+ * always the same as the one found by walking the list.
+ *
+ * <p>Rules only depend on the URI scheme and authority, unless they match a path or a URN name, so the result is cached by
+ * scheme, authority, abstract type, abstract type authority and purpose, or by the whole URI if any rule looks beyond the
+ * authority.
+ *
+ * @param <T> the rule configuration type
+ */
+final class RuleIndex<T> {
+
+    /**
+     * The maximum number of results to cache, the cache is cleared when it grows beyond this size.
+     */
+    private static final int MAX_CACHED = 1024;
+
+    private static final int[] NO_RULES = new int[0];
+
+    private static final Object NO_MATCH = new Object();
+
+    private final RuleNode<T>[] nodes;
+    private final Map<String, int[]> byHost;
+    private final Map<String, int[]> byProtocol;
+    private final int[] unindexed;
+    private final boolean beyondAuthority;
+    private final ConcurrentHashMap<Key, Object> cache = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    RuleIndex(final RuleNode<T> first) {
+        final List<RuleNode<T>> nodes = new ArrayList<>();
+        final Map<String, List<Integer>> byHost = new HashMap<>();
+        final Map<String, List<Integer>> byProtocol = new HashMap<>();
+        final List<Integer> unindexed = new ArrayList<>();
+        boolean beyondAuthority = false;
+        for (RuleNode<T> node = first; node != null; node = node.getNext()) {
+            final int position = nodes.size();
+            final MatchRule rule = node.getRule();
+            nodes.add(node);
+            if (rule.isHostMatched()) {
+                byHost.computeIfAbsent(hostKey(rule.getMatchHost()), k -> new ArrayList<>()).add(position);
+            } else if (rule.isProtocolMatched()) {
+                byProtocol.computeIfAbsent(rule.getMatchProtocol(), k -> new ArrayList<>()).add(position);
+            } else {
+                unindexed.add(position);
+            }
+            beyondAuthority |= rule.isPathMatched() || rule.isUrnNameMatched();
+        }
+        this.nodes = nodes.toArray(new RuleNode[nodes.size()]);
+        this.byHost = toPositions(byHost);
+        this.byProtocol = toPositions(byProtocol);
+        this.unindexed = toPositions(unindexed);
+        this.beyondAuthority = beyondAuthority;
+    }
+
+    /**
+     * Get the first rule node matching the given URI, type and purpose.
+     *
+     * @param uri the URI to match
+     * @param abstractType the abstract type of the connection (may be {@code null})
+     * @param abstractTypeAuthority the authority name of the abstract type (may be {@code null})
+     * @param purpose the authentication purpose name (may be {@code null})
+     * @return the first matching rule node, or {@code null} if no rule matches
+     */
+    @SuppressWarnings("unchecked")
+    RuleNode<T> matching(final URI uri, final String abstractType, final String abstractTypeAuthority, final String purpose) {
+        final String location = beyondAuthority || uri.isOpaque() ? uri.toString() : uri.getScheme() + "://" + uri.getRawAuthority();
+        final Key key = new Key(location, abstractType, abstractTypeAuthority, purpose);
+        Object result = cache.get(key);
+        if (result == null) {
+            final RuleNode<T> node = findMatching(uri, abstractType, abstractTypeAuthority, purpose);
+            result = node == null ? NO_MATCH : node;
+            if (cache.size() >= MAX_CACHED) {
+                cache.clear();
+            }
+            cache.put(key, result);
+        }
+        return result == NO_MATCH ? null : (RuleNode<T>) result;
+    }
+
+    private RuleNode<T> findMatching(final URI uri, final String abstractType, final String abstractTypeAuthority, final String purpose) {
+        final String host = uri.getHost();
+        final String scheme = uri.getScheme();
+        final int[] hostRules = host == null ? NO_RULES : byHost.getOrDefault(hostKey(host), NO_RULES);
+        final int[] protocolRules = scheme == null ? NO_RULES : byProtocol.getOrDefault(scheme, NO_RULES);
+        // merge the candidate positions so the rules are evaluated in their original order
+        int h = 0, p = 0, u = 0;
+        for (;;) {
+            final int next = Math.min(h < hostRules.length ? hostRules[h] : Integer.MAX_VALUE,
+                    Math.min(p < protocolRules.length ? protocolRules[p] : Integer.MAX_VALUE, u < unindexed.length ? unindexed[u] : Integer.MAX_VALUE));
+            if (next == Integer.MAX_VALUE) {
+                return null;
+            }
+            if (h < hostRules.length && hostRules[h] == next) {
+                h++;
+            } else if (p < protocolRules.length && protocolRules[p] == next) {
+                p++;
+            } else {
+                u++;
+            }
+            final RuleNode<T> node = nodes[next];
+            if (node.getRule().matches(uri, abstractType, abstractTypeAuthority, purpose)) {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Get the key of a host name or host specification, which is the same for every form of an IP address that
+     * {@link MatchHostRule} considers equal.
+     */
+    private static String hostKey(final String host) {
+        final byte[] bytes = host.indexOf(':') != -1 ? Inet.parseInet6AddressToBytes(host) : Inet.parseInet4AddressToBytes(host);
+        if (bytes == null) {
+            return host.toLowerCase(Locale.ROOT);
+        }
+        final StringBuilder b = new StringBuilder(3 + bytes.length * 2).append("ip:");
+        for (byte x : bytes) {
+            b.append(Character.forDigit((x >> 4) & 0xf, 16)).append(Character.forDigit(x & 0xf, 16));
+        }
+        return b.toString();
+    }
+
+    private static Map<String, int[]> toPositions(final Map<String, List<Integer>> lists) {
+        final Map<String, int[]> positions = new HashMap<>(lists.size());
+        lists.forEach((key, list) -> positions.put(key, toPositions(list)));
+        return positions;
+    }
+
+    private static int[] toPositions(final List<Integer> list) {
+        return list.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static final class Key {
+        private final String location;
+        private final String abstractType;
+        private final String abstractTypeAuthority;
+        private final String purpose;
+        private final int hashCode;
+
+        Key(final String location, final String abstractType, final String abstractTypeAuthority, final String purpose) {
+            this.location = location;
+            this.abstractType = abstractType;
+            this.abstractTypeAuthority = abstractTypeAuthority;
+            this.purpose = purpose;
+            this.hashCode = Objects.hash(location, abstractType, abstractTypeAuthority, purpose);
+        }
+
+        public boolean equals(final Object obj) {
+            if (! (obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hashCode == other.hashCode && location.equals(other.location) && Objects.equals(abstractType, other.abstractType)
+                    && Objects.equals(abstractTypeAuthority, other.abstractTypeAuthority) && Objects.equals(purpose, other.purpose);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
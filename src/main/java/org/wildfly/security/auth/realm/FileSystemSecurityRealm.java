@@ -18,6 +18,10 @@
 
 package org.wildfly.security.auth.realm;
 
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 import static java.nio.file.StandardOpenOption.CREATE_NEW;
 import static java.nio.file.StandardOpenOption.DSYNC;
 import static java.nio.file.StandardOpenOption.READ;
@@ -31,11 +35,15 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
@@ -94,17 +102,24 @@ import org.wildfly.security.util.CodePointIterator;
 /**
  * A simple filesystem-backed security realm.
  *
+ * <p>The realm can optionally keep an in-memory index of all of its identities. In this mode every identity is parsed once
+ * when the realm is constructed, reads are served from immutable snapshots held in memory, and modifications made through the
+ * realm are written to the file system and then to the index. The root directory, which is created if it does not exist yet, is
+ * watched for changes so that identity files created, modified or deleted by other processes are re-indexed as they happen. If
+ * the root directory can not be watched, the realm is not indexed and reads the identity file on every access instead.
+ *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
-public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRealm {
+public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRealm, AutoCloseable {
 
     static final String ELYTRON_1_0 = "urn:elytron:1.0";
 
     private final Path root;
     private final NameRewriter nameRewriter;
     private final int levels;
+    private final IdentityIndex index;
 
-    private final ConcurrentHashMap<String, IdentitySharedExclusiveLock> realmIdentityLocks = new ConcurrentHashMap<>();
+    private final IdentityLockManager lockManager = new IdentityLockManager();
 
     /**
      * Construct a new instance.
@@ -112,11 +127,31 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
      * @param root the root path of the identity store
      * @param nameRewriter the name rewriter to apply to looked up names
      * @param levels the number of levels of directory hashing to apply
+     * @param indexed {@code true} to load all identities into memory and watch the root path for changes, {@code false} to
+     *                read the identity file on every access
      */
-    public FileSystemSecurityRealm(final Path root, final NameRewriter nameRewriter, final int levels) {
+    public FileSystemSecurityRealm(final Path root, final NameRewriter nameRewriter, final int levels, final boolean indexed) {
         this.root = root;
         this.nameRewriter = nameRewriter;
         this.levels = levels;
+        if (indexed) {
+            final IdentityIndex index = new IdentityIndex();
+            // an index which is not told about changes made by other processes would serve stale identities
+            this.index = index.start() ? index : null;
+        } else {
+            index = null;
+        }
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param root the root path of the identity store
+     * @param nameRewriter the name rewriter to apply to looked up names
+     * @param levels the number of levels of directory hashing to apply
+     */
+    public FileSystemSecurityRealm(final Path root, final NameRewriter nameRewriter, final int levels) {
+        this(root, nameRewriter, levels, false);
     }
 
     /**
@@ -126,9 +161,7 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
      * @param levels the number of levels of directory hashing to apply
      */
     public FileSystemSecurityRealm(final Path root, final int levels) {
-        this.root = root;
-        this.levels = levels;
-        nameRewriter = NameRewriter.IDENTITY_REWRITER;
+        this(root, NameRewriter.IDENTITY_REWRITER, levels, false);
     }
 
     /**
@@ -137,9 +170,26 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
      * @param root the root path of the identity store
      */
     public FileSystemSecurityRealm(final Path root) {
-        this.root = root;
-        levels = 2;
-        nameRewriter = NameRewriter.IDENTITY_REWRITER;
+        this(root, NameRewriter.IDENTITY_REWRITER, 2, false);
+    }
+
+    /**
+     * Determine whether this realm serves its identities from an in-memory index. A realm constructed to be indexed is not if
+     * its root directory can not be watched for changes.
+     *
+     * @return {@code true} if the identities are indexed, {@code false} otherwise
+     */
+    public boolean isIndexed() {
+        return index != null;
+    }
+
+    /**
+     * Stop watching the root path for changes. Has no effect if this realm is not indexed.
+     */
+    public void close() {
+        if (index != null) {
+            index.close();
+        }
     }
 
     private Path pathFor(final String name) {
@@ -177,18 +227,24 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
             throw ElytronMessages.log.invalidName();
         }
 
-        // Acquire the appropriate lock for the realm identity
-        IdentitySharedExclusiveLock realmIdentityLock = getRealmIdentityLockForName(finalName);
-        IdentityLock lock;
-        if (exclusive) {
-            lock = realmIdentityLock.lockExclusive();
-        } else {
-            lock = realmIdentityLock.lockShared();
-        }
+        // Only updates lock the realm identity, shared reads are either optimistic or see immutable snapshots from the index
+        final IdentityLock lock = exclusive ? lockManager.lockExclusive(finalName) : null;
         return new Identity(finalName, pathFor(finalName), lock);
     }
 
     public CloseableIterator<ModifiableRealmIdentity> getRealmIdentityIterator() throws RealmUnavailableException {
+        if (index != null) {
+            final Iterator<String> iterator = new ArrayList<>(index.identities.keySet()).iterator();
+            return new CloseableIterator<ModifiableRealmIdentity>() {
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                public ModifiableRealmIdentity next() {
+                    return getRealmIdentityForUpdate(new NamePrincipal(iterator.next()));
+                }
+            };
+        }
         return subIterator(root, levels);
     }
 
@@ -284,16 +340,13 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
         return SupportLevel.POSSIBLY_SUPPORTED;
     }
 
-    private IdentitySharedExclusiveLock getRealmIdentityLockForName(final String name) {
-        IdentitySharedExclusiveLock realmIdentityLock = realmIdentityLocks.get(name);
-        if (realmIdentityLock == null) {
-            final IdentitySharedExclusiveLock newRealmIdentityLock = new IdentitySharedExclusiveLock();
-            realmIdentityLock = realmIdentityLocks.putIfAbsent(name, newRealmIdentityLock);
-            if (realmIdentityLock == null) {
-                realmIdentityLock = newRealmIdentityLock;
-            }
-        }
-        return realmIdentityLock;
+    /**
+     * Get the manager of the identity locks of this realm, which can be used to monitor lock contention.
+     *
+     * @return the identity lock manager
+     */
+    public IdentityLockManager getIdentityLockManager() {
+        return lockManager;
     }
 
     @FunctionalInterface
@@ -392,6 +445,9 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
         }
 
         public boolean exists() throws RealmUnavailableException {
+            if (index != null) {
+                return index.identities.containsKey(name);
+            }
             return Files.exists(path);
         }
 
@@ -403,6 +459,9 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
             } catch (IOException e) {
                 throw ElytronMessages.log.fileSystemRealmDeleteFailed(name, e);
             }
+            if (index != null) {
+                index.identities.remove(name);
+            }
         }
 
         private String tempSuffix() {
@@ -468,6 +527,9 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
                 } catch (IOException ignored) {
                     // nothing we can do
                 }
+                if (index != null) {
+                    index.identities.put(name, new LoadedIdentity(name, Collections.emptyList(), Attributes.EMPTY));
+                }
                 return;
             }
         }
@@ -546,6 +608,9 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
                     } catch (IOException ignored) {
                         // nothing we can do
                     }
+                    if (index != null) {
+                        index.identities.put(name, newIdentity.snapshot());
+                    }
                     return;
                 } catch (Throwable t) {
                     try {
@@ -640,6 +705,17 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
         }
 
         private LoadedIdentity loadIdentity(final boolean skipCredentials, final boolean skipAttributes) throws RealmUnavailableException {
+            if (index != null) {
+                return index.identities.get(name);
+            }
+            if (lock == null) {
+                // the identity file is replaced atomically, a read which overlapped an update is repeated under a shared lock
+                return lockManager.readOptimistically(name, () -> readIdentity(skipCredentials, skipAttributes));
+            }
+            return readIdentity(skipCredentials, skipAttributes);
+        }
+
+        LoadedIdentity readIdentity(final boolean skipCredentials, final boolean skipAttributes) throws RealmUnavailableException {
             try (InputStream inputStream = Files.newInputStream(path, READ)) {
                 final XMLInputFactory inputFactory = XMLInputFactory.newFactory();
                 inputFactory.setProperty(XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
@@ -952,6 +1028,157 @@ public final class FileSystemSecurityRealm implements ModifiableSecurityRealm, C
         List<Credential> getCredentials() {
             return credentials;
         }
+
+        /**
+         * Get an immutable copy of this identity, suitable to be shared by concurrent readers of the index.
+         */
+        LoadedIdentity snapshot() {
+            return new LoadedIdentity(name,
+                    credentials.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(credentials)),
+                    attributes.isEmpty() ? Attributes.EMPTY : new MapAttributes(attributes).asReadOnly());
+        }
+    }
+
+    /**
+     * The in-memory index of the identities of this realm, kept in sync with the file system by a watcher thread.
+     */
+    final class IdentityIndex {
+
+        final ConcurrentHashMap<String, LoadedIdentity> identities = new ConcurrentHashMap<>();
+
+        private final ConcurrentHashMap<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+        private WatchService watchService;
+
+        /**
+         * Index the identities and start watching the root directory for changes.
+         *
+         * @return {@code true} if the root directory is watched, {@code false} if this index must not be used
+         */
+        boolean start() {
+            try {
+                watchService = root.getFileSystem().newWatchService();
+                // a directory can only be watched once it exists, the first identity created would otherwise create it unseen
+                Files.createDirectories(root);
+            } catch (IOException | UnsupportedOperationException e) {
+                ElytronMessages.log.fileSystemRealmUnableToWatch(root, e);
+                close();
+                return false;
+            }
+            scan(root, 0);
+            if (! watchedDirectories.containsValue(root)) {
+                close();
+                return false;
+            }
+            Thread watcher = new Thread(this::watch, "FileSystemSecurityRealm-" + root.getFileName());
+            watcher.setDaemon(true);
+            watcher.start();
+            return true;
+        }
+
+        void close() {
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                    ElytronMessages.log.debug(e);
+                }
+            }
+        }
+
+        /**
+         * Index the identity files found under the given directory, watching it and its hashing subdirectories.
+         */
+        private void scan(final Path directory, final int depth) {
+            if (watchService != null) {
+                try {
+                    watchedDirectories.put(directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), directory);
+                } catch (ClosedWatchServiceException ignored) {
+                    // the realm has been closed
+                } catch (IOException e) {
+                    ElytronMessages.log.fileSystemRealmUnableToWatch(directory, e);
+                }
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path entry : stream) {
+                    if (Files.isDirectory(entry)) {
+                        if (depth < levels && entry.getFileName().toString().length() == 1) {
+                            scan(entry, depth + 1);
+                        }
+                    } else if (entry.getFileName().toString().endsWith(".xml")) {
+                        refresh(entry);
+                    }
+                }
+            } catch (IOException e) {
+                ElytronMessages.log.debug(e);
+            }
+        }
+
+        /**
+         * Bring the index entry of the given identity file in line with the file system.
+         */
+        private void refresh(final Path file) {
+            final String fileName = file.getFileName().toString();
+            final String name = fileName.substring(0, fileName.length() - 4);
+            if (name.isEmpty() || ! file.equals(pathFor(name))) {
+                return; // not an identity file of this realm
+            }
+            // wait for writers of this identity to finish so that the file is not seen half replaced
+            try (IdentityLock ignored = lockManager.lockExclusive(name)) {
+                final LoadedIdentity loadedIdentity = new Identity(name, file, null).readIdentity(false, false);
+                if (loadedIdentity == null) {
+                    identities.remove(name);
+                } else {
+                    identities.put(name, loadedIdentity.snapshot());
+                }
+            } catch (RealmUnavailableException e) {
+                // keep the last good version of the identity until the file is fixed
+                ElytronMessages.log.fileSystemRealmUnableToIndex(file, e);
+            }
+        }
+
+        private void watch() {
+            for (;;) {
+                final WatchKey key;
+                try {
+                    key = watchService.take();
+                } catch (ClosedWatchServiceException | InterruptedException e) {
+                    return;
+                }
+                final Path directory = watchedDirectories.get(key);
+                if (directory != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            rescan();
+                            continue;
+                        }
+                        final Path entry = directory.resolve((Path) event.context());
+                        if (event.kind() == ENTRY_CREATE && Files.isDirectory(entry)) {
+                            final int depth = directory.equals(root) ? 1 : root.relativize(directory).getNameCount() + 1;
+                            if (depth <= levels && entry.getFileName().toString().length() == 1) {
+                                scan(entry, depth);
+                            }
+                        } else if (entry.getFileName().toString().endsWith(".xml")) {
+                            refresh(entry);
+                        }
+                    }
+                }
+                if (! key.reset()) {
+                    watchedDirectories.remove(key);
+                }
+            }
+        }
+
+        /**
+         * Re-index all identities after change events have been lost.
+         */
+        private void rescan() {
+            for (String name : identities.keySet()) {
+                if (! Files.exists(pathFor(name))) {
+                    identities.remove(name);
+                }
+            }
+            scan(root, 0);
+        }
     }
 
     static class AutoCloseableXMLStreamReaderHolder implements AutoCloseable {
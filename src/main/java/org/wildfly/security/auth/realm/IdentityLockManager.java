@@ -0,0 +1,336 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm;
+
+import static org.wildfly.common.Assert.checkNotNullParam;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.wildfly.common.function.ExceptionSupplier;
+import org.wildfly.security.auth.realm.IdentitySharedExclusiveLock.IdentityLock;
+
+/**
+ * The shared/exclusive locks of the identities of a {@link org.wildfly.security.auth.server.ModifiableSecurityRealm}.
+ *
+ * <p>Each identity name which is currently locked has its own {@link IdentitySharedExclusiveLock}. Lock entries are reference
+ * counted without locking and removed as soon as the last lock object of the identity has been released, so the number of
+ * entries is bounded by the number of identities in use rather than by the number of identities ever looked up. Identities
+ * never share a lock, which keeps a thread holding the locks of several identities, for example while iterating over a realm,
+ * from blocking on itself.
+ *
+ * <p>Besides blocking acquisition, locks can be acquired with a timeout, and reads which are not expected to race with
+ * modifications, such as credential verification, can run {@linkplain #readOptimistically(String, ExceptionSupplier)
+ * optimistically} without acquiring a lock at all.
+ */
+public final class IdentityLockManager {
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder sharedAcquisitions = new LongAdder();
+    private final LongAdder exclusiveAcquisitions = new LongAdder();
+    private final LongAdder contendedAcquisitions = new LongAdder();
+    private final LongAdder waitTime = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder optimisticReads = new LongAdder();
+    private final LongAdder optimisticReadFailures = new LongAdder();
+
+    /**
+     * Acquire the shared lock of an identity, blocking until it is available.
+     *
+     * @param name the name of the identity (must not be {@code null})
+     * @return a lock object representing the newly acquired lock
+     */
+    public IdentityLock lockShared(final String name) {
+        checkNotNullParam("name", name);
+        final Entry entry = reference(name);
+        try {
+            IdentityLock lock = entry.tryLockShared();
+            if (lock == null) {
+                contendedAcquisitions.increment();
+                final long start = System.nanoTime();
+                lock = entry.lockShared();
+                waitTime.add(System.nanoTime() - start);
+            }
+            sharedAcquisitions.increment();
+            return lock;
+        } catch (Throwable t) {
+            entry.released();
+            throw t;
+        }
+    }
+
+    /**
+     * Acquire the exclusive lock of an identity, blocking until it is available.
+     *
+     * @param name the name of the identity (must not be {@code null})
+     * @return a lock object representing the newly acquired lock
+     */
+    public IdentityLock lockExclusive(final String name) {
+        checkNotNullParam("name", name);
+        final Entry entry = reference(name);
+        try {
+            IdentityLock lock = entry.tryLockExclusive();
+            if (lock == null) {
+                contendedAcquisitions.increment();
+                final long start = System.nanoTime();
+                lock = entry.lockExclusive();
+                waitTime.add(System.nanoTime() - start);
+            }
+            exclusiveAcquisitions.increment();
+            return lock;
+        } catch (Throwable t) {
+            entry.released();
+            throw t;
+        }
+    }
+
+    /**
+     * Acquire the shared lock of an identity, waiting at most the given time.
+     *
+     * @param name the name of the identity (must not be {@code null})
+     * @param time the maximum time to wait
+     * @param unit the unit of the time argument (must not be {@code null})
+     * @return a lock object representing the newly acquired lock, or {@code null} if the time elapsed
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public IdentityLock tryLockShared(final String name, final long time, final TimeUnit unit) throws InterruptedException {
+        checkNotNullParam("name", name);
+        checkNotNullParam("unit", unit);
+        final Entry entry = reference(name);
+        IdentityLock lock = null;
+        try {
+            lock = entry.tryLockShared();
+            if (lock == null) {
+                contendedAcquisitions.increment();
+                final long start = System.nanoTime();
+                lock = entry.tryLockShared(time, unit);
+                waitTime.add(System.nanoTime() - start);
+                if (lock == null) {
+                    timeouts.increment();
+                    return null;
+                }
+            }
+            sharedAcquisitions.increment();
+            return lock;
+        } finally {
+            if (lock == null) {
+                entry.released();
+            }
+        }
+    }
+
+    /**
+     * Acquire the exclusive lock of an identity, waiting at most the given time.
+     *
+     * @param name the name of the identity (must not be {@code null})
+     * @param time the maximum time to wait
+     * @param unit the unit of the time argument (must not be {@code null})
+     * @return a lock object representing the newly acquired lock, or {@code null} if the time elapsed
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public IdentityLock tryLockExclusive(final String name, final long time, final TimeUnit unit) throws InterruptedException {
+        checkNotNullParam("name", name);
+        checkNotNullParam("unit", unit);
+        final Entry entry = reference(name);
+        IdentityLock lock = null;
+        try {
+            lock = entry.tryLockExclusive();
+            if (lock == null) {
+                contendedAcquisitions.increment();
+                final long start = System.nanoTime();
+                lock = entry.tryLockExclusive(time, unit);
+                waitTime.add(System.nanoTime() - start);
+                if (lock == null) {
+                    timeouts.increment();
+                    return null;
+                }
+            }
+            exclusiveAcquisitions.increment();
+            return lock;
+        } finally {
+            if (lock == null) {
+                entry.released();
+            }
+        }
+    }
+
+    /**
+     * Run a read of an identity without acquiring its lock. If the exclusive lock of the identity was held or acquired while
+     * the read was running, its result is discarded and the read is run again under the shared lock.
+     *
+     * @param name the name of the identity (must not be {@code null})
+     * @param reader the read to run, which must not have side effects as it may run twice (must not be {@code null})
+     * @param <T> the type of the result
+     * @param <E> the type of exception thrown by the read
+     * @return the result of the read
+     * @throws E if the read failed
+     */
+    public <T, E extends Exception> T readOptimistically(final String name, final ExceptionSupplier<T, E> reader) throws E {
+        checkNotNullParam("name", name);
+        checkNotNullParam("reader", reader);
+        final Entry entry = reference(name);
+        try {
+            final long stamp = entry.tryOptimisticRead();
+            if (stamp != 0) {
+                optimisticReads.increment();
+                try {
+                    final T result = reader.get();
+                    if (entry.validate(stamp)) {
+                        return result;
+                    }
+                } catch (Exception e) {
+                    if (entry.validate(stamp)) {
+                        throw e;
+                    }
+                    // the read may have failed because of a concurrent modification
+                }
+                optimisticReadFailures.increment();
+            }
+            try (IdentityLock ignored = lockShared(name)) {
+                return reader.get();
+            }
+        } finally {
+            entry.released();
+        }
+    }
+
+    /**
+     * Get the number of identities which currently have a lock entry, because they are locked or being read.
+     *
+     * @return the number of lock entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the number of shared locks acquired.
+     *
+     * @return the number of shared lock acquisitions
+     */
+    public long getSharedAcquisitionCount() {
+        return sharedAcquisitions.sum();
+    }
+
+    /**
+     * Get the number of exclusive locks acquired.
+     *
+     * @return the number of exclusive lock acquisitions
+     */
+    public long getExclusiveAcquisitionCount() {
+        return exclusiveAcquisitions.sum();
+    }
+
+    /**
+     * Get the number of lock acquisitions which had to wait because the lock was held in a conflicting mode.
+     *
+     * @return the number of contended lock acquisitions
+     */
+    public long getContendedAcquisitionCount() {
+        return contendedAcquisitions.sum();
+    }
+
+    /**
+     * Get the total time spent waiting by contended lock acquisitions.
+     *
+     * @return the total wait time in nanoseconds
+     */
+    public long getTotalWaitTime() {
+        return waitTime.sum();
+    }
+
+    /**
+     * Get the number of timed lock acquisitions which gave up.
+     *
+     * @return the number of timed out lock acquisitions
+     */
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Get the number of reads which ran without acquiring a lock.
+     *
+     * @return the number of optimistic reads
+     */
+    public long getOptimisticReadCount() {
+        return optimisticReads.sum();
+    }
+
+    /**
+     * Get the number of optimistic reads which had to be run again under the shared lock.
+     *
+     * @return the number of failed optimistic reads
+     */
+    public long getOptimisticReadFailureCount() {
+        return optimisticReadFailures.sum();
+    }
+
+    private Entry reference(final String name) {
+        for (;;) {
+            final Entry entry = entries.get(name);
+            if (entry == null) {
+                final Entry newEntry = new Entry(name);
+                if (entries.putIfAbsent(name, newEntry) == null) {
+                    return newEntry;
+                }
+            } else if (entry.reference()) {
+                return entry;
+            } else {
+                // the entry is being removed, make sure it is gone before retrying
+                entries.remove(name, entry);
+            }
+        }
+    }
+
+    final class Entry extends IdentitySharedExclusiveLock {
+
+        private final String name;
+
+        /**
+         * The number of lock objects and reads using this entry. Once it drops to zero the entry is dead and never reused.
+         */
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Entry(final String name) {
+            this.name = name;
+        }
+
+        boolean reference() {
+            int current;
+            do {
+                current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (! references.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        @Override
+        void released() {
+            if (references.decrementAndGet() == 0) {
+                entries.remove(name, this);
+            }
+        }
+    }
+}
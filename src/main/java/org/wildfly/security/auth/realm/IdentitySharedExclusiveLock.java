@@ -18,42 +18,28 @@
 
 package org.wildfly.security.auth.realm;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
 /**
  * A simple shared/exclusive lock for a realm identity.
  *
+ * <p>The lock is backed by a {@link StampedLock}, so uncontended acquisitions of either mode do not block on a monitor. Waiting
+ * exclusive acquisitions take precedence over new shared acquisitions.
+ *
  * @author <a href="mailto:fjuma@redhat.com">Farah Juma</a>
  */
 public class IdentitySharedExclusiveLock {
 
-    private int sharedHoldCount;
-    private boolean isExclusiveLocked;
-    private int exclusiveRequests;
+    private final StampedLock lock = new StampedLock();
 
     /**
      * Acquire the exclusive lock. An invocation of this method will block until the lock can be acquired.
      *
      * @return a lock object representing the newly acquired lock
      */
-    public synchronized IdentityLock lockExclusive() {
-        boolean interrupted = false;
-        try {
-            exclusiveRequests++;
-            while ((sharedHoldCount > 0) || isExclusiveLocked) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    interrupted = true;
-                }
-            }
-            isExclusiveLocked = true;
-            exclusiveRequests--;
-            return new IdentityLock(true);
-        } finally {
-            if (interrupted) {
-                Thread.currentThread().interrupt();
-            }
-        }
-
+    public IdentityLock lockExclusive() {
+        return new IdentityLock(true, lock.writeLock());
     }
 
     /**
@@ -61,35 +47,75 @@ public class IdentitySharedExclusiveLock {
      *
      * @return a lock object representing the newly acquired lock
      */
-    public synchronized IdentityLock lockShared() {
-        boolean interrupted = false;
-        try {
-            while (isExclusiveLocked || (exclusiveRequests > 0)) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    interrupted = true;
-                }
-            }
-            sharedHoldCount++;
-            return new IdentityLock(false);
-        } finally {
-            if (interrupted) {
-                Thread.currentThread().interrupt();
-            }
-        }
+    public IdentityLock lockShared() {
+        return new IdentityLock(false, lock.readLock());
     }
 
-    private synchronized void release(IdentityLock identityLock) {
-        if (identityLock.isExclusive()) {
-            isExclusiveLocked = false;
-            notifyAll();
-        } else {
-            if (--sharedHoldCount == 0) {
-                notifyAll();
-            }
+    /**
+     * Acquire the exclusive lock if it is immediately available.
+     *
+     * @return a lock object representing the newly acquired lock, or {@code null} if the lock is not available
+     */
+    IdentityLock tryLockExclusive() {
+        final long stamp = lock.tryWriteLock();
+        return stamp == 0 ? null : new IdentityLock(true, stamp);
+    }
+
+    /**
+     * Acquire a shared lock if it is immediately available.
+     *
+     * @return a lock object representing the newly acquired lock, or {@code null} if the lock is not available
+     */
+    IdentityLock tryLockShared() {
+        final long stamp = lock.tryReadLock();
+        return stamp == 0 ? null : new IdentityLock(false, stamp);
+    }
+
+    /**
+     * Acquire the exclusive lock, waiting at most the given time.
+     *
+     * @return a lock object representing the newly acquired lock, or {@code null} if the time elapsed
+     */
+    IdentityLock tryLockExclusive(final long time, final TimeUnit unit) throws InterruptedException {
+        final long stamp = lock.tryWriteLock(time, unit);
+        return stamp == 0 ? null : new IdentityLock(true, stamp);
+    }
+
+    /**
+     * Acquire a shared lock, waiting at most the given time.
+     *
+     * @return a lock object representing the newly acquired lock, or {@code null} if the time elapsed
+     */
+    IdentityLock tryLockShared(final long time, final TimeUnit unit) throws InterruptedException {
+        final long stamp = lock.tryReadLock(time, unit);
+        return stamp == 0 ? null : new IdentityLock(false, stamp);
+    }
+
+    /**
+     * Get a stamp for an optimistic read, or zero if the exclusive lock is held.
+     */
+    long tryOptimisticRead() {
+        return lock.tryOptimisticRead();
+    }
+
+    /**
+     * Determine whether the exclusive lock has not been acquired since the given optimistic read stamp was obtained.
+     */
+    boolean validate(final long stamp) {
+        return lock.validate(stamp);
+    }
+
+    private void release(IdentityLock identityLock) {
+        if (identityLock.stamp != 0) {
+            lock.unlock(identityLock.stamp);
         }
+        released();
+    }
 
+    /**
+     * Called after a lock object of this lock has been released.
+     */
+    void released() {
     }
 
     /**
@@ -100,6 +126,7 @@ public class IdentitySharedExclusiveLock {
     public class IdentityLock implements AutoCloseable {
 
         private final boolean exclusive;
+        private final long stamp;
         private volatile boolean valid = true;
 
         /**
@@ -108,7 +135,12 @@ public class IdentitySharedExclusiveLock {
          * @param exclusive {@code true} if this lock is exclusive, {@code false} if this lock is shared
          */
         public IdentityLock(final boolean exclusive) {
+            this(exclusive, 0);
+        }
+
+        IdentityLock(final boolean exclusive, final long stamp) {
             this.exclusive = exclusive;
+            this.stamp = stamp;
         }
 
         /**
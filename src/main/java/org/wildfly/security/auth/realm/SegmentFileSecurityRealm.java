@@ -0,0 +1,1009 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.Principal;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.wildfly.common.Assert;
+import org.wildfly.security._private.ElytronMessages;
+import org.wildfly.security.auth.SupportLevel;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.auth.realm.IdentitySharedExclusiveLock.IdentityLock;
+import org.wildfly.security.auth.server.CloseableIterator;
+import org.wildfly.security.auth.server.ModifiableRealmIdentity;
+import org.wildfly.security.auth.server.ModifiableSecurityRealm;
+import org.wildfly.security.auth.server.NameRewriter;
+import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.auth.server.SecurityDomain;
+import org.wildfly.security.authz.Attributes;
+import org.wildfly.security.authz.AuthorizationIdentity;
+import org.wildfly.security.authz.MapAttributes;
+import org.wildfly.security.credential.AlgorithmCredential;
+import org.wildfly.security.credential.Credential;
+import org.wildfly.security.credential.PasswordCredential;
+import org.wildfly.security.credential.PublicKeyCredential;
+import org.wildfly.security.credential.X509CertificateChainPublicCredential;
+import org.wildfly.security.evidence.Evidence;
+import org.wildfly.security.password.Password;
+import org.wildfly.security.password.PasswordFactory;
+import org.wildfly.security.password.interfaces.OneTimePassword;
+import org.wildfly.security.password.spec.BasicPasswordSpecEncoding;
+import org.wildfly.security.password.spec.OneTimePasswordSpec;
+import org.wildfly.security.password.spec.PasswordSpec;
+import org.wildfly.security.password.util.ModularCrypt;
+
+/**
+ * A filesystem-backed security realm which stores all of its identities in a single append-only segment file.
+ *
+ * <p>Every modification appends a record holding the complete new state of an identity, or a tombstone if the identity was
+ * deleted, so existing data is never rewritten. The file is memory-mapped for reading and an in-memory hash index maps the name
+ * of each identity to the offset of its most recent record; the file is extended and mapped ahead of the records in growing
+ * steps, rather than mapped again after every append. Records which have been superseded are discarded by
+ * {@linkplain #compact() compaction}, which also runs automatically in the background once they make up more than half of a
+ * file larger than {@value #COMPACTION_THRESHOLD} bytes. Records keep being appended while the live records are copied, only the
+ * records appended in the meantime are copied while writers wait. Compaction replaces the segment file while it is still mapped
+ * by readers, which Windows does not allow, so on Windows it is never run and {@link #compact()} fails. Writers which modify
+ * identities concurrently share a single synchronization of the file to the storage device.
+ *
+ * <p>An incomplete last record, left by a write which was interrupted, is discarded when the file is opened. A corrupt record
+ * anywhere else prevents the file from being opened, as skipping it could bring back a deleted identity or a replaced credential.
+ *
+ * <p>Credentials are stored in their binary form. The identities of a {@link FileSystemSecurityRealm} can be copied into this
+ * realm using {@link #importIdentities(FileSystemSecurityRealm)} and back to the XML layout using
+ * {@link #exportIdentities(ModifiableSecurityRealm)}.
+ *
+ * <p>As the whole file is mapped at once, it can not grow beyond 2 GiB. A file reaching that size is compacted before the
+ * next record is appended, except on Windows where appending fails instead.
+ */
+public final class SegmentFileSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRealm, AutoCloseable {
+
+    /**
+     * The size in bytes above which a segment file is compacted once most of it is taken by superseded records.
+     */
+    public static final long COMPACTION_THRESHOLD = 1L << 20;
+
+    /**
+     * Whether a file can be replaced while it is memory-mapped, which is required by compaction.
+     */
+    private static final boolean CAN_REPLACE_MAPPED_FILE = ! System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+
+    private static final int MAGIC = 0x454C5953;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final long MINIMUM_GROWTH = 1L << 16;
+    private static final long MAXIMUM_GROWTH = 1L << 26;
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    private static final byte PASSWORD_BASIC = 1;
+    private static final byte PASSWORD_CRYPT = 2;
+    private static final byte OTP = 3;
+    private static final byte PUBLIC_KEY = 4;
+    private static final byte CERTIFICATE_CHAIN = 5;
+
+    private final Path path;
+    private final NameRewriter nameRewriter;
+
+    private final IdentityLockManager lockManager = new IdentityLockManager();
+
+    /**
+     * Guards appending to the segment file and replacing it by compaction.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    /**
+     * Held for the whole of a compaction, so that compactions do not overlap.
+     */
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final Object syncLock = new Object();
+
+    private volatile Segment segment;
+
+    /**
+     * Construct a new instance, creating the segment file if it does not exist.
+     *
+     * @param path the path of the segment file
+     * @param nameRewriter the name rewriter to apply to looked up names
+     * @throws IOException if the segment file can not be opened, is not a segment file or contains a corrupt record
+     */
+    public SegmentFileSecurityRealm(final Path path, final NameRewriter nameRewriter) throws IOException {
+        Assert.checkNotNullParam("path", path);
+        Assert.checkNotNullParam("nameRewriter", nameRewriter);
+        this.path = path;
+        this.nameRewriter = nameRewriter;
+        this.segment = open(path);
+    }
+
+    /**
+     * Construct a new instance, creating the segment file if it does not exist.
+     *
+     * @param path the path of the segment file
+     * @throws IOException if the segment file can not be opened, is not a segment file or contains a corrupt record
+     */
+    public SegmentFileSecurityRealm(final Path path) throws IOException {
+        this(path, NameRewriter.IDENTITY_REWRITER);
+    }
+
+    public RealmIdentity getRealmIdentity(final Principal principal) {
+        return principal instanceof NamePrincipal ? getRealmIdentity(principal.getName(), false) : RealmIdentity.NON_EXISTENT;
+    }
+
+    public ModifiableRealmIdentity getRealmIdentityForUpdate(final Principal principal) {
+        return principal instanceof NamePrincipal ? getRealmIdentity(principal.getName(), true) : ModifiableRealmIdentity.NON_EXISTENT;
+    }
+
+    @Override
+    public void registerIdentityChangeListener(Consumer<Principal> listener) {
+        // no need to register the listener given that changes to identities are done through the realm
+    }
+
+    private ModifiableRealmIdentity getRealmIdentity(final String name, final boolean exclusive) {
+        final String finalName = nameRewriter.rewriteName(name);
+        if (finalName == null) {
+            throw ElytronMessages.log.invalidName();
+        }
+        // records are never modified in place, so readers do not need to lock the identity
+        return new Identity(finalName, exclusive ? lockManager.lockExclusive(finalName) : null);
+    }
+
+    public CloseableIterator<ModifiableRealmIdentity> getRealmIdentityIterator() throws RealmUnavailableException {
+        final Iterator<String> iterator = new ArrayList<>(segment.offsets.keySet()).iterator();
+        return new CloseableIterator<ModifiableRealmIdentity>() {
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            public ModifiableRealmIdentity next() {
+                return getRealmIdentityForUpdate(new NamePrincipal(iterator.next()));
+            }
+        };
+    }
+
+    public SupportLevel getCredentialAcquireSupport(final Class<? extends Credential> credentialType, final String algorithmName) throws RealmUnavailableException {
+        return SupportLevel.POSSIBLY_SUPPORTED;
+    }
+
+    public SupportLevel getEvidenceVerifySupport(final Class<? extends Evidence> evidenceType, final String algorithmName) throws RealmUnavailableException {
+        return SupportLevel.POSSIBLY_SUPPORTED;
+    }
+
+    /**
+     * Get the number of identities held by this realm.
+     *
+     * @return the number of identities
+     */
+    public int size() {
+        return segment.offsets.size();
+    }
+
+    /**
+     * Get the current size of the segment file, including records which have been superseded.
+     *
+     * @return the size of the segment file in bytes
+     */
+    public long getFileSize() {
+        return segment.size;
+    }
+
+    /**
+     * Rewrite the segment file so that it only contains the most recent record of each identity. Identities can be modified
+     * while the records are copied, and only wait while the records appended in the meantime are copied. Not supported on
+     * Windows, where a file can not be replaced while it is memory-mapped.
+     *
+     * @throws RealmUnavailableException if the segment file could not be rewritten
+     */
+    public void compact() throws RealmUnavailableException {
+        compactionLock.lock();
+        try {
+            final Segment old;
+            final long copiedSize;
+            final List<Long> copiedOffsets;
+            writeLock.lock();
+            try {
+                old = segment;
+                if (! old.channel.isOpen()) {
+                    return;
+                }
+                copiedSize = old.size;
+                copiedOffsets = new ArrayList<>(old.offsets.values());
+            } finally {
+                writeLock.unlock();
+            }
+
+            final Path compactPath = path.resolveSibling(path.getFileName().toString() + ".compact");
+            Segment compacted = null;
+            try {
+                try (FileChannel target = FileChannel.open(compactPath, WRITE, CREATE, TRUNCATE_EXISTING)) {
+                    writeFully(target, header(), 0);
+                    long position = HEADER_SIZE;
+                    for (Long offset : copiedOffsets) {
+                        position += writeFully(target, old.fullRecord(offset), position);
+                    }
+                    target.force(true);
+                }
+                compacted = open(compactPath);
+
+                writeLock.lock();
+                try {
+                    if (! old.channel.isOpen()) {
+                        // closed in the meantime
+                        compacted.channel.close();
+                        Files.deleteIfExists(compactPath);
+                        return;
+                    }
+                    // the records appended in the meantime supersede the copied ones, so they are copied after them in order
+                    long position = copiedSize;
+                    while (position < old.size) {
+                        final ByteBuffer record = old.record(position);
+                        final byte type = record.get();
+                        final String name = readString(record);
+                        final ByteBuffer fullRecord = old.fullRecord(position);
+                        final int recordSize = fullRecord.remaining();
+                        final long offset = compacted.size;
+                        compacted.ensureCapacity(offset + recordSize);
+                        writeFully(compacted.channel, fullRecord, offset);
+                        compacted.size = offset + recordSize;
+                        compacted.index(name, type, offset, recordSize);
+                        position += recordSize;
+                    }
+                    if (position > copiedSize) {
+                        compacted.channel.force(false);
+                    }
+                    compacted.syncedSize = compacted.size;
+                    Files.move(compactPath, path, ATOMIC_MOVE, REPLACE_EXISTING);
+                    segment = compacted;
+                } finally {
+                    writeLock.unlock();
+                }
+            } catch (IOException e) {
+                if (compacted != null) {
+                    try {
+                        compacted.channel.close();
+                    } catch (IOException suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                }
+                try {
+                    Files.deleteIfExists(compactPath);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw ElytronMessages.log.segmentFileRealmFailedToWrite(compactPath, e);
+            }
+            try {
+                old.channel.close();
+            } catch (IOException e) {
+                ElytronMessages.log.debug(e);
+            }
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (compactionScheduled.compareAndSet(false, true)) {
+            SecurityDomain.getScheduledExecutorService().execute(() -> {
+                try {
+                    compact();
+                } catch (RealmUnavailableException e) {
+                    ElytronMessages.log.segmentFileRealmUnableToCompact(path, e);
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Copy all identities of the given realm into this realm, replacing existing identities of the same names. The segment
+     * file is synchronized to the storage device once all identities have been copied.
+     *
+     * @param source the realm to copy the identities from
+     * @return the number of copied identities
+     * @throws RealmUnavailableException if an identity could not be read or written
+     */
+    public int importIdentities(final FileSystemSecurityRealm source) throws RealmUnavailableException {
+        Assert.checkNotNullParam("source", source);
+        int count = 0;
+        long end = 0;
+        final CloseableIterator<ModifiableRealmIdentity> iterator = source.getRealmIdentityIterator();
+        try {
+            while (iterator.hasNext()) {
+                final ModifiableRealmIdentity identity = iterator.next();
+                try {
+                    final FileSystemSecurityRealm.LoadedIdentity loadedIdentity = ((FileSystemSecurityRealm.Identity) identity).readIdentity(false, false);
+                    if (loadedIdentity != null) {
+                        end = append(loadedIdentity.getName(), PUT, loadedIdentity.getCredentials(), loadedIdentity.getAttributes(), false);
+                        count++;
+                    }
+                } finally {
+                    identity.dispose();
+                }
+            }
+        } finally {
+            try {
+                iterator.close();
+            } catch (IOException e) {
+                ElytronMessages.log.debug(e);
+            }
+        }
+        sync(end);
+        return count;
+    }
+
+    /**
+     * Copy all identities of this realm into the given realm, for example a {@link FileSystemSecurityRealm}. Identities which
+     * already exist in the given realm are left untouched.
+     *
+     * @param target the realm to copy the identities to
+     * @return the number of copied identities
+     * @throws RealmUnavailableException if an identity could not be read or written
+     */
+    public int exportIdentities(final ModifiableSecurityRealm target) throws RealmUnavailableException {
+        Assert.checkNotNullParam("target", target);
+        int count = 0;
+        for (String name : new ArrayList<>(segment.offsets.keySet())) {
+            final IdentityRecord record = load(name);
+            if (record == null) {
+                continue; // deleted in the meantime
+            }
+            final ModifiableRealmIdentity identity = target.getRealmIdentityForUpdate(new NamePrincipal(name));
+            try {
+                if (! identity.exists()) {
+                    identity.create();
+                    identity.setCredentials(record.credentials);
+                    identity.setAttributes(new MapAttributes(record.attributes));
+                    count++;
+                }
+            } finally {
+                identity.dispose();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Close the segment file, releasing the space allocated ahead of the records.
+     */
+    public void close() {
+        writeLock.lock();
+        try {
+            final Segment segment = this.segment;
+            try {
+                segment.channel.truncate(segment.size);
+            } finally {
+                segment.channel.close();
+            }
+        } catch (IOException e) {
+            ElytronMessages.log.debug(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private IdentityRecord load(final String name) throws RealmUnavailableException {
+        // the mapping of a segment stays readable after the segment has been replaced by compaction
+        final Segment segment = this.segment;
+        final Long offset = segment.offsets.get(name);
+        return offset == null ? null : decode(name, segment.record(offset));
+    }
+
+    /**
+     * Append a record to the segment file and make it the current state of the identity.
+     *
+     * @return the end offset of the appended record, to be passed to {@link #sync(long)}
+     */
+    private long append(final String name, final byte type, final Collection<? extends Credential> credentials, final Attributes attributes, final boolean sync) throws RealmUnavailableException {
+        final byte[] payload;
+        try {
+            payload = encode(name, type, credentials, attributes);
+        } catch (IOException | GeneralSecurityException e) {
+            throw ElytronMessages.log.fileSystemRealmFailedToWrite(path, name, e);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        final ByteBuffer buffer = ByteBuffer.allocate(payload.length + 8);
+        buffer.putInt(payload.length).put(payload).putInt((int) crc.getValue());
+        buffer.flip();
+
+        long end;
+        boolean compacted = false;
+        for (;;) {
+            writeLock.lock();
+            try {
+                final Segment segment = this.segment;
+                final long offset = segment.size;
+                if (offset + buffer.remaining() <= Integer.MAX_VALUE) {
+                    try {
+                        segment.ensureCapacity(offset + buffer.remaining());
+                        writeFully(segment.channel, buffer, offset);
+                    } catch (IOException e) {
+                        throw ElytronMessages.log.fileSystemRealmFailedToWrite(path, name, e);
+                    }
+                    end = offset + buffer.capacity();
+                    segment.size = end;
+                    segment.index(name, type, offset, buffer.capacity());
+                    if (CAN_REPLACE_MAPPED_FILE && end > COMPACTION_THRESHOLD && segment.liveBytes * 2 < end) {
+                        scheduleCompaction();
+                    }
+                    break;
+                }
+                if (compacted || ! CAN_REPLACE_MAPPED_FILE) {
+                    throw ElytronMessages.log.segmentFileRealmFull(path);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            // the file is full, writers only wait for the records appended while it is compacted to be copied
+            compact();
+            compacted = true;
+        }
+        if (sync) {
+            sync(end);
+        }
+        return end;
+    }
+
+    /**
+     * Make sure the segment file is synchronized to the storage device up to the given offset. Concurrent writers wait for a
+     * single synchronization which covers all of their records.
+     */
+    private void sync(final long end) throws RealmUnavailableException {
+        synchronized (syncLock) {
+            final Segment segment = this.segment;
+            if (segment.syncedSize >= end) {
+                return;
+            }
+            final long size = segment.size;
+            try {
+                segment.channel.force(false);
+            } catch (ClosedChannelException e) {
+                if (segment == this.segment) {
+                    throw ElytronMessages.log.segmentFileRealmFailedToWrite(path, e);
+                }
+                // compaction has already synchronized the records into the new file
+                return;
+            } catch (IOException e) {
+                throw ElytronMessages.log.segmentFileRealmFailedToWrite(path, e);
+            }
+            segment.syncedSize = size;
+        }
+    }
+
+    private static Segment open(final Path path) throws IOException {
+        final FileChannel channel = FileChannel.open(path, READ, WRITE, CREATE);
+        try {
+            long size = channel.size();
+            if (size == 0) {
+                writeFully(channel, header(), 0);
+                channel.force(true);
+                size = HEADER_SIZE;
+            }
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw ElytronMessages.log.segmentFileRealmInvalidFile(path);
+            }
+            final Segment segment = new Segment(channel, channel.map(READ_ONLY, 0, size));
+            if (segment.mapping.getInt(0) != MAGIC || segment.mapping.getInt(4) != VERSION) {
+                throw ElytronMessages.log.segmentFileRealmInvalidFile(path);
+            }
+
+            final ByteBuffer mapping = segment.mapping;
+            final CRC32 crc = new CRC32();
+            long position = HEADER_SIZE;
+            boolean torn = false;
+            while (position + 4 <= size) {
+                final int length = mapping.getInt((int) position);
+                if (length == 0 && isZero(mapping, position, size)) {
+                    // the space allocated ahead of the records
+                    break;
+                }
+                if (length < 1) {
+                    throw ElytronMessages.log.segmentFileRealmCorruptRecord(path, position);
+                }
+                if (position + length + 8 > size) {
+                    // the last write did not complete
+                    torn = true;
+                    break;
+                }
+                final ByteBuffer record = slice(mapping, position + 4, length);
+                crc.reset();
+                crc.update(record.duplicate());
+                if ((int) crc.getValue() != mapping.getInt((int) (position + 4 + length))) {
+                    // only the last record written can be incomplete, nothing may have been written after it
+                    if (! isZero(mapping, position + length + 8, size)) {
+                        throw ElytronMessages.log.segmentFileRealmCorruptRecord(path, position);
+                    }
+                    torn = true;
+                    break;
+                }
+                final byte type = record.get();
+                if (type != PUT && type != DELETE) {
+                    throw ElytronMessages.log.segmentFileRealmCorruptRecord(path, position);
+                }
+                segment.index(readString(record), type, position, length + 8);
+                position += length + 8;
+            }
+            if (torn || position + 4 > size && ! isZero(mapping, position, size)) {
+                // the records before the incomplete one are still consistent
+                ElytronMessages.log.segmentFileRealmDiscardingTail(position, path);
+                channel.truncate(position);
+                channel.force(true);
+                segment.mapping = channel.map(READ_ONLY, 0, position);
+            }
+            segment.size = position;
+            segment.syncedSize = position;
+            return segment;
+        } catch (Throwable t) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                t.addSuppressed(e);
+            }
+            throw t;
+        }
+    }
+
+    private static ByteBuffer header() {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        return header;
+    }
+
+    private static int writeFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        final int length = buffer.remaining();
+        long current = position;
+        while (buffer.hasRemaining()) {
+            current += channel.write(buffer, current);
+        }
+        return length;
+    }
+
+    private static boolean isZero(final ByteBuffer buffer, final long from, final long to) {
+        int i = (int) from;
+        for (; i + 8 <= to; i += 8) {
+            if (buffer.getLong(i) != 0) {
+                return false;
+            }
+        }
+        for (; i < to; i++) {
+            if (buffer.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer, final long offset, final int length) {
+        final ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position((int) offset);
+        duplicate.limit((int) offset + length);
+        return duplicate.slice();
+    }
+
+    private static byte[] encode(final String name, final byte type, final Collection<? extends Credential> credentials, final Attributes attributes) throws IOException, GeneralSecurityException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(type);
+        writeString(output, name);
+        if (type == DELETE) {
+            return bytes.toByteArray();
+        }
+
+        final ByteArrayOutputStream credentialBytes = new ByteArrayOutputStream(128);
+        final DataOutputStream credentialOutput = new DataOutputStream(credentialBytes);
+        int credentialCount = 0;
+        for (Credential credential : credentials) {
+            if (encodeCredential(credentialOutput, credential)) {
+                credentialCount++;
+            }
+        }
+        output.writeInt(credentialCount);
+        credentialBytes.writeTo(output);
+
+        output.writeInt(attributes.size());
+        for (Attributes.Entry entry : attributes.entries()) {
+            writeString(output, entry.getKey());
+            output.writeInt(entry.size());
+            for (String value : entry) {
+                writeString(output, value);
+            }
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private static boolean encodeCredential(final DataOutputStream output, final Credential credential) throws IOException, GeneralSecurityException {
+        if (credential instanceof PasswordCredential) {
+            final Password password = ((PasswordCredential) credential).getPassword();
+            if (password instanceof OneTimePassword) {
+                final OneTimePassword otp = (OneTimePassword) password;
+                output.writeByte(OTP);
+                writeString(output, otp.getAlgorithm());
+                writeBytes(output, otp.getHash());
+                writeBytes(output, otp.getSeed());
+                output.writeInt(otp.getSequenceNumber());
+                return true;
+            }
+            final byte[] encoded = BasicPasswordSpecEncoding.encode(password);
+            if (encoded != null) {
+                output.writeByte(PASSWORD_BASIC);
+                writeString(output, password.getAlgorithm());
+                writeBytes(output, encoded);
+            } else {
+                output.writeByte(PASSWORD_CRYPT);
+                writeString(output, ModularCrypt.encodeAsString(password));
+            }
+            return true;
+        } else if (credential instanceof PublicKeyCredential) {
+            final PublicKey publicKey = ((PublicKeyCredential) credential).getPublicKey();
+            output.writeByte(PUBLIC_KEY);
+            writeString(output, publicKey.getAlgorithm());
+            writeBytes(output, publicKey.getEncoded());
+            return true;
+        } else if (credential instanceof X509CertificateChainPublicCredential) {
+            final X509Certificate[] certificateChain = ((X509CertificateChainPublicCredential) credential).getCertificateChain();
+            output.writeByte(CERTIFICATE_CHAIN);
+            output.writeInt(certificateChain.length);
+            for (X509Certificate certificate : certificateChain) {
+                writeBytes(output, certificate.getEncoded());
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private IdentityRecord decode(final String name, final ByteBuffer record) throws RealmUnavailableException {
+        try {
+            if (record.get() != PUT) {
+                throw ElytronMessages.log.fileSystemRealmFailedToRead(path, name, null);
+            }
+            readString(record);
+            final int credentialCount = record.getInt();
+            final List<Credential> credentials = new ArrayList<>(credentialCount);
+            for (int i = 0; i < credentialCount; i++) {
+                credentials.add(decodeCredential(record));
+            }
+            final int attributeCount = record.getInt();
+            final Attributes attributes = attributeCount == 0 ? Attributes.EMPTY : new MapAttributes();
+            for (int i = 0; i < attributeCount; i++) {
+                final String key = readString(record);
+                final int valueCount = record.getInt();
+                for (int j = 0; j < valueCount; j++) {
+                    attributes.addLast(key, readString(record));
+                }
+            }
+            return new IdentityRecord(credentials, attributes);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            throw ElytronMessages.log.fileSystemRealmFailedToRead(path, name, e);
+        }
+    }
+
+    private static Credential decodeCredential(final ByteBuffer record) throws GeneralSecurityException {
+        final byte kind = record.get();
+        switch (kind) {
+            case PASSWORD_BASIC: {
+                final String algorithm = readString(record);
+                final PasswordSpec passwordSpec = BasicPasswordSpecEncoding.decode(readBytes(record));
+                if (passwordSpec == null) {
+                    throw new InvalidKeySpecException();
+                }
+                return new PasswordCredential(PasswordFactory.getInstance(algorithm).generatePassword(passwordSpec));
+            }
+            case PASSWORD_CRYPT: {
+                return new PasswordCredential(ModularCrypt.decode(readString(record)));
+            }
+            case OTP: {
+                final String algorithm = readString(record);
+                final byte[] hash = readBytes(record);
+                final byte[] seed = readBytes(record);
+                final int sequenceNumber = record.getInt();
+                return new PasswordCredential(PasswordFactory.getInstance(algorithm).generatePassword(new OneTimePasswordSpec(hash, seed, sequenceNumber)));
+            }
+            case PUBLIC_KEY: {
+                final String algorithm = readString(record);
+                return new PublicKeyCredential(KeyFactory.getInstance(algorithm).generatePublic(new X509EncodedKeySpec(readBytes(record))));
+            }
+            case CERTIFICATE_CHAIN: {
+                final CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+                final X509Certificate[] certificateChain = new X509Certificate[record.getInt()];
+                for (int i = 0; i < certificateChain.length; i++) {
+                    certificateChain[i] = (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(readBytes(record)));
+                }
+                return new X509CertificateChainPublicCredential(certificateChain);
+            }
+            default: {
+                throw new InvalidKeySpecException();
+            }
+        }
+    }
+
+    private static void writeString(final DataOutputStream output, final String value) throws IOException {
+        writeBytes(output, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(final DataOutputStream output, final byte[] value) throws IOException {
+        output.writeInt(value.length);
+        output.write(value);
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        return new String(readBytes(buffer), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * The open segment file along with the index of its records. Replaced as a whole when the file is compacted.
+     */
+    static final class Segment {
+        final FileChannel channel;
+        final ConcurrentHashMap<String, Long> offsets = new ConcurrentHashMap<>();
+        volatile MappedByteBuffer mapping;
+        /**
+         * The offset at which the next record is appended, guarded by the write lock of the realm.
+         */
+        volatile long size;
+        /**
+         * The number of bytes taken by the current records of the identities, guarded by the write lock of the realm.
+         */
+        long liveBytes;
+        /**
+         * The offset up to which the file has been synchronized to the storage device, guarded by the sync lock of the realm.
+         */
+        long syncedSize;
+
+        Segment(final FileChannel channel, final MappedByteBuffer mapping) {
+            this.channel = channel;
+            this.mapping = mapping;
+        }
+
+        /**
+         * Get the payload of the record at the given offset.
+         */
+        ByteBuffer record(final long offset) {
+            final ByteBuffer mapping = this.mapping;
+            return slice(mapping, offset + 4, mapping.getInt((int) offset));
+        }
+
+        /**
+         * Get the record at the given offset including its length and checksum.
+         */
+        ByteBuffer fullRecord(final long offset) {
+            final ByteBuffer mapping = this.mapping;
+            return slice(mapping, offset, mapping.getInt((int) offset) + 8);
+        }
+
+        int recordSize(final long offset) {
+            return mapping.getInt((int) offset) + 8;
+        }
+
+        /**
+         * Make the record at the given offset the current state of the identity, guarded by the write lock of the realm.
+         */
+        void index(final String name, final byte type, final long offset, final int recordSize) {
+            final Long previous = type == PUT ? offsets.put(name, offset) : offsets.remove(name);
+            if (type == PUT) {
+                liveBytes += recordSize;
+            }
+            if (previous != null) {
+                liveBytes -= recordSize(previous);
+            }
+        }
+
+        /**
+         * Make sure the file, and its mapping, extend at least to the given offset, guarded by the write lock of the realm.
+         * The file is extended ahead of the records in growing steps, so it is only mapped again once per step; the extension is
+         * synchronized to the storage device straight away so that appending a record never changes the size of the file.
+         */
+        void ensureCapacity(final long end) throws IOException {
+            final long capacity = mapping.capacity();
+            if (end <= capacity) {
+                return;
+            }
+            final long step = Math.min(Math.max(capacity, MINIMUM_GROWTH), MAXIMUM_GROWTH);
+            final long newCapacity = Math.min(Integer.MAX_VALUE, Math.max(end, capacity + step));
+            if (channel.size() < newCapacity) {
+                writeFully(channel, ByteBuffer.allocate(1), newCapacity - 1);
+                channel.force(true);
+            }
+            mapping = channel.map(READ_ONLY, 0, newCapacity);
+        }
+    }
+
+    static final class IdentityRecord {
+        final List<Credential> credentials;
+        final Attributes attributes;
+
+        IdentityRecord(final List<Credential> credentials, final Attributes attributes) {
+            this.credentials = credentials;
+            this.attributes = attributes;
+        }
+    }
+
+    final class Identity implements ModifiableRealmIdentity {
+
+        private final String name;
+        private IdentityLock lock;
+
+        Identity(final String name, final IdentityLock lock) {
+            this.name = name;
+            this.lock = lock;
+        }
+
+        public Principal getRealmIdentityPrincipal() {
+            return new NamePrincipal(name);
+        }
+
+        public SupportLevel getCredentialAcquireSupport(final Class<? extends Credential> credentialType, final String algorithmName) throws RealmUnavailableException {
+            Assert.checkNotNullParam("credentialType", credentialType);
+            for (Credential credential : loadCredentials()) {
+                if (credentialType.isInstance(credential)) {
+                    if (algorithmName == null || credential instanceof AlgorithmCredential && algorithmName.equals(((AlgorithmCredential) credential).getAlgorithm())) {
+                        return SupportLevel.SUPPORTED;
+                    }
+                }
+            }
+            return SupportLevel.UNSUPPORTED;
+        }
+
+        public <C extends Credential> C getCredential(final Class<C> credentialType) throws RealmUnavailableException {
+            return getCredential(credentialType, null);
+        }
+
+        public <C extends Credential> C getCredential(final Class<C> credentialType, final String algorithmName) throws RealmUnavailableException {
+            Assert.checkNotNullParam("credentialType", credentialType);
+            for (Credential credential : loadCredentials()) {
+                if (credentialType.isInstance(credential)) {
+                    if (algorithmName == null || credential instanceof AlgorithmCredential && algorithmName.equals(((AlgorithmCredential) credential).getAlgorithm())) {
+                        return credentialType.cast(credential.clone());
+                    }
+                }
+            }
+            return null;
+        }
+
+        public SupportLevel getEvidenceVerifySupport(final Class<? extends Evidence> evidenceType, final String algorithmName) throws RealmUnavailableException {
+            Assert.checkNotNullParam("evidenceType", evidenceType);
+            for (Credential credential : loadCredentials()) {
+                if (credential.canVerify(evidenceType, algorithmName)) {
+                    return SupportLevel.SUPPORTED;
+                }
+            }
+            return SupportLevel.UNSUPPORTED;
+        }
+
+        public boolean verifyEvidence(final Evidence evidence) throws RealmUnavailableException {
+            Assert.checkNotNullParam("evidence", evidence);
+            for (Credential credential : loadCredentials()) {
+                if (credential.canVerify(evidence)) {
+                    return credential.verify(evidence);
+                }
+            }
+            return false;
+        }
+
+        private List<Credential> loadCredentials() throws RealmUnavailableException {
+            final IdentityRecord record = load(name);
+            return record == null ? Collections.emptyList() : record.credentials;
+        }
+
+        public boolean exists() throws RealmUnavailableException {
+            return segment.offsets.containsKey(name);
+        }
+
+        public void create() throws RealmUnavailableException {
+            if (exists()) {
+                throw ElytronMessages.log.fileSystemRealmAlreadyExists(name, null);
+            }
+            append(name, PUT, Collections.emptyList(), Attributes.EMPTY, true);
+        }
+
+        public void delete() throws RealmUnavailableException {
+            if (! exists()) {
+                throw ElytronMessages.log.fileSystemRealmNotFound(name);
+            }
+            append(name, DELETE, null, null, true);
+        }
+
+        public void setCredentials(final Collection<? extends Credential> credentials) throws RealmUnavailableException {
+            Assert.checkNotNullParam("credential", credentials);
+            final IdentityRecord record = load(name);
+            if (record == null) {
+                throw ElytronMessages.log.fileSystemRealmNotFound(name);
+            }
+            append(name, PUT, credentials, record.attributes, true);
+        }
+
+        public void setAttributes(final Attributes attributes) throws RealmUnavailableException {
+            Assert.checkNotNullParam("attributes", attributes);
+            final IdentityRecord record = load(name);
+            if (record == null) {
+                throw ElytronMessages.log.fileSystemRealmNotFound(name);
+            }
+            append(name, PUT, record.credentials, attributes, true);
+        }
+
+        @Override
+        public Attributes getAttributes() throws RealmUnavailableException {
+            final IdentityRecord record = load(name);
+            if (record == null) {
+                throw ElytronMessages.log.fileSystemRealmNotFound(name);
+            }
+            return record.attributes.asReadOnly();
+        }
+
+        public AuthorizationIdentity getAuthorizationIdentity() throws RealmUnavailableException {
+            final IdentityRecord record = load(name);
+            return record == null ? AuthorizationIdentity.EMPTY : AuthorizationIdentity.basicIdentity(record.attributes);
+        }
+
+        public void dispose() {
+            // Release the lock for this realm identity
+            IdentityLock identityLock = lock;
+            lock = null;
+            if (identityLock != null) {
+                identityLock.release();
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ import org.wildfly.common.Assert;
 import org.wildfly.security.auth.principal.NamePrincipal;
 import org.wildfly.security.auth.realm.CacheableSecurityRealm;
 import org.wildfly.security.auth.realm.jdbc.mapper.AttributeMapper;
+import org.wildfly.security.auth.server.CloseableIterator;
 import org.wildfly.security.auth.server.RealmIdentity;
 import org.wildfly.security.auth.server.RealmUnavailableException;
 import org.wildfly.security.auth.SupportLevel;
@@ -38,11 +39,23 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
 import static org.wildfly.security._private.ElytronMessages.log;
 
@@ -56,13 +69,74 @@ public class JdbcSecurityRealm implements CacheableSecurityRealm {
     private final Supplier<Provider[]> providers;
     private final List<QueryConfiguration> queryConfiguration;
 
+    /**
+     * The distinct statements executed to load an identity, each configured query being mapped to the statement with the same
+     * SQL and {@link DataSource}, grouped by data source so that a single connection is used for all statements of a data source.
+     * The statements of a data source are only executed once one of its queries is needed, and the result of each statement is
+     * then mapped for all of its queries.
+     */
+    private final Statement[] statements;
+    private final int[] statementIndexes;
+    private final Map<DataSource, List<Statement>> statementsByDataSource;
+
+    private final String identityIteratorSql;
+    private final DataSource identityIteratorDataSource;
+    private final int fetchSize;
+    private final int batchSize;
+
     public static JdbcSecurityRealmBuilder builder() {
         return new JdbcSecurityRealmBuilder();
     }
 
     JdbcSecurityRealm(List<QueryConfiguration> queryConfiguration, Supplier<Provider[]> providers) {
+        this(queryConfiguration, providers, null, null, 0, 1);
+    }
+
+    JdbcSecurityRealm(List<QueryConfiguration> queryConfiguration, Supplier<Provider[]> providers, String identityIteratorSql,
+                      DataSource identityIteratorDataSource, int fetchSize, int batchSize) {
         this.queryConfiguration = queryConfiguration;
         this.providers = providers;
+        this.identityIteratorSql = identityIteratorSql;
+        this.identityIteratorDataSource = identityIteratorDataSource;
+        this.fetchSize = fetchSize;
+        this.batchSize = batchSize;
+
+        List<Statement> statements = new ArrayList<>();
+        Map<DataSource, List<Statement>> statementsByDataSource = new LinkedHashMap<>();
+        this.statementIndexes = new int[queryConfiguration.size()];
+
+        for (int i = 0; i < queryConfiguration.size(); i++) {
+            QueryConfiguration configuration = queryConfiguration.get(i);
+            List<Statement> dataSourceStatements = statementsByDataSource.computeIfAbsent(configuration.getDataSource(), dataSource -> new ArrayList<>());
+            Statement statement = null;
+
+            for (Statement candidate : dataSourceStatements) {
+                if (candidate.sql.equals(configuration.getSql())) {
+                    statement = candidate;
+                    break;
+                }
+            }
+
+            if (statement == null) {
+                statement = new Statement(statements.size(), configuration.getSql(), configuration.getDataSource());
+                statements.add(statement);
+                dataSourceStatements.add(statement);
+            }
+
+            if (statement.batchSql == null && configuration.getBatchSql() != null) {
+                statement.batchSql = expandBatchSql(configuration.getBatchSql(), batchSize);
+            }
+
+            for (KeyMapper keyMapper : configuration.getColumnMappers(KeyMapper.class)) {
+                statement.mapsRows &= mapsRows(keyMapper);
+            }
+
+            statement.queryIndexes.add(i);
+            this.statementIndexes[i] = statement.index;
+        }
+
+        this.statements = statements.toArray(new Statement[statements.size()]);
+        this.statementsByDataSource = statementsByDataSource;
     }
 
     @Override
@@ -73,6 +147,81 @@ public class JdbcSecurityRealm implements CacheableSecurityRealm {
         return new JdbcRealmIdentity(principal.getName());
     }
 
+    /**
+     * Get the identities of several principals at once. The statements of this realm are executed once per batch of principals
+     * rather than once per principal: queries defining a batch query are executed once for the whole batch, the others are
+     * prepared once and executed for each principal of the batch. The returned identities do not hit the database anymore.
+     *
+     * The rows of a batch query are attributed to the principals by comparing names ignoring case and trailing spaces, as the
+     * database may have matched them that way, so names which only differ in this way are loaded by separate batches. If rows
+     * remain which can not be attributed, the principals which did not get any rows are loaded using the principal query.
+     *
+     * @param principals the principals to load
+     * @return the identities, in the same order as the given principals
+     */
+    public List<RealmIdentity> getRealmIdentities(Collection<? extends Principal> principals) {
+        Assert.checkNotNullParam("principals", principals);
+        RealmIdentity[] identities = new RealmIdentity[principals.size()];
+        List<String> names = new ArrayList<>(Math.min(batchSize, principals.size()));
+        List<Integer> positions = new ArrayList<>(Math.min(batchSize, principals.size()));
+        Map<String, String> batchNames = new HashMap<>();
+        int position = 0;
+
+        for (Principal principal : principals) {
+            if (principal instanceof NamePrincipal) {
+                String name = principal.getName();
+                String previous = batchNames.putIfAbsent(batchKey(name), name);
+
+                if (previous != null && ! previous.equals(name)) {
+                    // the rows of both names could not be told apart
+                    loadBatch(names, positions, identities);
+                    names.clear();
+                    positions.clear();
+                    batchNames.clear();
+                    batchNames.put(batchKey(name), name);
+                }
+
+                names.add(name);
+                positions.add(position);
+
+                if (names.size() == batchSize) {
+                    loadBatch(names, positions, identities);
+                    names.clear();
+                    positions.clear();
+                    batchNames.clear();
+                }
+            } else {
+                identities[position] = RealmIdentity.NON_EXISTENT;
+            }
+            position++;
+        }
+
+        if (! names.isEmpty()) {
+            loadBatch(names, positions, identities);
+        }
+
+        return Arrays.asList(identities);
+    }
+
+    /**
+     * Get an iterator over all identities of this realm, whose names are obtained from the query set by
+     * {@link JdbcSecurityRealmBuilder#setIdentityIteratorQuery(String, DataSource)}. Names are streamed from the database
+     * using the configured fetch size and identities are loaded in batches, as by {@link #getRealmIdentities(Collection)}.
+     *
+     * All names are read when the iterator is created and the connection used to read them is released right away, as many
+     * drivers can not execute other statements on a connection while it streams a result.
+     *
+     * @return an iterator over all identities of this realm
+     * @throws RealmUnavailableException if the realm is not configured to iterate over identities or the query fails
+     */
+    public CloseableIterator<RealmIdentity> getRealmIdentityIterator() throws RealmUnavailableException {
+        if (identityIteratorSql == null) {
+            throw log.jdbcRealmNotConfiguredToSupportIteratingOverIdentities();
+        }
+
+        return new IdentityIterator();
+    }
+
     @Override
     public SupportLevel getCredentialAcquireSupport(final Class<? extends Credential> credentialType, final String algorithmName) throws RealmUnavailableException {
         Assert.checkNotNullParam("credentialType", credentialType);
@@ -108,13 +257,328 @@ public class JdbcSecurityRealm implements CacheableSecurityRealm {
         // no notifications from this realm about changes on the underlying storage
     }
 
+    /**
+     * Get execution metrics for each distinct statement executed by this realm. Queries configured with the same SQL and
+     * {@link DataSource} are executed once per identity and share the same metrics.
+     *
+     * @return the metrics of each statement
+     */
+    public List<QueryMetrics> getQueryMetrics() {
+        List<QueryMetrics> metrics = new ArrayList<>(statements.length);
+
+        for (Statement statement : statements) {
+            metrics.add(statement.metrics);
+        }
+
+        return Collections.unmodifiableList(metrics);
+    }
+
+    private void loadBatch(List<String> names, List<Integer> positions, RealmIdentity[] identities) {
+        Map<String, QueryResult[]> results = new HashMap<>();
+
+        for (String name : names) {
+            results.computeIfAbsent(name, key -> new QueryResult[queryConfiguration.size()]);
+        }
+
+        for (Map.Entry<DataSource, List<Statement>> entry : statementsByDataSource.entrySet()) {
+            String sql = entry.getValue().get(0).sql;
+            Connection connection = getConnection(entry.getKey());
+
+            try {
+                for (Statement statement : entry.getValue()) {
+                    if (statement.batchSql != null && statement.mapsRows) {
+                        sql = statement.batchSql;
+                        executeBatchQuery(connection, statement, results);
+                    } else {
+                        sql = statement.sql;
+                        executePrincipalQueries(connection, statement, results);
+                    }
+                }
+            } catch (SQLException e) {
+                throw log.couldNotExecuteQuery(sql, e);
+            } finally {
+                closeConnection(connection);
+            }
+        }
+
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            identities[positions.get(i)] = new JdbcRealmIdentity(name, results.get(name));
+        }
+    }
+
+    /**
+     * Executes the batch query of a statement for the given names, the rows of each name, identified by the last column, being
+     * mapped as the result of the principal query for that name. Chunks smaller than the batch size repeat the last name so that
+     * the SQL is the same for every execution. The given names must have distinct {@linkplain #batchKey(String) batch keys}.
+     */
+    private void executeBatchQuery(Connection connection, Statement statement, Map<String, QueryResult[]> results) throws SQLException {
+        List<String> names = new ArrayList<>(results.keySet());
+
+        log.tracef("Executing batch query %s with values %s", statement.batchSql, names);
+
+        long start = System.nanoTime();
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(statement.batchSql, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY)) {
+            for (int i = 0; i < batchSize; i++) {
+                preparedStatement.setString(i + 1, names.get(Math.min(i, names.size() - 1)));
+            }
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.getType() == ResultSet.TYPE_FORWARD_ONLY) {
+                    // the rows of each name can only be read again from a scrollable result
+                    executePrincipalQueries(connection, statement, results);
+                    return;
+                }
+
+                int nameColumn = resultSet.getMetaData().getColumnCount();
+                Map<String, List<Integer>> rows = new HashMap<>();
+                boolean unattributed = false;
+
+                for (String name : names) {
+                    rows.put(batchKey(name), new ArrayList<>());
+                }
+
+                for (int row = 1; resultSet.next(); row++) {
+                    String name = resultSet.getString(nameColumn);
+                    List<Integer> nameRows = name != null ? rows.get(batchKey(name)) : null;
+
+                    if (nameRows != null) {
+                        nameRows.add(row);
+                    } else {
+                        unattributed = true;
+                    }
+                }
+
+                Map<String, QueryResult[]> unmatched = new HashMap<>();
+
+                for (Map.Entry<String, QueryResult[]> result : results.entrySet()) {
+                    List<Integer> nameRows = rows.get(batchKey(result.getKey()));
+
+                    if (nameRows.isEmpty() && unattributed) {
+                        unmatched.put(result.getKey(), result.getValue());
+                    } else {
+                        mapBatchRows(statement, result.getKey(), resultSet, nameRows, result.getValue());
+                    }
+                }
+
+                if (! unmatched.isEmpty()) {
+                    // the database compared the names in some other way, such as ignoring accents
+                    executePrincipalQueries(connection, statement, unmatched);
+                }
+            }
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            statement.metrics.record(elapsed);
+            if (log.isTraceEnabled()) {
+                log.tracef("Executed batch query %s in %d microseconds", statement.batchSql, TimeUnit.NANOSECONDS.toMicros(elapsed));
+            }
+        }
+    }
+
+    /**
+     * Executes the principal query of a statement once for each of the given names, preparing it only once.
+     */
+    private void executePrincipalQueries(Connection connection, Statement statement, Map<String, QueryResult[]> results) throws SQLException {
+        try (PreparedStatement preparedStatement = prepareStatement(connection, statement)) {
+            for (Map.Entry<String, QueryResult[]> result : results.entrySet()) {
+                executePrincipalQuery(preparedStatement, statement, result.getKey(), result.getValue());
+            }
+        }
+    }
+
+    private void executePrincipalQuery(PreparedStatement preparedStatement, Statement statement, String name, QueryResult[] results) throws SQLException {
+        log.tracef("Executing principalQuery %s with value %s", statement.sql, name);
+
+        long start = System.nanoTime();
+
+        try {
+            preparedStatement.setString(1, name);
+
+            try (PrincipalRows rows = new PrincipalRows(preparedStatement)) {
+                mapRows(statement, name, rows, results);
+            }
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            statement.metrics.record(elapsed);
+            if (log.isTraceEnabled()) {
+                log.tracef("Executed principalQuery %s in %d microseconds", statement.sql, TimeUnit.NANOSECONDS.toMicros(elapsed));
+            }
+        }
+    }
+
+    /**
+     * Maps the rows a statement returned for an identity for every query executed by the statement. Each mapper reads the rows
+     * from the start, as it would read the result of an execution of its own query.
+     */
+    private void mapRows(Statement statement, String name, PrincipalRows rows, QueryResult[] results) {
+        for (int queryIndex : statement.queryIndexes) {
+            QueryConfiguration configuration = queryConfiguration.get(queryIndex);
+
+            try {
+                ResultSet resultSet = rows.rewind();
+                MapAttributes attributes = null;
+
+                if (resultSet.next()) {
+                    attributes = new MapAttributes();
+
+                    do {
+                        for (AttributeMapper attributeMapper : configuration.getColumnMappers(AttributeMapper.class)) {
+                            try {
+                                Object value = attributeMapper.map(resultSet, providers);
+
+                                if (value != null) {
+                                    attributes.addFirst(attributeMapper.getName(), value.toString());
+                                }
+                            } catch (SQLException cause) {
+                                throw log.ldapRealmFailedObtainAttributes(name, cause);
+                            }
+                        }
+                    } while (resultSet.next());
+                }
+
+                List<KeyMapper> keyMappers = configuration.getColumnMappers(KeyMapper.class);
+                Credential[] credentials = new Credential[keyMappers.size()];
+                SupportLevel[] credentialSupport = new SupportLevel[keyMappers.size()];
+
+                for (int i = 0; i < keyMappers.size(); i++) {
+                    credentials[i] = keyMappers.get(i).map(rows.rewind(), providers);
+                    credentialSupport[i] = keyMappers.get(i).getCredentialSupport(rows.rewind(), providers);
+                }
+
+                results[queryIndex] = new QueryResult(attributes, credentials, credentialSupport);
+            } catch (SQLException e) {
+                throw log.couldNotExecuteQuery(configuration.getSql(), e);
+            } catch (Exception e) {
+                throw log.unexpectedErrorWhenProcessingAuthenticationQuery(configuration.getSql(), e);
+            }
+        }
+    }
+
+    /**
+     * Maps the rows of a batch result attributed to an identity for every query executed by the statement, the result being
+     * positioned on each row in turn and handed to the mappers as a single {@link Row}.
+     */
+    private void mapBatchRows(Statement statement, String name, ResultSet resultSet, List<Integer> rowNumbers, QueryResult[] results) throws SQLException {
+        Row row = Row.of(resultSet);
+
+        for (int queryIndex : statement.queryIndexes) {
+            QueryConfiguration configuration = queryConfiguration.get(queryIndex);
+            MapAttributes attributes = null;
+
+            for (int rowNumber : rowNumbers) {
+                resultSet.absolute(rowNumber);
+                if (attributes == null) {
+                    attributes = new MapAttributes();
+                }
+
+                for (AttributeMapper attributeMapper : configuration.getColumnMappers(AttributeMapper.class)) {
+                    try {
+                        Object value = attributeMapper.map(row, providers);
+
+                        if (value != null) {
+                            attributes.addFirst(attributeMapper.getName(), value.toString());
+                        }
+                    } catch (SQLException cause) {
+                        throw log.ldapRealmFailedObtainAttributes(name, cause);
+                    }
+                }
+            }
+
+            // key mappers read the first row only
+            Row first = ! rowNumbers.isEmpty() && resultSet.absolute(rowNumbers.get(0)) ? row : null;
+            List<KeyMapper> keyMappers = configuration.getColumnMappers(KeyMapper.class);
+            Credential[] credentials = new Credential[keyMappers.size()];
+            SupportLevel[] credentialSupport = new SupportLevel[keyMappers.size()];
+
+            for (int i = 0; i < keyMappers.size(); i++) {
+                credentials[i] = keyMappers.get(i).map(first, providers);
+                credentialSupport[i] = keyMappers.get(i).getCredentialSupport(first, providers);
+            }
+
+            results[queryIndex] = new QueryResult(attributes, credentials, credentialSupport);
+        }
+    }
+
+    /**
+     * Whether a key mapper maps single {@linkplain Row rows}, so that its query can be executed by a batch query.
+     */
+    private static boolean mapsRows(KeyMapper keyMapper) {
+        try {
+            Class<? extends KeyMapper> type = keyMapper.getClass();
+            return ! type.getMethod("map", Row.class, Supplier.class).isDefault()
+                    && ! type.getMethod("getCredentialSupport", Row.class, Supplier.class).isDefault();
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static PreparedStatement prepareStatement(Connection connection, Statement statement) throws SQLException {
+        // a scrollable result lets the mappers of every query executed by the statement read it in turn
+        return connection.prepareStatement(statement.sql, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+    }
+
+    private static Connection getConnection(DataSource dataSource) {
+        try {
+            return dataSource.getConnection();
+        } catch (Exception e) {
+            throw log.couldNotOpenConnection(e);
+        }
+    }
+
+    private static void closeConnection(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.trace("Failed to close connection", e);
+        }
+    }
+
+    /**
+     * The key under which the rows of a batch query are attributed to a principal. Databases commonly compare names ignoring
+     * case and trailing spaces, so the name returned with a row may not be exactly the one which was asked for.
+     */
+    private static String batchKey(String name) {
+        int end = name.length();
+
+        while (end > 0 && name.charAt(end - 1) == ' ') {
+            end--;
+        }
+
+        return name.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Expands the single parameter marker of a batch query to one marker per principal of a batch.
+     */
+    private static String expandBatchSql(String batchSql, int batchSize) {
+        int marker = batchSql.indexOf('?');
+        StringBuilder sql = new StringBuilder(batchSql.length() + batchSize * 3);
+        sql.append(batchSql, 0, marker);
+
+        for (int i = 0; i < batchSize; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append('?');
+        }
+
+        return sql.append(batchSql, marker + 1, batchSql.length()).toString();
+    }
+
     private class JdbcRealmIdentity implements RealmIdentity {
 
         private final String name;
         private JdbcIdentity identity;
+        private final QueryResult[] queryResults;
 
         public JdbcRealmIdentity(String name) {
+            this(name, new QueryResult[queryConfiguration.size()]);
+        }
+
+        JdbcRealmIdentity(String name, QueryResult[] queryResults) {
             this.name = name;
+            this.queryResults = queryResults;
         }
 
         public Principal getRealmIdentityPrincipal() {
@@ -125,10 +589,11 @@ public class JdbcSecurityRealm implements CacheableSecurityRealm {
         public SupportLevel getCredentialAcquireSupport(final Class<? extends Credential> credentialType, final String algorithmName) throws RealmUnavailableException {
             Assert.checkNotNullParam("credentialType", credentialType);
             SupportLevel support = SupportLevel.UNSUPPORTED;
-            for (QueryConfiguration configuration : JdbcSecurityRealm.this.queryConfiguration) {
-                for (KeyMapper keyMapper : configuration.getColumnMappers(KeyMapper.class)) {
-                    if (keyMapper.getCredentialAcquireSupport(credentialType, algorithmName).mayBeSupported()) {
-                        final SupportLevel mapperSupport = executePrincipalQuery(configuration, r -> keyMapper.getCredentialSupport(r, providers));
+            for (int i = 0; i < queryConfiguration.size(); i++) {
+                List<KeyMapper> keyMappers = queryConfiguration.get(i).getColumnMappers(KeyMapper.class);
+                for (int j = 0; j < keyMappers.size(); j++) {
+                    if (keyMappers.get(j).getCredentialAcquireSupport(credentialType, algorithmName).mayBeSupported()) {
+                        final SupportLevel mapperSupport = getQueryResult(i).credentialSupport[j];
                         if (mapperSupport == SupportLevel.SUPPORTED) {
                             return SupportLevel.SUPPORTED;
                         } else if (mapperSupport == SupportLevel.POSSIBLY_SUPPORTED) {
@@ -149,10 +614,11 @@ public class JdbcSecurityRealm implements CacheableSecurityRealm {
         @Override
         public <C extends Credential> C getCredential(final Class<C> credentialType, final String algorithmName) throws RealmUnavailableException {
             Assert.checkNotNullParam("credentialType", credentialType);
-            for (QueryConfiguration configuration : JdbcSecurityRealm.this.queryConfiguration) {
-                for (KeyMapper keyMapper : configuration.getColumnMappers(KeyMapper.class)) {
-                    if (keyMapper.getCredentialAcquireSupport(credentialType, algorithmName).mayBeSupported()) {
-                        final Credential credential = executePrincipalQuery(configuration, r -> keyMapper.map(r, providers));
+            for (int i = 0; i < queryConfiguration.size(); i++) {
+                List<KeyMapper> keyMappers = queryConfiguration.get(i).getColumnMappers(KeyMapper.class);
+                for (int j = 0; j < keyMappers.size(); j++) {
+                    if (keyMappers.get(j).getCredentialAcquireSupport(credentialType, algorithmName).mayBeSupported()) {
+                        final Credential credential = getQueryResult(i).credentials[j];
                         if (credentialType.isInstance(credential)) {
                             return credentialType.cast(credential);
                         }
@@ -167,10 +633,11 @@ public class JdbcSecurityRealm implements CacheableSecurityRealm {
         public SupportLevel getEvidenceVerifySupport(final Class<? extends Evidence> evidenceType, final String algorithmName) throws RealmUnavailableException {
             Assert.checkNotNullParam("evidenceType", evidenceType);
             SupportLevel support = SupportLevel.UNSUPPORTED;
-            for (QueryConfiguration configuration : JdbcSecurityRealm.this.queryConfiguration) {
-                for (KeyMapper keyMapper : configuration.getColumnMappers(KeyMapper.class)) {
-                    if (keyMapper.getEvidenceVerifySupport(evidenceType, algorithmName).mayBeSupported()) {
-                        final SupportLevel mapperSupport = executePrincipalQuery(configuration, r -> keyMapper.getCredentialSupport(r, providers));
+            for (int i = 0; i < queryConfiguration.size(); i++) {
+                List<KeyMapper> keyMappers = queryConfiguration.get(i).getColumnMappers(KeyMapper.class);
+                for (int j = 0; j < keyMappers.size(); j++) {
+                    if (keyMappers.get(j).getEvidenceVerifySupport(evidenceType, algorithmName).mayBeSupported()) {
+                        final SupportLevel mapperSupport = getQueryResult(i).credentialSupport[j];
                         if (mapperSupport == SupportLevel.SUPPORTED) {
                             return SupportLevel.SUPPORTED;
                         } else if (mapperSupport == SupportLevel.POSSIBLY_SUPPORTED) {
@@ -189,7 +656,7 @@ public class JdbcSecurityRealm implements CacheableSecurityRealm {
 
             if (exists()) {
                 for (Credential credential : this.identity.credentials) {
-                    if (credential.canVerify(evidence)) {
+                    if (credential != null && credential.canVerify(evidence)) {
                         return credential.verify(evidence);
                     }
                 }
@@ -213,85 +680,78 @@ public class JdbcSecurityRealm implements CacheableSecurityRealm {
 
         private JdbcIdentity getIdentity() {
             if (this.identity == null) {
-                this.identity = JdbcSecurityRealm.this.queryConfiguration.stream().map(queryConfiguration -> executePrincipalQuery(queryConfiguration, resultSet -> {
-                    if (resultSet.next()) {
-                        MapAttributes attributes = new MapAttributes();
-
-                        do {
-                            queryConfiguration.getColumnMappers(AttributeMapper.class).forEach(attributeMapper -> {
-                                try {
-                                    Object value = attributeMapper.map(resultSet, providers);
-
-                                    if (value != null) {
-                                        attributes.addFirst(attributeMapper.getName(), value.toString());
-                                    }
-                                } catch (SQLException cause) {
-                                    throw log.ldapRealmFailedObtainAttributes(this.name, cause);
-                                }
-                            });
-                        } while (resultSet.next());
-
-                        return attributes;
-                    }
-
-                    return null;
-                })).collect(Collectors.reducing((lAttribute, rAttribute) -> {
-                    if (rAttribute == null) {
-                        return lAttribute;
-                    }
-
-                    MapAttributes attributes = new MapAttributes(lAttribute);
-
-                    for (Attributes.Entry rEntry : rAttribute.entries()) {
-                        attributes.get(rEntry.getKey()).addAll(rEntry);
-                    }
-
-                    return attributes;
-                })).map(attributes -> {
-                    List<Credential> credentials = new ArrayList<>();
-
-                    for (QueryConfiguration configuration : queryConfiguration) {
-                        for (KeyMapper keyMapper : configuration.getColumnMappers(KeyMapper.class)) {
-                            credentials.add(executePrincipalQuery(configuration, r -> keyMapper.map(r, providers)));
+                loadQueryResults();
+                MapAttributes attributes = null;
+                List<Credential> credentials = new ArrayList<>();
+
+                for (QueryResult queryResult : queryResults) {
+                    if (queryResult.attributes != null) {
+                        if (attributes == null) {
+                            attributes = new MapAttributes(queryResult.attributes);
+                        } else {
+                            for (Attributes.Entry entry : queryResult.attributes.entries()) {
+                                attributes.get(entry.getKey()).addAll(entry);
+                            }
                         }
                     }
+                    Collections.addAll(credentials, queryResult.credentials);
+                }
 
-                    return new JdbcIdentity(attributes, credentials);
-                }).orElse(null);
+                if (attributes != null) {
+                    this.identity = new JdbcIdentity(attributes, credentials);
+                }
             }
 
             return this.identity;
         }
 
-        private Connection getConnection(QueryConfiguration configuration) {
-            try {
-                DataSource dataSource = configuration.getDataSource();
-                return dataSource.getConnection();
-            } catch (Exception e) {
-                throw log.couldNotOpenConnection(e);
+        /**
+         * Returns the result of the given query, executing the statements of its data source if none of them has been needed yet.
+         */
+        private QueryResult getQueryResult(int queryIndex) {
+            if (queryResults[queryIndex] == null) {
+                load(statements[statementIndexes[queryIndex]].dataSource);
             }
+
+            return queryResults[queryIndex];
         }
 
-        private <E> E executePrincipalQuery(QueryConfiguration configuration, ResultSetCallback<E> resultSetCallback) {
-            String sql = configuration.getSql();
+        /**
+         * Executes all statements which have not been executed yet.
+         */
+        private void loadQueryResults() {
+            for (DataSource dataSource : statementsByDataSource.keySet()) {
+                load(dataSource);
+            }
+        }
 
-            log.tracef("Executing principalQuery %s with value %s", sql, name);
+        /**
+         * Executes the statements of a data source which have not been executed yet on a single connection, released as soon
+         * as they are executed so that no connection is held while an authentication waits for the client.
+         */
+        private void load(DataSource dataSource) {
+            Connection connection = null;
+            String sql = null;
 
-            try (
-                    Connection connection = getConnection(configuration);
-                    PreparedStatement preparedStatement = connection.prepareStatement(sql)
-            ) {
-                preparedStatement.setString(1, name);
+            try {
+                for (Statement statement : statementsByDataSource.get(dataSource)) {
+                    if (queryResults[statement.queryIndexes.get(0)] == null) {
+                        if (connection == null) {
+                            connection = getConnection(dataSource);
+                        }
+                        sql = statement.sql;
 
-                try (
-                        ResultSet resultSet = preparedStatement.executeQuery()
-                ) {
-                    return resultSetCallback.handle(resultSet);
+                        try (PreparedStatement preparedStatement = prepareStatement(connection, statement)) {
+                            executePrincipalQuery(preparedStatement, statement, name, queryResults);
+                        }
+                    }
                 }
             } catch (SQLException e) {
                 throw log.couldNotExecuteQuery(sql, e);
-            } catch (Exception e) {
-                throw log.unexpectedErrorWhenProcessingAuthenticationQuery(sql, e);
+            } finally {
+                if (connection != null) {
+                    closeConnection(connection);
+                }
             }
         }
 
@@ -307,7 +767,207 @@ public class JdbcSecurityRealm implements CacheableSecurityRealm {
         }
     }
 
-    private interface ResultSetCallback<E> {
-        E handle(ResultSet resultSet) throws SQLException;
+    private final class IdentityIterator implements CloseableIterator<RealmIdentity> {
+
+        private final Iterator<String> names;
+        private final ArrayDeque<RealmIdentity> prefetched = new ArrayDeque<>();
+
+        IdentityIterator() throws RealmUnavailableException {
+            this.names = readNames().iterator();
+        }
+
+        /**
+         * Reads the names of all identities, streaming them from the database where the driver supports it.
+         */
+        private List<String> readNames() throws RealmUnavailableException {
+            List<String> names = new ArrayList<>();
+            Connection connection = JdbcSecurityRealm.getConnection(identityIteratorDataSource);
+
+            try {
+                // most drivers only stream results, instead of reading them all at once, outside of auto-commit mode
+                boolean autoCommit = connection.getAutoCommit();
+                if (autoCommit) {
+                    connection.setAutoCommit(false);
+                }
+                try (PreparedStatement statement = connection.prepareStatement(identityIteratorSql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    statement.setFetchSize(fetchSize);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            names.add(resultSet.getString(1));
+                        }
+                    }
+                } finally {
+                    if (autoCommit) {
+                        connection.rollback();
+                        connection.setAutoCommit(true);
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RealmUnavailableException(log.couldNotExecuteQuery(identityIteratorSql, e));
+            } finally {
+                closeConnection(connection);
+            }
+
+            return names;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (prefetched.isEmpty() && names.hasNext()) {
+                prefetch();
+            }
+            return ! prefetched.isEmpty();
+        }
+
+        @Override
+        public RealmIdentity next() {
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return prefetched.poll();
+        }
+
+        private void prefetch() {
+            List<Principal> principals = new ArrayList<>(batchSize);
+
+            while (principals.size() < batchSize && names.hasNext()) {
+                principals.add(new NamePrincipal(names.next()));
+            }
+
+            prefetched.addAll(getRealmIdentities(principals));
+        }
+
+        @Override
+        public void close() {
+            prefetched.clear();
+        }
+    }
+
+    private static final class Statement {
+
+        private final int index;
+        private final String sql;
+        private final DataSource dataSource;
+        private final List<Integer> queryIndexes = new ArrayList<>();
+        private final QueryMetrics metrics;
+        private String batchSql;
+        private boolean mapsRows = true;
+
+        Statement(int index, String sql, DataSource dataSource) {
+            this.index = index;
+            this.sql = sql;
+            this.dataSource = dataSource;
+            this.metrics = new QueryMetrics(sql);
+        }
+    }
+
+    /**
+     * What the mappers of a query obtained from the rows returned for an identity. The attributes are {@code null} if there
+     * were no rows, the credential and credential support are held for each key mapper of the query.
+     */
+    private static final class QueryResult {
+
+        private final MapAttributes attributes;
+        private final Credential[] credentials;
+        private final SupportLevel[] credentialSupport;
+
+        QueryResult(MapAttributes attributes, Credential[] credentials, SupportLevel[] credentialSupport) {
+            this.attributes = attributes;
+            this.credentials = credentials;
+            this.credentialSupport = credentialSupport;
+        }
+    }
+
+    /**
+     * The rows returned by an execution of a principal query. The result is scrolled back for each mapper, or if the driver does
+     * not support scrolling, the statement is executed again.
+     */
+    private static final class PrincipalRows implements AutoCloseable {
+
+        private final PreparedStatement preparedStatement;
+        private ResultSet resultSet;
+
+        PrincipalRows(PreparedStatement preparedStatement) {
+            this.preparedStatement = preparedStatement;
+        }
+
+        /**
+         * Get the rows, positioned before the first one.
+         */
+        ResultSet rewind() throws SQLException {
+            if (resultSet == null) {
+                resultSet = preparedStatement.executeQuery();
+            } else if (resultSet.getType() == ResultSet.TYPE_FORWARD_ONLY) {
+                resultSet.close();
+                resultSet = preparedStatement.executeQuery();
+            } else {
+                resultSet.beforeFirst();
+            }
+            return resultSet;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+        }
+    }
+
+    /**
+     * Execution metrics of a statement executed to load identities.
+     */
+    public static final class QueryMetrics {
+
+        private final String sql;
+        private final LongAdder executionCount = new LongAdder();
+        private final LongAdder executionTime = new LongAdder();
+        private final LongAccumulator maxExecutionTime = new LongAccumulator(Math::max, 0);
+
+        QueryMetrics(String sql) {
+            this.sql = sql;
+        }
+
+        void record(long elapsed) {
+            executionCount.increment();
+            executionTime.add(elapsed);
+            maxExecutionTime.accumulate(elapsed);
+        }
+
+        /**
+         * Get the SQL of the statement.
+         *
+         * @return the SQL of the statement
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * Get the number of times the statement was executed.
+         *
+         * @return the number of executions
+         */
+        public long getExecutionCount() {
+            return executionCount.sum();
+        }
+
+        /**
+         * Get the total time spent executing the statement and reading its results, in nanoseconds.
+         *
+         * @return the total execution time in nanoseconds
+         */
+        public long getTotalExecutionTime() {
+            return executionTime.sum();
+        }
+
+        /**
+         * Get the longest time spent executing the statement and reading its results, in nanoseconds.
+         *
+         * @return the maximum execution time in nanoseconds
+         */
+        public long getMaxExecutionTime() {
+            return maxExecutionTime.get();
+        }
     }
 }
@@ -23,6 +23,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Supplier;
 
+import javax.sql.DataSource;
+
+import org.wildfly.common.Assert;
 import org.wildfly.security.auth.server.RealmIdentity;
 
 /**
@@ -34,6 +37,10 @@ public class JdbcSecurityRealmBuilder {
 
     private Supplier<Provider[]> providers = Security::getProviders;
     private List<QueryBuilder> queries = new ArrayList<>();
+    private String identityIteratorSql;
+    private DataSource identityIteratorDataSource;
+    private int fetchSize = 100;
+    private int batchSize = 100;
 
     JdbcSecurityRealmBuilder() {
     }
@@ -50,7 +57,7 @@ public class JdbcSecurityRealmBuilder {
             configuration.add(query.buildQuery());
         }
 
-        return new JdbcSecurityRealm(configuration, providers);
+        return new JdbcSecurityRealm(configuration, providers, identityIteratorSql, identityIteratorDataSource, fetchSize, batchSize);
     }
 
     /**
@@ -65,6 +72,47 @@ public class JdbcSecurityRealmBuilder {
         return this;
     }
 
+    /**
+     * <p>A SQL SELECT statement returning the names of all identities in its first column, used by
+     * {@link JdbcSecurityRealm#getRealmIdentityIterator()} to iterate over the identities of the realm.
+     *
+     * @param sql the query returning the names of all identities
+     * @param dataSource the {@link DataSource} from where connections are obtained
+     * @return this builder.
+     */
+    public JdbcSecurityRealmBuilder setIdentityIteratorQuery(String sql, DataSource dataSource) {
+        this.identityIteratorSql = Assert.checkNotNullParam("sql", sql);
+        this.identityIteratorDataSource = Assert.checkNotNullParam("dataSource", dataSource);
+
+        return this;
+    }
+
+    /**
+     * Set the number of rows fetched from the database at once when iterating over identities, defaults to 100.
+     *
+     * @param fetchSize the number of rows fetched at once, or {@code 0} to use the default of the driver.
+     * @return this builder.
+     */
+    public JdbcSecurityRealmBuilder setFetchSize(int fetchSize) {
+        Assert.checkMinimumParameter("fetchSize", 0, fetchSize);
+        this.fetchSize = fetchSize;
+
+        return this;
+    }
+
+    /**
+     * Set the maximum number of principals loaded by a single execution of a batch query, defaults to 100.
+     *
+     * @param batchSize the maximum number of principals loaded at once.
+     * @return this builder.
+     */
+    public JdbcSecurityRealmBuilder setBatchSize(int batchSize) {
+        Assert.checkMinimumParameter("batchSize", 1, batchSize);
+        this.batchSize = batchSize;
+
+        return this;
+    }
+
     /**
      * <p>A SQL SELECT statement that will be used to return data from a database based on the principal's name.
      *
@@ -74,4 +74,33 @@ public interface KeyMapper extends ColumnMapper {
     SupportLevel getCredentialSupport(ResultSet resultSet, Supplier<Provider[]> providers);
 
     Credential map(ResultSet resultSet, Supplier<Provider[]> providers) throws SQLException;
+
+    /**
+     * Determine whether a given credential is definitely obtainable, possibly obtainable (for some identities), or definitely not
+     * obtainable based on the first row returned for an identity.
+     *
+     * <p>Key mappers implementing this method and {@link #map(Row, Supplier)} can be used by queries defining a
+     * {@linkplain QueryBuilder#batchQuery(String) batch query}, otherwise the principal query is executed for each identity.
+     *
+     * @param row the first row, or {@code null} if no rows were returned
+     * @param providers the providers to use if required
+     * @return the level of support for a credential based on the given row
+     * @throws UnsupportedOperationException if the mapper does not map single rows, which is the default
+     */
+    default SupportLevel getCredentialSupport(Row row, Supplier<Provider[]> providers) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Maps the first row returned for an identity to a credential.
+     *
+     * @param row the first row, or {@code null} if no rows were returned
+     * @param providers the providers to use if required
+     * @return the credential, or {@code null} if none
+     * @throws SQLException if any error occurs when reading the given row
+     * @throws UnsupportedOperationException if the mapper does not map single rows, which is the default
+     */
+    default Credential map(Row row, Supplier<Provider[]> providers) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
 }
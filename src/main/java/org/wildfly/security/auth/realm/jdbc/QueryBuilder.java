@@ -17,11 +17,15 @@
  */
 package org.wildfly.security.auth.realm.jdbc;
 
+import static org.wildfly.security._private.ElytronMessages.log;
+
 import javax.sql.DataSource;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import org.wildfly.common.Assert;
+
 /**
  * A builder class with different configuration options to configure queries.
  *
@@ -33,6 +37,7 @@ public class QueryBuilder extends JdbcSecurityRealmBuilder {
     private final JdbcSecurityRealmBuilder parent;
     private List<ColumnMapper> mappers = new ArrayList<>();
     private DataSource dataSource;
+    private String batchSql;
 
     QueryBuilder(String sql, JdbcSecurityRealmBuilder parent) {
         this.sql = sql;
@@ -61,19 +66,60 @@ public class QueryBuilder extends JdbcSecurityRealmBuilder {
         return this;
     }
 
+    /**
+     * <p>A SQL SELECT statement used by {@link JdbcSecurityRealm#getRealmIdentities(java.util.Collection)} to load several
+     * principals at once, instead of executing the principal query once per principal.
+     *
+     * <p>The statement must return the same columns as the principal query, followed by an additional column holding the
+     * principal's name. It must contain a single parameter marker, which is expanded to one marker per principal:
+     *
+     * <pre>
+     *     .principalQuery("SELECT password FROM user_table WHERE name = ?")
+     *         .batchQuery("SELECT password, name FROM user_table WHERE name IN (?)")
+     * </pre>
+     *
+     * <p>The batch query is only used if every {@link KeyMapper} of the query maps single {@linkplain Row rows}, otherwise the
+     * principal query is executed for each principal.
+     *
+     * @param sql the batch query
+     * @return this builder
+     */
+    public QueryBuilder batchQuery(String sql) {
+        Assert.checkNotNullParam("sql", sql);
+        if (sql.indexOf('?') == -1 || sql.indexOf('?') != sql.lastIndexOf('?')) {
+            throw log.jdbcRealmInvalidBatchQuery(sql);
+        }
+        this.batchSql = sql;
+        return this;
+    }
 
     @Override
     public QueryBuilder principalQuery(String sql) {
         return this.parent.principalQuery(sql);
     }
 
+    @Override
+    public JdbcSecurityRealmBuilder setIdentityIteratorQuery(String sql, DataSource dataSource) {
+        return this.parent.setIdentityIteratorQuery(sql, dataSource);
+    }
+
+    @Override
+    public JdbcSecurityRealmBuilder setFetchSize(int fetchSize) {
+        return this.parent.setFetchSize(fetchSize);
+    }
+
+    @Override
+    public JdbcSecurityRealmBuilder setBatchSize(int batchSize) {
+        return this.parent.setBatchSize(batchSize);
+    }
+
     @Override
     public JdbcSecurityRealm build() {
         return this.parent.build();
     }
 
     QueryConfiguration buildQuery() {
-        return new QueryConfiguration(this.sql, this.dataSource, this.mappers);
+        return new QueryConfiguration(this.sql, this.batchSql, this.dataSource, this.mappers);
     }
 
 }
@@ -33,13 +33,19 @@ public class QueryConfiguration {
 
     private final DataSource dataSource;
     private String sql;
+    private String batchSql;
     private List<ColumnMapper> columnMappers = new ArrayList<>();
 
     QueryConfiguration(String sql, DataSource dataSource, List<ColumnMapper> columnMappers) {
+        this(sql, null, dataSource, columnMappers);
+    }
+
+    QueryConfiguration(String sql, String batchSql, DataSource dataSource, List<ColumnMapper> columnMappers) {
         Assert.checkNotNullParam("sql", sql);
         Assert.checkNotNullParam("dataSource", dataSource);
         Assert.checkNotNullParam("columnMappers", columnMappers);
         this.sql = sql;
+        this.batchSql = batchSql;
         this.dataSource = dataSource;
         this.columnMappers = columnMappers;
     }
@@ -53,6 +59,15 @@ public class QueryConfiguration {
         return this.sql;
     }
 
+    /**
+     * Returns the SQL used to load several principals at once, or {@code null} if not defined.
+     *
+     * @return the SQL used to load several principals at once, or {@code null} if not defined
+     */
+    String getBatchSql() {
+        return this.batchSql;
+    }
+
     /**
      * Returns the {@link DataSource} from where connections are obtained.
      *
@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.security.auth.realm.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * A single row returned for an identity by a query, as read by mappers which map one row at a time. Unlike a {@link ResultSet},
+ * a row can not be moved, so the rows of several identities returned by a {@linkplain QueryBuilder#batchQuery(String) batch
+ * query} can be handed to the mappers of each identity in turn.
+ */
+public interface Row {
+
+    /**
+     * Get the description of the columns of the row.
+     *
+     * @return the description of the columns
+     * @throws SQLException if the description can not be obtained
+     */
+    ResultSetMetaData getMetaData() throws SQLException;
+
+    /**
+     * Get the value of a column as a {@link String}.
+     *
+     * @param column the index of the column, starting from 1
+     * @return the value, or {@code null} if SQL {@code NULL}
+     * @throws SQLException if the value can not be read
+     */
+    String getString(int column) throws SQLException;
+
+    /**
+     * Get the value of a column as an array of bytes.
+     *
+     * @param column the index of the column, starting from 1
+     * @return the value, or {@code null} if SQL {@code NULL}
+     * @throws SQLException if the value can not be read
+     */
+    byte[] getBytes(int column) throws SQLException;
+
+    /**
+     * Get the value of a column as an {@code int}.
+     *
+     * @param column the index of the column, starting from 1
+     * @return the value, or {@code 0} if SQL {@code NULL}
+     * @throws SQLException if the value can not be read
+     */
+    int getInt(int column) throws SQLException;
+
+    /**
+     * Get the value of a column as an {@link Object}.
+     *
+     * @param column the index of the column, starting from 1
+     * @return the value, or {@code null} if SQL {@code NULL}
+     * @throws SQLException if the value can not be read
+     */
+    Object getObject(int column) throws SQLException;
+
+    /**
+     * Get a row reading the values of the row a result set is positioned on, at the time each value is read.
+     *
+     * @param resultSet the result set
+     * @return the current row of the result set
+     */
+    static Row of(ResultSet resultSet) {
+        return new Row() {
+            @Override
+            public ResultSetMetaData getMetaData() throws SQLException {
+                return resultSet.getMetaData();
+            }
+
+            @Override
+            public String getString(int column) throws SQLException {
+                return resultSet.getString(column);
+            }
+
+            @Override
+            public byte[] getBytes(int column) throws SQLException {
+                return resultSet.getBytes(column);
+            }
+
+            @Override
+            public int getInt(int column) throws SQLException {
+                return resultSet.getInt(column);
+            }
+
+            @Override
+            public Object getObject(int column) throws SQLException {
+                return resultSet.getObject(column);
+            }
+        };
+    }
+}
@@ -24,6 +24,7 @@ import java.util.function.Supplier;
 
 import org.wildfly.common.Assert;
 import org.wildfly.security.auth.realm.jdbc.ColumnMapper;
+import org.wildfly.security.auth.realm.jdbc.Row;
 
 /**
  * @author <a href="mailto:psilva@redhat.com">Pedro Igor</a>
@@ -44,6 +45,18 @@ public class AttributeMapper implements ColumnMapper {
         return resultSet.getString(this.index);
     }
 
+    /**
+     * Maps a single row returned for an identity to the value of the attribute.
+     *
+     * @param row the row
+     * @param providers the providers to use if required
+     * @return the value of the attribute
+     * @throws SQLException if any error occurs when reading the given row
+     */
+    public Object map(Row row, Supplier<Provider[]> providers) throws SQLException {
+        return row.getString(this.index);
+    }
+
     public String getName() {
         return this.name;
     }
@@ -31,6 +31,7 @@ import java.util.function.Supplier;
 
 import org.wildfly.common.Assert;
 import org.wildfly.security.auth.realm.jdbc.KeyMapper;
+import org.wildfly.security.auth.realm.jdbc.Row;
 import org.wildfly.security.auth.SupportLevel;
 import org.wildfly.security.credential.Credential;
 import org.wildfly.security.credential.PasswordCredential;
@@ -83,7 +84,16 @@ public class PasswordKeyMapper implements KeyMapper {
     @Override
     public SupportLevel getCredentialSupport(ResultSet resultSet, Supplier<Provider[]> providers) {
         try {
-            Credential map = map(resultSet, providers);
+            return getCredentialSupport(resultSet.next() ? Row.of(resultSet) : null, providers);
+        } catch (SQLException cause) {
+            throw log.couldNotObtainCredentialWithCause(cause);
+        }
+    }
+
+    @Override
+    public SupportLevel getCredentialSupport(Row row, Supplier<Provider[]> providers) {
+        try {
+            Credential map = map(row, providers);
 
             if (map != null) {
                 return SupportLevel.SUPPORTED;
@@ -160,52 +170,52 @@ public class PasswordKeyMapper implements KeyMapper {
         return algorithmColumn;
     }
 
-    private static byte[] getBinaryColumn(ResultSetMetaData metaData, ResultSet resultSet, int column) throws SQLException {
+    private static byte[] getBinaryColumn(ResultSetMetaData metaData, Row row, int column) throws SQLException {
         if (column == -1) return null;
         final int columnType = metaData.getColumnType(column);
         switch (columnType) {
             case Types.BINARY:
             case Types.VARBINARY:
             case Types.LONGVARBINARY: {
-                return resultSet.getBytes(column);
+                return row.getBytes(column);
             }
             case Types.CHAR:
             case Types.LONGVARCHAR:
             case Types.LONGNVARCHAR:
             case Types.VARCHAR:
             case Types.NVARCHAR: {
-                return CodePointIterator.ofString(resultSet.getString(column)).base64Decode().drain();
+                return CodePointIterator.ofString(row.getString(column)).base64Decode().drain();
             }
             default: {
-                final Object object = resultSet.getObject(column);
+                final Object object = row.getObject(column);
                 if (object instanceof byte[]) {
                     return (byte[]) object;
                 } else if (object instanceof String) {
-                    return CodePointIterator.ofString(resultSet.getString(column)).base64Decode().drain();
+                    return CodePointIterator.ofString(row.getString(column)).base64Decode().drain();
                 }
                 return null;
             }
         }
     }
 
-    private static String getStringColumn(ResultSetMetaData metaData, ResultSet resultSet, int column) throws SQLException {
+    private static String getStringColumn(ResultSetMetaData metaData, Row row, int column) throws SQLException {
         if (column == -1) return null;
         final int columnType = metaData.getColumnType(column);
         switch (columnType) {
             case Types.BINARY:
             case Types.VARBINARY:
             case Types.LONGVARBINARY: {
-                return new String(resultSet.getBytes(column), StandardCharsets.UTF_8);
+                return new String(row.getBytes(column), StandardCharsets.UTF_8);
             }
             case Types.CHAR:
             case Types.LONGVARCHAR:
             case Types.LONGNVARCHAR:
             case Types.VARCHAR:
             case Types.NVARCHAR: {
-                return resultSet.getString(column);
+                return row.getString(column);
             }
             default: {
-                final Object object = resultSet.getObject(column);
+                final Object object = row.getObject(column);
                 if (object instanceof byte[]) {
                     return new String((byte[]) object, StandardCharsets.UTF_8);
                 } else if (object instanceof String) {
@@ -219,6 +229,11 @@ public class PasswordKeyMapper implements KeyMapper {
 
     @Override
     public Credential map(ResultSet resultSet, Supplier<Provider[]> providers) throws SQLException {
+        return map(resultSet.next() ? Row.of(resultSet) : null, providers);
+    }
+
+    @Override
+    public Credential map(Row row, Supplier<Provider[]> providers) throws SQLException {
         byte[] hash = null;
         char[] clear = null;
         byte[] salt = null;
@@ -231,27 +246,27 @@ public class PasswordKeyMapper implements KeyMapper {
         final int algorithmColumn = getAlgorithmColumn();
         final int defaultIterationCount = getDefaultIterationCount();
 
-        final ResultSetMetaData metaData = resultSet.getMetaData();
+        if (row != null) {
+            final ResultSetMetaData metaData = row.getMetaData();
 
-        if (resultSet.next()) {
             if (algorithmColumn > 0) {
-                algorithmName = resultSet.getString(algorithmColumn);
+                algorithmName = row.getString(algorithmColumn);
                 if (algorithmName == null) {
                     algorithmName = getDefaultAlgorithm();
                 }
             }
 
             if (ClearPassword.ALGORITHM_CLEAR.equals(algorithmName)) {
-                final String s = getStringColumn(metaData, resultSet, hashColumn);
+                final String s = getStringColumn(metaData, row, hashColumn);
                 if (s != null) {
                     clear = s.toCharArray();
                 } else {
-                    hash = getBinaryColumn(metaData, resultSet, hashColumn);
+                    hash = getBinaryColumn(metaData, row, hashColumn);
                 }
             } else {
                 if (saltColumn == -1 && iterationCountColumn == -1) {
                     // try modular crypt
-                    final String s = getStringColumn(metaData, resultSet, hashColumn);
+                    final String s = getStringColumn(metaData, row, hashColumn);
                     if (s != null) {
                         final char[] chars = s.toCharArray();
                         final String identified = ModularCrypt.identifyAlgorithm(chars);
@@ -264,15 +279,15 @@ public class PasswordKeyMapper implements KeyMapper {
                         }
                     }
                 }
-                hash = getBinaryColumn(metaData, resultSet, hashColumn);
+                hash = getBinaryColumn(metaData, row, hashColumn);
             }
 
             if (saltColumn > 0) {
-                salt = getBinaryColumn(metaData, resultSet, saltColumn);
+                salt = getBinaryColumn(metaData, row, saltColumn);
             }
 
             if (iterationCountColumn > 0) {
-                iterationCount = resultSet.getInt(iterationCountColumn);
+                iterationCount = row.getInt(iterationCountColumn);
             } else {
                 iterationCount = defaultIterationCount;
             }
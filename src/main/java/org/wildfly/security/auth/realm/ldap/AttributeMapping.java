@@ -17,7 +17,11 @@
  */
 package org.wildfly.security.auth.realm.ldap;
 
+import static org.wildfly.security._private.ElytronMessages.log;
+
 import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.wildfly.common.Assert;
 
@@ -34,6 +38,9 @@ public class AttributeMapping {
     public static final String DEFAULT_DN_NAME = "dn";
     public static final String DEFAULT_ROLE_RECURSION_ATTRIBUTE = "CN";
 
+    private static final String MATCHING_RULE_IN_CHAIN = "1.2.840.113556.1.4.1941";
+    private static final Pattern DN_EQUALITY_ASSERTION = Pattern.compile("\\(([^()=~<>:]+)=\\{1\\}\\)");
+
     private final String ldapName;
     private final String searchDn;
     private final boolean recursiveSearch;
@@ -156,6 +163,7 @@ public class AttributeMapping {
         private String rdn;
         private int roleRecursionDepth;
         private String roleRecursionName;
+        private boolean matchingRuleInChain;
 
         /**
          * Set type of RDN, whose value will be used as identity attribute value.
@@ -246,7 +254,30 @@ public class AttributeMapping {
             return this;
         }
 
+        /**
+         * Resolve nested membership on the server using the {@code LDAP_MATCHING_RULE_IN_CHAIN} matching rule, as supported by
+         * Active Directory, instead of searching each level of nested groups. The equality assertion on the distinguished name
+         * of the identity ({1}) in the filter is rewritten to use the matching rule, so that a single search returns both the
+         * direct and the nested groups of the identity. Role recursion is not used together with this option.
+         *
+         * @return this builder
+         */
+        public Builder useMatchingRuleInChain() {
+            this.matchingRuleInChain = true;
+            return this;
+        }
+
         public AttributeMapping build() {
+            String filter = this.filter;
+            int roleRecursionDepth = this.roleRecursionDepth;
+            if (matchingRuleInChain) {
+                Matcher matcher = filter != null ? DN_EQUALITY_ASSERTION.matcher(filter) : null;
+                if (matcher == null || ! matcher.find()) {
+                    throw log.ldapRealmFilterNotSuitableForMatchingRuleInChain(filter);
+                }
+                filter = matcher.replaceAll("($1:" + MATCHING_RULE_IN_CHAIN + ":={1})");
+                roleRecursionDepth = 0;
+            }
             if (name == null) {
                 name = ldapName != null ? ldapName : (filter != null ? DEFAULT_FILTERED_NAME : DEFAULT_DN_NAME);
             }
@@ -75,6 +75,10 @@ class DelegatingLdapContext implements LdapContext {
         this.socketFactory = socketFactory;
     }
 
+    SocketFactory getSocketFactory() {
+        return socketFactory;
+    }
+
     public LdapContext newInitialLdapContext(Hashtable<?,?> environment, Control[] connCtls) throws NamingException {
         if (socketFactory != null) ThreadLocalSSLSocketFactory.set(socketFactory);
         try {
@@ -90,6 +90,8 @@ class DirectEvidenceVerifier implements EvidenceVerifier {
                                 userContext = new InitialLdapContext(props, null);
                             }
                             userContext.close();
+                        } else if (dirContext instanceof PooledDirContextFactory.PooledLdapContext) { // the same server - bind a pooled connection
+                            ((PooledDirContextFactory.PooledLdapContext) dirContext).authenticate(distinguishedName, password);
                         } else { // the same context - copy context
                             LdapContext userContext = ((LdapContext) dirContext).newInstance(null);
                             userContext.addToEnvironment(LdapContext.SECURITY_PRINCIPAL, distinguishedName);
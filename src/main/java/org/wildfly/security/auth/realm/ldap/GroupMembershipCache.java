@@ -0,0 +1,248 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.ldap;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.common.Assert.checkNotNullParam;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.naming.directory.SearchResult;
+
+/**
+ * <p>A cache of the groups found by role recursion of {@link AttributeMapping attribute mappings}, keyed by the distinguished name
+ * of the group whose parent groups were searched. As the parents of a group do not depend on the identity being loaded, a single
+ * cache can be shared by all identities of a realm, or by several realms, so that nested group membership is only searched once
+ * per group and time to live.
+ *
+ * <p>Changes of group entries in the directory are not tracked, cached parents are searched again once they expire or after
+ * the group has been {@link #invalidate(String) invalidated}.
+ *
+ * <p>The cached memberships also form a graph of groups which can be obtained using {@link #getGroupGraph()} and
+ * {@link #getAncestors(String)}.
+ */
+public final class GroupMembershipCache {
+
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long maxAge;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxEntries the maximum number of groups to keep in the cache
+     * @param maxAge the time in milliseconds that the parents of a group stay in the cache. If {@code -1}, entries never expire
+     */
+    public GroupMembershipCache(int maxEntries, long maxAge) {
+        checkMinimumParameter("maxEntries", 1, maxEntries);
+        checkMinimumParameter("maxAge", -1, maxAge);
+        this.maxEntries = maxEntries;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Get the cached parents of a group for the given mapping.
+     *
+     * @return the parent group entries, or {@code null} if not cached
+     */
+    List<SearchResult> get(AttributeMapping mapping, String groupDn) {
+        Key key = new Key(mapping, groupDn);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.isExpired()) {
+            entries.remove(key, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.parents;
+    }
+
+    void put(AttributeMapping mapping, String groupDn, List<SearchResult> parents) {
+        if (entries.size() >= maxEntries) {
+            makeRoom();
+        }
+        entries.put(new Key(mapping, groupDn), new Entry(Collections.unmodifiableList(parents), maxAge));
+    }
+
+    private void makeRoom() {
+        entries.values().removeIf(Entry::isExpired);
+        Iterator<Key> iterator = entries.keySet().iterator();
+        while (entries.size() >= maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Remove the given group from the cache, both as a group whose parents were searched and as a parent of other groups.
+     *
+     * @param groupDn the distinguished name of the group
+     */
+    public void invalidate(String groupDn) {
+        checkNotNullParam("groupDn", groupDn);
+        String normalized = normalize(groupDn);
+        entries.entrySet().removeIf(e -> e.getKey().groupDn.equals(normalized) || e.getValue().hasParent(normalized));
+    }
+
+    /**
+     * Remove all entries from the cache.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Get the number of groups whose parents are cached.
+     *
+     * @return the number of cached groups
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the number of lookups which found the parents of a group in the cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of lookups which had to search the parents of a group.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Get a snapshot of the cached group graph, mapping the distinguished name of each cached group to the distinguished names
+     * of its parent groups.
+     *
+     * @return the group graph, the distinguished names are in lower case
+     */
+    public Map<String, Set<String>> getGroupGraph() {
+        Map<String, Set<String>> graph = new HashMap<>();
+        for (Map.Entry<Key, Entry> e : entries.entrySet()) {
+            if (! e.getValue().isExpired()) {
+                graph.computeIfAbsent(e.getKey().groupDn, dn -> new LinkedHashSet<>()).addAll(e.getValue().parentDns);
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Get the distinguished names of all groups the given group is directly or transitively a member of, as far as known by
+     * this cache.
+     *
+     * @param groupDn the distinguished name of the group
+     * @return the distinguished names of the ancestors of the group, in lower case
+     */
+    public Set<String> getAncestors(String groupDn) {
+        checkNotNullParam("groupDn", groupDn);
+        Map<String, Set<String>> graph = getGroupGraph();
+        Set<String> ancestors = new LinkedHashSet<>();
+        ArrayDeque<String> toVisit = new ArrayDeque<>();
+        toVisit.add(normalize(groupDn));
+        while (! toVisit.isEmpty()) {
+            for (String parent : graph.getOrDefault(toVisit.poll(), Collections.emptySet())) {
+                if (ancestors.add(parent)) {
+                    toVisit.add(parent);
+                }
+            }
+        }
+        return ancestors;
+    }
+
+    static String normalize(String dn) {
+        return dn.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Key {
+
+        final AttributeMapping mapping;
+        final String groupDn;
+        final int hashCode;
+
+        Key(AttributeMapping mapping, String groupDn) {
+            this.mapping = mapping;
+            this.groupDn = normalize(groupDn);
+            this.hashCode = System.identityHashCode(mapping) * 31 + this.groupDn.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (! (obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return mapping == other.mapping && groupDn.equals(other.groupDn);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class Entry {
+
+        final List<SearchResult> parents;
+        final Set<String> parentDns;
+        final long expiration;
+
+        Entry(List<SearchResult> parents, long maxAge) {
+            this.parents = parents;
+            Set<String> parentDns = new HashSet<>();
+            for (SearchResult parent : parents) {
+                parentDns.add(normalize(parent.getNameInNamespace()));
+            }
+            this.parentDns = parentDns;
+            this.expiration = maxAge == -1 ? -1 : System.currentTimeMillis() + maxAge;
+        }
+
+        boolean hasParent(String normalizedDn) {
+            return parentDns.contains(normalizedDn);
+        }
+
+        boolean isExpired() {
+            return expiration != -1 && System.currentTimeMillis() > expiration;
+        }
+    }
+}
@@ -36,11 +36,12 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.Spliterator;
 import java.util.Spliterators;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -75,7 +76,7 @@ import org.wildfly.common.function.ExceptionSupplier;
 import org.wildfly.security._private.ElytronMessages;
 import org.wildfly.security.auth.principal.NamePrincipal;
 import org.wildfly.security.auth.realm.CacheableSecurityRealm;
-import org.wildfly.security.auth.realm.IdentitySharedExclusiveLock;
+import org.wildfly.security.auth.realm.IdentityLockManager;
 import org.wildfly.security.auth.realm.IdentitySharedExclusiveLock.IdentityLock;
 import org.wildfly.security.auth.server.CloseableIterator;
 import org.wildfly.security.auth.server.ModifiableRealmIdentity;
@@ -101,17 +102,24 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
 
     private final String ENV_BINARY_ATTRIBUTES = "java.naming.ldap.attributes.binary";
 
+    /**
+     * The maximum number of filters combined into a single search when searching the parent groups of several groups.
+     */
+    private static final int MAX_FILTER_TERMS = 50;
+    private static final Pattern FILTER_ARGUMENT = Pattern.compile("\\{(\\d+)\\}");
+
     private final Supplier<Provider[]> providers;
     private final ExceptionSupplier<DirContext, NamingException> dirContextSupplier;
     private final NameRewriter nameRewriter;
     private final IdentityMapping identityMapping;
     private final int pageSize;
+    private final GroupMembershipCache groupMembershipCache;
 
     private final List<CredentialLoader> credentialLoaders;
     private final List<CredentialPersister> credentialPersisters;
     private final List<EvidenceVerifier> evidenceVerifiers;
 
-    private final ConcurrentHashMap<String, IdentitySharedExclusiveLock> realmIdentityLocks = new ConcurrentHashMap<>();
+    private final IdentityLockManager lockManager = new IdentityLockManager();
 
     LdapSecurityRealm(final Supplier<Provider[]> providers, final ExceptionSupplier<DirContext, NamingException> dirContextSupplier,
                       final NameRewriter nameRewriter,
@@ -119,13 +127,15 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
                       final List<CredentialLoader> credentialLoaders,
                       final List<CredentialPersister> credentialPersisters,
                       final List<EvidenceVerifier> evidenceVerifiers,
-                      final int pageSize) {
+                      final int pageSize,
+                      final GroupMembershipCache groupMembershipCache) {
 
         this.providers = providers;
         this.dirContextSupplier = dirContextSupplier;
         this.nameRewriter = nameRewriter;
         this.identityMapping = identityMapping;
         this.pageSize = pageSize;
+        this.groupMembershipCache = groupMembershipCache;
 
         this.credentialLoaders = credentialLoaders;
         this.credentialPersisters = credentialPersisters;
@@ -169,12 +179,11 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
 
         // Acquire the appropriate lock for the realm identity
         log.debugf("Obtaining lock for identity [%s]...", name);
-        IdentitySharedExclusiveLock realmIdentityLock = getRealmIdentityLockForName(name);
         IdentityLock lock;
         if (exclusive) {
-            lock = realmIdentityLock.lockExclusive();
+            lock = lockManager.lockExclusive(name);
         } else {
-            lock = realmIdentityLock.lockShared();
+            lock = lockManager.lockShared(name);
         }
         log.debugf("Obtained lock for identity [%s].", name);
         return new LdapRealmIdentity(name, lock);
@@ -279,16 +288,17 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
         return response;
     }
 
-    private IdentitySharedExclusiveLock getRealmIdentityLockForName(final String name) {
-        IdentitySharedExclusiveLock realmIdentityLock = realmIdentityLocks.get(name);
-        if (realmIdentityLock == null) {
-            final IdentitySharedExclusiveLock newRealmIdentityLock = new IdentitySharedExclusiveLock();
-            realmIdentityLock = realmIdentityLocks.putIfAbsent(name, newRealmIdentityLock);
-            if (realmIdentityLock == null) {
-                realmIdentityLock = newRealmIdentityLock;
-            }
+    /**
+     * Append the given filter, shifting the indexes of its arguments by the given offset.
+     */
+    private static void appendRenumberedFilter(StringBuilder target, String filter, int offset) {
+        Matcher matcher = FILTER_ARGUMENT.matcher(filter);
+        int last = 0;
+        while (matcher.find()) {
+            target.append(filter, last, matcher.start()).append('{').append(Integer.parseInt(matcher.group(1)) + offset).append('}');
+            last = matcher.end();
         }
-        return realmIdentityLock;
+        target.append(filter, last, filter.length());
     }
 
     private class LdapRealmIdentity implements ModifiableRealmIdentity {
@@ -734,24 +744,23 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
 
                 for (int depth = 0; depth <= mapping.getRoleRecursionDepth() && ! toSearch.isEmpty(); depth++) {
                     List<SearchResult> toSearchInNextLevel = new LinkedList<>();
-                    for(SearchResult entry : toSearch) {
-                        final String entryDn = entry != null ? entry.getNameInNamespace() : null;
-                        if (mapping.getReference() != null && entry != null) { // reference
-                            forEachAttributeValue(entry, mapping.getReference(), value -> {
-                                LdapSearch search = new LdapSearch(value);
-                                extractFilteredAttributesFromSearch(search, entry, mapping, context, identityContext, values, toSearchInNextLevel);
-                            });
-                        } else if (mapping.getReference() == null) { // filter
-                            if (depth == 0) { // roles of identity
-                                LdapSearch search = new LdapSearch(searchDn, mapping.getRecursiveSearch(), 0, mapping.getFilter(), name, entryDn);
-                                extractFilteredAttributesFromSearch(search, entry, mapping, context, identityContext, values, toSearchInNextLevel);
-                            } else if (entry != null) { // roles of role
-                                forEachAttributeValue(entry, mapping.getRoleRecursionName(), roleName -> {
-                                    LdapSearch search = new LdapSearch(searchDn, mapping.getRecursiveSearch(), 0, mapping.getFilter(), roleName, entryDn);
+                    if (mapping.getReference() != null) { // reference
+                        for (SearchResult entry : toSearch) {
+                            if (entry != null) {
+                                forEachAttributeValue(entry, mapping.getReference(), value -> {
+                                    LdapSearch search = new LdapSearch(value);
                                     extractFilteredAttributesFromSearch(search, entry, mapping, context, identityContext, values, toSearchInNextLevel);
                                 });
                             }
                         }
+                    } else if (depth == 0) { // roles of identity
+                        for (SearchResult entry : toSearch) {
+                            final String entryDn = entry != null ? entry.getNameInNamespace() : null;
+                            LdapSearch search = new LdapSearch(searchDn, mapping.getRecursiveSearch(), 0, mapping.getFilter(), name, entryDn);
+                            extractFilteredAttributesFromSearch(search, entry, mapping, context, identityContext, values, toSearchInNextLevel);
+                        }
+                    } else { // roles of roles
+                        extractParentGroups(toSearch, mapping, searchDn, mapping.searchInIdentityContext() ? identityContext : context, values, toSearchInNextLevel);
                     }
                     toSearch = toSearchInNextLevel;
                 }
@@ -783,6 +792,83 @@ class LdapSecurityRealm implements ModifiableSecurityRealm, CacheableSecurityRea
             }
         }
 
+        /**
+         * Finds the parent groups of all groups of a recursion level. When the group membership cache is enabled, the parent
+         * groups are taken from it when possible and otherwise searched one group at a time, so that they can be cached for the
+         * group they were found for. Otherwise they are searched using a disjunction of the filter of the mapping for each group.
+         */
+        private void extractParentGroups(List<SearchResult> groups, AttributeMapping mapping, String searchDn, DirContext context, Collection<String> identityAttributeValues, Collection<SearchResult> toSearchInNextLevel) {
+            Set<String> returningAttributes = new HashSet<>();
+            if (mapping.getLdapName() != null) returningAttributes.add(mapping.getLdapName());
+            returningAttributes.add(mapping.getRoleRecursionName());
+
+            if (groupMembershipCache != null) {
+                for (SearchResult group : groups) {
+                    List<SearchResult> parents = groupMembershipCache.get(mapping, group.getNameInNamespace());
+                    if (parents == null) {
+                        List<SearchResult> found = new ArrayList<>();
+                        forEachAttributeValue(group, mapping.getRoleRecursionName(), roleName -> {
+                            LdapSearch search = new LdapSearch(searchDn, mapping.getRecursiveSearch(), 0, mapping.getFilter(), roleName, group.getNameInNamespace());
+                            search.setReturningAttributes(returningAttributes);
+                            searchParentGroups(search, searchDn, context, parent -> {
+                                if (! found.contains(parent)) {
+                                    found.add(parent);
+                                }
+                            });
+                        });
+                        groupMembershipCache.put(mapping, group.getNameInNamespace(), found);
+                        parents = found;
+                    }
+                    for (SearchResult parent : parents) {
+                        addParentGroup(parent, mapping, identityAttributeValues, toSearchInNextLevel);
+                    }
+                }
+                return;
+            }
+
+            List<String[]> arguments = new ArrayList<>();
+            for (SearchResult group : groups) {
+                forEachAttributeValue(group, mapping.getRoleRecursionName(), roleName -> arguments.add(new String[] { roleName, group.getNameInNamespace() }));
+            }
+
+            for (int start = 0; start < arguments.size(); start += MAX_FILTER_TERMS) {
+                List<String[]> chunk = arguments.subList(start, Math.min(start + MAX_FILTER_TERMS, arguments.size()));
+                LdapSearch search;
+                if (chunk.size() == 1) {
+                    search = new LdapSearch(searchDn, mapping.getRecursiveSearch(), 0, mapping.getFilter(), chunk.get(0));
+                } else {
+                    StringBuilder filter = new StringBuilder("(|");
+                    String[] filterArgs = new String[chunk.size() * 2];
+                    for (int i = 0; i < chunk.size(); i++) {
+                        appendRenumberedFilter(filter, mapping.getFilter(), i * 2);
+                        filterArgs[i * 2] = chunk.get(i)[0];
+                        filterArgs[i * 2 + 1] = chunk.get(i)[1];
+                    }
+                    search = new LdapSearch(searchDn, mapping.getRecursiveSearch(), 0, filter.append(')').toString(), filterArgs);
+                }
+                search.setReturningAttributes(returningAttributes);
+                searchParentGroups(search, searchDn, context, parent -> addParentGroup(parent, mapping, identityAttributeValues, toSearchInNextLevel));
+            }
+        }
+
+        private void searchParentGroups(LdapSearch search, String searchDn, DirContext context, Consumer<SearchResult> action) {
+            try (Stream<SearchResult> entries = search.search(context)) {
+                entries.forEach(action);
+            } catch (Exception cause) {
+                throw ElytronMessages.log.ldapRealmFailedObtainAttributes(searchDn, cause);
+            }
+        }
+
+        private void addParentGroup(SearchResult parent, AttributeMapping mapping, Collection<String> identityAttributeValues, Collection<SearchResult> toSearchInNextLevel) {
+            try {
+                if (valuesFromAttribute(parent, mapping, identityAttributeValues)) {
+                    toSearchInNextLevel.add(parent);
+                }
+            } catch (Exception cause) {
+                throw ElytronMessages.log.ldapRealmFailedObtainAttributes(parent.getNameInNamespace(), cause);
+            }
+        }
+
         private Map<String, Collection<String>> extractSimpleAttributes(SearchResult identityEntry) {
             if (identityEntry == null) return Collections.emptyMap();
             return extractAttributes(mapping -> !mapping.isFilteredOrReference(), mapping -> {
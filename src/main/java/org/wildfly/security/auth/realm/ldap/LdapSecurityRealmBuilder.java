@@ -61,6 +61,7 @@ public class LdapSecurityRealmBuilder {
     private NameRewriter nameRewriter = NameRewriter.IDENTITY_REWRITER;
     private IdentityMapping identityMapping;
     private int pageSize = 50;
+    private GroupMembershipCache groupMembershipCache;
 
     private List<CredentialLoader> credentialLoaders = new ArrayList<>();
     private List<CredentialPersister> credentialPersisters = new ArrayList<>();
@@ -132,6 +133,22 @@ public class LdapSecurityRealmBuilder {
         return this;
     }
 
+    /**
+     * Set the cache of groups found by role recursion of attribute mappings. The same cache may be shared by several realms.
+     * Changes of group entries are not tracked by the realm, cached groups are searched again once they expire.
+     * Parent groups of groups missing from the cache are searched one group at a time rather than in batches, so that they
+     * can be cached for the group they were found for.
+     *
+     * @param groupMembershipCache the group membership cache
+     * @return this builder
+     */
+    public LdapSecurityRealmBuilder setGroupMembershipCache(final GroupMembershipCache groupMembershipCache) {
+        assertNotBuilt();
+        this.groupMembershipCache = groupMembershipCache;
+
+        return this;
+    }
+
     public IdentityMappingBuilder identityMapping() {
         assertNotBuilt();
 
@@ -210,7 +227,7 @@ public class LdapSecurityRealmBuilder {
         }
 
         built = true;
-        return new LdapSecurityRealm(providers, dirContextSupplier, nameRewriter, identityMapping, credentialLoaders, credentialPersisters, evidenceVerifiers, pageSize);
+        return new LdapSecurityRealm(providers, dirContextSupplier, nameRewriter, identityMapping, credentialLoaders, credentialPersisters, evidenceVerifiers, pageSize, groupMembershipCache);
     }
 
     private void assertNotBuilt() {
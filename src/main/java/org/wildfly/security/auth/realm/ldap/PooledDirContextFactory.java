@@ -0,0 +1,594 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.ldap;
+
+import static org.wildfly.security._private.ElytronMessages.log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.naming.Context;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.LdapContext;
+import javax.security.auth.callback.CallbackHandler;
+
+/**
+ * A {@link DirContextFactory} keeping the contexts obtained from another factory, typically one built by
+ * {@link SimpleDirContextFactoryBuilder}, in bounded pools so that their connections are reused across identity lookups
+ * instead of connecting and binding for each of them.
+ *
+ * Contexts obtained by {@link #obtainDirContext(ReferralMode)} are bound as the service account of the realm and are pooled per
+ * referral mode; closing them returns them to the pool. A separate pool holds the connections used by direct evidence
+ * verification, which re-binds a pooled connection as the identity being verified rather than opening a new connection for each
+ * verification. Contexts obtained by {@link #obtainDirContext(CallbackHandler, ReferralMode)} are bound to caller supplied
+ * credentials and are never pooled.
+ *
+ * Idle connections are validated when borrowed once they have been idle longer than the validation interval, and are closed
+ * once idle longer than the maximum idle time or older than the maximum lifetime. Metrics of each pool are available from
+ * {@link #getServiceAccountPool()} and {@link #getIdentityBindPool()}.
+ */
+public final class PooledDirContextFactory implements DirContextFactory, AutoCloseable {
+
+    private static final String[] NO_ATTRIBUTES = { "1.1" };
+
+    private final DirContextFactory dirContextFactory;
+    private final long maxWait;
+    private final long maxIdleTime;
+    private final long maxLifetime;
+    private final long validationInterval;
+    private final Pool serviceAccountPool;
+    private final Pool identityBindPool;
+    private final ScheduledExecutorService evictor;
+
+    PooledDirContextFactory(final DirContextFactory dirContextFactory, final int maxSize, final int identityBindMaxSize, final long maxWait,
+                            final long maxIdleTime, final long maxLifetime, final long validationInterval, final long evictionInterval) {
+        this.dirContextFactory = dirContextFactory;
+        this.maxWait = TimeUnit.MILLISECONDS.toNanos(maxWait);
+        this.maxIdleTime = TimeUnit.MILLISECONDS.toNanos(maxIdleTime);
+        this.maxLifetime = TimeUnit.MILLISECONDS.toNanos(maxLifetime);
+        this.validationInterval = validationInterval < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(validationInterval);
+        this.serviceAccountPool = new Pool("service-account", maxSize);
+        this.identityBindPool = new Pool("identity-bind", identityBindMaxSize);
+
+        if (evictionInterval > 0) {
+            evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "LDAP connection pool evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            evictor.scheduleWithFixedDelay(() -> {
+                serviceAccountPool.evict();
+                identityBindPool.evict();
+            }, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+        } else {
+            evictor = null;
+        }
+    }
+
+    @Override
+    public DirContext obtainDirContext(ReferralMode mode) throws NamingException {
+        if (mode == null) {
+            mode = ReferralMode.IGNORE;
+        }
+        PooledConnection connection = serviceAccountPool.acquire(mode);
+        return new PooledLdapContext(new ReleaseHandler(serviceAccountPool, connection));
+    }
+
+    @Override
+    public DirContext obtainDirContext(CallbackHandler handler, ReferralMode mode) throws NamingException {
+        return dirContextFactory.obtainDirContext(handler, mode);
+    }
+
+    @Override
+    public void returnContext(DirContext context) {
+        if (context instanceof PooledLdapContext) {
+            closeQuietly(context);
+        } else {
+            dirContextFactory.returnContext(context);
+        }
+    }
+
+    @Override
+    public void discardContext(DirContext context) {
+        if (context instanceof PooledLdapContext) {
+            ((PooledLdapContext) context).handler.discard();
+        } else {
+            dirContextFactory.discardContext(context);
+        }
+    }
+
+    /**
+     * Get the pool of contexts bound as the service account of the realm.
+     *
+     * @return the service account pool
+     */
+    public Pool getServiceAccountPool() {
+        return serviceAccountPool;
+    }
+
+    /**
+     * Get the pool of connections used to verify the credentials of identities by binding as them.
+     *
+     * @return the identity bind pool
+     */
+    public Pool getIdentityBindPool() {
+        return identityBindPool;
+    }
+
+    /**
+     * Close all idle connections and stop pooling; connections in use are closed as soon as they are returned.
+     */
+    @Override
+    public void close() {
+        if (evictor != null) {
+            evictor.shutdown();
+        }
+        serviceAccountPool.shutdown();
+        identityBindPool.shutdown();
+    }
+
+    /**
+     * Verify the given credentials by binding a connection of the identity bind pool as the given identity.
+     *
+     * @throws javax.naming.AuthenticationException if the credentials are not valid
+     */
+    void authenticate(final String distinguishedName, final char[] password) throws NamingException {
+        PooledConnection connection = identityBindPool.acquire(ReferralMode.IGNORE);
+        boolean bound = false;
+        try {
+            LdapContext context = (LdapContext) connection.context;
+            context.addToEnvironment(Context.SECURITY_PRINCIPAL, distinguishedName);
+            context.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+            try {
+                // an unshared LDAPv3 connection is re-authenticated in place rather than reopened
+                context.reconnect(null);
+            } finally {
+                context.removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+            }
+            bound = true;
+        } finally {
+            if (bound) {
+                identityBindPool.release(connection);
+            } else {
+                identityBindPool.destroy(connection);
+            }
+        }
+    }
+
+    private static void closeQuietly(DirContext context) {
+        try {
+            context.close();
+        } catch (NamingException e) {
+            log.debug("PooledDirContextFactory failed to close DirContext", e);
+        }
+    }
+
+    /**
+     * A bounded pool of connections, with its usage metrics.
+     */
+    public final class Pool {
+
+        private final String name;
+        private final int maxSize;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition released = lock.newCondition();
+        private final EnumMap<ReferralMode, ArrayDeque<PooledConnection>> idle = new EnumMap<>(ReferralMode.class);
+        private int size;
+        private int active;
+        private boolean closed;
+
+        private final LongAdder acquireCount = new LongAdder();
+        private final LongAdder acquireTime = new LongAdder();
+        private final LongAccumulator maxAcquireTime = new LongAccumulator(Math::max, 0);
+        private final LongAdder timeoutCount = new LongAdder();
+        private final LongAdder createdCount = new LongAdder();
+        private final LongAdder destroyedCount = new LongAdder();
+
+        Pool(final String name, final int maxSize) {
+            this.name = name;
+            this.maxSize = maxSize;
+            for (ReferralMode mode : ReferralMode.values()) {
+                idle.put(mode, new ArrayDeque<>());
+            }
+        }
+
+        PooledConnection acquire(final ReferralMode mode) throws NamingException {
+            long start = System.nanoTime();
+            try {
+                for (;;) {
+                    PooledConnection connection = take(mode, start);
+                    if (connection == null) {
+                        return create(mode);
+                    }
+                    if (isUsable(connection)) {
+                        return connection;
+                    }
+                    destroy(connection);
+                }
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                acquireCount.increment();
+                acquireTime.add(elapsed);
+                maxAcquireTime.accumulate(elapsed);
+            }
+        }
+
+        /**
+         * Take an idle connection for the given referral mode, or return {@code null} if a new connection may be created.
+         */
+        private PooledConnection take(final ReferralMode mode, final long start) throws NamingException {
+            PooledConnection replaced = null;
+            lock.lock();
+            try {
+                long remaining = maxWait - (System.nanoTime() - start);
+                for (;;) {
+                    PooledConnection connection = idle.get(mode).pollFirst();
+                    if (connection != null) {
+                        active++;
+                        return connection;
+                    }
+                    if (size < maxSize) {
+                        size++;
+                        active++;
+                        return null;
+                    }
+                    // replace an idle connection opened for another referral mode
+                    for (ArrayDeque<PooledConnection> connections : idle.values()) {
+                        if ((replaced = connections.pollLast()) != null) {
+                            active++;
+                            return null;
+                        }
+                    }
+                    if (remaining <= 0) {
+                        timeoutCount.increment();
+                        throw log.ldapConnectionPoolTimeout(TimeUnit.NANOSECONDS.toMillis(maxWait), name);
+                    }
+                    remaining = released.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedNamingException();
+            } finally {
+                lock.unlock();
+                if (replaced != null) {
+                    close(replaced);
+                }
+            }
+        }
+
+        private PooledConnection create(final ReferralMode mode) throws NamingException {
+            try {
+                PooledConnection connection = new PooledConnection(mode, dirContextFactory.obtainDirContext(mode));
+                createdCount.increment();
+                return connection;
+            } catch (NamingException | RuntimeException e) {
+                lock.lock();
+                try {
+                    size--;
+                    active--;
+                    released.signal();
+                } finally {
+                    lock.unlock();
+                }
+                throw e;
+            }
+        }
+
+        private boolean isUsable(final PooledConnection connection) {
+            long now = System.nanoTime();
+            if (isExpired(connection, now)) {
+                return false;
+            }
+            if (validationInterval >= 0 && now - connection.lastUsed > validationInterval) {
+                try {
+                    connection.context.getAttributes("", NO_ATTRIBUTES);
+                } catch (NamingException e) {
+                    log.debugf(e, "Discarding LDAP connection [%s] which failed validation", connection.context);
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isExpired(final PooledConnection connection, final long now) {
+            return maxLifetime > 0 && now - connection.created > maxLifetime || maxIdleTime > 0 && now - connection.lastUsed > maxIdleTime;
+        }
+
+        void release(final PooledConnection connection) {
+            connection.lastUsed = System.nanoTime();
+            boolean destroy;
+            lock.lock();
+            try {
+                active--;
+                destroy = closed || maxLifetime > 0 && connection.lastUsed - connection.created > maxLifetime;
+                if (destroy) {
+                    size--;
+                } else {
+                    idle.get(connection.mode).addFirst(connection);
+                }
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+            if (destroy) {
+                close(connection);
+            }
+        }
+
+        void destroy(final PooledConnection connection) {
+            lock.lock();
+            try {
+                active--;
+                size--;
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+            close(connection);
+        }
+
+        void evict() {
+            List<PooledConnection> evicted = new ArrayList<>();
+            long now = System.nanoTime();
+            lock.lock();
+            try {
+                for (ArrayDeque<PooledConnection> connections : idle.values()) {
+                    Iterator<PooledConnection> iterator = connections.descendingIterator();
+                    while (iterator.hasNext()) {
+                        PooledConnection connection = iterator.next();
+                        if (isExpired(connection, now)) {
+                            iterator.remove();
+                            evicted.add(connection);
+                        }
+                    }
+                }
+                size -= evicted.size();
+                if (! evicted.isEmpty()) {
+                    released.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+            evicted.forEach(this::close);
+        }
+
+        void shutdown() {
+            List<PooledConnection> evicted = new ArrayList<>();
+            lock.lock();
+            try {
+                closed = true;
+                for (ArrayDeque<PooledConnection> connections : idle.values()) {
+                    evicted.addAll(connections);
+                    connections.clear();
+                }
+                size -= evicted.size();
+            } finally {
+                lock.unlock();
+            }
+            evicted.forEach(this::close);
+        }
+
+        private void close(final PooledConnection connection) {
+            destroyedCount.increment();
+            closeQuietly(connection.context);
+        }
+
+        /**
+         * Get the name of this pool.
+         *
+         * @return the name of this pool
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the maximum number of connections of this pool.
+         *
+         * @return the maximum number of connections
+         */
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        /**
+         * Get the number of open connections, in use or idle.
+         *
+         * @return the number of open connections
+         */
+        public int getSize() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Get the number of connections currently in use.
+         *
+         * @return the number of connections in use
+         */
+        public int getActiveCount() {
+            lock.lock();
+            try {
+                return active;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Get the number of idle connections.
+         *
+         * @return the number of idle connections
+         */
+        public int getIdleCount() {
+            lock.lock();
+            try {
+                return size - active;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Get the ratio of connections in use to the maximum number of connections.
+         *
+         * @return the utilization of this pool, between {@code 0} and {@code 1}
+         */
+        public double getUtilization() {
+            return (double) getActiveCount() / maxSize;
+        }
+
+        /**
+         * Get the number of times a connection was requested from this pool.
+         *
+         * @return the number of acquisitions
+         */
+        public long getAcquireCount() {
+            return acquireCount.sum();
+        }
+
+        /**
+         * Get the number of times no connection became available within the maximum wait time.
+         *
+         * @return the number of timeouts
+         */
+        public long getTimeoutCount() {
+            return timeoutCount.sum();
+        }
+
+        /**
+         * Get the total time spent acquiring connections, including connecting new ones, in nanoseconds.
+         *
+         * @return the total acquire time in nanoseconds
+         */
+        public long getTotalAcquireTime() {
+            return acquireTime.sum();
+        }
+
+        /**
+         * Get the longest time spent acquiring a connection, in nanoseconds.
+         *
+         * @return the maximum acquire time in nanoseconds
+         */
+        public long getMaxAcquireTime() {
+            return maxAcquireTime.get();
+        }
+
+        /**
+         * Get the number of connections opened by this pool.
+         *
+         * @return the number of connections opened
+         */
+        public long getCreatedCount() {
+            return createdCount.sum();
+        }
+
+        /**
+         * Get the number of connections closed by this pool, because they expired, failed validation or were discarded.
+         *
+         * @return the number of connections closed
+         */
+        public long getDestroyedCount() {
+            return destroyedCount.sum();
+        }
+    }
+
+    private static final class PooledConnection {
+
+        private final ReferralMode mode;
+        private final DirContext context;
+        private final long created;
+        private volatile long lastUsed;
+
+        PooledConnection(final ReferralMode mode, final DirContext context) {
+            this.mode = mode;
+            this.context = context;
+            this.created = this.lastUsed = System.nanoTime();
+        }
+    }
+
+    /**
+     * Returns the connection to its pool the first time the context using it is closed.
+     */
+    private static final class ReleaseHandler implements DelegatingLdapContext.CloseHandler {
+
+        private final Pool pool;
+        private final PooledConnection connection;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        ReleaseHandler(final Pool pool, final PooledConnection connection) {
+            this.pool = pool;
+            this.connection = connection;
+        }
+
+        @Override
+        public void handle(DirContext context) {
+            if (released.compareAndSet(false, true)) {
+                pool.release(connection);
+            }
+        }
+
+        void discard() {
+            if (released.compareAndSet(false, true)) {
+                pool.destroy(connection);
+            }
+        }
+    }
+
+    /**
+     * A context borrowed from the service account pool.
+     */
+    final class PooledLdapContext extends DelegatingLdapContext {
+
+        private final ReleaseHandler handler;
+
+        PooledLdapContext(final ReleaseHandler handler) throws NamingException {
+            super(handler.connection.context, handler, handler.connection.context instanceof DelegatingLdapContext
+                    ? ((DelegatingLdapContext) handler.connection.context).getSocketFactory() : null);
+            this.handler = handler;
+        }
+
+        /**
+         * Verify the given credentials using a connection of the identity bind pool.
+         *
+         * @throws javax.naming.AuthenticationException if the credentials are not valid
+         */
+        void authenticate(final String distinguishedName, final char[] password) throws NamingException {
+            PooledDirContextFactory.this.authenticate(distinguishedName, password);
+        }
+    }
+}
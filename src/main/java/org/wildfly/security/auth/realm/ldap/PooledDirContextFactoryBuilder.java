@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.ldap;
+
+import static org.wildfly.security._private.ElytronMessages.log;
+
+import org.wildfly.common.Assert;
+
+/**
+ * A builder for a {@link PooledDirContextFactory}, pooling the contexts of a {@link DirContextFactory} such as one built by
+ * {@link SimpleDirContextFactoryBuilder}.
+ */
+public class PooledDirContextFactoryBuilder {
+
+    private static final int DEFAULT_MAX_SIZE = 20;
+    private static final int DEFAULT_IDENTITY_BIND_MAX_SIZE = 10;
+    private static final long DEFAULT_MAX_WAIT = 5000; // ms
+    private static final long DEFAULT_MAX_IDLE_TIME = 300000; // ms
+    private static final long DEFAULT_MAX_LIFETIME = 1800000; // ms
+    private static final long DEFAULT_VALIDATION_INTERVAL = 30000; // ms
+    private static final long DEFAULT_EVICTION_INTERVAL = 60000; // ms
+
+    private boolean built = false;
+    private DirContextFactory dirContextFactory;
+    private int maxSize = DEFAULT_MAX_SIZE;
+    private int identityBindMaxSize = DEFAULT_IDENTITY_BIND_MAX_SIZE;
+    private long maxWait = DEFAULT_MAX_WAIT;
+    private long maxIdleTime = DEFAULT_MAX_IDLE_TIME;
+    private long maxLifetime = DEFAULT_MAX_LIFETIME;
+    private long validationInterval = DEFAULT_VALIDATION_INTERVAL;
+    private long evictionInterval = DEFAULT_EVICTION_INTERVAL;
+
+    private PooledDirContextFactoryBuilder() {
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @return the new builder
+     */
+    public static PooledDirContextFactoryBuilder builder() {
+        return new PooledDirContextFactoryBuilder();
+    }
+
+    /**
+     * Set the factory used to open the pooled contexts.
+     *
+     * @param dirContextFactory the factory used to open the pooled contexts
+     * @return this builder
+     */
+    public PooledDirContextFactoryBuilder setDirContextFactory(final DirContextFactory dirContextFactory) {
+        assertNotBuilt();
+        this.dirContextFactory = Assert.checkNotNullParam("dirContextFactory", dirContextFactory);
+
+        return this;
+    }
+
+    /**
+     * Set the maximum number of contexts bound as the service account.
+     * If not set, {@value #DEFAULT_MAX_SIZE} will be used.
+     *
+     * @param maxSize the maximum number of service account contexts
+     * @return this builder
+     */
+    public PooledDirContextFactoryBuilder setMaxSize(final int maxSize) {
+        assertNotBuilt();
+        Assert.checkMinimumParameter("maxSize", 1, maxSize);
+        this.maxSize = maxSize;
+
+        return this;
+    }
+
+    /**
+     * Set the maximum number of connections used to verify credentials by binding as the identity.
+     * If not set, {@value #DEFAULT_IDENTITY_BIND_MAX_SIZE} will be used.
+     *
+     * @param identityBindMaxSize the maximum number of identity bind connections
+     * @return this builder
+     */
+    public PooledDirContextFactoryBuilder setIdentityBindMaxSize(final int identityBindMaxSize) {
+        assertNotBuilt();
+        Assert.checkMinimumParameter("identityBindMaxSize", 1, identityBindMaxSize);
+        this.identityBindMaxSize = identityBindMaxSize;
+
+        return this;
+    }
+
+    /**
+     * Set how long to wait for a connection when a pool is exhausted before failing.
+     * If not set, {@value #DEFAULT_MAX_WAIT} ms will be used.
+     *
+     * @param maxWait the maximum wait time in milliseconds
+     * @return this builder
+     */
+    public PooledDirContextFactoryBuilder setMaxWait(final long maxWait) {
+        assertNotBuilt();
+        Assert.checkMinimumParameter("maxWait", 0, maxWait);
+        this.maxWait = maxWait;
+
+        return this;
+    }
+
+    /**
+     * Set how long a connection may stay idle before being closed.
+     * Set to 0 to keep idle connections indefinitely.
+     * If not set, {@value #DEFAULT_MAX_IDLE_TIME} ms will be used.
+     *
+     * @param maxIdleTime the maximum idle time in milliseconds
+     * @return this builder
+     */
+    public PooledDirContextFactoryBuilder setMaxIdleTime(final long maxIdleTime) {
+        assertNotBuilt();
+        Assert.checkMinimumParameter("maxIdleTime", 0, maxIdleTime);
+        this.maxIdleTime = maxIdleTime;
+
+        return this;
+    }
+
+    /**
+     * Set how long a connection may be used, since it was opened, before being closed.
+     * Set to 0 to never close connections because of their age.
+     * If not set, {@value #DEFAULT_MAX_LIFETIME} ms will be used.
+     *
+     * @param maxLifetime the maximum lifetime in milliseconds
+     * @return this builder
+     */
+    public PooledDirContextFactoryBuilder setMaxLifetime(final long maxLifetime) {
+        assertNotBuilt();
+        Assert.checkMinimumParameter("maxLifetime", 0, maxLifetime);
+        this.maxLifetime = maxLifetime;
+
+        return this;
+    }
+
+    /**
+     * Set how long a connection may stay idle before being validated, by reading the root entry, when borrowed.
+     * Set to 0 to validate on every borrow, or to -1 to never validate.
+     * If not set, {@value #DEFAULT_VALIDATION_INTERVAL} ms will be used.
+     *
+     * @param validationInterval the validation interval in milliseconds
+     * @return this builder
+     */
+    public PooledDirContextFactoryBuilder setValidationInterval(final long validationInterval) {
+        assertNotBuilt();
+        Assert.checkMinimumParameter("validationInterval", -1, validationInterval);
+        this.validationInterval = validationInterval;
+
+        return this;
+    }
+
+    /**
+     * Set how often idle connections which expired are closed in the background.
+     * Set to 0 to only close expired connections when they are borrowed.
+     * If not set, {@value #DEFAULT_EVICTION_INTERVAL} ms will be used.
+     *
+     * @param evictionInterval the eviction interval in milliseconds
+     * @return this builder
+     */
+    public PooledDirContextFactoryBuilder setEvictionInterval(final long evictionInterval) {
+        assertNotBuilt();
+        Assert.checkMinimumParameter("evictionInterval", 0, evictionInterval);
+        this.evictionInterval = evictionInterval;
+
+        return this;
+    }
+
+    /**
+     * Build this context factory.
+     *
+     * @return the context factory
+     */
+    public PooledDirContextFactory build() {
+        assertNotBuilt();
+        Assert.checkNotNullParam("dirContextFactory", dirContextFactory);
+
+        built = true;
+        return new PooledDirContextFactory(dirContextFactory, maxSize, identityBindMaxSize, maxWait, maxIdleTime, maxLifetime,
+                validationInterval, evictionInterval);
+    }
+
+    private void assertNotBuilt() {
+        if (built) {
+            throw log.builderAlreadyBuilt();
+        }
+    }
+}
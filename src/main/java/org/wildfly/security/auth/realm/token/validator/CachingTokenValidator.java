@@ -0,0 +1,320 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.token.validator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.common.Assert.checkNotNullParam;
+import static org.wildfly.security._private.ElytronMessages.log;
+
+import java.math.BigDecimal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.wildfly.security.auth.realm.token.TokenValidator;
+import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.authz.Attributes;
+import org.wildfly.security.evidence.BearerTokenEvidence;
+import org.wildfly.security.util._private.PrimitivePool;
+
+/**
+ * <p>A {@link TokenValidator} which caches the outcome of another {@link TokenValidator}, so that a token presented many times is
+ * only validated once, for example only introspected once by a {@link OAuth2IntrospectValidator}.
+ *
+ * <p>Entries are keyed by the SHA-256 digest of the token, the token itself is not retained. The attributes of a valid token are
+ * cached until the time given by its <code>exp</code> claim, but never longer than the configured maximum age. Invalid tokens are
+ * also cached, for a separate and usually shorter maximum age, so repeatedly presented invalid tokens do not reach the delegate
+ * either. Failures of the delegate are never cached.
+ *
+ * <p>The cache is bounded, once it is full expired entries are discarded first and then arbitrary entries. Hit, miss and eviction
+ * counters can be obtained via {@link #getHitCount()}, {@link #getNegativeHitCount()}, {@link #getMissCount()} and
+ * {@link #getEvictionCount()}.
+ */
+public final class CachingTokenValidator implements TokenValidator {
+
+    /**
+     * Returns a {@link Builder} instance that can be used to configure and create a {@link CachingTokenValidator}.
+     *
+     * @return a {@link Builder} instance
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final long SWEEP_INTERVAL = 1000;
+
+    private final TokenValidator validator;
+    private final int maxEntries;
+    private final long maxAge;
+    private final long maxNegativeAge;
+
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private volatile long lastSweep;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    CachingTokenValidator(Builder configuration) {
+        this.validator = checkNotNullParam("validator", configuration.validator);
+        this.maxEntries = configuration.maxEntries;
+        this.maxAge = configuration.maxAge;
+        this.maxNegativeAge = configuration.maxNegativeAge;
+    }
+
+    @Override
+    public Attributes validate(BearerTokenEvidence evidence) throws RealmUnavailableException {
+        checkNotNullParam("evidence", evidence);
+        Key key = new Key(digest(evidence.getToken()));
+        long now = System.currentTimeMillis();
+
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (now < entry.expiration) {
+                hits.increment();
+                if (entry.attributes == null) {
+                    negativeHits.increment();
+                }
+                return entry.attributes;
+            }
+            if (entries.remove(key, entry)) {
+                evictions.increment();
+            }
+        }
+
+        misses.increment();
+        Attributes attributes = validator.validate(evidence);
+
+        long expiration;
+        if (attributes != null) {
+            attributes = attributes.asReadOnly();
+            expiration = Math.min(now + maxAge, tokenExpiration(attributes));
+        } else {
+            expiration = now + maxNegativeAge;
+        }
+        if (expiration > now) {
+            makeRoom(now);
+            entries.put(key, new Entry(attributes, expiration));
+        }
+
+        return attributes;
+    }
+
+    /**
+     * Remove all the cached entries.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Get the number of validations answered from the cache, including those answered with a cached invalid outcome.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of validations answered from the cache with a cached invalid outcome.
+     *
+     * @return the number of cache hits for invalid tokens
+     */
+    public long getNegativeHitCount() {
+        return negativeHits.sum();
+    }
+
+    /**
+     * Get the number of validations which were delegated to the wrapped validator.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the number of entries removed from the cache either to stay within its maximum size or because they expired.
+     *
+     * @return the number of evicted entries
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Get the approximate number of entries currently held by this cache.
+     *
+     * @return the approximate number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private void makeRoom(long now) {
+        if (entries.size() < maxEntries) {
+            return;
+        }
+        if (now - lastSweep > SWEEP_INTERVAL) {
+            lastSweep = now;
+            entries.forEach((key, entry) -> {
+                if (now >= entry.expiration && entries.remove(key, entry)) {
+                    evictions.increment();
+                }
+            });
+        }
+        Iterator<Key> iterator = entries.keySet().iterator();
+        while (entries.size() >= maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    private static long tokenExpiration(Attributes attributes) {
+        String exp = attributes.getFirst("exp");
+        if (exp != null) {
+            try {
+                return new BigDecimal(exp).longValue() * 1000;
+            } catch (NumberFormatException e) {
+                log.debugf("Ignoring invalid exp claim [%s]", exp);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static byte[] digest(String token) throws RealmUnavailableException {
+        MessageDigest messageDigest = null;
+        try {
+            messageDigest = PrimitivePool.acquireMessageDigest(DIGEST_ALGORITHM);
+            return messageDigest.digest(token.getBytes(UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RealmUnavailableException(e);
+        } finally {
+            PrimitivePool.release(messageDigest);
+        }
+    }
+
+    private static final class Key {
+
+        private final byte[] digest;
+        private final int hashCode;
+
+        Key(byte[] digest) {
+            this.digest = digest;
+            this.hashCode = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && Arrays.equals(digest, ((Key) obj).digest);
+        }
+    }
+
+    private static final class Entry {
+
+        private final Attributes attributes;
+        private final long expiration;
+
+        Entry(Attributes attributes, long expiration) {
+            this.attributes = attributes;
+            this.expiration = expiration;
+        }
+    }
+
+    public static class Builder {
+
+        private TokenValidator validator;
+        private int maxEntries = 1000;
+        private long maxAge = 5 * 60 * 1000;
+        private long maxNegativeAge = 10 * 1000;
+
+        private Builder() {
+        }
+
+        /**
+         * The {@link TokenValidator} whose outcome is cached. This configuration is mandatory.
+         *
+         * @param validator the validator to cache
+         * @return this instance
+         */
+        public Builder validator(TokenValidator validator) {
+            this.validator = validator;
+            return this;
+        }
+
+        /**
+         * The maximum number of tokens to keep in the cache. Defaults to 1000.
+         *
+         * @param maxEntries the maximum number of entries
+         * @return this instance
+         */
+        public Builder maxEntries(int maxEntries) {
+            checkMinimumParameter("maxEntries", 1, maxEntries);
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * The maximum time a valid token is cached for, even if its <code>exp</code> claim allows it to be cached for longer.
+         * Defaults to 5 minutes.
+         *
+         * @param maxAge the maximum age in milliseconds
+         * @return this instance
+         */
+        public Builder maxAge(long maxAge) {
+            checkMinimumParameter("maxAge", 0, maxAge);
+            this.maxAge = maxAge;
+            return this;
+        }
+
+        /**
+         * The time an invalid token is cached for. If {@code 0}, invalid tokens are not cached. Defaults to 10 seconds.
+         *
+         * @param maxNegativeAge the maximum age of invalid tokens in milliseconds
+         * @return this instance
+         */
+        public Builder maxNegativeAge(long maxNegativeAge) {
+            checkMinimumParameter("maxNegativeAge", 0, maxNegativeAge);
+            this.maxNegativeAge = maxNegativeAge;
+            return this;
+        }
+
+        /**
+         * Returns a {@link CachingTokenValidator} instance based on all the configuration provided with this builder.
+         *
+         * @return a new {@link CachingTokenValidator} instance with all the given configuration
+         */
+        public CachingTokenValidator build() {
+            return new CachingTokenValidator(this);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.token.validator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.wildfly.security._private.ElytronMessages.log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.wildfly.common.Assert;
+import org.wildfly.security.util.ByteStringBuilder;
+
+/**
+ * The default {@link TokenIntrospectionTransport}, based on {@link HttpURLConnection}.
+ *
+ * <p>Response bodies, including error responses, are always read completely and closed without disconnecting, so the underlying
+ * connection is returned to the JDK keep-alive cache and reused by subsequent requests to the same endpoint. The number of idle
+ * connections kept per destination is controlled by the {@code http.maxConnections} system property.
+ */
+final class HttpURLConnectionTransport implements TokenIntrospectionTransport {
+
+    private final SSLSocketFactory sslSocketFactory;
+    private final HostnameVerifier hostnameVerifier;
+    private final int connectionTimeout;
+    private final int readTimeout;
+
+    HttpURLConnectionTransport(SSLContext sslContext, HostnameVerifier hostnameVerifier, int connectionTimeout, int readTimeout) {
+        // a single factory instance, as the keep-alive cache only reuses HTTPS connections created by the same factory
+        this.sslSocketFactory = sslContext == null ? null : sslContext.getSocketFactory();
+        this.hostnameVerifier = hostnameVerifier;
+        this.connectionTimeout = connectionTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public JsonObject introspect(URL tokenIntrospectionUrl, Map<String, String> headers, Map<String, String> parameters) throws IOException {
+        HttpURLConnection connection = openConnection(tokenIntrospectionUrl);
+        byte[] params = buildParameters(parameters);
+
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        connection.setFixedLengthStreamingMode(params.length);
+        headers.forEach(connection::setRequestProperty);
+
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(params);
+        }
+
+        try {
+            try (InputStream inputStream = connection.getInputStream(); JsonReader reader = Json.createReader(inputStream)) {
+                return reader.readObject();
+            }
+        } catch (IOException ioe) {
+            InputStream errorStream = connection.getErrorStream();
+
+            if (errorStream == null) {
+                throw ioe;
+            }
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(errorStream, UTF_8))) {
+                StringBuilder response = reader.lines().collect(StringBuilder::new, StringBuilder::append, StringBuilder::append);
+                log.errorf(ioe, "Unexpected response from token introspection endpoint [%s]. Response: [%s]", tokenIntrospectionUrl, response);
+            }
+
+            return null;
+        }
+    }
+
+    private HttpURLConnection openConnection(URL url) throws IOException {
+        Assert.checkNotNullParam("url", url);
+
+        log.debugf("Opening connection to token introspection endpoint [%s]", url);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        connection.setConnectTimeout(connectionTimeout);
+        connection.setReadTimeout(readTimeout);
+
+        if (connection instanceof HttpsURLConnection) {
+            HttpsURLConnection https = (HttpsURLConnection) connection;
+
+            if (sslSocketFactory != null) {
+                https.setSSLSocketFactory(sslSocketFactory);
+            }
+
+            if (hostnameVerifier != null) {
+                https.setHostnameVerifier(hostnameVerifier);
+            }
+        }
+
+        return connection;
+    }
+
+    private static byte[] buildParameters(Map<String, String> parameters) throws IOException {
+        ByteStringBuilder params = new ByteStringBuilder();
+
+        for (Map.Entry<String, String> entry : parameters.entrySet()) {
+            if (params.length() > 0) {
+                params.append('&');
+            }
+            params.append(URLEncoder.encode(entry.getKey(), "UTF-8")).append('=').append(URLEncoder.encode(entry.getValue(), "UTF-8"));
+        }
+
+        return params.toArray();
+    }
+}
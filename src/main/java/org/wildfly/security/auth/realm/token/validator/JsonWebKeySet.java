@@ -0,0 +1,291 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.token.validator;
+
+import static org.wildfly.security._private.ElytronMessages.log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.wildfly.security.auth.server.RealmUnavailableException;
+
+/**
+ * The keys of a JSON Web Key Set (RFC-7517) document, loaded from an {@link URL} and cached.
+ *
+ * <p>The keys are loaded on first use. Once they are older than the refresh interval, the next lookup triggers a reload in the
+ * background while the current keys keep being served. A lookup for an unknown key identifier reloads the keys immediately, at
+ * most once per minimum refetch interval, so that rotated keys are picked up without letting unknown identifiers hammer the
+ * endpoint. Background reloads are subject to the same interval, so a failing endpoint is not retried by every lookup.
+ *
+ * <p>Only RSA keys intended for signature verification are retained.
+ */
+final class JsonWebKeySet {
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 5000;
+
+    private final URL url;
+    private final SSLSocketFactory sslSocketFactory;
+    private final HostnameVerifier hostnameVerifier;
+    private final long refreshInterval;
+    private final long minimumRefetchInterval;
+    private final Executor executor;
+
+    private final Object loadLock = new Object();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile Keys keys;
+    private volatile long lastLoadAttempt;
+    private volatile boolean loadAttempted;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param url the location of the JSON Web Key Set document
+     * @param sslContext the SSL context to use when the location is using SSL/TLS
+     * @param hostnameVerifier the hostname verifier to use when the location is using SSL/TLS, may be {@code null}
+     * @param refreshInterval the time in milliseconds after which the keys are reloaded in the background
+     * @param minimumRefetchInterval the minimum time in milliseconds between two loads triggered by unknown key identifiers
+     * @param executor the executor running background reloads
+     */
+    JsonWebKeySet(URL url, SSLContext sslContext, HostnameVerifier hostnameVerifier, long refreshInterval, long minimumRefetchInterval, Executor executor) {
+        this.url = url;
+        this.sslSocketFactory = sslContext == null ? null : sslContext.getSocketFactory();
+        this.hostnameVerifier = hostnameVerifier;
+        this.refreshInterval = TimeUnit.MILLISECONDS.toNanos(refreshInterval);
+        this.minimumRefetchInterval = TimeUnit.MILLISECONDS.toNanos(minimumRefetchInterval);
+        this.executor = executor;
+    }
+
+    /**
+     * Get the key with the given identifier.
+     *
+     * @param keyId the key identifier, or {@code null} if the token does not carry one in which case the only key of the set is
+     *              returned
+     * @return the key, or {@code null} if no such key is known
+     * @throws RealmUnavailableException if the keys have never been successfully loaded and could not be loaded now
+     */
+    VerificationKey get(String keyId) throws RealmUnavailableException {
+        Keys keys = this.keys;
+        if (keys == null) {
+            keys = load(null, true);
+        } else if (System.nanoTime() - keys.loadTime > refreshInterval && ! attemptedRecently()) {
+            refreshInBackground();
+        }
+
+        VerificationKey key = keys.get(keyId);
+        if (key == null && keyId != null) {
+            log.debugf("Unknown key identifier [%s], reloading JSON Web Key Set from [%s]", keyId, url);
+            key = load(keys, false).get(keyId);
+        }
+        return key;
+    }
+
+    private void refreshInBackground() {
+        if (refreshing.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        synchronized (loadLock) {
+                            Keys current = this.keys;
+                            if (System.nanoTime() - current.loadTime > refreshInterval && ! attemptedRecently()) {
+                                this.keys = fetch(current);
+                            }
+                        }
+                    } catch (Exception cause) {
+                        log.tokenRealmJwtWarnJwksRefreshFailed(url.toString(), cause);
+                    } finally {
+                        refreshing.set(false);
+                    }
+                });
+            } catch (RuntimeException cause) {
+                refreshing.set(false);
+                log.tokenRealmJwtWarnJwksRefreshFailed(url.toString(), cause);
+            }
+        }
+    }
+
+    /**
+     * Whether a load was attempted less than the minimum refetch interval ago, whether it succeeded or not. A failed background
+     * reload leaves the keys as old as they were, so without this check every lookup would trigger another one.
+     */
+    private boolean attemptedRecently() {
+        return loadAttempted && System.nanoTime() - lastLoadAttempt < minimumRefetchInterval;
+    }
+
+    /**
+     * Load the keys unless they have been replaced since {@code seen} was read, or were loaded too recently.
+     */
+    private Keys load(Keys seen, boolean required) throws RealmUnavailableException {
+        synchronized (loadLock) {
+            Keys current = this.keys;
+            if (current != seen) {
+                return current;
+            }
+            if (attemptedRecently()) {
+                if (current == null) {
+                    throw log.tokenRealmJwtJwksLoadFailed(url.toString(), null);
+                }
+                return current;
+            }
+            try {
+                this.keys = current = fetch(current);
+            } catch (Exception cause) {
+                if (required || current == null) {
+                    throw log.tokenRealmJwtJwksLoadFailed(url.toString(), cause);
+                }
+                log.tokenRealmJwtWarnJwksRefreshFailed(url.toString(), cause);
+            }
+            return current;
+        }
+    }
+
+    private Keys fetch(Keys previous) throws IOException {
+        lastLoadAttempt = System.nanoTime();
+        loadAttempted = true;
+        log.debugf("Loading JSON Web Key Set from [%s]", url);
+
+        JsonObject document;
+        URLConnection connection = openConnection();
+        try (InputStream inputStream = connection.getInputStream(); JsonReader reader = Json.createReader(inputStream)) {
+            document = reader.readObject();
+        } finally {
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+        }
+
+        JsonArray keys = document.getJsonArray("keys");
+        if (keys == null) {
+            throw new IOException("JSON Web Key Set does not contain a [keys] member");
+        }
+
+        Map<String, VerificationKey> keysById = new HashMap<>();
+        VerificationKey single = null;
+        int count = 0;
+        for (JsonValue value : keys) {
+            if (value.getValueType() != JsonValue.ValueType.OBJECT) {
+                continue;
+            }
+            JsonObject jwk = (JsonObject) value;
+            PublicKey publicKey = toPublicKey(jwk);
+            if (publicKey == null) {
+                continue;
+            }
+            String keyId = jwk.getString("kid", null);
+            VerificationKey key = previous != null ? previous.find(keyId, publicKey) : null;
+            if (key == null) {
+                key = new VerificationKey(publicKey);
+            }
+            if (keyId != null) {
+                keysById.putIfAbsent(keyId, key);
+            }
+            single = key;
+            count++;
+        }
+
+        log.debugf("Loaded %d keys from JSON Web Key Set [%s]", count, url);
+        return new Keys(keysById, count == 1 ? single : null, System.nanoTime());
+    }
+
+    private static PublicKey toPublicKey(JsonObject jwk) {
+        String use = jwk.getString("use", null);
+        if (! "RSA".equals(jwk.getString("kty", null)) || use != null && ! "sig".equals(use)) {
+            return null;
+        }
+        String modulus = jwk.getString("n", null);
+        String exponent = jwk.getString("e", null);
+        if (modulus == null || exponent == null) {
+            log.debugf("Ignoring RSA key [%s] without modulus or exponent", jwk.getString("kid", null));
+            return null;
+        }
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            RSAPublicKeySpec keySpec = new RSAPublicKeySpec(new BigInteger(1, decoder.decode(modulus)), new BigInteger(1, decoder.decode(exponent)));
+            return KeyFactory.getInstance("RSA").generatePublic(keySpec);
+        } catch (Exception cause) {
+            log.debugf(cause, "Ignoring invalid RSA key [%s]", jwk.getString("kid", null));
+            return null;
+        }
+    }
+
+    private URLConnection openConnection() throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        if (connection instanceof HttpsURLConnection) {
+            HttpsURLConnection https = (HttpsURLConnection) connection;
+            if (sslSocketFactory != null) {
+                https.setSSLSocketFactory(sslSocketFactory);
+            }
+            if (hostnameVerifier != null) {
+                https.setHostnameVerifier(hostnameVerifier);
+            }
+        }
+        return connection;
+    }
+
+    private static final class Keys {
+
+        private final Map<String, VerificationKey> keysById;
+        private final VerificationKey single;
+        private final long loadTime;
+
+        Keys(Map<String, VerificationKey> keysById, VerificationKey single, long loadTime) {
+            this.keysById = keysById.isEmpty() ? Collections.emptyMap() : keysById;
+            this.single = single;
+            this.loadTime = loadTime;
+        }
+
+        VerificationKey get(String keyId) {
+            return keyId == null ? single : keysById.get(keyId);
+        }
+
+        /**
+         * Find a previously loaded key with the same identifier and material, so its initialised signatures can be reused.
+         */
+        VerificationKey find(String keyId, PublicKey publicKey) {
+            VerificationKey key = get(keyId);
+            return key != null && key.getPublicKey().equals(publicKey) ? key : null;
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.wildfly.security.auth.realm.token.validator;
 
 import org.wildfly.security.auth.realm.token.TokenValidator;
 import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.auth.server.SecurityDomain;
 import org.wildfly.security.authz.Attributes;
 import org.wildfly.security.evidence.BearerTokenEvidence;
 import org.wildfly.security.pem.Pem;
@@ -32,17 +33,19 @@ import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.json.JsonString;
 import javax.json.JsonValue;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import java.net.URL;
 import java.security.PublicKey;
-import java.security.Signature;
-import java.security.SignatureException;
 import java.util.Base64;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 import static java.util.Arrays.asList;
+import static org.wildfly.common.Assert.checkMinimumParameter;
 import static org.wildfly.common.Assert.checkNotNullParam;
 import static org.wildfly.security._private.ElytronMessages.log;
 import static org.wildfly.security.util.JsonUtil.toAttributes;
@@ -51,6 +54,10 @@ import static org.wildfly.security.util.JsonUtil.toAttributes;
  * <p>A {@link TokenValidator} capable of validating and parsing JWT. Most of the validations performed by this validator are
  * based on RFC-7523 (JSON Web Token (JWT) Profile for OAuth 2.0 Client Authentication and Authorization Grants).
  *
+ * <p>Signatures are verified either with a single public key or with the keys of a JSON Web Key Set (RFC-7517), selected using the
+ * <code>kid</code> header of the token. A key set is loaded from its location on first use and cached, see
+ * {@link Builder#jsonWebKeySetUrl(URL)}.
+ *
  * <p>This validator can also be used as a JWT parser only. In this case, for security reasons, you need to make sure that
  * JWT validations such as issuer, audience and signature checks are performed before obtaining identities from this realm.
  *
@@ -70,12 +77,29 @@ public class JwtValidator implements TokenValidator {
     private final Set<String> issuers;
     private final Set<String> audiences;
 
-    private final PublicKey publicKey;
+    private static final int MAX_CACHED_HEADERS = 32;
+
+    private final VerificationKey publicKey;
+    private final JsonWebKeySet jsonWebKeySet;
+
+    /**
+     * Parsed headers by their encoded form. Tokens issued with the same key and algorithm share the same header, so it is only
+     * decoded once.
+     */
+    private final ConcurrentHashMap<String, Header> headers = new ConcurrentHashMap<>();
 
     JwtValidator(Builder configuration) {
         this.issuers = checkNotNullParam("issuers", configuration.issuers);
         this.audiences = checkNotNullParam("audience", configuration.audience);
-        this.publicKey = configuration.publicKey;
+        this.publicKey = configuration.publicKey != null ? new VerificationKey(configuration.publicKey) : null;
+
+        if (configuration.jsonWebKeySetUrl != null) {
+            Executor executor = configuration.jsonWebKeySetExecutor != null ? configuration.jsonWebKeySetExecutor : SecurityDomain.getScheduledExecutorService();
+            this.jsonWebKeySet = new JsonWebKeySet(configuration.jsonWebKeySetUrl, configuration.sslContext, configuration.hostnameVerifier,
+                    configuration.jsonWebKeySetRefreshInterval, configuration.jsonWebKeySetMinimumRefetchInterval, executor);
+        } else {
+            this.jsonWebKeySet = null;
+        }
 
         if (issuers.isEmpty()) {
             log.tokenRealmJwtWarnNoIssuerIgnoringIssuerCheck();
@@ -85,7 +109,7 @@ public class JwtValidator implements TokenValidator {
             log.tokenRealmJwtWarnNoAudienceIgnoringAudienceCheck();
         }
 
-        if (publicKey == null) {
+        if (publicKey == null && jsonWebKeySet == null) {
             log.tokenRealmJwtWarnNoPublicKeyIgnoringSignatureCheck();
         }
     }
@@ -149,14 +173,28 @@ public class JwtValidator implements TokenValidator {
     }
 
     private boolean verifySignature(String encodedHeader, String encodedClaims, String encodedSignature) throws RealmUnavailableException {
-        if (publicKey == null) {
+        if (publicKey == null && jsonWebKeySet == null) {
             return true;
         }
+        Header header;
+        try {
+            header = resolveHeader(encodedHeader);
+        } catch (Exception cause) {
+            throw log.tokenRealmJwtSignatureCheckFailed(cause);
+        }
+
+        VerificationKey key = jsonWebKeySet != null ? jsonWebKeySet.get(header.keyId) : publicKey;
+
+        if (key == null) {
+            log.debugf("No key found to verify signature of token with key identifier [%s]", header.keyId);
+            return false;
+        }
+
         try {
             Base64.Decoder urlDecoder = Base64.getUrlDecoder();
             byte[] decodedSignature = urlDecoder.decode(encodedSignature);
 
-            boolean verify = ByteIterator.ofBytes(decodedSignature).verify(createSignature(encodedHeader, encodedClaims));
+            boolean verify = key.verify(header.algorithm, (encodedHeader + "." + encodedClaims).getBytes(), decodedSignature);
 
             if (!verify) {
                 log.debug("Signature verification failed");
@@ -211,16 +249,23 @@ public class JwtValidator implements TokenValidator {
         return valid;
     }
 
-    private Signature createSignature(String encodedHeader, String encodedClaims) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, RealmUnavailableException {
-        Signature signature = Signature.getInstance(resolveAlgorithm(encodedHeader));
+    private Header resolveHeader(String encodedHeader) throws RealmUnavailableException {
+        Header header = headers.get(encodedHeader);
+
+        if (header == null) {
+            header = parseHeader(encodedHeader);
 
-        signature.initVerify(this.publicKey);
-        signature.update((encodedHeader + "." + encodedClaims).getBytes());
+            if (headers.size() >= MAX_CACHED_HEADERS) {
+                headers.clear();
+            }
+
+            headers.put(encodedHeader, header);
+        }
 
-        return signature;
+        return header;
     }
 
-    private String resolveAlgorithm(String part) throws RealmUnavailableException {
+    private Header parseHeader(String part) throws RealmUnavailableException {
         byte[] headerDecoded = Base64.getUrlDecoder().decode(part);
         JsonObject headers = Json.createReader(ByteIterator.ofBytes(headerDecoded).asInputStream()).readObject();
         JsonString algClaim = (JsonString) headers.get("alg");
@@ -233,6 +278,10 @@ public class JwtValidator implements TokenValidator {
 
         log.debugf("Token is using algorithm [%s]", algorithm);
 
+        return new Header(resolveAlgorithm(algorithm), headers.getString("kid", null));
+    }
+
+    private String resolveAlgorithm(String algorithm) throws RealmUnavailableException {
         switch (algorithm) {
             case "RS256":
                 return "SHA256withRSA";
@@ -249,11 +298,31 @@ public class JwtValidator implements TokenValidator {
         return ((int) (System.currentTimeMillis() / 1000));
     }
 
+    private static final class Header {
+
+        private final String algorithm;
+        private final String keyId;
+
+        Header(String algorithm, String keyId) {
+            this.algorithm = algorithm;
+            this.keyId = keyId;
+        }
+    }
+
     public static class Builder {
 
+        private static final long DEFAULT_JWKS_REFRESH_INTERVAL = 10 * 60 * 1000;
+        private static final long DEFAULT_JWKS_MINIMUM_REFETCH_INTERVAL = 30 * 1000;
+
         private Set<String> issuers = new LinkedHashSet<>();
         private Set<String> audience = new LinkedHashSet<>();
         private PublicKey publicKey;
+        private URL jsonWebKeySetUrl;
+        private long jsonWebKeySetRefreshInterval = DEFAULT_JWKS_REFRESH_INTERVAL;
+        private long jsonWebKeySetMinimumRefetchInterval = DEFAULT_JWKS_MINIMUM_REFETCH_INTERVAL;
+        private Executor jsonWebKeySetExecutor;
+        private SSLContext sslContext;
+        private HostnameVerifier hostnameVerifier;
 
         private Builder() {
         }
@@ -320,6 +389,85 @@ public class JwtValidator implements TokenValidator {
             return this;
         }
 
+        /**
+         * <p>An {@link URL} pointing to a JSON Web Key Set (RFC-7517) document, such as a <code>file:</code> location or the
+         * <code>jwks_uri</code> endpoint of an authorization server. Signatures are verified with the RSA key of the set whose
+         * <code>kid</code> matches the <code>kid</code> header of the token, or with the only key of the set if the token has no
+         * <code>kid</code> header.
+         *
+         * <p>If provided, the key set takes precedence over any {@link #publicKey(PublicKey) public key}.
+         *
+         * @param url the location of the JSON Web Key Set
+         * @return this instance
+         */
+        public Builder jsonWebKeySetUrl(URL url) {
+            this.jsonWebKeySetUrl = url;
+            return this;
+        }
+
+        /**
+         * The time after which the keys loaded from the {@link #jsonWebKeySetUrl(URL) JSON Web Key Set} are reloaded. The reload
+         * happens in the background, tokens keep being validated with the current keys in the meantime. Defaults to 10 minutes.
+         *
+         * @param refreshInterval the refresh interval in milliseconds
+         * @return this instance
+         */
+        public Builder jsonWebKeySetRefreshInterval(long refreshInterval) {
+            checkMinimumParameter("refreshInterval", 0, refreshInterval);
+            this.jsonWebKeySetRefreshInterval = refreshInterval;
+            return this;
+        }
+
+        /**
+         * The minimum time between two loads of the {@link #jsonWebKeySetUrl(URL) JSON Web Key Set} triggered by tokens with an
+         * unknown <code>kid</code>, or following a failure to load the keys, including a failed background reload. Defaults to 30
+         * seconds.
+         *
+         * @param minimumRefetchInterval the minimum refetch interval in milliseconds
+         * @return this instance
+         */
+        public Builder jsonWebKeySetMinimumRefetchInterval(long minimumRefetchInterval) {
+            checkMinimumParameter("minimumRefetchInterval", 0, minimumRefetchInterval);
+            this.jsonWebKeySetMinimumRefetchInterval = minimumRefetchInterval;
+            return this;
+        }
+
+        /**
+         * The {@link Executor} used to reload the {@link #jsonWebKeySetUrl(URL) JSON Web Key Set} in the background. Defaults to
+         * {@link SecurityDomain#getScheduledExecutorService()}.
+         *
+         * @param executor the executor
+         * @return this instance
+         */
+        public Builder jsonWebKeySetExecutor(Executor executor) {
+            this.jsonWebKeySetExecutor = executor;
+            return this;
+        }
+
+        /**
+         * A predefined {@link SSLContext} that will be used to load the {@link #jsonWebKeySetUrl(URL) JSON Web Key Set} when using
+         * SSL/TLS. If not provided, the default SSL socket factory is used.
+         *
+         * @param sslContext the SSL context
+         * @return this instance
+         */
+        public Builder useSslContext(SSLContext sslContext) {
+            this.sslContext = sslContext;
+            return this;
+        }
+
+        /**
+         * A {@link HostnameVerifier} that will be used to validate the hostname when loading the
+         * {@link #jsonWebKeySetUrl(URL) JSON Web Key Set} using SSL/TLS.
+         *
+         * @param hostnameVerifier the hostname verifier
+         * @return this instance
+         */
+        public Builder useSslHostnameVerifier(HostnameVerifier hostnameVerifier) {
+            this.hostnameVerifier = hostnameVerifier;
+            return this;
+        }
+
         /**
          * Returns a {@link JwtValidator} instance based on all the configuration provided with this builder.
          *
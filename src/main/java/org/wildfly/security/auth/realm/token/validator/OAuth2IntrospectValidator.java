@@ -23,31 +23,41 @@ import org.wildfly.security.auth.realm.token.TokenValidator;
 import org.wildfly.security.auth.server.RealmUnavailableException;
 import org.wildfly.security.authz.Attributes;
 import org.wildfly.security.evidence.BearerTokenEvidence;
-import org.wildfly.security.util.ByteStringBuilder;
 import org.wildfly.security.util.CodePointIterator;
 
-import javax.json.Json;
 import javax.json.JsonObject;
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
 import static org.wildfly.security._private.ElytronMessages.log;
 import static org.wildfly.security.util.JsonUtil.toAttributes;
 
 /**
- * A RFC-7662 (OAuth2 Token Introspection) compliant {@link TokenValidator}.
+ * <p>A RFC-7662 (OAuth2 Token Introspection) compliant {@link TokenValidator}.
+ *
+ * <p>Requests are sent through a {@link TokenIntrospectionTransport}, by default one based on {@link java.net.HttpURLConnection}
+ * which reuses kept-alive connections. At most {@link Builder#maxConcurrentRequests(int)} requests are sent concurrently, and
+ * concurrent validations of the same token share a single request to the endpoint.
+ *
+ * <p>In addition to the blocking {@link #validate(BearerTokenEvidence)}, tokens can be validated without blocking the calling
+ * thread using {@link #validateAsync(BearerTokenEvidence)}.
  *
  * @author <a href="mailto:psilva@redhat.com">Pedro Igor</a>
  */
@@ -67,28 +77,126 @@ public class OAuth2IntrospectValidator implements TokenValidator {
     private final String clientSecret;
     private final SSLContext sslContext;
     private final HostnameVerifier hostnameVerifier;
+    private final TokenIntrospectionTransport transport;
+    private final Semaphore requestPermits;
+    private final Executor executor;
+
+    /**
+     * The introspection requests in progress by token, shared by all the validations of the same token.
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<JsonObject>> inFlight = new ConcurrentHashMap<>();
 
     OAuth2IntrospectValidator(Builder configuration) {
         this.tokenIntrospectionUrl = Assert.checkNotNullParam("tokenIntrospectionUrl", configuration.tokenIntrospectionUrl);
         this.clientId = Assert.checkNotNullParam("clientId", configuration.clientId);
         this.clientSecret = Assert.checkNotNullParam("clientSecret", configuration.clientSecret);
 
-        if (tokenIntrospectionUrl.getProtocol().equalsIgnoreCase("https")) {
+        if (configuration.transport == null && tokenIntrospectionUrl.getProtocol().equalsIgnoreCase("https")) {
             Assert.checkNotNullParam("sslContext", configuration.sslContext);
         }
 
         this.sslContext = configuration.sslContext;
         this.hostnameVerifier = configuration.hostnameVerifier;
+        this.transport = configuration.transport != null ? configuration.transport
+                : new HttpURLConnectionTransport(sslContext, hostnameVerifier, configuration.connectionTimeout, configuration.readTimeout);
+        this.requestPermits = new Semaphore(configuration.maxConcurrentRequests);
+        this.executor = configuration.executor != null ? configuration.executor : createExecutor(configuration.maxConcurrentRequests);
     }
 
     @Override
     public Attributes validate(BearerTokenEvidence evidence) throws RealmUnavailableException {
         Assert.checkNotNullParam("evidence", evidence);
+        String token = evidence.getToken();
+
+        CompletableFuture<JsonObject> request = new CompletableFuture<>();
+        CompletableFuture<JsonObject> existing = inFlight.putIfAbsent(token, request);
+
+        if (existing == null) {
+            // no request in progress for this token, send it from the calling thread
+            introspect(token, request);
+            existing = request;
+        }
 
         try {
-            JsonObject claims = introspectAccessToken(this.tokenIntrospectionUrl,
-                    this.clientId, this.clientSecret, evidence.getToken(), this.sslContext, this.hostnameVerifier);
+            return toValidatedAttributes(existing.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw log.tokenRealmOAuth2TokenIntrospectionFailed(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RealmUnavailableException) {
+                throw (RealmUnavailableException) cause;
+            }
+            throw log.tokenRealmOAuth2TokenIntrospectionFailed(cause);
+        }
+    }
+
+    /**
+     * <p>Validates a {@link BearerTokenEvidence} without blocking the calling thread. The request to the token introspection endpoint
+     * is sent using the configured {@link Builder#executor(Executor) executor}.
+     *
+     * @param evidence a {@link BearerTokenEvidence} holding the security token to validate
+     * @return a {@link CompletionStage} completed with the attributes of the token when valid, with {@code null} when the token is
+     * invalid, or exceptionally with a {@link RealmUnavailableException} if the token could not be introspected
+     */
+    public CompletionStage<Attributes> validateAsync(BearerTokenEvidence evidence) {
+        Assert.checkNotNullParam("evidence", evidence);
+        String token = evidence.getToken();
 
+        CompletableFuture<JsonObject> request = new CompletableFuture<>();
+        CompletableFuture<JsonObject> existing = inFlight.putIfAbsent(token, request);
+
+        if (existing == null) {
+            try {
+                executor.execute(() -> introspect(token, request));
+            } catch (RuntimeException e) {
+                inFlight.remove(token, request);
+                request.completeExceptionally(log.tokenRealmOAuth2TokenIntrospectionFailed(e));
+            }
+            existing = request;
+        }
+
+        return existing.thenApply(claims -> {
+            try {
+                return toValidatedAttributes(claims);
+            } catch (RealmUnavailableException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private void introspect(String token, CompletableFuture<JsonObject> request) {
+        // the request is removed from the in flight requests before it completes, so a caller arriving once it has completed
+        // sends a new request instead of sharing the outcome of this one
+        JsonObject claims;
+        try {
+            requestPermits.acquire();
+            try {
+                claims = introspectAccessToken(this.tokenIntrospectionUrl,
+                        this.clientId, this.clientSecret, token, this.sslContext, this.hostnameVerifier);
+            } finally {
+                requestPermits.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            inFlight.remove(token, request);
+            request.completeExceptionally(log.tokenRealmOAuth2TokenIntrospectionFailed(e));
+            return;
+        } catch (RealmUnavailableException e) {
+            inFlight.remove(token, request);
+            request.completeExceptionally(e);
+            return;
+        } catch (Throwable t) {
+            inFlight.remove(token, request);
+            request.completeExceptionally(log.tokenRealmOAuth2TokenIntrospectionFailed(t));
+            return;
+        }
+        inFlight.remove(token, request);
+        request.complete(claims);
+    }
+
+    private Attributes toValidatedAttributes(JsonObject claims) throws RealmUnavailableException {
+        try {
             if (isValidToken(claims)) {
                 return toAttributes(claims);
             }
@@ -119,87 +227,32 @@ public class OAuth2IntrospectValidator implements TokenValidator {
         Assert.checkNotNullParam("clientSecret", clientSecret);
         Assert.checkNotNullParam("token", token);
 
-        HttpURLConnection connection = null;
-
-        try {
-            connection = openConnection(tokenIntrospectionUrl, sslContext, hostnameVerifier);
-
-            HashMap<String, String> parameters = new HashMap<>();
-
-            parameters.put("token", token);
-            parameters.put("token_type_hint", "access_token");
+        Map<String, String> parameters = new LinkedHashMap<>();
 
-            byte[] params = buildParameters(parameters);
+        parameters.put("token", token);
+        parameters.put("token_type_hint", "access_token");
 
-            connection.setDoOutput(true);
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-            connection.setRequestProperty("Content-Length", String.valueOf(params.length));
-            connection.setRequestProperty("Authorization", "Basic " + CodePointIterator.ofString(clientId + ":" + clientSecret).asUtf8().base64Encode().drainToString());
+        Map<String, String> headers = Collections.singletonMap("Authorization",
+                "Basic " + CodePointIterator.ofString(clientId + ":" + clientSecret).asUtf8().base64Encode().drainToString());
 
-            try (OutputStream outputStream = connection.getOutputStream()) {
-                outputStream.write(params);
-            }
-
-            try (InputStream inputStream = new BufferedInputStream(connection.getInputStream())) {
-                return Json.createReader(inputStream).readObject();
-            }
-        } catch (IOException ioe) {
-            if (connection != null && connection.getErrorStream() != null) {
-                InputStream errorStream = connection.getErrorStream();
-
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(errorStream))) {
-                    StringBuffer response = reader.lines().reduce(new StringBuffer(), StringBuffer::append, (buffer1, buffer2) -> buffer1);
-                    log.errorf(ioe, "Unexpected response from token introspection endpoint [%s]. Response: [%s]", tokenIntrospectionUrl, response);
-                } catch (IOException e) {
-                    throw log.tokenRealmOAuth2TokenIntrospectionFailed(ioe);
-                }
-            } else {
-                throw log.tokenRealmOAuth2TokenIntrospectionFailed(ioe);
-            }
+        try {
+            return transport.introspect(tokenIntrospectionUrl, headers, parameters);
         } catch (Exception e) {
             throw log.tokenRealmOAuth2TokenIntrospectionFailed(e);
         }
-
-        return null;
     }
 
-    private HttpURLConnection openConnection(URL url, SSLContext sslContext, HostnameVerifier hostnameVerifier) throws IOException {
-        Assert.checkNotNullParam("url", url);
-
-        boolean isHttps = url.getProtocol().equalsIgnoreCase("https");
-
-        try {
-            log.debugf("Opening connection to token introspection endpoint [%s]", url);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-
-            if (isHttps) {
-                HttpsURLConnection https = (HttpsURLConnection) connection;
-
-                https.setSSLSocketFactory(sslContext.getSocketFactory());
-
-                if (hostnameVerifier != null) {
-                    https.setHostnameVerifier(hostnameVerifier);
-                }
-            }
-
-            return connection;
-        } catch (IOException cause) {
-            throw cause;
-        }
-    }
-
-    private byte[] buildParameters(Map<String, String> parameters) throws UnsupportedEncodingException {
-        ByteStringBuilder params = new ByteStringBuilder();
-
-        parameters.entrySet().stream().forEach(entry -> {
-            if (params.length() > 0) {
-                params.append('&');
-            }
-            params.append(entry.getKey()).append('=').append(entry.getValue());
-        });
-
-        return params.toArray();
+    private static Executor createExecutor(int maxConcurrentRequests) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "OAuth2IntrospectValidator-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrentRequests, maxConcurrentRequests, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     public static class Builder {
@@ -209,6 +262,11 @@ public class OAuth2IntrospectValidator implements TokenValidator {
         private URL tokenIntrospectionUrl;
         private SSLContext sslContext;
         private HostnameVerifier hostnameVerifier;
+        private TokenIntrospectionTransport transport;
+        private int connectionTimeout;
+        private int readTimeout;
+        private int maxConcurrentRequests = 10;
+        private Executor executor;
 
         private Builder() {
         }
@@ -275,6 +333,69 @@ public class OAuth2IntrospectValidator implements TokenValidator {
             return this;
         }
 
+        /**
+         * A {@link TokenIntrospectionTransport} used to send requests to the token introspection endpoint instead of the default
+         * one, based on {@link java.net.HttpURLConnection}. When set, the SSL/TLS and timeout settings of this builder are ignored.
+         *
+         * @param transport the transport
+         * @return this instance
+         */
+        public Builder transport(TokenIntrospectionTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * The timeout in milliseconds for establishing a connection to the token introspection endpoint. If {@code 0}, which is
+         * the default, the connection attempt does not time out.
+         *
+         * @param connectionTimeout the connection timeout in milliseconds
+         * @return this instance
+         */
+        public Builder connectionTimeout(int connectionTimeout) {
+            checkMinimumParameter("connectionTimeout", 0, connectionTimeout);
+            this.connectionTimeout = connectionTimeout;
+            return this;
+        }
+
+        /**
+         * The timeout in milliseconds for reading the response of the token introspection endpoint. If {@code 0}, which is the
+         * default, reads do not time out.
+         *
+         * @param readTimeout the read timeout in milliseconds
+         * @return this instance
+         */
+        public Builder readTimeout(int readTimeout) {
+            checkMinimumParameter("readTimeout", 0, readTimeout);
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        /**
+         * The maximum number of requests sent concurrently to the token introspection endpoint. Further validations wait for a
+         * request to complete. Defaults to 10.
+         *
+         * @param maxConcurrentRequests the maximum number of concurrent requests
+         * @return this instance
+         */
+        public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+            checkMinimumParameter("maxConcurrentRequests", 1, maxConcurrentRequests);
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        /**
+         * The {@link Executor} sending the requests of {@link OAuth2IntrospectValidator#validateAsync(BearerTokenEvidence)}. If not
+         * provided, a pool of daemon threads sized by {@link #maxConcurrentRequests(int)} is used.
+         *
+         * @param executor the executor
+         * @return this instance
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
         /**
          * Returns a {@link OAuth2IntrospectValidator} instance based on all the configuration provided with this builder.
          *
@@ -0,0 +1,45 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.token.validator;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+import javax.json.JsonObject;
+
+/**
+ * The transport used by a {@link OAuth2IntrospectValidator} to send requests to a RFC-7662 (OAuth2 Token Introspection) endpoint.
+ *
+ * <p>Implementations must be safe for concurrent use, a validator sends requests for different tokens concurrently.
+ */
+@FunctionalInterface
+public interface TokenIntrospectionTransport {
+
+    /**
+     * Send a form encoded {@code POST} request to the token introspection endpoint.
+     *
+     * @param tokenIntrospectionUrl the token introspection endpoint
+     * @param headers the request headers, such as the {@code Authorization} header carrying the client credentials
+     * @param parameters the form parameters, not yet encoded
+     * @return the JSON response of the endpoint, or {@code null} if the endpoint did not accept the request
+     * @throws IOException if the request could not be sent or its response could not be read
+     */
+    JsonObject introspect(URL tokenIntrospectionUrl, Map<String, String> headers, Map<String, String> parameters) throws IOException;
+}
@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.token.validator;
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.wildfly.security.util._private.PrimitivePool;
+
+/**
+ * A public key used to verify token signatures, together with the {@link Signature} instances already initialised with it.
+ *
+ * <p>A {@link Signature} returns to its post-{@code initVerify} state once {@code verify} completes, so instances are kept per
+ * algorithm and reused by subsequent verifications instead of being created and initialised for every token.
+ */
+final class VerificationKey {
+
+    private final PublicKey publicKey;
+    private final ConcurrentHashMap<String, PrimitivePool.Pool<Signature>> signatures = new ConcurrentHashMap<>();
+
+    VerificationKey(PublicKey publicKey) {
+        this.publicKey = publicKey;
+    }
+
+    PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * Verify the signature of the given content.
+     *
+     * @param algorithm the JCA signature algorithm
+     * @param content the signed content
+     * @param signatureBytes the signature
+     * @return {@code true} if the signature is valid, {@code false} otherwise
+     * @throws GeneralSecurityException if the signature could not be verified
+     */
+    boolean verify(String algorithm, byte[] content, byte[] signatureBytes) throws GeneralSecurityException {
+        PrimitivePool.Pool<Signature> pool = signatures.computeIfAbsent(algorithm, a -> new PrimitivePool.Pool<>());
+        Signature signature = pool.poll();
+        if (signature == null) {
+            signature = Signature.getInstance(algorithm);
+            signature.initVerify(publicKey);
+        }
+        // an instance which failed with an exception is in an unknown state, so it is only returned to the pool on completion
+        signature.update(content);
+        boolean verified = signature.verify(signatureBytes);
+        pool.offer(signature);
+        return verified;
+    }
+}
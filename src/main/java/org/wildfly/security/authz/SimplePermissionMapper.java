@@ -20,12 +20,17 @@ package org.wildfly.security.authz;
 import static org.wildfly.security._private.ElytronMessages.log;
 import static org.wildfly.common.Assert.checkNotNullParam;
 
+import java.security.Permission;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.wildfly.security.permission.PermissionVerifier;
 
@@ -35,27 +40,65 @@ import org.wildfly.security.permission.PermissionVerifier;
  * This {@code PermissionMapper} is constructed using a {@link Builder} which is used to construct an ordered list of
  * {@code PermissionVerifier} instances along with a set of principal names and a list of principal names.
  *
- * At the time {@link #mapPermissions(PermissionMappable, Roles)} is called this list is iterated to find corresponding
- * definitions where either the name of the {@link Principal} within the {@link PermissionMappable} is contained
+ * At the time {@link #mapPermissions(PermissionMappable, Roles)} is called the mappings are looked up by principal name
+ * and role name to find corresponding definitions where either the name of the {@link Principal} within the {@link PermissionMappable} is contained
  * within the mapping or the {@link Roles} in the {@code mapPermission} call contain at least one of the roles in the mapping
  * then the associated {@code PermissionVerifier} will be used.
  *
  * It is possible that multiple mappings could be matched during the call to {@link #mapPermissions(PermissionMappable, Roles)}
  * and this is why the ordering is important, by default only the first match will be used however this can be overridden by
  * calling {@link Builder#setMappingMode(MappingMode)} to choose a different mode to combine the resulting
- * {@link PermissionVerifier} instances.
+ * {@link PermissionVerifier} instances. The combined {@code PermissionVerifier} of each distinct set of matched mappings
+ * is cached.
  *
  * @author <a href="mailto:darran.lofthouse@jboss.com">Darran Lofthouse</a>
  */
 public class SimplePermissionMapper implements PermissionMapper {
 
+    /**
+     * The maximum number of combined verifiers to cache, the cache is cleared when it grows beyond this size.
+     */
+    private static final int MAX_COMBINATIONS = 1024;
+
+    private static final int[] NO_MAPPINGS = new int[0];
+
     private final MappingMode mappingMode;
 
-    private final List<Mapping> mappings;
+    private final PermissionVerifier[] verifiers;
+
+    /**
+     * The indexes of the mappings of each principal name, in mapping order.
+     */
+    private final Map<String, int[]> principalMappings;
+
+    /**
+     * The indexes of the mappings of each role name, in mapping order.
+     */
+    private final Map<String, int[]> roleMappings;
+
+    /**
+     * The combined verifiers of the sets of mappings matched so far.
+     */
+    private final ConcurrentHashMap<BitSet, PermissionVerifier> combinations = new ConcurrentHashMap<>();
 
     private SimplePermissionMapper(MappingMode mappingMode, List<Mapping> mappings) {
         this.mappingMode = mappingMode;
-        this.mappings = mappings;
+        final int size = mappings.size();
+        verifiers = new PermissionVerifier[size];
+        final Map<String, List<Integer>> principals = new HashMap<>();
+        final Map<String, List<Integer>> roles = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            final Mapping mapping = mappings.get(i);
+            verifiers[i] = mapping.permissionVerifier;
+            for (String principal : mapping.principals) {
+                principals.computeIfAbsent(principal, p -> new ArrayList<>()).add(i);
+            }
+            for (String role : mapping.roles) {
+                roles.computeIfAbsent(role, r -> new ArrayList<>()).add(i);
+            }
+        }
+        principalMappings = toIndexes(principals);
+        roleMappings = toIndexes(roles);
     }
 
     @Override
@@ -63,31 +106,63 @@ public class SimplePermissionMapper implements PermissionMapper {
         checkNotNullParam("permissionMappable", permissionMappable);
         checkNotNullParam("roles", roles);
 
-        PermissionVerifier result = null;
-
-        for (Mapping current : mappings) {
-            if (current.principals.contains(permissionMappable.getPrincipal().getName()) || roles.containsAny(current.roles)) {
-                    switch (mappingMode) {
-                        case FIRST_MATCH:
-                            return current.permissionVerifier;
-                        case AND:
-                            result = result != null ? result.and(current.permissionVerifier) : current.permissionVerifier;
-                            break;
-                        case OR:
-                            result = result != null ? result.or(current.permissionVerifier) : current.permissionVerifier;
-                            break;
-                        case UNLESS:
-                            result = result != null ? result.unless(current.permissionVerifier) : current.permissionVerifier;
-                            break;
-                        case XOR:
-                            result = result != null ? result.xor(current.permissionVerifier) : current.permissionVerifier;
-                            break;
+        final int[] principalMatches = principalMappings.getOrDefault(permissionMappable.getPrincipal().getName(), NO_MAPPINGS);
+
+        if (mappingMode == MappingMode.FIRST_MATCH) {
+            int first = principalMatches.length > 0 ? principalMatches[0] : Integer.MAX_VALUE;
+            for (String role : roles) {
+                final int[] roleMatches = roleMappings.get(role);
+                if (roleMatches != null && roleMatches[0] < first) {
+                    first = roleMatches[0];
+                }
+            }
+            return first == Integer.MAX_VALUE ? PermissionVerifier.NONE : verifiers[first];
+        }
+
+        final BitSet matched = new BitSet(verifiers.length);
+        for (int index : principalMatches) {
+            matched.set(index);
+        }
+        for (String role : roles) {
+            final int[] roleMatches = roleMappings.get(role);
+            if (roleMatches != null) {
+                for (int index : roleMatches) {
+                    matched.set(index);
                 }
             }
         }
 
+        switch (matched.cardinality()) {
+            case 0:
+                return PermissionVerifier.NONE;
+            case 1:
+                return verifiers[matched.nextSetBit(0)];
+            default:
+                PermissionVerifier result = combinations.get(matched);
+                if (result == null) {
+                    result = combine(matched);
+                    if (combinations.size() >= MAX_COMBINATIONS) {
+                        combinations.clear();
+                    }
+                    combinations.put(matched, result);
+                }
+                return result;
+        }
+    }
+
+    private PermissionVerifier combine(BitSet matched) {
+        final PermissionVerifier[] combined = new PermissionVerifier[matched.cardinality()];
+        int i = 0;
+        for (int index = matched.nextSetBit(0); index >= 0; index = matched.nextSetBit(index + 1)) {
+            combined[i++] = verifiers[index];
+        }
+        return new CombinedPermissionVerifier(mappingMode, combined);
+    }
 
-        return result != null ? result : PermissionVerifier.NONE;
+    private static Map<String, int[]> toIndexes(Map<String, List<Integer>> lists) {
+        final Map<String, int[]> indexes = new HashMap<>(lists.size());
+        lists.forEach((name, list) -> indexes.put(name, list.stream().mapToInt(Integer::intValue).toArray()));
+        return indexes;
     }
 
     /**
@@ -173,6 +248,61 @@ public class SimplePermissionMapper implements PermissionMapper {
 
     }
 
+    /**
+     * The verifiers of several matched mappings combined according to the mapping mode, evaluated in a single pass in mapping
+     * order with the same result as folding them together using {@link PermissionVerifier#and(PermissionVerifier)} and the
+     * other combinators.
+     */
+    private static final class CombinedPermissionVerifier implements PermissionVerifier {
+
+        private final MappingMode mappingMode;
+
+        private final PermissionVerifier[] verifiers;
+
+        CombinedPermissionVerifier(MappingMode mappingMode, PermissionVerifier[] verifiers) {
+            this.mappingMode = mappingMode;
+            this.verifiers = verifiers;
+        }
+
+        @Override
+        public boolean implies(Permission permission) {
+            switch (mappingMode) {
+                case AND:
+                    for (PermissionVerifier verifier : verifiers) {
+                        if (! verifier.implies(permission)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                case OR:
+                    for (PermissionVerifier verifier : verifiers) {
+                        if (verifier.implies(permission)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                case XOR:
+                    boolean result = false;
+                    for (PermissionVerifier verifier : verifiers) {
+                        result ^= verifier.implies(permission);
+                    }
+                    return result;
+                case UNLESS:
+                    if (! verifiers[0].implies(permission)) {
+                        return false;
+                    }
+                    for (int i = 1; i < verifiers.length; i++) {
+                        if (verifiers[i].implies(permission)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                default:
+                    return verifiers[0].implies(permission);
+            }
+        }
+    }
+
     public enum MappingMode {
 
         /**
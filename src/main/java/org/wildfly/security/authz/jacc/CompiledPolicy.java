@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.security.authz.jacc;
+
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>The immutable form of an {@link ElytronPolicyConfiguration}, built when the configuration is committed.
+ *
+ * <p>The JACC decision for a permission does not depend on the caller beyond its roles, so it is computed once per permission
+ * and cached as the set of roles which are granted the permission. Checking a caller then only requires looking up its roles
+ * in that set. The cache is discarded along with this object when the configuration is committed again, and is cleared when
+ * the policy is {@linkplain JaccDelegatingPolicy#refresh() refreshed}.
+ *
+ * @see JaccDelegatingPolicy
+ */
+final class CompiledPolicy {
+
+    /**
+     * The maximum number of decisions to cache. Web resource permissions are checked using request paths, which may be
+     * unbounded, so the cache is cleared when it grows beyond this size.
+     */
+    private static final int MAX_DECISIONS = 4096;
+
+    private final PermissionIndex excludedPermissions;
+    private final PermissionIndex uncheckedPermissions;
+    private final Map<String, PermissionIndex> rolePermissions;
+    private final ConcurrentHashMap<Permission, Decision> decisions = new ConcurrentHashMap<>();
+
+    CompiledPolicy(final PermissionCollection excludedPermissions, final PermissionCollection uncheckedPermissions, final Map<String, ? extends PermissionCollection> rolePermissions) {
+        this.excludedPermissions = new PermissionIndex(excludedPermissions);
+        this.uncheckedPermissions = new PermissionIndex(uncheckedPermissions);
+        final Map<String, PermissionIndex> roles = new HashMap<>(rolePermissions.size());
+        rolePermissions.forEach((roleName, permissions) -> roles.put(roleName, new PermissionIndex(permissions)));
+        this.rolePermissions = roles;
+    }
+
+    /**
+     * Get the decision for the given JACC permission.
+     *
+     * @param permission the permission being checked
+     * @return the decision
+     */
+    Decision decide(final Permission permission) {
+        Decision decision = decisions.get(permission);
+        if (decision == null) {
+            decision = computeDecision(permission);
+            if (decisions.size() >= MAX_DECISIONS) {
+                decisions.clear();
+            }
+            decisions.put(permission, decision);
+        }
+        return decision;
+    }
+
+    /**
+     * Discard all cached decisions.
+     */
+    void clearDecisions() {
+        decisions.clear();
+    }
+
+    private Decision computeDecision(final Permission permission) {
+        if (excludedPermissions.implies(permission)) {
+            return Decision.EXCLUDED;
+        }
+        if (uncheckedPermissions.implies(permission)) {
+            return Decision.UNCHECKED;
+        }
+        Set<String> roles = null;
+        for (Map.Entry<String, PermissionIndex> entry : rolePermissions.entrySet()) {
+            if (entry.getValue().implies(permission)) {
+                if (roles == null) {
+                    roles = new HashSet<>();
+                }
+                roles.add(entry.getKey());
+            }
+        }
+        return roles == null ? Decision.NOT_GRANTED : new Decision(Collections.unmodifiableSet(roles));
+    }
+
+    /**
+     * The outcome of checking a permission against the excluded, unchecked and role policies.
+     */
+    static final class Decision {
+
+        static final Decision EXCLUDED = new Decision(Collections.emptySet());
+        static final Decision UNCHECKED = new Decision(Collections.emptySet());
+        static final Decision NOT_GRANTED = new Decision(Collections.emptySet());
+
+        private final Set<String> roles;
+
+        private Decision(final Set<String> roles) {
+            this.roles = roles;
+        }
+
+        /**
+         * Get the roles which are granted the permission.
+         *
+         * @return the roles which are granted the permission
+         */
+        Set<String> getRoles() {
+            return roles;
+        }
+    }
+}
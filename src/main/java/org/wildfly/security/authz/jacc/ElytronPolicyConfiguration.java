@@ -51,7 +51,8 @@ class ElytronPolicyConfiguration implements PolicyConfiguration {
 
     private final String contextId;
     private final Map<String, Permissions> rolePermissions = Collections.synchronizedMap(new HashMap<>());
-    private State state = State.OPEN;
+    private volatile State state = State.OPEN;
+    private volatile CompiledPolicy compiledPolicy;
     private Permissions uncheckedPermissions = new Permissions();
     private Permissions excludedPermissions = new Permissions();
     private Set<PolicyConfiguration> linkedPolicies = Collections.synchronizedSet(new LinkedHashSet<>());
@@ -133,6 +134,7 @@ class ElytronPolicyConfiguration implements PolicyConfiguration {
                 throw log.authzInvalidStateForOperation(this.state.name());
             }
 
+            this.compiledPolicy = new CompiledPolicy(this.excludedPermissions, this.uncheckedPermissions, this.rolePermissions);
             transitionTo(State.IN_SERVICE);
         }
     }
@@ -155,9 +157,7 @@ class ElytronPolicyConfiguration implements PolicyConfiguration {
 
     @Override
     public boolean inService() {
-        synchronized (this) {
-            return State.IN_SERVICE.equals(this.state);
-        }
+        return State.IN_SERVICE.equals(this.state);
     }
 
     @Override
@@ -215,16 +215,24 @@ class ElytronPolicyConfiguration implements PolicyConfiguration {
         return this.linkedPolicies;
     }
 
-    Permissions getUncheckedPermissions() {
-        return this.uncheckedPermissions;
+    /**
+     * Get the policy as of the last commit of this configuration.
+     *
+     * @return the compiled policy, or {@code null} if this configuration was never committed
+     */
+    CompiledPolicy getCompiledPolicy() {
+        return this.compiledPolicy;
     }
 
-    Permissions getExcludedPermissions() {
-        return this.excludedPermissions;
-    }
+    /**
+     * Discard the decisions cached for the committed policy.
+     */
+    void refresh() {
+        CompiledPolicy compiledPolicy = this.compiledPolicy;
 
-    Map<String, Permissions> getRolePermissions() {
-        return this.rolePermissions;
+        if (compiledPolicy != null) {
+            compiledPolicy.clearDecisions();
+        }
     }
 
     void transitionTo(State state) {
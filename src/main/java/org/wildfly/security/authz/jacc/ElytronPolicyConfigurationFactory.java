@@ -96,6 +96,15 @@ public class ElytronPolicyConfigurationFactory extends PolicyConfigurationFactor
         }
     }
 
+    /**
+     * Discard the decisions cached for all the policy configurations created by this factory.
+     */
+    static void refreshPolicyConfigurations() {
+        for (ElytronPolicyConfiguration policyConfiguration : configurationRegistry.values()) {
+            policyConfiguration.refresh();
+        }
+    }
+
     @Override
     public PolicyConfiguration getPolicyConfiguration(String contextID, boolean remove) throws PolicyContextException {
         checkNotNullParam("contextID", contextID);
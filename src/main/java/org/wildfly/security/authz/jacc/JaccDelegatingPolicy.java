@@ -27,21 +27,18 @@ import org.wildfly.security.manager.WildFlySecurityManager;
 import javax.security.jacc.EJBMethodPermission;
 import javax.security.jacc.EJBRoleRefPermission;
 import javax.security.jacc.PolicyContext;
-import javax.security.jacc.PolicyContextException;
 import javax.security.jacc.WebResourcePermission;
 import javax.security.jacc.WebRoleRefPermission;
 import javax.security.jacc.WebUserDataPermission;
 import java.security.CodeSource;
 import java.security.Permission;
 import java.security.PermissionCollection;
-import java.security.Permissions;
 import java.security.Policy;
 import java.security.Principal;
 import java.security.PrivilegedAction;
 import java.security.ProtectionDomain;
 import java.util.Enumeration;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 import static java.security.AccessController.doPrivileged;
@@ -92,16 +89,17 @@ public class JaccDelegatingPolicy extends Policy {
         try {
             if (isJaccPermission(permission)) {
                 ElytronPolicyConfiguration policyConfiguration = ElytronPolicyConfigurationFactory.getCurrentPolicyConfiguration();
+                CompiledPolicy.Decision decision = policyConfiguration.getCompiledPolicy().decide(permission);
 
-                if (impliesExcludedPermission(permission, policyConfiguration)) {
+                if (decision == CompiledPolicy.Decision.EXCLUDED) {
                     return false;
                 }
 
-                if (impliesUncheckedPermission(permission, policyConfiguration)) {
+                if (decision == CompiledPolicy.Decision.UNCHECKED) {
                     return true;
                 }
 
-                if (impliesRolePermission(domain, permission, policyConfiguration)) {
+                if (impliesRolePermission(domain, decision.getRoles())) {
                     return true;
                 }
             }
@@ -145,7 +143,7 @@ public class JaccDelegatingPolicy extends Policy {
 
     @Override
     public void refresh() {
-        //TODO: we can probably provide some caching for permissions and checks. In this case, we can use this method to refresh the cache.
+        ElytronPolicyConfigurationFactory.refreshPolicyConfigurations();
         this.delegate.refresh();
     }
 
@@ -164,50 +162,36 @@ public class JaccDelegatingPolicy extends Policy {
         return null;
     }
 
-    private void extractRolesFromCurrentIdentity(Set<String> roles) throws PolicyContextException, ClassNotFoundException {
-        SecurityIdentity identity = getCurrentSecurityIdentity();
-
-        if (identity != null) {
-            Roles identityRoles = identity.getRoles();
+    private boolean impliesRolePermission(ProtectionDomain domain, Set<String> grantedRoles) {
+        if (grantedRoles.isEmpty()) {
+            return false;
+        }
 
-            if (identityRoles != null) {
-                for (String roleName : identityRoles) {
-                    roles.add(roleName);
-                }
-            }
+        if (grantedRoles.contains(ANY_AUTHENTICATED_USER_ROLE)) {
+            return true;
         }
-    }
 
-    private void extractRolesFromProtectionDomain(ProtectionDomain domain, Set<String> roles) {
+        // keep JACC behavior where roles are obtained as Principal instances from a ProtectionDomain
         Principal[] domainPrincipals = domain.getPrincipals();
 
         if (domainPrincipals != null) {
             for (Principal principal : domainPrincipals) {
-                roles.add(principal.getName());
+                if (grantedRoles.contains(principal.getName())) {
+                    return true;
+                }
             }
         }
-    }
-
-    private boolean impliesRolePermission(ProtectionDomain domain, Permission permission, ElytronPolicyConfiguration policyConfiguration) throws PolicyContextException, ClassNotFoundException {
-        Set<String> roles = new HashSet<>();
-
-        // keep JACC behavior where roles are obtained as Principal instances from a ProtectionDomain
-        extractRolesFromProtectionDomain(domain, roles);
 
         // obtain additional roles from the current authenticated identity.
         // in this case the a RoleMapper will be used to map roles from the authenticated identity
-        extractRolesFromCurrentIdentity(roles);
-
-        roles.add(ANY_AUTHENTICATED_USER_ROLE);
-
-        Map<String, Permissions> rolePermissions = policyConfiguration.getRolePermissions();
+        SecurityIdentity identity = getCurrentSecurityIdentity();
 
-        synchronized (rolePermissions) {
-            for (String roleName : roles) {
-                Permissions permissions = rolePermissions.get(roleName);
+        if (identity != null) {
+            Roles identityRoles = identity.getRoles();
 
-                if (permissions != null) {
-                    if (permissions.implies(permission)) {
+            if (identityRoles != null) {
+                for (String roleName : grantedRoles) {
+                    if (identityRoles.contains(roleName)) {
                         return true;
                     }
                 }
@@ -217,22 +201,6 @@ public class JaccDelegatingPolicy extends Policy {
         return false;
     }
 
-    private boolean impliesUncheckedPermission(Permission permission, ElytronPolicyConfiguration policyConfiguration) {
-        Permissions uncheckedPermissions = policyConfiguration.getUncheckedPermissions();
-
-        synchronized (uncheckedPermissions) {
-            return uncheckedPermissions.implies(permission);
-        }
-    }
-
-    private boolean impliesExcludedPermission(Permission permission, ElytronPolicyConfiguration policyConfiguration) {
-        Permissions excludedPermissions = policyConfiguration.getExcludedPermissions();
-
-        synchronized (excludedPermissions) {
-            return excludedPermissions.implies(permission);
-        }
-    }
-
     private boolean isJaccPermission(Permission permission) {
         return this.supportedPermissionTypes.contains(permission.getClass());
     }
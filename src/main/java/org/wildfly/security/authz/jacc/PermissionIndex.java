@@ -0,0 +1,207 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.security.authz.jacc;
+
+import javax.security.jacc.EJBMethodPermission;
+import javax.security.jacc.EJBRoleRefPermission;
+import javax.security.jacc.WebResourcePermission;
+import javax.security.jacc.WebRoleRefPermission;
+import javax.security.jacc.WebUserDataPermission;
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.security.Permissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>An immutable collection of permissions which finds the permissions possibly implying a JACC permission without scanning
+ * all of them.
+ *
+ * <p>{@link EJBMethodPermission}, {@link EJBRoleRefPermission} and {@link WebRoleRefPermission} only imply permissions with
+ * the same name, so they are indexed by name. {@link WebResourcePermission} and {@link WebUserDataPermission} are indexed by
+ * the first URL pattern of their name: exact patterns by the pattern itself, path prefix patterns by the path before
+ * {@code /*} and extension patterns by the last extension, so only the patterns which can match the first URL pattern of the
+ * checked permission are evaluated. Default patterns match everything and are always evaluated. The candidates found are
+ * still checked using {@link Permission#implies(Permission)}.
+ *
+ * <p>Permissions of other types are kept in a {@link Permissions} collection which is evaluated for every check.
+ *
+ * @see CompiledPolicy
+ */
+final class PermissionIndex {
+
+    private static final String EXACT = "=";
+    private static final String PREFIX = "/";
+    private static final String EXTENSION = ".";
+
+    private static final Permission[] NO_PERMISSIONS = new Permission[0];
+
+    /**
+     * The permissions of each JACC permission type, by key.
+     */
+    private final Map<Class<? extends Permission>, Map<String, Permission[]>> indexed;
+    /**
+     * The permissions of each JACC permission type which can imply any permission of that type.
+     */
+    private final Map<Class<? extends Permission>, Permission[]> unindexed;
+    /**
+     * All permissions of each JACC permission type, for checked permissions which cannot be looked up by key.
+     */
+    private final Map<Class<? extends Permission>, Permission[]> all;
+    private final Permissions others;
+    private final boolean empty;
+
+    PermissionIndex(final PermissionCollection permissions) {
+        final Map<Class<? extends Permission>, Map<String, List<Permission>>> indexed = new HashMap<>();
+        final Map<Class<? extends Permission>, List<Permission>> unindexed = new HashMap<>();
+        final Map<Class<? extends Permission>, List<Permission>> all = new HashMap<>();
+        final Permissions others = new Permissions();
+        boolean empty = true;
+        final Enumeration<Permission> elements = permissions.elements();
+        while (elements.hasMoreElements()) {
+            final Permission permission = elements.nextElement();
+            empty = false;
+            final Class<? extends Permission> type = permission.getClass();
+            if (! isIndexedType(type)) {
+                others.add(permission);
+                continue;
+            }
+            all.computeIfAbsent(type, t -> new ArrayList<>()).add(permission);
+            final String key = keyOf(permission);
+            if (key == null) {
+                unindexed.computeIfAbsent(type, t -> new ArrayList<>()).add(permission);
+            } else {
+                indexed.computeIfAbsent(type, t -> new HashMap<>()).computeIfAbsent(key, k -> new ArrayList<>()).add(permission);
+            }
+        }
+        others.setReadOnly();
+        final Map<Class<? extends Permission>, Map<String, Permission[]>> indexedArrays = new HashMap<>();
+        indexed.forEach((type, byKey) -> {
+            final Map<String, Permission[]> arrays = new HashMap<>();
+            byKey.forEach((key, list) -> arrays.put(key, list.toArray(NO_PERMISSIONS)));
+            indexedArrays.put(type, arrays);
+        });
+        this.indexed = indexedArrays;
+        this.unindexed = toArrays(unindexed);
+        this.all = toArrays(all);
+        this.others = others;
+        this.empty = empty;
+    }
+
+    /**
+     * Determine whether any permission of this collection implies the given permission.
+     *
+     * @param permission the permission to check
+     * @return {@code true} if the permission is implied, {@code false} otherwise
+     */
+    boolean implies(final Permission permission) {
+        if (empty) {
+            return false;
+        }
+        final Class<? extends Permission> type = permission.getClass();
+        if (isIndexedType(type)) {
+            if (impliesAny(unindexed.get(type), permission)) {
+                return true;
+            }
+            final Map<String, Permission[]> byKey = indexed.get(type);
+            if (byKey != null && impliesIndexed(byKey, permission)) {
+                return true;
+            }
+        }
+        return others.implies(permission);
+    }
+
+    private boolean impliesIndexed(final Map<String, Permission[]> byKey, final Permission permission) {
+        if (! isUrlPatternType(permission.getClass())) {
+            return impliesAny(byKey.get(permission.getName()), permission);
+        }
+        final String pattern = firstPattern(permission.getName());
+        if (! pattern.startsWith("/")) {
+            // not a path, which is unusual enough for a scan of all the permissions of this type to be acceptable
+            return impliesAny(all.get(permission.getClass()), permission);
+        }
+        if (impliesAny(byKey.get(EXACT + pattern), permission)) {
+            return true;
+        }
+        // path prefix patterns match the path itself and every path below them
+        for (int i = pattern.length(); i > 0; i = pattern.lastIndexOf('/', i - 1)) {
+            if (impliesAny(byKey.get(PREFIX + pattern.substring(0, i)), permission)) {
+                return true;
+            }
+        }
+        final int dot = pattern.lastIndexOf('.');
+        return dot != -1 && impliesAny(byKey.get(EXTENSION + pattern.substring(dot)), permission);
+    }
+
+    private static boolean impliesAny(final Permission[] candidates, final Permission permission) {
+        if (candidates != null) {
+            for (Permission candidate : candidates) {
+                if (candidate.implies(permission)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the key of a permission, or {@code null} if the permission may imply any permission of its type.
+     */
+    private static String keyOf(final Permission permission) {
+        if (! isUrlPatternType(permission.getClass())) {
+            return permission.getName();
+        }
+        final String pattern = firstPattern(permission.getName());
+        if (pattern.equals("/") || pattern.startsWith("/*")) {
+            return null; // default pattern
+        } else if (pattern.startsWith("/") && pattern.endsWith("/*")) {
+            return PREFIX + pattern.substring(0, pattern.length() - 2);
+        } else if (pattern.startsWith("*.")) {
+            return EXTENSION + pattern.substring(pattern.lastIndexOf('.'));
+        } else {
+            return EXACT + pattern;
+        }
+    }
+
+    private static String firstPattern(final String urlPatternSpec) {
+        final int colon = urlPatternSpec.indexOf(':');
+        return colon == -1 ? urlPatternSpec : urlPatternSpec.substring(0, colon);
+    }
+
+    private static boolean isIndexedType(final Class<? extends Permission> type) {
+        return type == EJBMethodPermission.class || type == EJBRoleRefPermission.class || type == WebRoleRefPermission.class
+                || isUrlPatternType(type);
+    }
+
+    private static boolean isUrlPatternType(final Class<? extends Permission> type) {
+        return type == WebResourcePermission.class || type == WebUserDataPermission.class;
+    }
+
+    private static Map<Class<? extends Permission>, Permission[]> toArrays(final Map<Class<? extends Permission>, List<Permission>> lists) {
+        if (lists.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final Map<Class<? extends Permission>, Permission[]> arrays = new HashMap<>();
+        lists.forEach((type, list) -> arrays.put(type, list.toArray(NO_PERMISSIONS)));
+        return arrays;
+    }
+}
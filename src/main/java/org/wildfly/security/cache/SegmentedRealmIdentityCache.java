@@ -0,0 +1,332 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.cache;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.common.Assert.checkNotNullParam;
+
+import java.security.Principal;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.wildfly.security.auth.server.RealmIdentity;
+
+/**
+ * <p>A {@link RealmIdentityCache} implementation which splits its entries across a fixed number of independently locked segments.
+ *
+ * <p>Lookups never block: they read from a {@link ConcurrentHashMap} and only mark the entry as recently used. Insertions take the
+ * lock of the segment the principal hashes to, and evict entries from that segment using the CLOCK (second chance) algorithm, which
+ * approximates LRU ordering without requiring readers to reorder a shared list.
+ *
+ * <p>Each entry carries its own expiration time, computed from the maximum age given at construction time. Expired entries are
+ * removed lazily, either when they are looked up or when the eviction hand passes over them.
+ *
+ * <p>Hit, miss and eviction counters are maintained and can be obtained via {@link #getHitCount()}, {@link #getMissCount()} and
+ * {@link #getEvictionCount()}.
+ */
+public final class SegmentedRealmIdentityCache implements RealmIdentityCache {
+
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    /**
+     * Holds a mapping between a realm principal and domain principals
+     */
+    private final ConcurrentHashMap<Principal, Set<Principal>> domainPrincipalMap = new ConcurrentHashMap<>();
+
+    private final long maxAge;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxEntries the maximum number of entries to keep in the cache
+     */
+    public SegmentedRealmIdentityCache(int maxEntries) {
+        this(maxEntries, -1);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxEntries the maximum number of entries to keep in the cache
+     * @param maxAge the time in milliseconds that an entry can stay in the cache. If {@code -1}, entries never expire
+     */
+    public SegmentedRealmIdentityCache(int maxEntries, long maxAge) {
+        this(maxEntries, maxAge, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxEntries the maximum number of entries to keep in the cache
+     * @param maxAge the time in milliseconds that an entry can stay in the cache. If {@code -1}, entries never expire
+     * @param concurrencyLevel the estimated number of concurrently updating threads, used to size the number of segments. The
+     *                         number of segments is rounded down to a power of two and never exceeds {@code maxEntries}
+     */
+    public SegmentedRealmIdentityCache(int maxEntries, long maxAge, int concurrencyLevel) {
+        checkMinimumParameter("maxEntries", 1, maxEntries);
+        checkMinimumParameter("maxAge", -1, maxAge);
+        checkMinimumParameter("concurrencyLevel", 1, concurrencyLevel);
+        int segmentCount = Integer.highestOneBit(Math.min(maxEntries, concurrencyLevel));
+        int segmentCapacity = maxEntries / segmentCount;
+        int remainder = maxEntries % segmentCount;
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(i < remainder ? segmentCapacity + 1 : segmentCapacity);
+        }
+        segmentMask = segmentCount - 1;
+        this.maxAge = maxAge;
+    }
+
+    @Override
+    public void put(Principal key, RealmIdentity newValue) {
+        checkNotNullParam("key", key);
+        checkNotNullParam("newValue", newValue);
+        Principal realmPrincipal = newValue.getRealmIdentityPrincipal();
+        CacheEntry entry = segmentFor(key).put(key, newValue, realmPrincipal);
+        if (entry.realmPrincipal != null) {
+            domainPrincipalMap.computeIfAbsent(entry.realmPrincipal, principal -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+    }
+
+    @Override
+    public RealmIdentity get(Principal key) {
+        RealmIdentity value = lookup(key);
+        if (value == null) {
+            Set<Principal> domainPrincipals = domainPrincipalMap.get(key);
+            if (domainPrincipals != null) {
+                for (Principal domainPrincipal : domainPrincipals) {
+                    if ((value = lookup(domainPrincipal)) != null) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    @Override
+    public void remove(Principal key) {
+        CacheEntry removed = segmentFor(key).remove(key);
+        Principal realmPrincipal = removed != null ? removed.realmPrincipal : key;
+        if (realmPrincipal != null) {
+            Set<Principal> domainPrincipals = domainPrincipalMap.remove(realmPrincipal);
+            if (domainPrincipals != null) {
+                for (Principal domainPrincipal : domainPrincipals) {
+                    segmentFor(domainPrincipal).remove(domainPrincipal);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+        domainPrincipalMap.clear();
+    }
+
+    /**
+     * Get the number of lookups which returned a cached identity.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of lookups which did not find a cached identity.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the number of entries removed from the cache either to stay within its maximum size or because they expired.
+     *
+     * @return the number of evicted entries
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Get the approximate number of entries currently held by this cache.
+     *
+     * @return the approximate number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.entries.size();
+        }
+        return size;
+    }
+
+    private RealmIdentity lookup(Principal key) {
+        Segment segment = segmentFor(key);
+        CacheEntry entry = segment.entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired()) {
+            if (segment.entries.remove(key, entry)) {
+                evictions.increment();
+                unmapDomainPrincipal(entry);
+            }
+            return null;
+        }
+        if (! entry.referenced) {
+            entry.referenced = true;
+        }
+        return entry.value;
+    }
+
+    private void unmapDomainPrincipal(CacheEntry entry) {
+        if (entry.realmPrincipal != null) {
+            domainPrincipalMap.computeIfPresent(entry.realmPrincipal, (principal, domainPrincipals) -> {
+                domainPrincipals.remove(entry.key);
+                return domainPrincipals.isEmpty() ? null : domainPrincipals;
+            });
+        }
+    }
+
+    private Segment segmentFor(Principal key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & segmentMask];
+    }
+
+    private final class Segment {
+
+        final ConcurrentHashMap<Principal, CacheEntry> entries = new ConcurrentHashMap<>();
+
+        /**
+         * The clock ring, in insertion order. May contain stale entries which are discarded as the hand passes over them.
+         * Guarded by {@link #lock}.
+         */
+        final ArrayDeque<CacheEntry> clock = new ArrayDeque<>();
+
+        final ReentrantLock lock = new ReentrantLock();
+
+        final int capacity;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+
+        CacheEntry put(Principal key, RealmIdentity value, Principal realmPrincipal) {
+            lock.lock();
+            try {
+                CacheEntry existing = entries.get(key);
+                if (existing != null && ! existing.isExpired()) {
+                    return existing;
+                }
+                CacheEntry entry = new CacheEntry(key, value, realmPrincipal, maxAge);
+                entries.put(key, entry);
+                clock.addLast(entry);
+                while (entries.size() > capacity && evictOne()) {
+                    // keep sweeping until the segment is back within its capacity
+                }
+                if (clock.size() > capacity << 1) {
+                    clock.removeIf(e -> entries.get(e.key) != e);
+                }
+                return entry;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        CacheEntry remove(Principal key) {
+            return entries.remove(key);
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                entries.clear();
+                clock.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean evictOne() {
+            CacheEntry candidate;
+            while ((candidate = clock.pollFirst()) != null) {
+                if (entries.get(candidate.key) != candidate) {
+                    continue; // stale, already removed or replaced
+                }
+                if (candidate.referenced && ! candidate.isExpired()) {
+                    candidate.referenced = false;
+                    clock.addLast(candidate);
+                    continue;
+                }
+                if (entries.remove(candidate.key, candidate)) {
+                    evictions.increment();
+                    unmapDomainPrincipal(candidate);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class CacheEntry {
+
+        final Principal key;
+        final RealmIdentity value;
+        final Principal realmPrincipal;
+        final long expiration;
+        volatile boolean referenced;
+
+        CacheEntry(Principal key, RealmIdentity value, Principal realmPrincipal, long maxAge) {
+            this.key = key;
+            this.value = value;
+            this.realmPrincipal = realmPrincipal;
+            if (maxAge == -1) {
+                expiration = -1;
+            } else {
+                expiration = System.currentTimeMillis() + maxAge;
+            }
+        }
+
+        boolean isExpired() {
+            return expiration != -1 && System.currentTimeMillis() > expiration;
+        }
+    }
+}
@@ -4,10 +4,14 @@ import static org.wildfly.common.Assert.checkNotNullParam;
 import static org.wildfly.security._private.ElytronMessages.log;
 
 import javax.json.Json;
+import javax.json.JsonNumber;
 import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.NameCallback;
@@ -18,14 +22,22 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.security.AccessController;
 import java.security.spec.AlgorithmParameterSpec;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -34,6 +46,7 @@ import org.wildfly.security.auth.SupportLevel;
 import org.wildfly.security.auth.client.AuthenticationConfiguration;
 import org.wildfly.security.auth.client.AuthenticationContext;
 import org.wildfly.security.auth.client.AuthenticationContextConfigurationClient;
+import org.wildfly.security.auth.server.SecurityDomain;
 import org.wildfly.security.credential.BearerTokenCredential;
 import org.wildfly.security.credential.Credential;
 import org.wildfly.security.util.ByteStringBuilder;
@@ -42,6 +55,9 @@ import org.wildfly.security.util.ByteStringBuilder;
  * A {@link CredentialSource} capable of authenticating against a OAuth2 compliant authorization server and obtaining
  * access tokens in form of a {@link BearerTokenCredential}.
  *
+ * <p>Access tokens are cached until they expire and refreshed in the background shortly before, so that most calls to
+ * {@link #getCredential(Class, String, AlgorithmParameterSpec)} do not need to contact the authorization server.
+ *
  * @author <a href="mailto:psilva@redhat.com">Pedro Igor</a>
  */
 public class OAuth2CredentialSource implements CredentialSource {
@@ -56,11 +72,29 @@ public class OAuth2CredentialSource implements CredentialSource {
         return new Builder(tokenEndpointUrl);
     }
 
+    private static final int MAX_CACHED_TOKENS = 32;
+    private static final long EXPIRATION_SKEW = TimeUnit.SECONDS.toNanos(10);
+    private static final String[] REFRESH_PARAMETERS = {"client_id", "client_secret", "scope"};
+
     private final URL tokenEndpointUri;
     private final Consumer<Map<String, String>> authenticationHandler;
     private String scopes;
     private final Supplier<SSLContext> sslContextSupplier;
     private final Supplier<HostnameVerifier> hostnameVerifierSupplier;
+    private final Executor refreshExecutor;
+
+    /**
+     * Access tokens obtained from the token endpoint, keyed by the parameters sent to obtain them, so that tokens are only shared
+     * between callers which would have been issued a token for the same client and resource owner.
+     */
+    private final ConcurrentHashMap<Map<String, String>, TokenHolder> tokens = new ConcurrentHashMap<>();
+    private final LongAdder tokenFetches = new LongAdder();
+
+    /**
+     * The socket factory of the last {@link SSLContext} used, the keep-alive cache only reuses HTTPS connections created by the
+     * same factory instance and {@link SSLContext#getSocketFactory()} returns a new instance on each call.
+     */
+    private volatile SocketFactoryHolder socketFactory;
 
     /**
      * Creates a new instance.
@@ -70,8 +104,9 @@ public class OAuth2CredentialSource implements CredentialSource {
      * @param scopes                   a string with the scope of the access request
      * @param sslContextSupplier       a supplier from where the {@link SSLContext} is obtained in case the token endpoint is using TLS/HTTPS
      * @param hostnameVerifierSupplier a supplier from where the {@link HostnameVerifier} is obtained in case the token endpoint is using TLS/HTTPS
+     * @param refreshExecutor          the executor used to refresh cached tokens before they expire
      */
-    private OAuth2CredentialSource(URL tokenEndpointUrl, Consumer<Map<String, String>> authenticationHandler, String scopes, Supplier<SSLContext> sslContextSupplier, Supplier<HostnameVerifier> hostnameVerifierSupplier) {
+    private OAuth2CredentialSource(URL tokenEndpointUrl, Consumer<Map<String, String>> authenticationHandler, String scopes, Supplier<SSLContext> sslContextSupplier, Supplier<HostnameVerifier> hostnameVerifierSupplier, Executor refreshExecutor) {
         this.tokenEndpointUri = checkNotNullParam("tokenEndpointUri", tokenEndpointUrl);
 
         if (isHttps(tokenEndpointUrl)) {
@@ -82,6 +117,7 @@ public class OAuth2CredentialSource implements CredentialSource {
         this.scopes = scopes;
         this.sslContextSupplier = sslContextSupplier;
         this.hostnameVerifierSupplier = hostnameVerifierSupplier;
+        this.refreshExecutor = checkNotNullParam("refreshExecutor", refreshExecutor);
     }
 
     @Override
@@ -93,56 +129,120 @@ public class OAuth2CredentialSource implements CredentialSource {
     public <C extends Credential> C getCredential(Class<C> credentialType, String algorithmName, AlgorithmParameterSpec parameterSpec) throws IOException {
         if (BearerTokenCredential.class.isAssignableFrom(credentialType)) {
             try {
-                HttpURLConnection connection = null;
+                HashMap<String, String> parameters = new HashMap<>();
 
-                try {
-                    connection = openConnection();
-                    connection.setDoOutput(true);
-                    connection.setRequestMethod("POST");
-                    connection.setInstanceFollowRedirects(false);
+                authenticationHandler.accept(parameters);
 
-                    connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+                if (scopes != null) {
+                    parameters.put("scope", scopes);
+                }
 
-                    HashMap<String, String> parameters = new HashMap<>();
+                return credentialType.cast(obtainToken(parameters).credential);
+            } catch (Exception cause) {
+                throw log.mechCallbackHandlerFailedForUnknownReason("OAuth2CredentialSource", cause);
+            }
+        }
 
-                    authenticationHandler.accept(parameters);
+        return null;
+    }
 
-                    if (scopes != null) {
-                        parameters.put("scope", scopes);
-                    }
+    /**
+     * Get the number of requests sent to the token endpoint by this credential source, including the ones sent to refresh
+     * cached tokens.
+     *
+     * @return the number of token requests
+     */
+    public long getTokenFetchCount() {
+        return tokenFetches.sum();
+    }
 
-                    byte[] paramBytes = buildParameters(parameters);
+    private Token obtainToken(Map<String, String> parameters) throws IOException {
+        TokenHolder holder = tokens.get(parameters);
 
-                    try (OutputStream outputStream = connection.getOutputStream()) {
-                        outputStream.write(paramBytes);
-                    }
+        if (holder == null) {
+            if (tokens.size() >= MAX_CACHED_TOKENS) {
+                tokens.clear();
+            }
+            holder = tokens.computeIfAbsent(parameters, TokenHolder::new);
+        }
 
-                    try (InputStream inputStream = new BufferedInputStream(connection.getInputStream())) {
-                        JsonObject jsonObject = Json.createReader(inputStream).readObject();
-                        String accessToken = jsonObject.getString("access_token");
-                        return credentialType.cast(new BearerTokenCredential(accessToken));
-                    }
-                } catch (IOException ioe) {
-                    InputStream errorStream = null;
+        return holder.get();
+    }
 
-                    if (connection != null && connection.getErrorStream() != null) {
-                        errorStream = connection.getErrorStream();
+    private Token requestToken(Map<String, String> parameters, SSLContext sslContext, HostnameVerifier hostnameVerifier, Token previous) throws IOException {
+        HttpURLConnection connection = null;
 
-                        try (BufferedReader reader = new BufferedReader(new InputStreamReader(errorStream))) {
-                            StringBuffer response = reader.lines().reduce(new StringBuffer(), StringBuffer::append, (buffer1, buffer2) -> buffer1);
-                            log.errorf(ioe, "Unexpected response from server [%s]. Response: [%s]", tokenEndpointUri, response);
-                        } catch (IOException ignore) {
-                        }
-                    }
+        try {
+            long requestTime = System.nanoTime();
+
+            tokenFetches.increment();
+            connection = openConnection(sslContext, hostnameVerifier);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setInstanceFollowRedirects(false);
 
-                    throw log.mechUnableToHandleResponseFromServer("OAuth2CredentialSource", ioe);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+
+            byte[] paramBytes = buildParameters(parameters);
+
+            connection.setFixedLengthStreamingMode(paramBytes.length);
+
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(paramBytes);
+            }
+
+            try (InputStream inputStream = new BufferedInputStream(connection.getInputStream())) {
+                JsonObject jsonObject = Json.createReader(inputStream).readObject();
+                String refreshToken = jsonObject.getString("refresh_token", previous == null ? null : previous.refreshToken);
+                return new Token(new BearerTokenCredential(jsonObject.getString("access_token")), refreshToken, requestTime, getExpiresIn(jsonObject));
+            }
+        } catch (IOException ioe) {
+            InputStream errorStream = null;
+
+            if (connection != null && connection.getErrorStream() != null) {
+                errorStream = connection.getErrorStream();
+
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(errorStream))) {
+                    StringBuffer response = reader.lines().reduce(new StringBuffer(), StringBuffer::append, (buffer1, buffer2) -> buffer1);
+                    log.errorf(ioe, "Unexpected response from server [%s]. Response: [%s]", tokenEndpointUri, response);
+                } catch (IOException ignore) {
                 }
-            } catch (Exception cause) {
-                throw log.mechCallbackHandlerFailedForUnknownReason("OAuth2CredentialSource", cause);
             }
+
+            throw log.mechUnableToHandleResponseFromServer("OAuth2CredentialSource", ioe);
         }
+    }
 
-        return null;
+    private static long getExpiresIn(JsonObject jsonObject) {
+        JsonValue value = jsonObject.get("expires_in");
+
+        if (value instanceof JsonNumber) {
+            return ((JsonNumber) value).longValue();
+        } else if (value instanceof JsonString) {
+            try {
+                return Long.parseLong(((JsonString) value).getString());
+            } catch (NumberFormatException ignore) {
+            }
+        }
+
+        return -1;
+    }
+
+    private Map<String, String> buildRefreshParameters(Map<String, String> parameters, String refreshToken) {
+        HashMap<String, String> refreshParameters = new HashMap<>();
+
+        refreshParameters.put("grant_type", "refresh_token");
+        refreshParameters.put("refresh_token", refreshToken);
+
+        for (String name : REFRESH_PARAMETERS) {
+            String value = parameters.get(name);
+
+            if (value != null) {
+                refreshParameters.put(name, value);
+            }
+        }
+
+        return refreshParameters;
     }
 
     private SSLContext resolveSSLContext() {
@@ -152,33 +252,49 @@ public class OAuth2CredentialSource implements CredentialSource {
         return sslContextSupplier == null ? null : sslContextSupplier.get();
     }
 
-    private HttpURLConnection openConnection() throws IOException {
+    private HostnameVerifier resolveHostnameVerifier() {
+        if (!isHttps(tokenEndpointUri) || hostnameVerifierSupplier == null) {
+            return null;
+        }
+        return checkNotNullParam("hostnameVerifier", hostnameVerifierSupplier.get());
+    }
+
+    private HttpURLConnection openConnection(SSLContext sslContext, HostnameVerifier hostnameVerifier) throws IOException {
         log.debugf("Opening connection to [%s]", tokenEndpointUri);
         HttpURLConnection connection = (HttpURLConnection) tokenEndpointUri.openConnection();
-        SSLContext sslContext = resolveSSLContext();
 
         if (sslContext != null) {
             HttpsURLConnection https = (HttpsURLConnection) connection;
 
-            https.setSSLSocketFactory(sslContext.getSocketFactory());
+            https.setSSLSocketFactory(getSocketFactory(sslContext));
 
-            if (hostnameVerifierSupplier != null) {
-                https.setHostnameVerifier(checkNotNullParam("hostnameVerifier", hostnameVerifierSupplier.get()));
+            if (hostnameVerifier != null) {
+                https.setHostnameVerifier(hostnameVerifier);
             }
         }
 
         return connection;
     }
 
-    private byte[] buildParameters(Map<String, String> parameters) {
+    private SSLSocketFactory getSocketFactory(SSLContext sslContext) {
+        SocketFactoryHolder holder = socketFactory;
+
+        if (holder == null || holder.sslContext != sslContext) {
+            socketFactory = holder = new SocketFactoryHolder(sslContext);
+        }
+
+        return holder.socketFactory;
+    }
+
+    private byte[] buildParameters(Map<String, String> parameters) throws IOException {
         ByteStringBuilder params = new ByteStringBuilder();
 
-        parameters.entrySet().stream().forEach(entry -> {
+        for (Map.Entry<String, String> entry : parameters.entrySet()) {
             if (params.length() > 0) {
                 params.append('&');
             }
-            params.append(entry.getKey()).append('=').append(entry.getValue());
-        });
+            params.append(URLEncoder.encode(entry.getKey(), "UTF-8")).append('=').append(URLEncoder.encode(entry.getValue(), "UTF-8"));
+        }
 
         return params.toArray();
     }
@@ -187,6 +303,194 @@ public class OAuth2CredentialSource implements CredentialSource {
         return "https".equals(tokenEndpointUrl.getProtocol());
     }
 
+    /**
+     * An access token obtained from the token endpoint. Expiration and refresh times are based on {@link System#nanoTime()}
+     * and computed from the time the token was requested, so that they are never later than the ones seen by the authorization server.
+     */
+    private static final class Token {
+
+        final BearerTokenCredential credential;
+        final String refreshToken;
+        final long expiresAt;
+        final long refreshAt;
+        final boolean cacheable;
+
+        Token(BearerTokenCredential credential, String refreshToken, long requestTime, long expiresIn) {
+            this(credential, refreshToken, requestTime + expiresAt(expiresIn), requestTime + refreshAt(expiresIn), expiresIn > 0);
+        }
+
+        private Token(BearerTokenCredential credential, String refreshToken, long expiresAt, long refreshAt, boolean cacheable) {
+            this.credential = credential;
+            this.refreshToken = refreshToken;
+            this.expiresAt = expiresAt;
+            this.refreshAt = refreshAt;
+            this.cacheable = cacheable;
+        }
+
+        boolean isValid(long now) {
+            return cacheable && now - expiresAt < 0;
+        }
+
+        boolean shouldRefresh(long now) {
+            return now - refreshAt >= 0;
+        }
+
+        /**
+         * Returns a copy of this token which will not be refreshed again before half of its remaining lifetime has elapsed.
+         */
+        Token deferRefresh(long now) {
+            return new Token(credential, refreshToken, expiresAt, now + (expiresAt - now) / 2, cacheable);
+        }
+
+        private static long expiresAt(long expiresIn) {
+            long lifetime = TimeUnit.SECONDS.toNanos(Math.max(0, expiresIn));
+            // leave some room for clock skew and for the time needed to send the token to the resource server
+            return lifetime - Math.min(lifetime / 10, EXPIRATION_SKEW);
+        }
+
+        private static long refreshAt(long expiresIn) {
+            return TimeUnit.SECONDS.toNanos(Math.max(0, expiresIn)) * 3 / 4;
+        }
+    }
+
+    private static final class SocketFactoryHolder {
+
+        final SSLContext sslContext;
+        final SSLSocketFactory socketFactory;
+
+        SocketFactoryHolder(SSLContext sslContext) {
+            this.sslContext = sslContext;
+            this.socketFactory = sslContext.getSocketFactory();
+        }
+    }
+
+    /**
+     * Holds the token issued for a given set of request parameters. Requests to the token endpoint are single-flighted: while a
+     * request is in progress, callers without a valid token wait for it to complete instead of sending their own request.
+     */
+    private final class TokenHolder {
+
+        private final Map<String, String> parameters;
+        private volatile Token token;
+        private CompletableFuture<Token> pending; // guarded by this
+
+        TokenHolder(Map<String, String> parameters) {
+            this.parameters = parameters;
+        }
+
+        Token get() throws IOException {
+            Token current = token;
+            long now = System.nanoTime();
+
+            if (current != null && current.isValid(now)) {
+                if (current.shouldRefresh(now)) {
+                    refreshAhead(current);
+                }
+                return current;
+            }
+
+            CompletableFuture<Token> future;
+            boolean leader = false;
+
+            synchronized (this) {
+                Token latest = token;
+
+                if (latest != null && latest != current && latest.isValid(now)) {
+                    return latest;
+                }
+                if (pending == null) {
+                    pending = new CompletableFuture<>();
+                    leader = true;
+                }
+                future = pending;
+            }
+
+            if (leader) {
+                fetch(future, current, resolveSSLContext(), resolveHostnameVerifier());
+            }
+
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+
+        private void refreshAhead(Token current) {
+            CompletableFuture<Token> future;
+
+            synchronized (this) {
+                if (pending != null || token != current) {
+                    return;
+                }
+                pending = future = new CompletableFuture<>();
+            }
+
+            try {
+                // resolve TLS configuration on the calling thread, where the authentication context is the one the token was obtained with
+                SSLContext sslContext = resolveSSLContext();
+                HostnameVerifier hostnameVerifier = resolveHostnameVerifier();
+                refreshExecutor.execute(() -> fetch(future, current, sslContext, hostnameVerifier));
+            } catch (RuntimeException e) {
+                log.debugf(e, "Unable to refresh access token from [%s] ahead of its expiration", tokenEndpointUri);
+                complete(future, current.deferRefresh(System.nanoTime()), null);
+            }
+        }
+
+        private void fetch(CompletableFuture<Token> future, Token previous, SSLContext sslContext, HostnameVerifier hostnameVerifier) {
+            try {
+                Token fetched = null;
+
+                if (previous != null && previous.refreshToken != null) {
+                    try {
+                        fetched = requestToken(buildRefreshParameters(parameters, previous.refreshToken), sslContext, hostnameVerifier, previous);
+                    } catch (IOException e) {
+                        log.debugf(e, "Unable to refresh access token from [%s], requesting a new one", tokenEndpointUri);
+                    }
+                }
+
+                if (fetched == null) {
+                    fetched = requestToken(parameters, sslContext, hostnameVerifier, null);
+                }
+
+                complete(future, fetched.cacheable ? fetched : null, fetched);
+            } catch (Throwable cause) {
+                long now = System.nanoTime();
+
+                if (previous != null && previous.isValid(now)) {
+                    // a refresh ahead of expiration failed, keep using the current token until it expires
+                    log.debugf(cause, "Unable to refresh access token from [%s] ahead of its expiration", tokenEndpointUri);
+                    complete(future, previous.deferRefresh(now), previous);
+                } else {
+                    synchronized (this) {
+                        pending = null;
+                    }
+                    future.completeExceptionally(cause);
+                }
+            }
+        }
+
+        private void complete(CompletableFuture<Token> future, Token cached, Token result) {
+            synchronized (this) {
+                token = cached;
+                pending = null;
+            }
+            future.complete(result);
+        }
+    }
+
     public static class Builder {
 
         private final URL tokenEndpointUrl;
@@ -204,6 +508,7 @@ public class OAuth2CredentialSource implements CredentialSource {
         };
         private Supplier<HostnameVerifier> hostnameVerifierSupplier;
         private Consumer<Map<String, String>> authenticationHandler;
+        private Executor refreshExecutor;
 
         private Builder(URL tokenEndpointUrl) {
             this.tokenEndpointUrl = checkNotNullParam("tokenEndpointUrl", tokenEndpointUrl);
@@ -298,6 +603,22 @@ public class OAuth2CredentialSource implements CredentialSource {
             return this;
         }
 
+        /**
+         * <p>The {@link Executor} used to refresh access tokens in the background before they expire.
+         *
+         * <p>Access tokens are cached for the lifetime advertised by the authorization server in the {@code expires_in} response
+         * parameter, and refreshed once three quarters of that lifetime have elapsed, using the {@code refresh_token} grant when the
+         * authorization server issued a refresh token. Defaults to the
+         * {@link SecurityDomain#getScheduledExecutorService() security domain executor}.
+         *
+         * @param refreshExecutor the executor
+         * @return this instance
+         */
+        public Builder refreshExecutor(Executor refreshExecutor) {
+            this.refreshExecutor = checkNotNullParam("refreshExecutor", refreshExecutor);
+            return this;
+        }
+
         /**
          * Creates a new {@link OAuth2CredentialSource} instance.
          *
@@ -328,7 +649,7 @@ public class OAuth2CredentialSource implements CredentialSource {
                 if (!parameters.containsKey("client_id") || !parameters.containsKey("client_secret")) {
                     throw ElytronMessages.log.oauth2ClientCredentialsNotProvided();
                 }
-            }), scopes, sslContextSupplier, hostnameVerifierSupplier);
+            }), scopes, sslContextSupplier, hostnameVerifierSupplier, refreshExecutor != null ? refreshExecutor : SecurityDomain.getScheduledExecutorService());
         }
 
         private void configureClientCredentialsParameters(Map<String, String> parameters, String id, char[] secret) {
@@ -18,11 +18,19 @@
 
 package org.wildfly.security.credential.store.impl;
 
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static org.wildfly.security._private.ElytronMessages.log;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -56,10 +64,12 @@ import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
@@ -126,7 +136,19 @@ import org.wildfly.security.x500.X500;
  *     <li>{@code modifiable}: specifies whether the credential store should be modifiable</li>
  *     <li>{@code create}: specifies to automatically create storage file for this credential store (defaults to {@code false})</li>
  *     <li>{@code keyStoreType}: specify the key store type to use (defaults to {@link KeyStore#getDefaultType()})</li>
+ *     <li>{@code changeLog}: specifies whether a flush appends the changed entries to a change log next to the key store file
+ *     instead of rewriting the whole key store (defaults to {@code false})</li>
  * </ul>
+ * <p>
+ * Credentials are looked up without locking, in a snapshot of the entries of each alias which is replaced as a whole when the
+ * alias is modified. Only reading the matched entry from the key store takes the read lock, as key stores are not thread safe.
+ * Modifications and flushes take the write lock.
+ * <p>
+ * With the change log enabled, every changed entry is written to the log as a single entry key store of the configured type,
+ * protected by the store password, so the cost of a flush depends on the number of changes rather than on the size of the
+ * store. The log is replayed when the store is initialized, and folded back into the key store file once it has grown larger
+ * than the key store file itself. Tools which read the key store file directly only see the changes which have been folded
+ * back.
  */
 public final class KeyStoreCredentialStore extends CredentialStoreSpi {
 
@@ -139,13 +161,32 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
 
     private static final String X_509 = "X.509";
 
+    private static final String CHANGE_LOG_SUFFIX = ".changelog";
+    private static final int CHANGE_LOG_MAGIC = 0x4B534C31; // "KSL1"
+    private static final byte CHANGE_PUT = 1;
+    private static final byte CHANGE_DELETE = 2;
+    private static final long MIN_CHANGE_LOG_COMPACTION_SIZE = 16 * 1024;
+
     private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-    private final HashMap<String, TopEntry> cache = new HashMap<>();
+    /**
+     * The entries of each alias. Published entries are never modified, a modification replaces the entry of the alias.
+     */
+    private final ConcurrentHashMap<String, TopEntry> cache = new ConcurrentHashMap<>();
+    /**
+     * The key store entries changed since the last flush, mapped to {@code null} if removed. Guarded by the write lock.
+     */
+    private final HashMap<String, KeyStore.Entry> pendingChanges = new HashMap<>();
+    /**
+     * Whether a change since the last flush cannot be written to the change log. Guarded by the write lock.
+     */
+    private boolean pendingRewrite;
     private volatile boolean modifiable;
-    private KeyStore keyStore;
+    private volatile KeyStore keyStore;
+    private String keyStoreType;
     private Path location;
     private boolean create;
-    private CredentialStore.ProtectionParameter protectionParameter;
+    private boolean changeLog;
+    private volatile CredentialStore.ProtectionParameter protectionParameter;
     private Provider[] providers;
 
     public void initialize(final Map<String, String> attributes, final CredentialStore.ProtectionParameter protectionParameter, final Provider[] providers) throws CredentialStoreException {
@@ -154,13 +195,17 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
                 throw log.protectionParameterRequired();
             }
             cache.clear();
+            pendingChanges.clear();
+            pendingRewrite = false;
             this.protectionParameter = protectionParameter;
             modifiable = Boolean.parseBoolean(attributes.getOrDefault("modifiable", "true"));
             create = Boolean.parseBoolean(attributes.getOrDefault("create", "false"));
+            changeLog = Boolean.parseBoolean(attributes.getOrDefault("changeLog", "false"));
             final String locationName = attributes.get("location");
             location = locationName == null ? null : Paths.get(locationName);
             this.providers = providers;
-            load(attributes.getOrDefault("keyStoreType", KeyStore.getDefaultType()));
+            keyStoreType = attributes.getOrDefault("keyStoreType", KeyStore.getDefaultType());
+            load(keyStoreType);
             initialized = true;
         }
     }
@@ -324,7 +369,10 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
             final String ksAlias = calculateNewAlias(credentialAlias, credentialClass, algorithmName, parameterSpec);
             try (Hold hold = lockForWrite()) {
                 keyStore.setEntry(ksAlias, entry, convertParameter(protectionParameter));
-                final TopEntry topEntry = cache.computeIfAbsent(toLowercase(credentialAlias), TopEntry::new);
+                recordChange(ksAlias, entry, protectionParameter);
+                final String alias = toLowercase(credentialAlias);
+                final TopEntry existing = cache.get(alias);
+                final TopEntry topEntry = existing == null ? new TopEntry(alias) : existing.copy();
                 final MidEntry midEntry = topEntry.getMap().computeIfAbsent(credentialClass, c -> new MidEntry(topEntry, c));
                 final BottomEntry bottomEntry;
                 if (algorithmName != null) {
@@ -340,8 +388,9 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
                 }
                 if (oldAlias != null && ! oldAlias.equals(ksAlias)) {
                     // unlikely but possible
-                    keyStore.deleteEntry(oldAlias);
+                    remove(oldAlias);
                 }
+                cache.put(alias, topEntry);
             }
         } catch (KeyStoreException | NoSuchAlgorithmException | InvalidKeySpecException | InvalidKeyException | CertificateException e) {
             throw log.cannotWriteCredentialToStore(e);
@@ -353,7 +402,8 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
         final MidEntry midEntry;
         final BottomEntry bottomEntry;
         final String ksAlias;
-        try (Hold hold = lockForRead()) {
+        try {
+            // the entries of an alias are never modified once published, so they are looked up without locking
             final TopEntry topEntry = cache.get(toLowercase(credentialAlias));
             if (topEntry == null) {
                 return null;
@@ -402,7 +452,11 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
             if (ksAlias == null) {
                 return null;
             }
-            entry = keyStore.getEntry(ksAlias, convertParameter(protectionParameter));
+            final KeyStore.ProtectionParameter entryProtection = convertParameter(protectionParameter);
+            // the key store itself is modified by store, remove and flush
+            try (Hold hold = lockForRead()) {
+                entry = keyStore.getEntry(ksAlias, entryProtection);
+            }
         } catch (NoSuchAlgorithmException | UnrecoverableEntryException | KeyStoreException e) {
             throw log.cannotAcquireCredentialFromStore(e);
         }
@@ -639,12 +693,16 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
                 throw log.nonModifiableCredentialStore("remove");
             }
             // unlike retrieve or store, we want to remove *all* matches
-            final TopEntry topEntry = cache.get(credentialAliasLowerCase);
-            if (topEntry == null) {
+            final TopEntry existing = cache.get(credentialAliasLowerCase);
+            if (existing == null) {
                 return;
             }
+            // work on a copy as the published entries may be in use by readers
+            final TopEntry topEntry = existing.copy();
             if (topEntry.getMap().containsKey(credentialType)) {
-                remove(topEntry.getMap().remove(credentialType), credentialAlgorithm, parameterSpec);
+                final MidEntry item = topEntry.getMap().get(credentialType);
+                remove(item, credentialAlgorithm, parameterSpec);
+                if (item.isEmpty()) topEntry.getMap().remove(credentialType);
             } else {
                 // loose (slow) match
                 Iterator<MidEntry> iterator = topEntry.getMap().values().iterator();
@@ -656,7 +714,11 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
                     }
                 }
             }
-            cache.remove(credentialAliasLowerCase);
+            if (topEntry.getMap().isEmpty()) {
+                cache.remove(credentialAliasLowerCase);
+            } else {
+                cache.put(credentialAliasLowerCase, topEntry);
+            }
             // done!
         } catch (KeyStoreException e) {
             throw log.cannotRemoveCredentialFromStore(e);
@@ -666,7 +728,9 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
     private void remove(final MidEntry midEntry, final String credentialAlgorithm, final AlgorithmParameterSpec parameterSpec) throws KeyStoreException {
         if (midEntry != null) {
             if (credentialAlgorithm != null) {
-                remove(midEntry.getMap().get(credentialAlgorithm), parameterSpec);
+                final BottomEntry item = midEntry.getMap().get(credentialAlgorithm);
+                remove(item, parameterSpec);
+                if (item != null && item.isEmpty()) midEntry.getMap().remove(credentialAlgorithm);
             } else {
                 // match any
                 Iterator<BottomEntry> iterator = midEntry.getMap().values().iterator();
@@ -675,7 +739,9 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
                     remove(item, parameterSpec);
                     if (item.isEmpty()) iterator.remove();
                 }
-                remove(midEntry.removeNoAlgorithm(), parameterSpec);
+                final BottomEntry noAlgorithm = midEntry.getNoAlgorithm();
+                remove(noAlgorithm, parameterSpec);
+                if (noAlgorithm != null && noAlgorithm.isEmpty()) midEntry.removeNoAlgorithm();
             }
             // done!
         }
@@ -701,6 +767,19 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
     private void remove(final String ksAlias) throws KeyStoreException {
         if (ksAlias != null) {
             keyStore.deleteEntry(ksAlias);
+            recordChange(ksAlias, null, null);
+        }
+    }
+
+    private void recordChange(final String ksAlias, final KeyStore.Entry entry, final CredentialStore.ProtectionParameter protectionParameter) {
+        // write lock held
+        if (changeLog && location != null) {
+            if (protectionParameter != null) {
+                // the change log only holds entries protected by the store password
+                pendingRewrite = true;
+            } else {
+                pendingChanges.put(ksAlias, entry);
+            }
         }
     }
 
@@ -709,24 +788,146 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
             final Path location = this.location;
             if (location != null) try {
                 final char[] storePassword = getStorePassword(protectionParameter);
-                try (AtomicFileOutputStream os = new AtomicFileOutputStream(location)) {
-                    try {
-                        keyStore.store(os, storePassword);
-                    } catch (Throwable t) {
-                        try {
-                            os.cancel();
-                        } catch (IOException e) {
-                            e.addSuppressed(t);
-                            throw e;
-                        }
+                final Path changeLogPath = getChangeLogPath(location);
+                if (changeLog && ! pendingRewrite && Files.exists(location)) {
+                    if (! pendingChanges.isEmpty()) {
+                        appendChanges(changeLogPath, storePassword);
+                    }
+                    if (Files.exists(changeLogPath) && Files.size(changeLogPath) > Math.max(Files.size(location), MIN_CHANGE_LOG_COMPACTION_SIZE)) {
+                        storeKeyStore(location, storePassword);
+                        Files.delete(changeLogPath);
                     }
+                } else {
+                    storeKeyStore(location, storePassword);
+                    Files.deleteIfExists(changeLogPath);
                 }
-            } catch (IOException e) {
+                pendingChanges.clear();
+                pendingRewrite = false;
+            } catch (IOException | GeneralSecurityException e) {
                 throw log.cannotFlushCredentialStore(e);
             }
         }
     }
 
+    private void storeKeyStore(final Path location, final char[] storePassword) throws IOException {
+        try (AtomicFileOutputStream os = new AtomicFileOutputStream(location)) {
+            try {
+                keyStore.store(os, storePassword);
+            } catch (Throwable t) {
+                try {
+                    os.cancel();
+                } catch (IOException e) {
+                    e.addSuppressed(t);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void appendChanges(final Path changeLogPath, final char[] storePassword) throws IOException, GeneralSecurityException, CredentialStoreException {
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        final DataOutputStream recordsOut = new DataOutputStream(records);
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        final CRC32 crc = new CRC32();
+        for (Map.Entry<String, KeyStore.Entry> change : pendingChanges.entrySet()) {
+            payload.reset();
+            final DataOutputStream payloadOut = new DataOutputStream(payload);
+            final String ksAlias = change.getKey();
+            final KeyStore.Entry entry = change.getValue();
+            if (entry == null) {
+                payloadOut.writeByte(CHANGE_DELETE);
+                payloadOut.writeUTF(ksAlias);
+            } else {
+                payloadOut.writeByte(CHANGE_PUT);
+                payloadOut.writeUTF(ksAlias);
+                final KeyStore single = getKeyStoreInstance(keyStoreType);
+                single.load(null, null);
+                single.setEntry(ksAlias, entry, convertParameter(null));
+                single.store(payloadOut, storePassword);
+            }
+            payloadOut.flush();
+            final byte[] bytes = payload.toByteArray();
+            crc.reset();
+            crc.update(bytes, 0, bytes.length);
+            recordsOut.writeInt(bytes.length);
+            recordsOut.write(bytes);
+            recordsOut.writeInt((int) crc.getValue());
+        }
+        try (FileChannel channel = FileChannel.open(changeLogPath, CREATE, WRITE, APPEND)) {
+            if (channel.size() == 0) {
+                final ByteBuffer header = ByteBuffer.allocate(4).putInt(0, CHANGE_LOG_MAGIC);
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    private void replayChangeLog(final KeyStore keyStore, final Path changeLogPath, final char[] storePassword) throws IOException, GeneralSecurityException, CredentialStoreException {
+        // lock held
+        if (! Files.exists(changeLogPath)) {
+            return;
+        }
+        final byte[] bytes = Files.readAllBytes(changeLogPath);
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final CRC32 crc = new CRC32();
+        int validEnd = 0;
+        if (buffer.remaining() >= 4 && buffer.getInt() == CHANGE_LOG_MAGIC) {
+            validEnd = 4;
+            while (buffer.remaining() >= 4) {
+                final int length = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining() - 4) {
+                    break;
+                }
+                final int start = buffer.position();
+                crc.reset();
+                crc.update(bytes, start, length);
+                if (buffer.getInt(start + length) != (int) crc.getValue()) {
+                    break;
+                }
+                final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, start, length));
+                final byte type = in.readByte();
+                final String ksAlias = in.readUTF();
+                if (type == CHANGE_PUT) {
+                    final KeyStore single = getKeyStoreInstance(keyStoreType);
+                    single.load(in, storePassword);
+                    final KeyStore.Entry entry = single.getEntry(ksAlias, convertParameter(null));
+                    if (entry != null) {
+                        keyStore.setEntry(ksAlias, entry, convertParameter(null));
+                    }
+                } else if (type == CHANGE_DELETE) {
+                    if (keyStore.containsAlias(ksAlias)) {
+                        keyStore.deleteEntry(ksAlias);
+                    }
+                } else {
+                    break;
+                }
+                buffer.position(start + length + 4);
+                validEnd = buffer.position();
+            }
+        }
+        if (validEnd < bytes.length) {
+            // an incomplete write, the changes of the interrupted flush are lost
+            log.credentialStoreDiscardingChangeLogTail(validEnd, changeLogPath);
+            if (validEnd == 0) {
+                Files.delete(changeLogPath);
+            } else {
+                try (FileChannel channel = FileChannel.open(changeLogPath, WRITE)) {
+                    channel.truncate(validEnd);
+                }
+            }
+        }
+    }
+
+    private static Path getChangeLogPath(final Path location) {
+        return location.resolveSibling(location.getFileName() + CHANGE_LOG_SUFFIX);
+    }
+
     /**
      * Returns credential aliases stored in this store as {@code Set<String>}.
      * <p>
@@ -747,8 +948,8 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
     }
 
     private Hold lockForWrite() {
-        readWriteLock.readLock().lock();
-        return () -> readWriteLock.readLock().unlock();
+        readWriteLock.writeLock().lock();
+        return () -> readWriteLock.writeLock().unlock();
     }
 
     private static final Pattern INDEX_PATTERN = Pattern.compile("(.+)/([a-z0-9_]+)/([-a-z0-9_]+)?/([2-7a-z]+)?$");
@@ -757,10 +958,12 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
         // lock held
         final Enumeration<String> enumeration;
         // load the KeyStore from file
-        keyStore = getKeyStoreInstance(type);
+        final KeyStore keyStore = getKeyStoreInstance(type);
         if (location != null && Files.exists(location))
             try (InputStream fileStream = Files.newInputStream(location)) {
-                keyStore.load(fileStream, getStorePassword(protectionParameter));
+                final char[] storePassword = getStorePassword(protectionParameter);
+                keyStore.load(fileStream, storePassword);
+                replayChangeLog(keyStore, getChangeLogPath(location), storePassword);
                 enumeration = keyStore.aliases();
             } catch (GeneralSecurityException | IOException e) {
                 throw log.cannotInitializeCredentialStore(e);
@@ -774,6 +977,7 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
         } else {
             throw log.automaticStorageCreationDisabled(location.toString());
         }
+        this.keyStore = keyStore;
         Matcher matcher;
         while (enumeration.hasMoreElements()) {
             final String ksAlias = enumeration.nextElement().toLowerCase(Locale.ROOT);
@@ -910,6 +1114,14 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
         HashMap<Class<? extends Credential>, MidEntry> getMap() {
             return map;
         }
+
+        TopEntry copy() {
+            final TopEntry copy = new TopEntry(alias);
+            for (Map.Entry<Class<? extends Credential>, MidEntry> entry : map.entrySet()) {
+                copy.map.put(entry.getKey(), entry.getValue().copy(copy));
+            }
+            return copy;
+        }
     }
 
     static final class MidEntry {
@@ -955,6 +1167,17 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
             final BottomEntry noAlgorithm = this.noAlgorithm;
             return noAlgorithm != null ? noAlgorithm : (this.noAlgorithm = new BottomEntry(this, null));
         }
+
+        MidEntry copy(final TopEntry topEntry) {
+            final MidEntry copy = new MidEntry(topEntry, credentialType);
+            for (Map.Entry<String, BottomEntry> entry : map.entrySet()) {
+                copy.map.put(entry.getKey(), entry.getValue().copy(copy));
+            }
+            if (noAlgorithm != null) {
+                copy.noAlgorithm = noAlgorithm.copy(copy);
+            }
+            return copy;
+        }
     }
 
     static final class BottomEntry {
@@ -999,6 +1222,13 @@ public final class KeyStoreCredentialStore extends CredentialStoreSpi {
                 noParams = null;
             }
         }
+
+        BottomEntry copy(final MidEntry midEntry) {
+            final BottomEntry copy = new BottomEntry(midEntry, algorithm);
+            copy.map.putAll(map);
+            copy.noParams = noParams;
+            return copy;
+        }
     }
 
     static final class ParamKey {
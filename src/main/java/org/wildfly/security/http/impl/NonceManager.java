@@ -25,17 +25,17 @@ import java.security.DigestException;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.wildfly.security.http.HttpConstants;
+import org.wildfly.security.http.util.NonceStore;
+import org.wildfly.security.http.util.TimeBucketedNonceStore;
 import org.wildfly.security.mechanism.AuthenticationMechanismException;
 import org.wildfly.security.util.ByteIterator;
 import org.wildfly.security.util.CodePointIterator;
+import org.wildfly.security.util._private.PrimitivePool;
 import org.wildfly.security.util._private.Arrays2;
 
 /**
@@ -47,9 +47,12 @@ class NonceManager {
 
     private static final int PREFIX_LENGTH = Integer.BYTES + Long.BYTES;
 
-    private final ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
     private final AtomicInteger nonceCounter = new AtomicInteger();
-    private final Set<String> usedNonces = new HashSet<>();
+    private final NonceStore nonceStore;
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
 
     private final byte[] privateKey;
 
@@ -64,8 +67,19 @@ class NonceManager {
      * @param algorithm the message digest algorithm to use when creating the digest portion of the nonce.
      */
     NonceManager(long validityPeriod, boolean singleUse, int keySize, String algorithm) {
-        this.validityPeriodNano = validityPeriod * 1000000;
-        this.singleUse = singleUse;
+        this(validityPeriod, singleUse ? new TimeBucketedNonceStore(validityPeriod) : null, keySize, algorithm);
+    }
+
+    /**
+     * @param validityPeriod the time in ms that nonces are valid for in ms.
+     * @param nonceStore the store used to track nonce usage, if {@code null} nonces are not single use.
+     * @param keySize the number of bytes to use in the private key of this node.
+     * @param algorithm the message digest algorithm to use when creating the digest portion of the nonce.
+     */
+    NonceManager(long validityPeriod, NonceStore nonceStore, int keySize, String algorithm) {
+        this.validityPeriodNano = TimeUnit.MILLISECONDS.toNanos(validityPeriod);
+        this.singleUse = nonceStore != null;
+        this.nonceStore = nonceStore;
         this.algorithm = algorithm;
 
         this.privateKey = new byte[keySize];
@@ -88,8 +102,9 @@ class NonceManager {
      * @return a new encoded nonce to send to the client.
      */
     String generateNonce(byte[] salt) {
+        MessageDigest messageDigest = null;
         try {
-            MessageDigest messageDigest = MessageDigest.getInstance(algorithm);
+            messageDigest = PrimitivePool.acquireMessageDigest(algorithm);
 
             ByteBuffer byteBuffer = ByteBuffer.allocate(PREFIX_LENGTH + messageDigest.getDigestLength());
             byteBuffer.putInt(nonceCounter.incrementAndGet());
@@ -97,6 +112,7 @@ class NonceManager {
             byteBuffer.put(digest(byteBuffer.array(), 0, PREFIX_LENGTH, salt, messageDigest));
 
             String nonce = ByteIterator.ofBytes(byteBuffer.array()).base64Encode().drainToString();
+            issued.increment();
             if (log.isTraceEnabled()) {
                 String saltString = salt == null ? "null" : ByteIterator.ofBytes(salt).hexEncode().drainToString();
                 log.tracef("New nonce generated %s, using seed %s", nonce, saltString);
@@ -104,6 +120,8 @@ class NonceManager {
             return nonce;
         } catch (GeneralSecurityException e) {
             throw new IllegalStateException(e);
+        } finally {
+            PrimitivePool.release(messageDigest);
         }
     }
 
@@ -152,8 +170,9 @@ class NonceManager {
      * @throws AuthenticationMechanismException
      */
     boolean useNonce(final String nonce, byte[] salt) throws AuthenticationMechanismException {
+        MessageDigest messageDigest = null;
         try {
-            MessageDigest messageDigest = MessageDigest.getInstance(algorithm);
+            messageDigest = PrimitivePool.acquireMessageDigest(algorithm);
             ByteIterator byteIterator = CodePointIterator.ofChars(nonce.toCharArray()).base64Decode();
             byte[] nonceBytes = byteIterator.drain();
             if (nonceBytes.length != PREFIX_LENGTH + messageDigest.getDigestLength()) {
@@ -163,6 +182,7 @@ class NonceManager {
             long age = System.nanoTime() - ByteBuffer.wrap(nonceBytes, Integer.BYTES, Long.BYTES).getLong();
             if (age < 0 || age > validityPeriodNano) {
                 log.tracef("Nonce %s rejected due to age %d (ns) being less than 0 or greater than the validity period %d (ns)", nonce, age, validityPeriodNano);
+                rejected.increment();
                 return false;
             }
 
@@ -172,31 +192,54 @@ class NonceManager {
                     log.tracef("Nonce %s rejected due to failed comparison using secret key with seed %s.", nonce,
                             saltString);
                 }
+                rejected.increment();
                 return false;
             }
 
             if (singleUse) {
-                synchronized(usedNonces) {
-                    boolean used = usedNonces.add(nonce);
-                    if (used) {
-                        executor.schedule(() -> {
-                            synchronized(usedNonces) {
-                                usedNonces.remove(nonce);
-                            }
-                        }, validityPeriodNano - age, TimeUnit.MILLISECONDS);
-                    } else {
-                        log.tracef("Nonce %s rejected as previously used.", nonce);
-                    }
-
-                    return used;
+                long expiry = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(validityPeriodNano - age);
+                boolean used = nonceStore.useNonce(nonce, expiry);
+                if (used == false) {
+                    log.tracef("Nonce %s rejected as previously used.", nonce);
+                    reused.increment();
                 }
 
+                return used;
             }
 
             return true;
 
         } catch (GeneralSecurityException e) {
             throw new IllegalStateException(e);
+        } finally {
+            PrimitivePool.release(messageDigest);
         }
     }
+
+    /**
+     * Get the number of nonces generated by this manager.
+     *
+     * @return the number of nonces generated by this manager.
+     */
+    long getIssuedCount() {
+        return issued.sum();
+    }
+
+    /**
+     * Get the number of nonces rejected because they had already been used.
+     *
+     * @return the number of nonces rejected because they had already been used.
+     */
+    long getReusedCount() {
+        return reused.sum();
+    }
+
+    /**
+     * Get the number of nonces rejected because they had expired or their signature did not match.
+     *
+     * @return the number of nonces rejected because they had expired or their signature did not match.
+     */
+    long getRejectedCount() {
+        return rejected.sum();
+    }
 }
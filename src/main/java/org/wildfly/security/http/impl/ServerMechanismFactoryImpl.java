@@ -40,6 +40,7 @@ import org.kohsuke.MetaInfServices;
 import org.wildfly.security.http.HttpAuthenticationException;
 import org.wildfly.security.http.HttpServerAuthenticationMechanism;
 import org.wildfly.security.http.HttpServerAuthenticationMechanismFactory;
+import org.wildfly.security.http.util.NonceStore;
 
 /**
  * The {@link HttpServerAuthenticationMechanismFactory} implementation for the mechanisms implemented within Elytron.
@@ -49,23 +50,65 @@ import org.wildfly.security.http.HttpServerAuthenticationMechanismFactory;
 @MetaInfServices(value = HttpServerAuthenticationMechanismFactory.class)
 public class ServerMechanismFactoryImpl implements HttpServerAuthenticationMechanismFactory {
 
+    /*
+     * 60 Second Nonce Validity
+     * Single User
+     * 20 Byte Private Key (Gives us at least enough material for SHA-256 to digest))
+     * MD5 Digest Algorithm
+     */
+    private static final long NONCE_VALIDITY = 60000;
+    private static final NonceManager DEFAULT_NONCE_MANAGER = new NonceManager(NONCE_VALIDITY, true, 20, SHA256);
+
     private final Supplier<Provider[]> providers;
+    private final NonceManager nonceManager;
 
     public ServerMechanismFactoryImpl() {
         providers = Security::getProviders;
+        nonceManager = DEFAULT_NONCE_MANAGER;
     }
 
     public ServerMechanismFactoryImpl(final Provider provider) {
         providers = () -> new Provider[] { provider };
+        nonceManager = DEFAULT_NONCE_MANAGER;
     }
 
-    /*
-     * 60 Second Nonce Validity
-     * Single User
-     * 20 Byte Private Key (Gives us at least enough material for SHA-256 to digest))
-     * MD5 Digest Algorithm
+    /**
+     * Construct a new instance where the {@code DIGEST} mechanism tracks the use of its nonces using the supplied store.
+     *
+     * @param nonceStore the store used to track nonce usage (must not be {@code null})
      */
-    private static NonceManager nonceManager = new NonceManager(60000, true, 20, SHA256);
+    public ServerMechanismFactoryImpl(final NonceStore nonceStore) {
+        checkNotNullParam("nonceStore", nonceStore);
+        providers = Security::getProviders;
+        nonceManager = new NonceManager(NONCE_VALIDITY, nonceStore, 20, SHA256);
+    }
+
+    /**
+     * Get the number of nonces issued by the {@code DIGEST} mechanism.
+     *
+     * @return the number of nonces issued by the {@code DIGEST} mechanism
+     */
+    public long getIssuedNonceCount() {
+        return nonceManager.getIssuedCount();
+    }
+
+    /**
+     * Get the number of nonces the {@code DIGEST} mechanism rejected because they had already been used.
+     *
+     * @return the number of nonces rejected as replays
+     */
+    public long getReusedNonceCount() {
+        return nonceManager.getReusedCount();
+    }
+
+    /**
+     * Get the number of nonces the {@code DIGEST} mechanism rejected because they had expired or failed signature validation.
+     *
+     * @return the number of nonces rejected as expired or invalid
+     */
+    public long getRejectedNonceCount() {
+        return nonceManager.getRejectedCount();
+    }
 
     /**
      * @see org.wildfly.security.http.HttpServerAuthenticationMechanismFactory#getMechanismNames(java.util.Map)
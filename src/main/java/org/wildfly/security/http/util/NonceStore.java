@@ -0,0 +1,41 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.http.util;
+
+/**
+ * A store recording which nonces issued by the HTTP {@code DIGEST} mechanism have already been used.
+ *
+ * <p>Implementations must be thread safe. An implementation may be shared by several nodes (e.g. backed by a clustered cache)
+ * in which case every node validating nonces must also share the same nonce signing key.
+ */
+public interface NonceStore {
+
+    /**
+     * Record the use of the given nonce.
+     *
+     * <p>The check and the registration must be performed atomically, so that for concurrent calls with the same nonce at most one
+     * call returns {@code true}.
+     *
+     * @param nonce the nonce being used (not {@code null})
+     * @param expiry the time, in milliseconds since the epoch, after which the nonce can no longer be used and so no longer needs to be
+     *               remembered
+     * @return {@code true} if this is the first use of the nonce, {@code false} if the nonce has already been used
+     */
+    boolean useNonce(String nonce, long expiry);
+}
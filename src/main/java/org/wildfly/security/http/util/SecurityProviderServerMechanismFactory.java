@@ -18,11 +18,8 @@
 package org.wildfly.security.http.util;
 
 import static org.wildfly.common.Assert.checkNotNullParam;
-import static org.wildfly.security._private.ElytronMessages.log;
 
-import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
-import java.security.Provider.Service;
 import java.security.Security;
 import java.util.Collections;
 import java.util.LinkedHashSet;
@@ -35,9 +32,13 @@ import javax.security.auth.callback.CallbackHandler;
 import org.wildfly.security.http.HttpAuthenticationException;
 import org.wildfly.security.http.HttpServerAuthenticationMechanism;
 import org.wildfly.security.http.HttpServerAuthenticationMechanismFactory;
+import org.wildfly.security.util._private.ProviderFactoryCache;
+import org.wildfly.security.util._private.ProviderFactoryCache.ProviderFactory;
 
 /**
  * A {@link HttpServerAuthenticationMechanismFactory} that loads factories from a supplied array of {@link Provider} instances.
+ * The factories are cached, and indexed by the mechanism names they report, until the supplied providers or their services
+ * change.
  *
  * @author <a href="mailto:darran.lofthouse@jboss.com">Darran Lofthouse</a>
  */
@@ -45,7 +46,7 @@ public final class SecurityProviderServerMechanismFactory implements HttpServerA
 
     private static final String SERVICE_TYPE = HttpServerAuthenticationMechanismFactory.class.getSimpleName();
 
-    private final Supplier<Provider[]> providers;
+    private final ProviderFactoryCache<HttpServerAuthenticationMechanismFactory> factoryCache;
 
     /**
      * Construct a new instance of {@code SecurityProviderServerMechanismFactory}.
@@ -53,7 +54,8 @@ public final class SecurityProviderServerMechanismFactory implements HttpServerA
      * @param providers a {@link Supplier<Provider>} to supply the providers to use for locating the factories.
      */
     public SecurityProviderServerMechanismFactory(Supplier<Provider[]> providers) {
-        this.providers = checkNotNullParam("providers", providers);
+        this.factoryCache = new ProviderFactoryCache<>(checkNotNullParam("providers", providers), HttpServerAuthenticationMechanismFactory.class,
+                factory -> factory.getMechanismNames(Collections.emptyMap()));
     }
 
     /**
@@ -69,20 +71,8 @@ public final class SecurityProviderServerMechanismFactory implements HttpServerA
     @Override
     public String[] getMechanismNames(Map<String, ?> properties) {
         Set<String> mechanismNames = new LinkedHashSet<>();
-        for (Provider current : providers.get()) {
-            Set<Service> services = current.getServices();
-            if (services != null) {
-                for (Service currentService : services) {
-                    if (SERVICE_TYPE.equals(currentService.getType())) {
-                        try {
-                            String[] serviceMechNames = ((HttpServerAuthenticationMechanismFactory) currentService.newInstance(null)).getMechanismNames(properties);
-                            Collections.addAll(mechanismNames, serviceMechNames);
-                        } catch (NoSuchAlgorithmException e) {
-                            log.debug(e);
-                        }
-                    }
-                }
-            }
+        for (ProviderFactory<HttpServerAuthenticationMechanismFactory> current : factoryCache.getSnapshot().getFactories()) {
+            Collections.addAll(mechanismNames, current.getFactory().getMechanismNames(properties));
         }
         return mechanismNames.toArray(new String[mechanismNames.size()]);
     }
@@ -92,22 +82,10 @@ public final class SecurityProviderServerMechanismFactory implements HttpServerA
      */
     @Override
     public HttpServerAuthenticationMechanism createAuthenticationMechanism(String mechanismName, Map<String, ?> properties, CallbackHandler callbackHandler) throws HttpAuthenticationException {
-        for (Provider current : providers.get()) {
-            Set<Service> services = current.getServices();
-            if (services != null) {
-                for (Service currentService : services) {
-                    if (SERVICE_TYPE.equals(currentService.getType())) {
-                        try {
-                            HttpServerAuthenticationMechanismFactory factory = (HttpServerAuthenticationMechanismFactory) currentService.newInstance(null);
-                            HttpServerAuthenticationMechanism mechanism = factory.createAuthenticationMechanism(mechanismName, properties, callbackHandler);
-                            if (mechanism != null) {
-                                return mechanism;
-                            }
-                        } catch (NoSuchAlgorithmException e) {
-                            log.debug(e);
-                        }
-                    }
-                }
+        for (ProviderFactory<HttpServerAuthenticationMechanismFactory> current : factoryCache.getSnapshot().getFactories(mechanismName)) {
+            HttpServerAuthenticationMechanism mechanism = current.getFactory().createAuthenticationMechanism(mechanismName, properties, callbackHandler);
+            if (mechanism != null) {
+                return mechanism;
             }
         }
         return null;
@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.http.util;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.common.Assert.checkNotNullParam;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link NonceStore} which groups used nonces into fixed time windows according to their expiry.
+ *
+ * <p>The windows form a ring, when the ring wraps around a window which has passed is discarded as a whole, so no per nonce timer
+ * or removal task is needed. Registration is serialised only between nonces hashing to the same lock stripe.
+ */
+public final class TimeBucketedNonceStore implements NonceStore {
+
+    private static final int DEFAULT_WINDOW_COUNT = 16;
+    private static final int STRIPE_COUNT = 64;
+
+    private final long windowLength;
+    private final int windowCount;
+    private final AtomicReferenceArray<Window> windows;
+    private final Object[] stripes;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param maxValidity the maximum time in milliseconds a nonce can be used for after it has been issued
+     */
+    public TimeBucketedNonceStore(long maxValidity) {
+        this(maxValidity, DEFAULT_WINDOW_COUNT);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param maxValidity the maximum time in milliseconds a nonce can be used for after it has been issued
+     * @param windowCount the number of windows the validity period is split into, a higher number expires nonces closer to their
+     *                    actual expiry at the cost of checking more windows on each use
+     */
+    public TimeBucketedNonceStore(long maxValidity, int windowCount) {
+        checkMinimumParameter("maxValidity", 1, maxValidity);
+        checkMinimumParameter("windowCount", 1, windowCount);
+        this.windowLength = Math.max(1, (maxValidity + windowCount - 1) / windowCount);
+        // one additional window for the partially elapsed current window and one for rounding of the expiry
+        this.windowCount = windowCount + 2;
+        this.windows = new AtomicReferenceArray<>(this.windowCount);
+        this.stripes = new Object[STRIPE_COUNT];
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    @Override
+    public boolean useNonce(String nonce, long expiry) {
+        checkNotNullParam("nonce", nonce);
+        final long current = System.currentTimeMillis() / windowLength;
+        final long last = current + windowCount - 1;
+        final long target = Math.min(Math.max((expiry + windowLength - 1) / windowLength, current), last);
+
+        int hash = nonce.hashCode();
+        synchronized (stripes[(hash ^ (hash >>> 16)) & (STRIPE_COUNT - 1)]) {
+            for (long i = current; i <= last; i++) {
+                Window window = windows.get(index(i));
+                if (window != null && window.id == i && window.nonces.contains(nonce)) {
+                    return false;
+                }
+            }
+            return windowFor(target).nonces.add(nonce);
+        }
+    }
+
+    /**
+     * Get the number of nonces currently remembered by this store, this includes nonces in windows which have passed but have not
+     * yet been discarded.
+     *
+     * @return the number of nonces currently remembered
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < windowCount; i++) {
+            Window window = windows.get(i);
+            if (window != null) {
+                size += window.nonces.size();
+            }
+        }
+        return size;
+    }
+
+    private Window windowFor(long id) {
+        final int index = index(id);
+        for (;;) {
+            Window window = windows.get(index);
+            if (window != null && window.id >= id) {
+                return window;
+            }
+            Window replacement = new Window(id);
+            if (windows.compareAndSet(index, window, replacement)) {
+                return replacement;
+            }
+        }
+    }
+
+    private int index(long id) {
+        return (int) (id % windowCount);
+    }
+
+    private static final class Window {
+
+        final long id;
+        final Set<String> nonces = ConcurrentHashMap.newKeySet();
+
+        Window(long id) {
+            this.id = id;
+        }
+    }
+}
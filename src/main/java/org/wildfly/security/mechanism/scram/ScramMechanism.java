@@ -95,6 +95,23 @@ public final class ScramMechanism {
     }
 
     public ScramServer createServer(final CallbackHandler callbackHandler, final SecureRandom random, final ChannelBindingCallback bindingCallback, final int minimumIterationCount, final int maximumIterationCount, final Supplier<Provider[]> providers) throws AuthenticationMechanismException {
+        return createServer(callbackHandler, random, bindingCallback, minimumIterationCount, maximumIterationCount, providers, null);
+    }
+
+    /**
+     * Create a SCRAM server for this mechanism.
+     *
+     * @param callbackHandler the callback handler (may not be {@code null})
+     * @param random an optional secure random implementation to use (may be {@code null})
+     * @param bindingCallback the optional channel binding callback result (may be {@code null})
+     * @param minimumIterationCount the minimum iteration count to allow
+     * @param maximumIterationCount the maximum iteration count to allow
+     * @param providers the security providers
+     * @param keyCache the cache of keys derived from the passwords, or {@code null} to derive them for every authentication
+     * @return the SCRAM server, or {@code null} if the server cannot be created from this mechanism variant
+     * @throws AuthenticationMechanismException if the mechanism fails for some reason
+     */
+    public ScramServer createServer(final CallbackHandler callbackHandler, final SecureRandom random, final ChannelBindingCallback bindingCallback, final int minimumIterationCount, final int maximumIterationCount, final Supplier<Provider[]> providers, final ScramServerKeyCache keyCache) throws AuthenticationMechanismException {
         final byte[] bindingData;
         final String bindingType;
         if (bindingCallback != null) {
@@ -105,7 +122,7 @@ public final class ScramMechanism {
             bindingData = null;
             bindingType = null;
         }
-        return new ScramServer(this, callbackHandler, random, bindingData, bindingType, minimumIterationCount, maximumIterationCount, providers);
+        return new ScramServer(this, callbackHandler, random, bindingData, bindingType, minimumIterationCount, maximumIterationCount, providers, keyCache);
     }
 
     public int getHashSize() {
@@ -29,14 +29,12 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
 import java.security.SecureRandom;
-import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Supplier;
 
 import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.NameCallback;
 import javax.security.auth.callback.UnsupportedCallbackException;
@@ -52,12 +50,14 @@ import org.wildfly.security.password.spec.IteratedPasswordAlgorithmSpec;
 import org.wildfly.security.sasl.util.StringPrep;
 import org.wildfly.security.util.ByteIterator;
 import org.wildfly.security.util.ByteStringBuilder;
+import org.wildfly.security.util._private.PrimitivePool;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class ScramServer {
     private final Supplier<Provider[]> providers;
+    private final ScramServerKeyCache keyCache;
     private final ScramMechanism mechanism;
     private final CallbackHandler callbackHandler;
     private final SecureRandom random;
@@ -66,7 +66,7 @@ public final class ScramServer {
     private final int minimumIterationCount;
     private final int maximumIterationCount;
 
-    ScramServer(final ScramMechanism mechanism, final CallbackHandler callbackHandler, final SecureRandom random, final byte[] bindingData, final String bindingType, final int minimumIterationCount, final int maximumIterationCount, final Supplier<Provider[]> providers) {
+    ScramServer(final ScramMechanism mechanism, final CallbackHandler callbackHandler, final SecureRandom random, final byte[] bindingData, final String bindingType, final int minimumIterationCount, final int maximumIterationCount, final Supplier<Provider[]> providers, final ScramServerKeyCache keyCache) {
         this.mechanism = mechanism;
         this.callbackHandler = callbackHandler;
         this.random = random;
@@ -75,6 +75,7 @@ public final class ScramServer {
         this.minimumIterationCount = minimumIterationCount;
         this.maximumIterationCount = maximumIterationCount;
         this.providers = providers;
+        this.keyCache = keyCache;
     }
 
     /**
@@ -358,33 +359,21 @@ public final class ScramServer {
         }
 
         ByteStringBuilder b = new ByteStringBuilder();
+        Mac mac = null;
+        MessageDigest messageDigest = null;
 
         try {
-
-            final Mac mac = Mac.getInstance(getMechanism().getHmacName());
-            final MessageDigest messageDigest = MessageDigest.getInstance(getMechanism().getMessageDigestName());
+            final ScramDigestPassword password = initialResult.getScramDigestPassword();
+            final ScramServerKeys keys = keyCache != null ? keyCache.get(mechanism, password) : ScramServerKeys.derive(mechanism, password);
+            mac = PrimitivePool.acquireMac(getMechanism().getHmacName());
 
             // == verify proof ==
 
-            // client key
-            byte[] clientKey;
-            mac.reset();
-            byte[] saltedPassword = initialResult.getScramDigestPassword().getDigest();
-            mac.init(new SecretKeySpec(saltedPassword, mac.getAlgorithm()));
-            mac.update(ScramUtil.CLIENT_KEY_BYTES);
-            clientKey = mac.doFinal();
-            if(trace) log.tracef("[S] Client key: %s%n", ByteIterator.ofBytes(clientKey).hexEncode().drainToString());
-
             // stored key
-            byte[] storedKey;
-            messageDigest.reset();
-            messageDigest.update(clientKey);
-            storedKey = messageDigest.digest();
-            if(trace) log.tracef("[S] Stored key: %s%n", ByteIterator.ofBytes(storedKey).hexEncode().drainToString());
+            if(trace) log.tracef("[S] Stored key: %s%n", ByteIterator.ofBytes(keys.getStoredKey()).hexEncode().drainToString());
 
             // client signature
-            mac.reset();
-            mac.init(new SecretKeySpec(storedKey, mac.getAlgorithm()));
+            mac.init(keys.getStoredKeySpec());
             final byte[] clientFirstMessage = clientMessage.getInitialResponse().getRawMessageBytes();
             final int clientFirstMessageBareStart = clientMessage.getInitialResponse().getInitialPartIndex();
             mac.update(clientFirstMessage, clientFirstMessageBareStart, clientFirstMessage.length - clientFirstMessageBareStart);
@@ -401,18 +390,9 @@ public final class ScramServer {
             byte[] clientSignature = mac.doFinal();
             if(trace) log.tracef("[S] Client signature: %s%n", ByteIterator.ofBytes(clientSignature).hexEncode().drainToString());
 
-            // server key
-            byte[] serverKey;
-            mac.reset();
-            mac.init(new SecretKeySpec(saltedPassword, mac.getAlgorithm()));
-            mac.update(ScramUtil.SERVER_KEY_BYTES);
-            serverKey = mac.doFinal();
-            if(trace) log.tracef("[S] Server key: %s%n", ByteIterator.ofBytes(serverKey).hexEncode().drainToString());
-
             // server signature
             byte[] serverSignature;
-            mac.reset();
-            mac.init(new SecretKeySpec(serverKey, mac.getAlgorithm()));
+            mac.init(keys.getServerKeySpec());
             mac.update(clientFirstMessage, clientFirstMessageBareStart, clientFirstMessage.length - clientFirstMessageBareStart);
             mac.update((byte) ',');
             mac.update(serverFirstMessage);
@@ -428,7 +408,8 @@ public final class ScramServer {
             byte[] recoveredClientKey = clientSignature.clone();
             ScramUtil.xor(recoveredClientKey, recoveredClientProof);
             if(trace) log.tracef("[S] Recovered client key: %s%n", ByteIterator.ofBytes(recoveredClientKey).hexEncode().drainToString());
-            if (! Arrays.equals(recoveredClientKey, clientKey)) {
+            messageDigest = PrimitivePool.acquireMessageDigest(getMechanism().getMessageDigestName());
+            if (! MessageDigest.isEqual(messageDigest.digest(recoveredClientKey), keys.getStoredKey())) {
                 throw log.mechAuthenticationRejectedInvalidProof(mechanism.toString());
             }
 
@@ -459,6 +440,9 @@ public final class ScramServer {
             return new ScramFinalServerMessage(serverSignature, b.toArray());
         } catch (NoSuchAlgorithmException | InvalidKeyException e) {
             throw log.mechMacAlgorithmNotSupported(mechanism.toString(), e);
+        } finally {
+            PrimitivePool.release(messageDigest);
+            PrimitivePool.release(mac);
         }
     }
 
@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.mechanism.scram;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.wildfly.common.Assert;
+import org.wildfly.security.password.interfaces.ScramDigestPassword;
+
+/**
+ * A cache of the {@code StoredKey} and {@code ServerKey} derived from salted SCRAM passwords, so repeated authentications of the
+ * same identity only need to compute the client and server signatures.
+ *
+ * <p>A cache is used only when one is passed to {@link ScramMechanism#createServer ScramMechanism.createServer}, its owner
+ * decides how widely it is shared. Entries are keyed by the complete password value, so a changed password never matches the
+ * keys derived from the previous one; the least recently used entry is evicted once the maximum size is reached.
+ */
+public final class ScramServerKeyCache {
+
+    private final LinkedHashMap<ScramDigestPassword, ScramServerKeys> cache;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param maximumSize the maximum number of passwords for which keys are cached, must be at least 1
+     */
+    public ScramServerKeyCache(final int maximumSize) {
+        Assert.checkMinimumParameter("maximumSize", 1, maximumSize);
+        cache = new LinkedHashMap<ScramDigestPassword, ScramServerKeys>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(final Map.Entry<ScramDigestPassword, ScramServerKeys> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    ScramServerKeys get(final ScramMechanism mechanism, final ScramDigestPassword password) throws NoSuchAlgorithmException, InvalidKeyException {
+        ScramServerKeys keys;
+        synchronized (cache) {
+            keys = cache.get(password);
+        }
+        if (keys == null) {
+            keys = ScramServerKeys.derive(mechanism, password);
+            synchronized (cache) {
+                cache.put(password, keys);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Remove the keys cached for the given password.
+     *
+     * @param password the password
+     */
+    public void remove(final ScramDigestPassword password) {
+        synchronized (cache) {
+            cache.remove(password);
+        }
+    }
+
+    /**
+     * Remove all cached keys.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+}
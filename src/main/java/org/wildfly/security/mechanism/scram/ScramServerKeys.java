@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.mechanism.scram;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.wildfly.security.password.interfaces.ScramDigestPassword;
+import org.wildfly.security.util._private.PrimitivePool;
+
+/**
+ * The keys derived from a salted SCRAM password which do not depend on the exchange, i.e. {@code StoredKey} and {@code ServerKey}
+ * as defined by RFC 5802.
+ *
+ * <p>{@code ClientKey} is deliberately not retained, it is only used transiently to compute {@code StoredKey}.
+ */
+final class ScramServerKeys {
+
+    private final byte[] storedKey;
+    private final SecretKeySpec storedKeySpec;
+    private final SecretKeySpec serverKeySpec;
+
+    private ScramServerKeys(final byte[] storedKey, final byte[] serverKey, final String hmacName) {
+        this.storedKey = storedKey;
+        this.storedKeySpec = new SecretKeySpec(storedKey, hmacName);
+        this.serverKeySpec = new SecretKeySpec(serverKey, hmacName);
+    }
+
+    static ScramServerKeys derive(final ScramMechanism mechanism, final ScramDigestPassword password) throws NoSuchAlgorithmException, InvalidKeyException {
+        final String hmacName = mechanism.getHmacName();
+        final Mac mac = PrimitivePool.acquireMac(hmacName);
+        final MessageDigest messageDigest = PrimitivePool.acquireMessageDigest(mechanism.getMessageDigestName());
+        try {
+            mac.init(new SecretKeySpec(password.getDigest(), hmacName));
+            byte[] clientKey = mac.doFinal(ScramUtil.CLIENT_KEY_BYTES);
+            byte[] serverKey = mac.doFinal(ScramUtil.SERVER_KEY_BYTES);
+            byte[] storedKey = messageDigest.digest(clientKey);
+            return new ScramServerKeys(storedKey, serverKey, hmacName);
+        } finally {
+            PrimitivePool.release(messageDigest);
+            PrimitivePool.release(mac);
+        }
+    }
+
+    byte[] getStoredKey() {
+        return storedKey;
+    }
+
+    SecretKeySpec getStoredKeySpec() {
+        return storedKeySpec;
+    }
+
+    SecretKeySpec getServerKeySpec() {
+        return serverKeySpec;
+    }
+}
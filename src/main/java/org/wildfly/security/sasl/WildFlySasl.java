@@ -74,6 +74,13 @@ public final class WildFlySasl {
      */
     public static final String SCRAM_MAX_ITERATION_COUNT = "wildfly.sasl.scram.max-iteration-count";
 
+    /**
+     * The maximum number of passwords for which a SCRAM server factory caches the keys derived from them, the cache is shared by
+     * the servers created by the same factory instance and its size is taken from the first request enabling it.  Default is 0,
+     * i.e. no caching.
+     */
+    public static final String SCRAM_SERVER_KEY_CACHE_SIZE = "wildfly.sasl.scram.server-key-cache-size";
+
     /**
      * Property name for the algorithm name of a {@link SecureRandom} implementation to use.  Using this property can
      * improve security, at the cost of performance.
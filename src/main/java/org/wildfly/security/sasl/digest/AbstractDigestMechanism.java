@@ -68,6 +68,7 @@ import org.wildfly.security.util.DefaultTransformationMapper;
 import org.wildfly.security.util.TransformationMapper;
 import org.wildfly.security.util.TransformationSpec;
 import org.wildfly.security.util._private.Arrays2;
+import org.wildfly.security.util._private.PrimitivePool;
 
 /**
  *
@@ -118,6 +119,7 @@ abstract class AbstractDigestMechanism extends AbstractSaslParticipant {
 
     protected final MessageDigest messageDigest;
     private final Supplier<Provider[]> providers;
+    private boolean primitivesReleased;
 
     /**
      * @param mechanismName
@@ -136,13 +138,13 @@ abstract class AbstractDigestMechanism extends AbstractSaslParticipant {
             throw log.mechMacAlgorithmNotSupported(getMechanismName(), null).toSaslException();
         }
         try { // H()
-            this.messageDigest = MessageDigest.getInstance(algorithm);
+            this.messageDigest = PrimitivePool.acquireMessageDigest(algorithm);
         } catch (NoSuchAlgorithmException e) {
             throw log.mechMacAlgorithmNotSupported(getMechanismName(), e).toSaslException();
         }
 
         try { // MD5()
-            this.digest = MessageDigest.getInstance(HASH_algorithm);
+            this.digest = PrimitivePool.acquireMessageDigest(HASH_algorithm);
         } catch (NoSuchAlgorithmException e) {
             throw log.mechMacAlgorithmNotSupported(getMechanismName(), e).toSaslException();
         }
@@ -184,6 +186,17 @@ abstract class AbstractDigestMechanism extends AbstractSaslParticipant {
         return ByteIterator.ofBytes(nonceData).base64Encode().drainToString().getBytes(StandardCharsets.US_ASCII);
     }
 
+    @Override
+    public void dispose() throws SaslException {
+        if (! primitivesReleased) {
+            primitivesReleased = true;
+            PrimitivePool.release(messageDigest);
+            PrimitivePool.release(digest);
+            PrimitivePool.release(hmacMD5);
+        }
+        super.dispose();
+    }
+
     protected boolean arrayContains(String[] array, String searched){
         for(String item : array){
             if(searched.equals(item)) return true;
@@ -470,7 +483,7 @@ abstract class AbstractDigestMechanism extends AbstractSaslParticipant {
 
     private Mac getHmac() throws SaslException {
         try {
-          return Mac.getInstance(HMAC_algorithm);
+          return PrimitivePool.acquireMac(HMAC_algorithm);
         } catch (NoSuchAlgorithmException e) {
             throw log.mechMacAlgorithmNotSupported(getMechanismName(), e).toSaslException();
         }
@@ -39,6 +39,7 @@ import org.wildfly.common.Assert;
 import org.wildfly.security.auth.callback.ChannelBindingCallback;
 import org.wildfly.security.mechanism.AuthenticationMechanismException;
 import org.wildfly.security.mechanism.scram.ScramMechanism;
+import org.wildfly.security.mechanism.scram.ScramServerKeyCache;
 import org.wildfly.security.sasl.WildFlySasl;
 import org.wildfly.security.sasl.util.SaslMechanismInformation;
 
@@ -49,6 +50,7 @@ import org.wildfly.security.sasl.util.SaslMechanismInformation;
 public final class ScramSaslServerFactory implements SaslServerFactory {
 
     private final Supplier<Provider[]> providers;
+    private volatile ScramServerKeyCache keyCache;
 
     public ScramSaslServerFactory() {
         providers = Security::getProviders;
@@ -77,47 +79,48 @@ public final class ScramSaslServerFactory implements SaslServerFactory {
         boolean bindingRequired = "true".equals(props.get(WildFlySasl.CHANNEL_BINDING_REQUIRED));
         int minimumIterationCount = ScramUtil.getIntProperty(props, WildFlySasl.SCRAM_MIN_ITERATION_COUNT, 4096);
         int maximumIterationCount = ScramUtil.getIntProperty(props, WildFlySasl.SCRAM_MAX_ITERATION_COUNT, 32768);
+        final ScramServerKeyCache keyCache = getKeyCache(ScramUtil.getIntProperty(props, WildFlySasl.SCRAM_SERVER_KEY_CACHE_SIZE, 0));
         try {
             switch (mechanism) {
                 case SaslMechanismInformation.Names.SCRAM_SHA_1_PLUS:
                     if (! bindingOk) return null;
                     return new ScramSaslServer(mechanism, protocol, serverName, cbh, ScramMechanism.SCRAM_SHA_1_PLUS.createServer(
-                        cbh, ScramUtil.getSecureRandom(props), callback, minimumIterationCount, maximumIterationCount, providers
+                        cbh, ScramUtil.getSecureRandom(props), callback, minimumIterationCount, maximumIterationCount, providers, keyCache
                     ), callback);
                 case SaslMechanismInformation.Names.SCRAM_SHA_1:
                     if (bindingRequired) return null;
                     return new ScramSaslServer(mechanism, protocol, serverName, cbh, ScramMechanism.SCRAM_SHA_1.createServer(
-                        cbh, ScramUtil.getSecureRandom(props), callback, minimumIterationCount, maximumIterationCount, providers
+                        cbh, ScramUtil.getSecureRandom(props), callback, minimumIterationCount, maximumIterationCount, providers, keyCache
                     ), callback);
                 case SaslMechanismInformation.Names.SCRAM_SHA_256_PLUS:
                     if (! bindingOk) return null;
                     return new ScramSaslServer(mechanism, protocol, serverName, cbh, ScramMechanism.SCRAM_SHA_256_PLUS.createServer(
-                        cbh, ScramUtil.getSecureRandom(props), callback, minimumIterationCount, maximumIterationCount, providers
+                        cbh, ScramUtil.getSecureRandom(props), callback, minimumIterationCount, maximumIterationCount, providers, keyCache
                     ), callback);
                 case SaslMechanismInformation.Names.SCRAM_SHA_256:
                     if (bindingRequired) return null;
                     return new ScramSaslServer(mechanism, protocol, serverName, cbh, ScramMechanism.SCRAM_SHA_256.createServer(
-                        cbh, ScramUtil.getSecureRandom(props), callback, minimumIterationCount, maximumIterationCount, providers
+                        cbh, ScramUtil.getSecureRandom(props), callback, minimumIterationCount, maximumIterationCount, providers, keyCache
                     ), callback);
                 case SaslMechanismInformation.Names.SCRAM_SHA_384_PLUS:
                     if (! bindingOk) return null;
                     return new ScramSaslServer(mechanism, protocol, serverName, cbh, ScramMechanism.SCRAM_SHA_384_PLUS.createServer(
-                        cbh, ScramUtil.getSecureRandom(props), callback, minimumIterationCount, maximumIterationCount, providers
+                        cbh, ScramUtil.getSecureRandom(props), callback, minimumIterationCount, maximumIterationCount, providers, keyCache
                     ), callback);
                 case SaslMechanismInformation.Names.SCRAM_SHA_384:
                     if (bindingRequired) return null;
                     return new ScramSaslServer(mechanism, protocol, serverName, cbh, ScramMechanism.SCRAM_SHA_384.createServer(
-                        cbh, ScramUtil.getSecureRandom(props), callback, minimumIterationCount, maximumIterationCount, providers
+                        cbh, ScramUtil.getSecureRandom(props), callback, minimumIterationCount, maximumIterationCount, providers, keyCache
                     ), callback);
                 case SaslMechanismInformation.Names.SCRAM_SHA_512_PLUS:
                     if (! bindingOk) return null;
                     return new ScramSaslServer(mechanism, protocol, serverName, cbh, ScramMechanism.SCRAM_SHA_512_PLUS.createServer(
-                        cbh, ScramUtil.getSecureRandom(props), callback, minimumIterationCount, maximumIterationCount, providers
+                        cbh, ScramUtil.getSecureRandom(props), callback, minimumIterationCount, maximumIterationCount, providers, keyCache
                     ), callback);
                 case SaslMechanismInformation.Names.SCRAM_SHA_512:
                     if (bindingRequired) return null;
                     return new ScramSaslServer(mechanism, protocol, serverName, cbh, ScramMechanism.SCRAM_SHA_512.createServer(
-                        cbh, ScramUtil.getSecureRandom(props), callback, minimumIterationCount, maximumIterationCount, providers
+                        cbh, ScramUtil.getSecureRandom(props), callback, minimumIterationCount, maximumIterationCount, providers, keyCache
                     ), callback);
                 default: {
                     return null;
@@ -128,6 +131,22 @@ public final class ScramSaslServerFactory implements SaslServerFactory {
         }
     }
 
+    private ScramServerKeyCache getKeyCache(final int maximumSize) {
+        if (maximumSize <= 0) {
+            return null;
+        }
+        ScramServerKeyCache keyCache = this.keyCache;
+        if (keyCache == null) {
+            synchronized (this) {
+                keyCache = this.keyCache;
+                if (keyCache == null) {
+                    this.keyCache = keyCache = new ScramServerKeyCache(maximumSize);
+                }
+            }
+        }
+        return keyCache;
+    }
+
     public String[] getMechanismNames(final Map<String, ?> props) {
         if (props != null && !"true".equals(props.get(WildFlySasl.MECHANISM_QUERY_ALL)) && "true".equals(props.get(WildFlySasl.CHANNEL_BINDING_REQUIRED))) {
             return new String[] {
@@ -18,12 +18,8 @@
 
 package org.wildfly.security.sasl.util;
 
-import java.security.InvalidParameterException;
-import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
-import java.security.Provider.Service;
 import java.security.Security;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Map;
@@ -36,17 +32,22 @@ import javax.security.sasl.SaslClient;
 import javax.security.sasl.SaslClientFactory;
 import javax.security.sasl.SaslException;
 
+import org.wildfly.security.sasl.WildFlySasl;
+import org.wildfly.security.util._private.ProviderFactoryCache;
+import org.wildfly.security.util._private.ProviderFactoryCache.ProviderFactory;
+
 /**
  * A {@link SaslClientFactory} which uses the currently installed security providers to acquire a delegate
- * {@code SaslClientFactory}.  The provider service instances may or may not be cached.
+ * {@code SaslClientFactory}.  The provider service instances are cached, and indexed by the mechanism names they report
+ * when queried for all their mechanisms, until the providers returned by the supplier or their services change.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class SecurityProviderSaslClientFactory implements SaslClientFactory {
 
-    private static final String serviceType = SaslClientFactory.class.getSimpleName();
+    private static final Map<String, ?> QUERY_ALL = Collections.singletonMap(WildFlySasl.MECHANISM_QUERY_ALL, "true");
 
-    private final Supplier<Provider[]> providerSupplier;
+    private final ProviderFactoryCache<SaslClientFactory> factoryCache;
 
     /**
      * Construct a new instance.
@@ -54,7 +55,7 @@ public final class SecurityProviderSaslClientFactory implements SaslClientFactor
      * @param providerSupplier the provider supplier
      */
     public SecurityProviderSaslClientFactory(final Supplier<Provider[]> providerSupplier) {
-        this.providerSupplier = providerSupplier;
+        this.factoryCache = new ProviderFactoryCache<>(providerSupplier, SaslClientFactory.class, factory -> factory.getMechanismNames(QUERY_ALL));
     }
 
     /**
@@ -66,41 +67,18 @@ public final class SecurityProviderSaslClientFactory implements SaslClientFactor
 
     @Override
     public SaslClient createSaslClient(final String[] mechanisms, final String authorizationId, final String protocol, final String serverName, final Map<String, ?> props, final CallbackHandler cbh) throws SaslException {
-        class Pair {
-            final Provider provider;
-            final SaslClientFactory saslClientFactory;
-
-            Pair(Provider provider, SaslClientFactory saslClientFactory) {
-                this.provider = provider;
-                this.saslClientFactory = saslClientFactory;
-            }
-        }
-
         final BiPredicate<String, Provider> mechFilter = SaslFactories.getProviderFilterPredicate(props);
-        final ArrayList<Pair> clientFactoryList = new ArrayList<>();
-        for (Provider currentProvider : providerSupplier.get()) {
-            Set<Service> services = currentProvider.getServices();
-            if (services != null) {
-                for (Service service : currentProvider.getServices()) {
-                    if (serviceType.equals(service.getType())) {
-                        try {
-                            clientFactoryList.add(new Pair(currentProvider, (SaslClientFactory) service.newInstance(null)));
-                        } catch (NoSuchAlgorithmException | ClassCastException | InvalidParameterException ignored) {
-                        }
-                    }
-                }
-            }
-        }
+        final ProviderFactoryCache.Snapshot<SaslClientFactory> snapshot = factoryCache.getSnapshot();
 
         SaslClient saslClient;
         final String[] mechArray = new String[1];
         for (String mechanism : mechanisms) {
             mechArray[0] = mechanism;
-            for (Pair pair : clientFactoryList) {
+            for (ProviderFactory<SaslClientFactory> pair : snapshot.getFactories(mechanism)) {
                 // this is more efficient than it looks: the only possible returns are mechArray or a constant empty array
-                String[] filtered = SaslFactories.filterMechanismsByProvider(mechArray, 0, 0, pair.provider, mechFilter);
+                String[] filtered = SaslFactories.filterMechanismsByProvider(mechArray, 0, 0, pair.getProvider(), mechFilter);
                 if (filtered.length > 0) {
-                    saslClient = pair.saslClientFactory.createSaslClient(mechArray, authorizationId, protocol, serverName, props, cbh);
+                    saslClient = pair.getFactory().createSaslClient(mechArray, authorizationId, protocol, serverName, props, cbh);
                     if (saslClient != null) {
                         return saslClient;
                     }
@@ -114,20 +92,9 @@ public final class SecurityProviderSaslClientFactory implements SaslClientFactor
     public String[] getMechanismNames(final Map<String, ?> props) {
         final BiPredicate<String, Provider> mechFilter = SaslFactories.getProviderFilterPredicate(props);
         final Set<String> names = new LinkedHashSet<>();
-        for (Provider currentProvider : providerSupplier.get()) {
-            Set<Service> services = currentProvider.getServices();
-            if (services != null) {
-                for (Service service : services) {
-                    if (serviceType.equals(service.getType())) {
-                        try {
-                            final String[] mechanismNames = ((SaslClientFactory) service.newInstance(null)).getMechanismNames(props);
-                            Collections
-                                    .addAll(names, SaslFactories.filterMechanismsByProvider(mechanismNames, 0, 0, currentProvider, mechFilter));
-                        } catch (NoSuchAlgorithmException | ClassCastException | InvalidParameterException ignored) {
-                        }
-                    }
-                }
-            }
+        for (ProviderFactory<SaslClientFactory> pair : factoryCache.getSnapshot().getFactories()) {
+            final String[] mechanismNames = pair.getFactory().getMechanismNames(props);
+            Collections.addAll(names, SaslFactories.filterMechanismsByProvider(mechanismNames, 0, 0, pair.getProvider(), mechFilter));
         }
         return names.toArray(new String[names.size()]);
     }
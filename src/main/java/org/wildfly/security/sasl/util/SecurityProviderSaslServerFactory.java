@@ -18,10 +18,7 @@
 
 package org.wildfly.security.sasl.util;
 
-import java.security.InvalidParameterException;
-import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
-import java.security.Provider.Service;
 import java.security.Security;
 import java.util.Collections;
 import java.util.LinkedHashSet;
@@ -35,17 +32,22 @@ import javax.security.sasl.SaslServer;
 import javax.security.sasl.SaslServerFactory;
 import javax.security.sasl.SaslException;
 
+import org.wildfly.security.sasl.WildFlySasl;
+import org.wildfly.security.util._private.ProviderFactoryCache;
+import org.wildfly.security.util._private.ProviderFactoryCache.ProviderFactory;
+
 /**
  * A {@link SaslServerFactory} which uses the currently installed security providers to acquire a delegate
- * {@code SaslServerFactory}.  The provider service instances may or may not be cached.
+ * {@code SaslServerFactory}.  The provider service instances are cached, and indexed by the mechanism names they report
+ * when queried for all their mechanisms, until the providers returned by the supplier or their services change.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class SecurityProviderSaslServerFactory implements SaslServerFactory {
 
-    private static final String serviceType = SaslServerFactory.class.getSimpleName();
+    private static final Map<String, ?> QUERY_ALL = Collections.singletonMap(WildFlySasl.MECHANISM_QUERY_ALL, "true");
 
-    private final Supplier<Provider[]> providerSupplier;
+    private final ProviderFactoryCache<SaslServerFactory> factoryCache;
 
     /**
      * Construct a new instance.
@@ -53,7 +55,7 @@ public final class SecurityProviderSaslServerFactory implements SaslServerFactor
      * @param providerSupplier the provider supplier
      */
     public SecurityProviderSaslServerFactory(final Supplier<Provider[]> providerSupplier) {
-        this.providerSupplier = providerSupplier;
+        this.factoryCache = new ProviderFactoryCache<>(providerSupplier, SaslServerFactory.class, factory -> factory.getMechanismNames(QUERY_ALL));
     }
 
     /**
@@ -67,22 +69,11 @@ public final class SecurityProviderSaslServerFactory implements SaslServerFactor
     public SaslServer createSaslServer(final String mechanism, final String protocol, final String serverName, final Map<String, ?> props, final CallbackHandler cbh) throws SaslException {
         final BiPredicate<String, Provider> mechFilter = SaslFactories.getProviderFilterPredicate(props);
         SaslServer saslServer;
-        for (Provider currentProvider : providerSupplier.get()) {
-            if (mechFilter.test(mechanism, currentProvider)) {
-                Set<Service> services = currentProvider.getServices();
-                if (services != null) {
-                    for (Provider.Service service : services) {
-                        if (serviceType.equals(service.getType())) {
-                            try {
-                                saslServer = ((SaslServerFactory) service.newInstance(null)).createSaslServer(mechanism,
-                                        protocol, serverName, props, cbh);
-                                if (saslServer != null) {
-                                    return saslServer;
-                                }
-                            } catch (NoSuchAlgorithmException | ClassCastException | InvalidParameterException ignored) {
-                            }
-                        }
-                    }
+        for (ProviderFactory<SaslServerFactory> pair : factoryCache.getSnapshot().getFactories(mechanism)) {
+            if (mechFilter.test(mechanism, pair.getProvider())) {
+                saslServer = pair.getFactory().createSaslServer(mechanism, protocol, serverName, props, cbh);
+                if (saslServer != null) {
+                    return saslServer;
                 }
             }
         }
@@ -93,19 +84,9 @@ public final class SecurityProviderSaslServerFactory implements SaslServerFactor
     public String[] getMechanismNames(final Map<String, ?> props) {
         final BiPredicate<String, Provider> mechFilter = SaslFactories.getProviderFilterPredicate(props);
         final Set<String> names = new LinkedHashSet<>();
-        for (Provider currentProvider : providerSupplier.get()) {
-            Set<Service> services = currentProvider.getServices();
-            if (services != null) {
-                for (Service service : services) {
-                    if (serviceType.equals(service.getType())) {
-                        try {
-                            final String[] mechanismNames = ((SaslServerFactory) service.newInstance(null)).getMechanismNames(props);
-                            Collections.addAll(names, SaslFactories.filterMechanismsByProvider(mechanismNames, 0, 0, currentProvider, mechFilter));
-                        } catch (NoSuchAlgorithmException | ClassCastException | InvalidParameterException ignored) {
-                        }
-                    }
-                }
-            }
+        for (ProviderFactory<SaslServerFactory> pair : factoryCache.getSnapshot().getFactories()) {
+            final String[] mechanismNames = pair.getFactory().getMechanismNames(props);
+            Collections.addAll(names, SaslFactories.filterMechanismsByProvider(mechanismNames, 0, 0, pair.getProvider(), mechFilter));
         }
         return names.toArray(new String[names.size()]);
     }
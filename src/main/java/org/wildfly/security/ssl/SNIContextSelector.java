@@ -0,0 +1,299 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.ssl;
+
+import static org.wildfly.common.Assert.checkNotNullParam;
+import static org.wildfly.security._private.ElytronMessages.log;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLContext;
+
+/**
+ * An {@link SSLContextSelector} which selects the SSL context by the SNI host name requested by the client.
+ *
+ * <p>Host names are mapped either exactly, such as {@code www.example.com}, or using a wildcard, such as
+ * {@code *.example.com}, which matches the host names one label below {@code example.com}, such as {@code www.example.com}
+ * but not {@code a.www.example.com}, as defined by RFC 6125 section 6.4.3. An exact mapping takes precedence over a wildcard
+ * mapping. Host names are compared ignoring case. If no mapping matches, or the client did not request a host name, the
+ * default context is selected, if there is one.
+ *
+ * <p>The mappings are kept in a trie of host name labels, starting with the top level domain, so the cost of a lookup only
+ * depends on the number of labels of the requested name rather than on the number of mappings.
+ *
+ * <p>All the mappings can be replaced at once using {@link #replaceMappings(SNIContextSelector)}, for example when
+ * certificates are rotated. Each handshake selects its context once, so handshakes in progress carry on with the context
+ * they already selected, and later handshakes see either all the old mappings or all the new ones.
+ */
+public final class SNIContextSelector implements SSLContextSelector {
+
+    private volatile Mappings mappings;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder exactMatches = new LongAdder();
+    private final LongAdder wildcardMatches = new LongAdder();
+    private final LongAdder defaultMatches = new LongAdder();
+    private final LongAdder lookupTime = new LongAdder();
+
+    SNIContextSelector(final Mappings mappings) {
+        this.mappings = mappings;
+    }
+
+    @Override
+    public SSLContext selectContext(final SSLConnectionInformation connectionInformation) {
+        final long start = System.nanoTime();
+        lookups.increment();
+        try {
+            // read the mappings once, so a concurrent replacement cannot mix old and new mappings
+            final Mappings mappings = this.mappings;
+            SSLContext wildcardContext = null;
+            for (SNIServerName serverName : connectionInformation.getSNIServerNames()) {
+                if (serverName instanceof SNIHostName) {
+                    final Match match = mappings.root.find(normalize(((SNIHostName) serverName).getAsciiName()));
+                    if (match != null) {
+                        if (match.exact) {
+                            exactMatches.increment();
+                            return match.context;
+                        }
+                        if (wildcardContext == null) {
+                            wildcardContext = match.context;
+                        }
+                    }
+                }
+            }
+            if (wildcardContext != null) {
+                wildcardMatches.increment();
+                return wildcardContext;
+            }
+            if (mappings.defaultContext != null) {
+                defaultMatches.increment();
+            }
+            return mappings.defaultContext;
+        } finally {
+            lookupTime.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Atomically replace the mappings and default context of this selector with those of another selector.
+     *
+     * @param other the selector holding the new mappings (must not be {@code null})
+     */
+    public void replaceMappings(final SNIContextSelector other) {
+        checkNotNullParam("other", other);
+        mappings = other.mappings;
+    }
+
+    /**
+     * Get the number of lookups made by this selector.
+     *
+     * @return the number of lookups
+     */
+    public long getLookupCount() {
+        return lookups.sum();
+    }
+
+    /**
+     * Get the number of lookups which selected an exactly mapped context.
+     *
+     * @return the number of exact matches
+     */
+    public long getExactMatchCount() {
+        return exactMatches.sum();
+    }
+
+    /**
+     * Get the number of lookups which selected a context mapped using a wildcard.
+     *
+     * @return the number of wildcard matches
+     */
+    public long getWildcardMatchCount() {
+        return wildcardMatches.sum();
+    }
+
+    /**
+     * Get the number of lookups which selected the default context.
+     *
+     * @return the number of default matches
+     */
+    public long getDefaultMatchCount() {
+        return defaultMatches.sum();
+    }
+
+    /**
+     * Get the total time spent in lookups.
+     *
+     * @return the total lookup time in nanoseconds
+     */
+    public long getTotalLookupTime() {
+        return lookupTime.sum();
+    }
+
+    /**
+     * Construct a new builder.
+     *
+     * @return the new builder (not {@code null})
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    static String normalize(final String hostName) {
+        final String lowerCase = hostName.toLowerCase(Locale.ROOT);
+        return lowerCase.endsWith(".") ? lowerCase.substring(0, lowerCase.length() - 1) : lowerCase;
+    }
+
+    /**
+     * A builder for SNI context selectors.
+     */
+    public static final class Builder {
+
+        private final Node root = new Node();
+        private SSLContext defaultContext;
+        private boolean built = false;
+
+        Builder() {
+        }
+
+        /**
+         * Map a host name to an SSL context. If the host name starts with {@code *.}, the mapping matches the host names made
+         * of a single label followed by the rest of the name. A later mapping of the same host name replaces an earlier one.
+         *
+         * @param hostName the host name or wildcard host name (must not be {@code null})
+         * @param context the SSL context to select (must not be {@code null})
+         * @return this builder
+         */
+        public Builder addMatch(final String hostName, final SSLContext context) {
+            checkNotNullParam("hostName", hostName);
+            checkNotNullParam("context", context);
+            assertNotBuilt();
+            final boolean wildcard = hostName.startsWith("*.");
+            final String name = normalize(wildcard ? hostName.substring(2) : hostName);
+            if (name.isEmpty() || name.indexOf('*') != -1 || name.startsWith(".") || name.contains("..")) {
+                throw log.invalidHostSpec(hostName);
+            }
+            Node node = root;
+            int end = name.length();
+            while (end > 0) {
+                final int start = name.lastIndexOf('.', end - 1) + 1;
+                node = node.child(name.substring(start, end));
+                end = start - 1;
+            }
+            if (wildcard) {
+                node.wildcardContext = context;
+            } else {
+                node.exactContext = context;
+            }
+            return this;
+        }
+
+        /**
+         * Set the SSL context to select when no mapping matches.
+         *
+         * @param defaultContext the default SSL context, or {@code null} to select none
+         * @return this builder
+         */
+        public Builder setDefaultContext(final SSLContext defaultContext) {
+            assertNotBuilt();
+            this.defaultContext = defaultContext;
+            return this;
+        }
+
+        /**
+         * Build the selector.
+         *
+         * @return the selector (not {@code null})
+         */
+        public SNIContextSelector build() {
+            assertNotBuilt();
+            built = true;
+            return new SNIContextSelector(new Mappings(root, defaultContext));
+        }
+
+        private void assertNotBuilt() {
+            if (built) {
+                throw log.builderAlreadyBuilt();
+            }
+        }
+    }
+
+    static final class Mappings {
+        final Node root;
+        final SSLContext defaultContext;
+
+        Mappings(final Node root, final SSLContext defaultContext) {
+            this.root = root;
+            this.defaultContext = defaultContext;
+        }
+    }
+
+    /**
+     * A node of the trie, for one label of a domain name. Nodes are only modified before the builder is built.
+     */
+    static final class Node {
+
+        private final Map<String, Node> children = new HashMap<>();
+        SSLContext exactContext;
+        SSLContext wildcardContext;
+
+        Node child(final String label) {
+            return children.computeIfAbsent(label, l -> new Node());
+        }
+
+        /**
+         * Find the most specific mapping of a normalized host name.
+         */
+        Match find(final String hostName) {
+            Node node = this;
+            SSLContext wildcardContext = null;
+            int end = hostName.length();
+            while (end > 0) {
+                final int start = hostName.lastIndexOf('.', end - 1) + 1;
+                if (start == 0 && node.wildcardContext != null) {
+                    // only the leftmost label is left, which is all a wildcard may match
+                    wildcardContext = node.wildcardContext;
+                }
+                node = node.children.get(hostName.substring(start, end));
+                if (node == null) {
+                    break;
+                }
+                end = start - 1;
+            }
+            if (node != null && end <= 0 && node.exactContext != null) {
+                return new Match(node.exactContext, true);
+            }
+            return wildcardContext == null ? null : new Match(wildcardContext, false);
+        }
+    }
+
+    static final class Match {
+        final SSLContext context;
+        final boolean exact;
+
+        Match(final SSLContext context, final boolean exact) {
+            this.context = context;
+            this.exact = exact;
+        }
+    }
+}
@@ -38,7 +38,8 @@ public interface SSLContextSelector {
      * Select the SSL context which corresponds to the given connection information.  The selector returns the SSL context
      * that should be used for this connection, or {@code null} if no SSL contexts match, in which case a fallback
      * selector may be used, or a default SSL context selected.  If no selectors match an SSL context, the connection
-     * is refused.
+     * is refused.  The connection information may be read from the network data of the connection, so it should not be
+     * retained beyond the call to this method.
      *
      * @param connectionInformation information about the in-progress connection
      * @return the SSL context to use, or {@code null} if the connection is not acceptable to this selector
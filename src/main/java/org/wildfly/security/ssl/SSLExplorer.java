@@ -41,17 +41,21 @@ import javax.net.ssl.SSLException;
 import javax.net.ssl.StandardConstants;
 
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.wildfly.security._private.ElytronMessages;
+import org.wildfly.security.util._private.UnmodifiableArrayList;
 
 /**
  * Instances of this class acts as an explorer of the network data of an
  * SSL/TLS connection.
+ * <P>
+ * The exploration only validates the structure of the client hello and
+ * records where its cipher suites, server names and protocols are; these
+ * are decoded from the network data the first time they are requested.
  */
 final class SSLExplorer {
 
@@ -68,13 +72,35 @@ final class SSLExplorer {
      */
     public static final int RECORD_HEADER_SIZE = 0x05;
 
+    /**
+     * The header size of handshake messages.
+     */
+    private static final int HANDSHAKE_HEADER_SIZE = 0x04;
+
+    /**
+     * The maximum length of a client hello spanning multiple records.
+     */
+    private static final int MAX_CLIENT_HELLO_LENGTH = 0x10000;
+
+    /**
+     * The maximum number of records a client hello may span, as if fragmented to the smallest maximum fragment length of
+     * RFC 6066 (2^9 bytes).
+     */
+    private static final int MAX_CLIENT_HELLO_RECORDS = MAX_CLIENT_HELLO_LENGTH / 0x200;
+
+    /**
+     * The maximum size of the records a client hello spans, including their headers.
+     */
+    private static final int MAX_CLIENT_HELLO_SIZE = MAX_CLIENT_HELLO_LENGTH + MAX_CLIENT_HELLO_RECORDS * RECORD_HEADER_SIZE;
+
     /**
      * Returns the required number of bytes in the {@code source}
      * {@link ByteBuffer} necessary to explore SSL/TLS connection.
      * <P>
      * This method tries to parse as few bytes as possible from
      * {@code source} byte buffer to get the length of an
-     * SSL/TLS record.
+     * SSL/TLS record, or of all the records a client hello
+     * spans.
      * <P>
      * This method accesses the {@code source} parameter in read-only
      * mode, and does not update the buffer's properties such as capacity,
@@ -104,9 +130,41 @@ final class SSLExplorer {
             // looks like a V2ClientHello
             // return (((firstByte & 0x7F) << 8) | (secondByte & 0xFF)) + 2;
             return RECORD_HEADER_SIZE;   // Only need the header fields
-        } else {
-            return ((input.get() & 0xFF) << 8 | input.get() & 0xFF) + 5;
         }
+        int recordLength = getInt16(input);
+        int requiredSize = recordLength + RECORD_HEADER_SIZE;
+        if (firstByte != 22 || recordLength < HANDSHAKE_HEADER_SIZE
+                || input.remaining() < HANDSHAKE_HEADER_SIZE) {
+            return requiredSize;
+        }
+
+        // Does the client hello continue in the following records?
+        input.get();    // handshake type
+        int handshakeLength = getInt24(input) + HANDSHAKE_HEADER_SIZE;
+        if (handshakeLength > MAX_CLIENT_HELLO_LENGTH) {
+            return requiredSize;    // explore() rejects it
+        }
+        int fragmentsLength = recordLength;
+        while (fragmentsLength < handshakeLength) {
+            if (requiredSize > input.limit() - source.position()) {
+                return requiredSize;    // the records read so far are incomplete
+            }
+            input.position(source.position() + requiredSize);
+            if (input.remaining() < RECORD_HEADER_SIZE) {
+                return requiredSize + RECORD_HEADER_SIZE;
+            }
+            if (input.get() != 22) {
+                return requiredSize;    // explore() rejects it
+            }
+            input.getShort();   // version
+            recordLength = getInt16(input);
+            if (recordLength == 0 || requiredSize + recordLength + RECORD_HEADER_SIZE > MAX_CLIENT_HELLO_SIZE) {
+                return requiredSize + RECORD_HEADER_SIZE;   // explore() rejects it
+            }
+            requiredSize += recordLength + RECORD_HEADER_SIZE;
+            fragmentsLength += recordLength;
+        }
+        return requiredSize;
     }
 
     /**
@@ -151,7 +209,10 @@ final class SSLExplorer {
      * <P>
      * This method accesses the {@code source} parameter in read-only
      * mode, and does not update the buffer's properties such as capacity,
-     * limit, position, and mark values.
+     * limit, position, and mark values.  Unless the client hello spans
+     * multiple records, the returned capabilities are read from
+     * {@code source} when they are requested, so they must not be requested
+     * once the content of {@code source} has changed.
      *
      * @param  source
      *         a {@link ByteBuffer} containing
@@ -167,7 +228,7 @@ final class SSLExplorer {
     public static SSLConnectionInformationImpl explore(ByteBuffer source)
             throws SSLException {
 
-        ByteBuffer input = source.duplicate();
+        ByteBuffer input = source.asReadOnlyBuffer();
 
         // Do we have a complete header?
         if (input.remaining() < RECORD_HEADER_SIZE) {
@@ -260,28 +321,16 @@ final class SSLExplorer {
             input.getShort(); // session_id_length
             input.getShort(); // challenge_length
 
-            List<String> ciphers = new ArrayList<>();
-
-            while (csLen >= 3) {
-                int lead = getInt8(input);
-                int byte1 = getInt8(input);
-                int byte2 = getInt8(input);
-                if (lead == 0) {
-                    final MechanismDatabase.Entry entry = database.getCipherSuiteById(byte1, byte2);
-                    if (entry != null) ciphers.add(entry.getName());
-                }
-                // skip any non-TLS cipher suites
-                csLen -= 3;
-            }
+            int cipherSuites = input.position();
+            ignoreByteVector(input, csLen - csLen % 3);
 
             // 0x00: major version of SSLv20
             // 0x02: minor version of SSLv20
             //
             // SNIServerName is an extension, SSLv20 doesn't support extension.
             return new SSLConnectionInformationImpl((byte)0x00, (byte)0x02,
-                        helloVersionMajor, helloVersionMinor,
-                        Collections.emptyList(), Collections.emptyList(),
-                        ciphers.isEmpty() ? Collections.emptyList() : ciphers);
+                        helloVersionMajor, helloVersionMinor, input,
+                        cipherSuites, csLen / 3, true, -1, -1);
         } catch (BufferUnderflowException ignored) {
             throw ElytronMessages.log.invalidHandshakeRecord();
         }
@@ -320,6 +369,36 @@ final class SSLExplorer {
             throw new BufferUnderflowException();
         }
 
+        // Is there enough data for the records the handshake continues in?
+        if (recordLength >= HANDSHAKE_HEADER_SIZE) {
+            ByteBuffer header = input.duplicate();
+            header.get();   // handshake type
+            int handshakeLength = getInt24(header);
+            int available = recordLength - HANDSHAKE_HEADER_SIZE;
+            int size = recordLength + RECORD_HEADER_SIZE;
+            header.position(header.position() + available);
+            while (available < handshakeLength
+                    && handshakeLength <= MAX_CLIENT_HELLO_LENGTH) {
+                if (header.remaining() < RECORD_HEADER_SIZE) {
+                    throw new BufferUnderflowException();
+                }
+                if (header.get() != 22) {
+                    break;  // rejected below
+                }
+                header.getShort();  // version
+                int length = getInt16(header);
+                size += length + RECORD_HEADER_SIZE;
+                if (length == 0 || size > MAX_CLIENT_HELLO_SIZE) {
+                    throw ElytronMessages.log.multiRecordSSLHandshake();
+                }
+                if (length > header.remaining()) {
+                    throw new BufferUnderflowException();
+                }
+                header.position(header.position() + length);
+                available += length;
+            }
+        }
+
         // We have already had enough source bytes.
         try {
             return exploreHandshake(input,
@@ -369,18 +448,45 @@ final class SSLExplorer {
         // What is the handshake body length?
         int handshakeLength = getInt24(input);
 
-        // Theoretically, a single handshake message might span multiple
-        // records, but in practice this does not occur.
-        if (handshakeLength > recordLength - 4) { // 4: handshake header size
-            throw ElytronMessages.log.multiRecordSSLHandshake();
+        if (handshakeLength > recordLength - HANDSHAKE_HEADER_SIZE) {
+            // The handshake message spans multiple records, which are
+            // reassembled so the client hello can be read contiguously.
+            input = reassembleHandshake(input,
+                recordLength - HANDSHAKE_HEADER_SIZE, handshakeLength);
+        } else {
+            input.limit(handshakeLength + input.position());
         }
-
-        input = input.duplicate();
-        input.limit(handshakeLength + input.position());
         return exploreClientHello(input,
                                     recordMajorVersion, recordMinorVersion);
     }
 
+    private static ByteBuffer reassembleHandshake(ByteBuffer input,
+            int available, int handshakeLength) throws SSLException {
+
+        if (available < 0 || handshakeLength > MAX_CLIENT_HELLO_LENGTH) {
+            throw ElytronMessages.log.multiRecordSSLHandshake();
+        }
+        byte[] handshake = new byte[handshakeLength];
+        input.get(handshake, 0, available);
+        int filled = available;
+        while (filled < handshakeLength) {
+            if (input.get() != 22) {    // 22: handshake record
+                throw ElytronMessages.log.multiRecordSSLHandshake();
+            }
+            input.getShort();   // version
+            int length = getInt16(input);
+            if (length == 0) {
+                throw ElytronMessages.log.multiRecordSSLHandshake();
+            }
+            int count = Math.min(length, handshakeLength - filled);
+            input.get(handshake, filled, count);
+            // ignore the following handshake messages
+            ignoreByteVector(input, length - count);
+            filled += count;
+        }
+        return ByteBuffer.wrap(handshake);
+    }
+
     /*
      * struct {
      *     uint32 gmt_unix_time;
@@ -412,82 +518,51 @@ final class SSLExplorer {
             byte recordMajorVersion,
             byte recordMinorVersion) throws SSLException {
 
-        ExtensionInfo info = null;
-
         // client version
         byte helloMajorVersion = input.get();
         byte helloMinorVersion = input.get();
 
         // ignore random
-        int position = input.position();
-        input.position(position + 32);  // 32: the length of Random
+        ignoreByteVector(input, 32);  // 32: the length of Random
 
         // ignore session id
         ignoreByteVector8(input);
 
-        ArrayList<String> ciphers = new ArrayList<>();
-
-        // ignore cipher_suites
+        // remember where the cipher_suites are
         int csLen = getInt16(input);
-        while (csLen > 0) {
-            int byte1 = getInt8(input);
-            int byte2 = getInt8(input);
-            final MechanismDatabase.Entry entry = database.getCipherSuiteById(byte1, byte2);
-            if (entry != null) ciphers.add(entry.getName());
-            csLen -= 2;
-        }
+        int cipherSuites = input.position();
+        ignoreByteVector(input, csLen);
 
         // ignore compression methods
         ignoreByteVector8(input);
 
+        int sni = -1;
+        int alpn = -1;
         if (input.remaining() > 0) {
-            info = exploreExtensions(input);
-        }
-
-        final List<SNIServerName> snList = info != null ? info.sni : Collections.emptyList();
-        final List<String> alpnProtocols = info != null ? info.alpn : Collections.emptyList();
-
-        return new SSLConnectionInformationImpl(
-                recordMajorVersion, recordMinorVersion,
-                helloMajorVersion, helloMinorVersion, snList, alpnProtocols,
-                ciphers.isEmpty() ? Collections.emptyList() : ciphers);
-    }
-
-    /*
-     * struct {
-     *     ExtensionType extension_type;
-     *     opaque extension_data<0..2^16-1>;
-     * } Extension;
-     *
-     * enum {
-     *     server_name(0), max_fragment_length(1),
-     *     client_certificate_url(2), trusted_ca_keys(3),
-     *     truncated_hmac(4), status_request(5), (65535)
-     * } ExtensionType;
-     */
-    private static ExtensionInfo exploreExtensions(ByteBuffer input)
-            throws SSLException {
-
-        List<SNIServerName> sni = Collections.emptyList();
-        List<String> alpn = Collections.emptyList();
-
-        int length = getInt16(input);           // length of extensions
-        while (length > 0) {
-            int extType = getInt16(input);      // extension type
-            int extLen = getInt16(input);       // length of extension data
+            // remember where the server_name and alpn extensions are
+            int length = getInt16(input);           // length of extensions
+            while (length > 0) {
+                int extType = getInt16(input);      // extension type
+                int extLen = getInt16(input);       // length of extension data
+
+                if (extType == 0x00) {      // 0x00: type of server name indication
+                    sni = input.position();
+                    checkSNIExt(input, extLen);
+                } else if (extType == 0x10) { // 0x10: type of alpn
+                    alpn = input.position();
+                    checkALPN(input, extLen);
+                } else {                    // ignore other extensions
+                    ignoreByteVector(input, extLen);
+                }
 
-            if (extType == 0x00) {      // 0x00: type of server name indication
-                sni = exploreSNIExt(input, extLen);
-            } else if (extType == 0x10) { // 0x10: type of alpn
-                alpn = exploreALPN(input, extLen);
-            } else {                    // ignore other extensions
-                ignoreByteVector(input, extLen);
+                length -= extLen + 4;
             }
-
-            length -= extLen + 4;
         }
 
-        return new ExtensionInfo(sni, alpn);
+        return new SSLConnectionInformationImpl(
+                recordMajorVersion, recordMinorVersion,
+                helloMajorVersion, helloMinorVersion, input,
+                cipherSuites, csLen / 2, false, sni, alpn);
     }
 
     /*
@@ -498,9 +573,8 @@ final class SSLExplorer {
      * } ProtocolNameList;
      *
      */
-    private static List<String> exploreALPN(ByteBuffer input,
+    private static void checkALPN(ByteBuffer input,
             int extLen) throws SSLException {
-        final ArrayList<String> strings = new ArrayList<>();
 
         int rem = extLen;
         if (extLen >= 2) {
@@ -512,17 +586,16 @@ final class SSLExplorer {
             rem -= 2;
             while (rem > 0) {
                 int len = getInt8(input);
-                if (len > rem) {
+                if (len >= rem) {
                     throw ElytronMessages.log.notEnoughData();
                 }
-                byte[] b = new byte[len];
-                input.get(b);
-                strings.add(new String(b, StandardCharsets.UTF_8));
+                ignoreByteVector(input, len);
 
                 rem -= len + 1;
             }
+        } else {
+            ignoreByteVector(input, extLen);
         }
-        return strings.isEmpty() ? Collections.emptyList() : strings;
     }
 
     /*
@@ -543,11 +616,9 @@ final class SSLExplorer {
      *     ServerName server_name_list<1..2^16-1>
      * } ServerNameList;
      */
-    private static List<SNIServerName> exploreSNIExt(ByteBuffer input,
+    private static void checkSNIExt(ByteBuffer input,
             int extLen) throws SSLException {
 
-        Map<Integer, SNIServerName> sniMap = new LinkedHashMap<>();
-
         int remains = extLen;
         if (extLen >= 2) {     // "server_name" extension in ClientHello
             int listLen = getInt16(input);     // length of server_name_list
@@ -555,6 +626,8 @@ final class SSLExplorer {
                 throw ElytronMessages.log.invalidTlsExt();
             }
 
+            int firstCode = -1;
+            BitSet codes = null;
             remains -= 2;     // 0x02: the length field of server_name_list
             while (remains > 0) {
                 int code = getInt8(input);      // name_type
@@ -562,27 +635,27 @@ final class SSLExplorer {
                 if (snLen > remains) {
                     throw ElytronMessages.log.notEnoughData();
                 }
-                byte[] encoded = new byte[snLen];
-                input.get(encoded);
-
-                SNIServerName serverName;
-                switch (code) {
-                    case StandardConstants.SNI_HOST_NAME:
-                        if (encoded.length == 0) {
-                            throw ElytronMessages.log.emptyHostNameSni();
-                        }
-                        serverName = new SNIHostName(encoded);
-                        break;
-                    default:
-                        serverName = new UnknownServerName(code, encoded);
+                if (code == StandardConstants.SNI_HOST_NAME && snLen == 0) {
+                    throw ElytronMessages.log.emptyHostNameSni();
                 }
+                ignoreByteVector(input, snLen);
+
                 // check for duplicated server name type
-                if (sniMap.put(serverName.getType(), serverName) != null) {
-                    throw ElytronMessages.log.duplicatedSniServerName(serverName.getType());
+                if (firstCode == -1) {
+                    firstCode = code;
+                } else {
+                    if (codes == null) {
+                        codes = new BitSet(256);
+                        codes.set(firstCode);
+                    }
+                    if (code == firstCode || codes.get(code)) {
+                        throw ElytronMessages.log.duplicatedSniServerName(code);
+                    }
+                    codes.set(code);
                 }
 
-                remains -= encoded.length + 3;  // NameType: 1 byte
-                                                // HostName length: 2 bytes
+                remains -= snLen + 3;  // NameType: 1 byte
+                                       // HostName length: 2 bytes
             }
         } else if (extLen == 0) {     // "server_name" extension in ServerHello
             throw ElytronMessages.log.invalidTlsExt();
@@ -591,12 +664,10 @@ final class SSLExplorer {
         if (remains != 0) {
             throw ElytronMessages.log.invalidTlsExt();
         }
-
-        return Collections.unmodifiableList(new ArrayList<>(sniMap.values()));
     }
 
     private static int getInt8(ByteBuffer input) {
-        return input.get();
+        return input.get() & 0xFF;
     }
 
     private static int getInt16(ByteBuffer input) {
@@ -608,6 +679,22 @@ final class SSLExplorer {
             input.get() & 0xFF;
     }
 
+    private static int getInt8(ByteBuffer input, int index) {
+        return input.get(index) & 0xFF;
+    }
+
+    private static int getInt16(ByteBuffer input, int index) {
+        return (input.get(index) & 0xFF) << 8 | input.get(index + 1) & 0xFF;
+    }
+
+    private static byte[] getBytes(ByteBuffer input, int index, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = input.get(index + i);
+        }
+        return bytes;
+    }
+
     private static void ignoreByteVector8(ByteBuffer input) {
         ignoreByteVector(input, getInt8(input));
     }
@@ -622,6 +709,9 @@ final class SSLExplorer {
 
     private static void ignoreByteVector(ByteBuffer input, int length) {
         if (length != 0) {
+            if (length > input.remaining()) {
+                throw new BufferUnderflowException();
+            }
             int position = input.position();
             input.position(position + length);
         }
@@ -633,33 +723,37 @@ final class SSLExplorer {
         }
     }
 
-    static final class ExtensionInfo {
-        final List<SNIServerName> sni;
-        final List<String> alpn;
-
-        ExtensionInfo(final List<SNIServerName> sni, final List<String> alpn) {
-            this.sni = sni;
-            this.alpn = alpn;
-        }
-    }
-
+    /**
+     * The explored capabilities, as a view over the client hello.  The cipher suites, server names and protocols are
+     * decoded from the client hello the first time they are requested, using the positions recorded by the exploration,
+     * which has already checked that they are well formed.
+     */
     static final class SSLConnectionInformationImpl implements SSLConnectionInformation {
 
         private final String recordVersion;
         private final String helloVersion;
-        private final List<SNIServerName> sniNames;
-        private final List<String> alpnProtocols;
-        private final List<String> ciphers;
+        private final ByteBuffer hello;
+        private final int cipherSuites;
+        private final int cipherSuiteCount;
+        private final boolean v2CipherSpecs;
+        private final int sni;
+        private final int alpn;
+        private List<SNIServerName> sniNames;
+        private List<String> alpnProtocols;
+        private List<String> ciphers;
 
         SSLConnectionInformationImpl(byte recordMajorVersion, byte recordMinorVersion,
-            byte helloMajorVersion, byte helloMinorVersion,
-            List<SNIServerName> sniNames, final List<String> alpnProtocols, final List<String> ciphers) {
+            byte helloMajorVersion, byte helloMinorVersion, ByteBuffer hello,
+            int cipherSuites, int cipherSuiteCount, boolean v2CipherSpecs, int sni, int alpn) {
 
             this.recordVersion = getVersionString(recordMajorVersion, recordMinorVersion);
             this.helloVersion = getVersionString(helloMajorVersion, helloMinorVersion);
-            this.sniNames = sniNames;
-            this.alpnProtocols = alpnProtocols;
-            this.ciphers = ciphers;
+            this.hello = hello;
+            this.cipherSuites = cipherSuites;
+            this.cipherSuiteCount = cipherSuiteCount;
+            this.v2CipherSpecs = v2CipherSpecs;
+            this.sni = sni;
+            this.alpn = alpn;
         }
 
         private static String getVersionString(final byte helloMajorVersion, final byte helloMinorVersion) {
@@ -696,17 +790,81 @@ final class SSLExplorer {
 
         @Override
         public List<SNIServerName> getSNIServerNames() {
-            return Collections.unmodifiableList(sniNames);
+            List<SNIServerName> sniNames = this.sniNames;
+            if (sniNames == null) {
+                this.sniNames = sniNames = decodeSNIServerNames();
+            }
+            return sniNames;
         }
 
         @Override
         public List<String> getProtocols() {
-            return Collections.unmodifiableList(alpnProtocols);
+            List<String> alpnProtocols = this.alpnProtocols;
+            if (alpnProtocols == null) {
+                this.alpnProtocols = alpnProtocols = decodeProtocols();
+            }
+            return alpnProtocols;
         }
 
         @Override
         public List<String> getCipherSuites() {
-            return Collections.unmodifiableList(ciphers);
+            List<String> ciphers = this.ciphers;
+            if (ciphers == null) {
+                this.ciphers = ciphers = decodeCipherSuites();
+            }
+            return ciphers;
+        }
+
+        private List<SNIServerName> decodeSNIServerNames() {
+            if (sni == -1) {
+                return Collections.emptyList();
+            }
+            int listLen = getInt16(hello, sni);
+            int end = sni + 2 + listLen;
+            SNIServerName[] names = new SNIServerName[listLen / 3];    // 3: the smallest ServerName
+            int count = 0;
+            for (int index = sni + 2; index < end; count++) {
+                int code = getInt8(hello, index);          // name_type
+                int snLen = getInt16(hello, index + 1);    // length field of server name
+                byte[] encoded = getBytes(hello, index + 3, snLen);
+                names[count] = code == StandardConstants.SNI_HOST_NAME ? new SNIHostName(encoded) : new UnknownServerName(code, encoded);
+                index += snLen + 3;
+            }
+            return count == 1 ? Collections.singletonList(names[0]) : new UnmodifiableArrayList<>(Arrays.copyOf(names, count));
+        }
+
+        private List<String> decodeProtocols() {
+            if (alpn == -1 || getInt16(hello, alpn - 2) < 2) {    // length of extension data
+                return Collections.emptyList();
+            }
+            int listLen = getInt16(hello, alpn);
+            int end = alpn + 2 + listLen;
+            String[] protocols = new String[listLen];
+            int count = 0;
+            for (int index = alpn + 2; index < end; count++) {
+                int len = getInt8(hello, index);
+                protocols[count] = new String(getBytes(hello, index + 1, len), StandardCharsets.UTF_8);
+                index += len + 1;
+            }
+            return new UnmodifiableArrayList<>(Arrays.copyOf(protocols, count));
+        }
+
+        private List<String> decodeCipherSuites() {
+            String[] names = new String[cipherSuiteCount];
+            int count = 0;
+            for (int i = 0; i < cipherSuiteCount; i++) {
+                final MechanismDatabase.Entry entry;
+                if (v2CipherSpecs) {
+                    int index = cipherSuites + i * 3;
+                    // skip any non-TLS cipher suites
+                    entry = getInt8(hello, index) != 0 ? null : database.getCipherSuiteById(getInt8(hello, index + 1), getInt8(hello, index + 2));
+                } else {
+                    int index = cipherSuites + i * 2;
+                    entry = database.getCipherSuiteById(getInt8(hello, index), getInt8(hello, index + 1));
+                }
+                if (entry != null) names[count++] = entry.getName();
+            }
+            return count == 0 ? Collections.emptyList() : new UnmodifiableArrayList<>(count == names.length ? names : Arrays.copyOf(names, count));
         }
 
         private static String unknownVersion(byte major, byte minor) {
@@ -714,4 +872,3 @@ final class SSLExplorer {
         }
     }
 }
-
@@ -50,6 +50,9 @@ import org.wildfly.security._private.ElytronMessages;
 /**
  * Extension to the {@link X509TrustManager} interface to support CRL verification.
  *
+ * <p>For large certificate revocation lists, or lists which are updated while the server runs, see
+ * {@link X509CRLIndexedTrustManager}.
+ *
  * @author <a href="mailto:psilva@redhat.com">Pedro Igor</a>
  */
 public final class X509CRLExtendedTrustManager extends X509ExtendedTrustManager {
@@ -0,0 +1,792 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.ssl;
+
+import static org.wildfly.common.Assert.checkMinimumParameter;
+import static org.wildfly.common.Assert.checkNotNullParam;
+import static org.wildfly.security._private.ElytronMessages.log;
+import static org.wildfly.security.asn1.ASN1.CONTEXT_SPECIFIC_MASK;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.CRL;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import javax.net.ssl.X509TrustManager;
+import javax.security.auth.x500.X500Principal;
+
+import org.wildfly.security.asn1.ASN1Exception;
+import org.wildfly.security.asn1.DERDecoder;
+import org.wildfly.security.util._private.PrimitivePool;
+import org.wildfly.security.x500.X500;
+
+/**
+ * A trust manager which checks certificate chains against certificate revocation lists read from files, reloading them when
+ * they change.
+ *
+ * <p>The certificate path is validated by a delegate trust manager, which is not expected to check revocation, then every
+ * certificate of the chain is checked against the loaded lists. The serial numbers revoked by each issuer are held in a sorted
+ * {@code long} array, or a hash set for serial numbers which do not fit a {@code long}, so a check costs a binary search
+ * however large the lists are. A list only applies to the certificates issued with the key which signed it, so lists of an
+ * issuer which has rolled over its key are told apart by their authority key identifier, or by their signature. The signature of
+ * a list is verified with the key of the certificate issuer, taken from the chain or from the issuers accepted by the delegate,
+ * the first time the list is used. Delta lists are treated as complete lists and the next
+ * update time of the lists is not checked, keeping the files current is left to whatever updates them.
+ *
+ * <p>The files are checked for changes at most once per reload check interval, during a certificate check, and can be reloaded
+ * at any time using {@link #reload()}. The new lists replace the old ones at once after all the files are read, and if any of
+ * them cannot be read the previously loaded lists are kept.
+ *
+ * <p>Chains which are trusted are cached by the SHA-256 digest of their certificates for a short time, and the cache is emptied
+ * whenever the lists are reloaded. Checks for a socket or engine using endpoint identification are never answered from the
+ * cache, as their outcome also depends on the peer host.
+ */
+public final class X509CRLIndexedTrustManager extends X509ExtendedTrustManager {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private final X509TrustManager trustManager;
+    private final X509ExtendedTrustManager extendedTrustManager;
+    private final Path[] crlFiles;
+    private final long reloadCheckInterval;
+    private final long cacheTimeToLive;
+    private final int maxCachedChains;
+
+    private volatile State state;
+    private final AtomicLong nextReloadCheck = new AtomicLong();
+
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+
+    X509CRLIndexedTrustManager(final Builder builder) {
+        this.trustManager = checkNotNullParam("trustManager", builder.trustManager);
+        this.extendedTrustManager = trustManager instanceof X509ExtendedTrustManager ? (X509ExtendedTrustManager) trustManager : null;
+        this.crlFiles = builder.crlFiles.toArray(new Path[builder.crlFiles.size()]);
+        this.reloadCheckInterval = builder.reloadCheckInterval;
+        this.cacheTimeToLive = builder.cacheTimeToLive;
+        this.maxCachedChains = builder.maxCachedChains;
+        try {
+            state = load();
+        } catch (IOException | GeneralSecurityException e) {
+            throw log.sslErrorCreatingTrustManager(getClass().getName(), e);
+        }
+        nextReloadCheck.set(System.currentTimeMillis() + reloadCheckInterval);
+    }
+
+    /**
+     * Construct a new builder.
+     *
+     * @return the new builder (not {@code null})
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public void checkClientTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+        check(chain, authType, true, true, () -> trustManager.checkClientTrusted(chain, authType));
+    }
+
+    @Override
+    public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+        check(chain, authType, false, true, () -> trustManager.checkServerTrusted(chain, authType));
+    }
+
+    @Override
+    public void checkClientTrusted(final X509Certificate[] chain, final String authType, final Socket socket) throws CertificateException {
+        check(chain, authType, true, isCacheable(socket), () -> {
+            if (extendedTrustManager != null) {
+                extendedTrustManager.checkClientTrusted(chain, authType, socket);
+            } else {
+                trustManager.checkClientTrusted(chain, authType);
+            }
+        });
+    }
+
+    @Override
+    public void checkServerTrusted(final X509Certificate[] chain, final String authType, final Socket socket) throws CertificateException {
+        check(chain, authType, false, isCacheable(socket), () -> {
+            if (extendedTrustManager != null) {
+                extendedTrustManager.checkServerTrusted(chain, authType, socket);
+            } else {
+                trustManager.checkServerTrusted(chain, authType);
+            }
+        });
+    }
+
+    @Override
+    public void checkClientTrusted(final X509Certificate[] chain, final String authType, final SSLEngine sslEngine) throws CertificateException {
+        check(chain, authType, true, isCacheable(sslEngine), () -> {
+            if (extendedTrustManager != null) {
+                extendedTrustManager.checkClientTrusted(chain, authType, sslEngine);
+            } else {
+                trustManager.checkClientTrusted(chain, authType);
+            }
+        });
+    }
+
+    @Override
+    public void checkServerTrusted(final X509Certificate[] chain, final String authType, final SSLEngine sslEngine) throws CertificateException {
+        check(chain, authType, false, isCacheable(sslEngine), () -> {
+            if (extendedTrustManager != null) {
+                extendedTrustManager.checkServerTrusted(chain, authType, sslEngine);
+            } else {
+                trustManager.checkServerTrusted(chain, authType);
+            }
+        });
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+        return trustManager.getAcceptedIssuers();
+    }
+
+    /**
+     * Reload the certificate revocation lists now, whether or not the files have changed.
+     *
+     * @throws IOException if a file cannot be read
+     * @throws GeneralSecurityException if a file does not contain valid certificate revocation lists
+     */
+    public synchronized void reload() throws IOException, GeneralSecurityException {
+        state = load();
+        reloads.increment();
+    }
+
+    /**
+     * Get the number of checks answered from the cache of trusted chains.
+     *
+     * @return the number of cache hits
+     */
+    public long getCacheHitCount() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * Get the number of cacheable checks which were not answered from the cache of trusted chains.
+     *
+     * @return the number of cache misses
+     */
+    public long getCacheMissCount() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * Get the number of times the certificate revocation lists have been reloaded.
+     *
+     * @return the number of reloads
+     */
+    public long getReloadCount() {
+        return reloads.sum();
+    }
+
+    private void check(final X509Certificate[] chain, final String authType, final boolean client, final boolean cacheable, final CertificateCheck delegate) throws CertificateException {
+        final State state = currentState();
+        Key key = null;
+        if (cacheable && cacheTimeToLive > 0 && chain != null && chain.length > 0) {
+            key = new Key(fingerprint(chain), authType, client);
+            final Long expiration = state.trustedChains.get(key);
+            if (expiration != null) {
+                if (System.currentTimeMillis() < expiration) {
+                    cacheHits.increment();
+                    return;
+                }
+                state.trustedChains.remove(key, expiration);
+            }
+            cacheMisses.increment();
+        }
+        delegate.check();
+        checkRevocation(state, chain);
+        if (key != null) {
+            final long now = System.currentTimeMillis();
+            long expiration = now + cacheTimeToLive;
+            for (X509Certificate certificate : chain) {
+                expiration = Math.min(expiration, certificate.getNotAfter().getTime());
+            }
+            if (expiration > now) {
+                makeRoom(state.trustedChains, now);
+                state.trustedChains.put(key, expiration);
+            }
+        }
+    }
+
+    private void checkRevocation(final State state, final X509Certificate[] chain) throws CertificateException {
+        for (int i = 0; i < chain.length; i++) {
+            final X509Certificate certificate = chain[i];
+            final RevokedSerials[] revokedSerials = state.revokedSerials.get(certificate.getIssuerX500Principal());
+            if (revokedSerials == null) {
+                continue;
+            }
+            X509Certificate issuerCertificate = null;
+            for (RevokedSerials serials : revokedSerials) {
+                final RevocationList list = serials.list;
+                if (list.issuer.equals(certificate.getIssuerX500Principal())) {
+                    if (issuerCertificate == null) {
+                        issuerCertificate = getIssuerCertificate(chain, i);
+                        if (issuerCertificate == null) {
+                            throw log.unableToVerifyCrl(list.issuer.getName(), null);
+                        }
+                    }
+                    if (! list.matches(issuerCertificate)) {
+                        // a list of another key of the issuer, such as the one used before a key rollover
+                        continue;
+                    }
+                } else if (! list.verifyIndirect(chain, trustManager)) {
+                    throw log.unableToVerifyCrl(list.issuer.getName(), null);
+                }
+                if (serials.contains(certificate.getSerialNumber())) {
+                    throw log.certificateRevoked(certificate.getSubjectX500Principal().getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the certificate which issued the certificate at the given index of the chain, among the chain and the issuers accepted
+     * by the delegate. The issuers accepted by the delegate may have several keys under the same name, the one matching the
+     * authority key identifier of the certificate, or otherwise verifying its signature, is used.
+     */
+    private X509Certificate getIssuerCertificate(final X509Certificate[] chain, final int index) {
+        final X509Certificate certificate = chain[index];
+        final X500Principal issuer = certificate.getIssuerX500Principal();
+        if (index + 1 < chain.length && issuer.equals(chain[index + 1].getSubjectX500Principal())) {
+            // the path has been validated by the delegate
+            return chain[index + 1];
+        }
+        final byte[] authorityKeyIdentifier = getAuthorityKeyIdentifier(certificate.getExtensionValue(X500.OID_CE_AUTHORITY_KEY_IDENTIFIER));
+        if (issuer.equals(certificate.getSubjectX500Principal()) && isIssuedBy(certificate, certificate, authorityKeyIdentifier)) {
+            return certificate;
+        }
+        for (X509Certificate acceptedIssuer : trustManager.getAcceptedIssuers()) {
+            if (issuer.equals(acceptedIssuer.getSubjectX500Principal()) && isIssuedBy(certificate, acceptedIssuer, authorityKeyIdentifier)) {
+                return acceptedIssuer;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isIssuedBy(final X509Certificate certificate, final X509Certificate issuerCertificate, final byte[] authorityKeyIdentifier) {
+        final byte[] subjectKeyIdentifier = authorityKeyIdentifier == null ? null : getSubjectKeyIdentifier(issuerCertificate);
+        if (subjectKeyIdentifier != null) {
+            return Arrays.equals(authorityKeyIdentifier, subjectKeyIdentifier);
+        }
+        try {
+            certificate.verify(issuerCertificate.getPublicKey());
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the key identifier of an authority key identifier extension value, of a certificate or of a list.
+     *
+     * @return the key identifier, or {@code null} if the extension is missing, has no key identifier or cannot be decoded
+     */
+    private static byte[] getAuthorityKeyIdentifier(final byte[] extensionValue) {
+        if (extensionValue == null) {
+            return null;
+        }
+        try {
+            final DERDecoder decoder = new DERDecoder(new DERDecoder(extensionValue).decodeOctetString());
+            decoder.startSequence();
+            if (! decoder.isNextType(CONTEXT_SPECIFIC_MASK, 0, false)) {
+                return null;
+            }
+            decoder.decodeImplicit(0);
+            return decoder.decodeOctetString();
+        } catch (ASN1Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the subject key identifier of a certificate.
+     *
+     * @return the key identifier, or {@code null} if the extension is missing or cannot be decoded
+     */
+    private static byte[] getSubjectKeyIdentifier(final X509Certificate certificate) {
+        final byte[] extensionValue = certificate.getExtensionValue(X500.OID_CE_SUBJECT_KEY_IDENTIFIER);
+        if (extensionValue == null) {
+            return null;
+        }
+        try {
+            return new DERDecoder(new DERDecoder(extensionValue).decodeOctetString()).decodeOctetString();
+        } catch (ASN1Exception e) {
+            return null;
+        }
+    }
+
+    private State currentState() {
+        final long now = System.currentTimeMillis();
+        final long nextCheck = nextReloadCheck.get();
+        if (now >= nextCheck && nextReloadCheck.compareAndSet(nextCheck, now + reloadCheckInterval)) {
+            // only one thread checks the files, the others carry on with the current lists
+            try {
+                reloadIfChanged();
+            } catch (IOException | GeneralSecurityException e) {
+                log.failedToReloadCrls(e);
+            }
+        }
+        return state;
+    }
+
+    private synchronized void reloadIfChanged() throws IOException, GeneralSecurityException {
+        if (! Arrays.equals(stamp(), state.stamps)) {
+            state = load();
+            reloads.increment();
+        }
+    }
+
+    private FileStamp[] stamp() throws IOException {
+        final FileStamp[] stamps = new FileStamp[crlFiles.length];
+        for (int i = 0; i < crlFiles.length; i++) {
+            final BasicFileAttributes attributes = Files.readAttributes(crlFiles[i], BasicFileAttributes.class);
+            stamps[i] = new FileStamp(attributes.lastModifiedTime(), attributes.size());
+        }
+        return stamps;
+    }
+
+    private State load() throws IOException, GeneralSecurityException {
+        // stamp before reading, so a file changing while it is read is read again on the next check
+        final FileStamp[] stamps = stamp();
+        final CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+        final X509Certificate[] acceptedIssuers = trustManager.getAcceptedIssuers();
+        final Map<X500Principal, List<RevokedSerials>> revokedSerials = new HashMap<>();
+        for (Path crlFile : crlFiles) {
+            final Collection<? extends CRL> crls;
+            try (InputStream is = Files.newInputStream(crlFile)) {
+                crls = certificateFactory.generateCRLs(is);
+            }
+            for (CRL crl : crls) {
+                if (crl instanceof X509CRL) {
+                    index((X509CRL) crl, acceptedIssuers, revokedSerials);
+                }
+            }
+        }
+        final Map<X500Principal, RevokedSerials[]> index = new HashMap<>(revokedSerials.size());
+        revokedSerials.forEach((issuer, serials) -> index.put(issuer, serials.toArray(new RevokedSerials[serials.size()])));
+        return new State(stamps, index);
+    }
+
+    private static void index(final X509CRL crl, final X509Certificate[] acceptedIssuers, final Map<X500Principal, List<RevokedSerials>> revokedSerials) {
+        final Set<? extends X509CRLEntry> entries = crl.getRevokedCertificates();
+        if (entries == null) {
+            return;
+        }
+        final RevocationList list = new RevocationList(crl, acceptedIssuers);
+        // indirect lists may revoke the certificates of other issuers
+        final Map<X500Principal, SerialsBuilder> builders = new HashMap<>();
+        for (X509CRLEntry entry : entries) {
+            final X500Principal issuer = entry.getCertificateIssuer();
+            builders.computeIfAbsent(issuer == null ? crl.getIssuerX500Principal() : issuer, i -> new SerialsBuilder()).add(entry.getSerialNumber());
+        }
+        builders.forEach((issuer, builder) -> revokedSerials.computeIfAbsent(issuer, i -> new ArrayList<>()).add(builder.build(list)));
+    }
+
+    private static boolean isCacheable(final Socket socket) {
+        return ! (socket instanceof SSLSocket) || ((SSLSocket) socket).getSSLParameters().getEndpointIdentificationAlgorithm() == null;
+    }
+
+    private static boolean isCacheable(final SSLEngine sslEngine) {
+        return sslEngine == null || sslEngine.getSSLParameters().getEndpointIdentificationAlgorithm() == null;
+    }
+
+    private static byte[] fingerprint(final X509Certificate[] chain) throws CertificateException {
+        MessageDigest messageDigest = null;
+        try {
+            messageDigest = PrimitivePool.acquireMessageDigest(DIGEST_ALGORITHM);
+            for (X509Certificate certificate : chain) {
+                messageDigest.update(certificate.getEncoded());
+            }
+            return messageDigest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new CertificateException(e);
+        } finally {
+            PrimitivePool.release(messageDigest);
+        }
+    }
+
+    private void makeRoom(final ConcurrentHashMap<Key, Long> trustedChains, final long now) {
+        if (trustedChains.size() < maxCachedChains) {
+            return;
+        }
+        trustedChains.values().removeIf(expiration -> now >= expiration);
+        final Iterator<Key> iterator = trustedChains.keySet().iterator();
+        while (trustedChains.size() >= maxCachedChains && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    @FunctionalInterface
+    private interface CertificateCheck {
+        void check() throws CertificateException;
+    }
+
+    /**
+     * The loaded lists, along with the chains trusted since they were loaded.
+     */
+    private static final class State {
+        private final FileStamp[] stamps;
+        private final Map<X500Principal, RevokedSerials[]> revokedSerials;
+        private final ConcurrentHashMap<Key, Long> trustedChains = new ConcurrentHashMap<>();
+
+        State(final FileStamp[] stamps, final Map<X500Principal, RevokedSerials[]> revokedSerials) {
+            this.stamps = stamps;
+            this.revokedSerials = revokedSerials;
+        }
+    }
+
+    private static final class FileStamp {
+        private final FileTime lastModifiedTime;
+        private final long size;
+
+        FileStamp(final FileTime lastModifiedTime, final long size) {
+            this.lastModifiedTime = lastModifiedTime;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (! (obj instanceof FileStamp)) {
+                return false;
+            }
+            final FileStamp other = (FileStamp) obj;
+            return size == other.size && lastModifiedTime.equals(other.lastModifiedTime);
+        }
+
+        @Override
+        public int hashCode() {
+            return lastModifiedTime.hashCode() * 31 + Long.hashCode(size);
+        }
+    }
+
+    /**
+     * A certificate revocation list, whose signature is verified the first time it is used. A list is signed with a single key,
+     * so once verified, only the key which verified it is retained and the list does not apply to the other keys of its issuer.
+     */
+    private static final class RevocationList {
+        private final X500Principal issuer;
+        private final byte[] authorityKeyIdentifier;
+        private final Set<PublicKey> rejectedKeys = ConcurrentHashMap.newKeySet();
+        private volatile X509CRL crl;
+        private volatile PublicKey verifiedKey;
+
+        RevocationList(final X509CRL crl, final X509Certificate[] acceptedIssuers) {
+            this.issuer = crl.getIssuerX500Principal();
+            this.authorityKeyIdentifier = getAuthorityKeyIdentifier(crl.getExtensionValue(X500.OID_CE_AUTHORITY_KEY_IDENTIFIER));
+            this.crl = crl;
+            // lists issued by a trusted issuer are verified right away, so the parsed list does not need to be retained
+            for (X509Certificate acceptedIssuer : acceptedIssuers) {
+                if (issuer.equals(acceptedIssuer.getSubjectX500Principal()) && matchesKeyIdentifier(acceptedIssuer) != Boolean.FALSE
+                        && verify(acceptedIssuer.getPublicKey())) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Determine whether this list was issued with the key of the given issuer certificate, verifying its signature if needed.
+         *
+         * @throws CertificateException if the key identifiers match but the signature of the list does not verify
+         */
+        boolean matches(final X509Certificate issuerCertificate) throws CertificateException {
+            final PublicKey key = issuerCertificate.getPublicKey();
+            if (verifiedKey != null) {
+                return key.equals(verifiedKey);
+            }
+            final Boolean keyIdentifierMatch = matchesKeyIdentifier(issuerCertificate);
+            if (keyIdentifierMatch == Boolean.FALSE || rejectedKeys.contains(key)) {
+                return false;
+            }
+            final X509CRL crl = this.crl;
+            if (crl == null) {
+                // verified concurrently
+                return key.equals(verifiedKey);
+            }
+            try {
+                crl.verify(key);
+            } catch (GeneralSecurityException e) {
+                if (keyIdentifierMatch == Boolean.TRUE) {
+                    throw log.unableToVerifyCrl(issuer.getName(), e);
+                }
+                rejectedKeys.add(key);
+                return false;
+            }
+            verified(key);
+            return true;
+        }
+
+        /**
+         * Determine whether this list, revoking certificates of other issuers, was issued with the key of any certificate of
+         * its issuer in the chain or accepted by the given trust manager.
+         */
+        boolean verifyIndirect(final X509Certificate[] chain, final X509TrustManager trustManager) throws CertificateException {
+            for (X509Certificate certificate : chain) {
+                if (issuer.equals(certificate.getSubjectX500Principal()) && matches(certificate)) {
+                    return true;
+                }
+            }
+            for (X509Certificate acceptedIssuer : trustManager.getAcceptedIssuers()) {
+                if (issuer.equals(acceptedIssuer.getSubjectX500Principal()) && matches(acceptedIssuer)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Compare the authority key identifier of this list to the subject key identifier of the given certificate.
+         *
+         * @return whether the identifiers are equal, or {@code null} if either is missing
+         */
+        private Boolean matchesKeyIdentifier(final X509Certificate issuerCertificate) {
+            final byte[] subjectKeyIdentifier = authorityKeyIdentifier == null ? null : getSubjectKeyIdentifier(issuerCertificate);
+            return subjectKeyIdentifier == null ? null : Boolean.valueOf(Arrays.equals(authorityKeyIdentifier, subjectKeyIdentifier));
+        }
+
+        private boolean verify(final PublicKey key) {
+            try {
+                crl.verify(key);
+            } catch (GeneralSecurityException e) {
+                return false;
+            }
+            verified(key);
+            return true;
+        }
+
+        private void verified(final PublicKey key) {
+            verifiedKey = key;
+            crl = null;
+            rejectedKeys.clear();
+        }
+    }
+
+    /**
+     * The serial numbers revoked by a list for one issuer.
+     */
+    private static final class RevokedSerials {
+        private final RevocationList list;
+        private final long[] serials;
+        private final Set<BigInteger> largeSerials;
+
+        RevokedSerials(final RevocationList list, final long[] serials, final Set<BigInteger> largeSerials) {
+            this.list = list;
+            this.serials = serials;
+            this.largeSerials = largeSerials;
+        }
+
+        boolean contains(final BigInteger serial) {
+            return serial.bitLength() < Long.SIZE ? Arrays.binarySearch(serials, serial.longValue()) >= 0 : largeSerials.contains(serial);
+        }
+    }
+
+    private static final class SerialsBuilder {
+        private long[] serials = new long[16];
+        private int size;
+        private Set<BigInteger> largeSerials;
+
+        void add(final BigInteger serial) {
+            if (serial.bitLength() < Long.SIZE) {
+                if (size == serials.length) {
+                    serials = Arrays.copyOf(serials, size * 2);
+                }
+                serials[size++] = serial.longValue();
+            } else {
+                if (largeSerials == null) {
+                    largeSerials = new HashSet<>();
+                }
+                largeSerials.add(serial);
+            }
+        }
+
+        RevokedSerials build(final RevocationList list) {
+            final long[] sorted = Arrays.copyOf(serials, size);
+            Arrays.sort(sorted);
+            return new RevokedSerials(list, sorted, largeSerials == null ? Collections.emptySet() : largeSerials);
+        }
+    }
+
+    private static final class Key {
+        private final byte[] fingerprint;
+        private final String authType;
+        private final boolean client;
+        private final int hashCode;
+
+        Key(final byte[] fingerprint, final String authType, final boolean client) {
+            this.fingerprint = fingerprint;
+            this.authType = authType;
+            this.client = client;
+            this.hashCode = Arrays.hashCode(fingerprint) * 31 + Objects.hashCode(authType) * 2 + (client ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (! (obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hashCode == other.hashCode && client == other.client && Arrays.equals(fingerprint, other.fingerprint) && Objects.equals(authType, other.authType);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * A builder for indexed CRL trust managers.
+     */
+    public static final class Builder {
+
+        private X509TrustManager trustManager;
+        private final List<Path> crlFiles = new ArrayList<>();
+        private long reloadCheckInterval = 10_000;
+        private long cacheTimeToLive = 30_000;
+        private int maxCachedChains = 1000;
+
+        Builder() {
+        }
+
+        /**
+         * Set the trust manager validating the certificate path, which should not check revocation itself.
+         *
+         * @param trustManager the trust manager validating the certificate path (must not be {@code null})
+         * @return this builder
+         */
+        public Builder setTrustManager(final X509TrustManager trustManager) {
+            this.trustManager = checkNotNullParam("trustManager", trustManager);
+            return this;
+        }
+
+        /**
+         * Validate the certificate path using the trust manager of the default trust manager factory, initialized with the
+         * given trust store.  The factory's algorithm is {@link TrustManagerFactory#getDefaultAlgorithm()}.
+         *
+         * @param trustStore a {@link KeyStore} with the trusted certificates (must not be {@code null})
+         * @return this builder
+         * @throws GeneralSecurityException if the default trust manager factory cannot be obtained or initialized
+         */
+        public Builder setTrustStore(final KeyStore trustStore) throws GeneralSecurityException {
+            checkNotNullParam("trustStore", trustStore);
+            final TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init(trustStore);
+            for (TrustManager trustManager : trustManagerFactory.getTrustManagers()) {
+                if (trustManager instanceof X509TrustManager) {
+                    this.trustManager = (X509TrustManager) trustManager;
+                    return this;
+                }
+            }
+            throw log.noDefaultTrustManager();
+        }
+
+        /**
+         * Add a file containing certificate revocation lists, in either DER or PEM encoding.
+         *
+         * @param crlFile the path of the file (must not be {@code null})
+         * @return this builder
+         */
+        public Builder addCRLFile(final Path crlFile) {
+            crlFiles.add(checkNotNullParam("crlFile", crlFile));
+            return this;
+        }
+
+        /**
+         * Set the minimum time between two checks of the files for changes. If {@code 0}, the files are checked by every
+         * certificate check. Defaults to 10 seconds.
+         *
+         * @param reloadCheckInterval the reload check interval in milliseconds
+         * @return this builder
+         */
+        public Builder setReloadCheckInterval(final long reloadCheckInterval) {
+            checkMinimumParameter("reloadCheckInterval", 0, reloadCheckInterval);
+            this.reloadCheckInterval = reloadCheckInterval;
+            return this;
+        }
+
+        /**
+         * Set the time a trusted chain is cached for. If {@code 0}, trusted chains are not cached. Defaults to 30 seconds.
+         *
+         * @param cacheTimeToLive the time to live of cached chains in milliseconds
+         * @return this builder
+         */
+        public Builder setCacheTimeToLive(final long cacheTimeToLive) {
+            checkMinimumParameter("cacheTimeToLive", 0, cacheTimeToLive);
+            this.cacheTimeToLive = cacheTimeToLive;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of trusted chains to cache. Defaults to 1000.
+         *
+         * @param maxCachedChains the maximum number of cached chains
+         * @return this builder
+         */
+        public Builder setMaxCachedChains(final int maxCachedChains) {
+            checkMinimumParameter("maxCachedChains", 1, maxCachedChains);
+            this.maxCachedChains = maxCachedChains;
+            return this;
+        }
+
+        /**
+         * Build the trust manager, loading the certificate revocation lists.
+         *
+         * @return the trust manager (not {@code null})
+         */
+        public X509CRLIndexedTrustManager build() {
+            return new X509CRLIndexedTrustManager(this);
+        }
+    }
+}
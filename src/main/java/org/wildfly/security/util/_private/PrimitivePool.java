@@ -0,0 +1,215 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.util._private;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A shared pool of {@link MessageDigest} and {@link Mac} instances, avoiding the provider lookup and instantiation performed by
+ * {@code getInstance()} on authentication hot paths.
+ *
+ * <p>Instances are pooled per provider and algorithm; on acquisition the provider which would be selected by {@code getInstance()}
+ * for the given providers is determined first, so changes to the provider list are honoured. Instances are {@code reset()} before
+ * being returned to the pool. A {@link Mac} is also initialised with a throwaway key so that it does not keep the key of its last
+ * user reachable, or discarded if that fails; callers must always {@code init()} it before use.
+ *
+ * <p>Every acquired instance should be released exactly once, and must not be used after it has been released. Instances which are
+ * not released are simply garbage collected.
+ */
+public final class PrimitivePool {
+
+    private static final String MESSAGE_DIGEST = "MessageDigest";
+    private static final String MAC = "Mac";
+
+    private static final byte[] THROWAWAY_KEY = new byte[16];
+
+    private static final int MAX_POOLED = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final ConcurrentHashMap<Key, Pool<MessageDigest>> messageDigests = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Key, Pool<Mac>> macs = new ConcurrentHashMap<>();
+
+    private PrimitivePool() {
+    }
+
+    /**
+     * Acquire a {@link MessageDigest} for the given algorithm from the default providers.
+     *
+     * @param algorithm the digest algorithm
+     * @return the message digest, in its initial state
+     * @throws NoSuchAlgorithmException if no provider supports the algorithm
+     */
+    public static MessageDigest acquireMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+        return acquireMessageDigest(algorithm, Security::getProviders);
+    }
+
+    /**
+     * Acquire a {@link MessageDigest} for the given algorithm from the first of the given providers supporting it.
+     *
+     * @param algorithm the digest algorithm
+     * @param providers the providers to search
+     * @return the message digest, in its initial state
+     * @throws NoSuchAlgorithmException if no provider supports the algorithm
+     */
+    public static MessageDigest acquireMessageDigest(String algorithm, Supplier<Provider[]> providers) throws NoSuchAlgorithmException {
+        Provider provider = findProvider(MESSAGE_DIGEST, algorithm, providers);
+        MessageDigest messageDigest = messageDigests.computeIfAbsent(new Key(provider, algorithm), k -> new Pool<>()).poll();
+        return messageDigest != null ? messageDigest : MessageDigest.getInstance(algorithm, provider);
+    }
+
+    /**
+     * Release a {@link MessageDigest} previously acquired from this pool.
+     *
+     * @param messageDigest the message digest to release, may be {@code null}
+     */
+    public static void release(MessageDigest messageDigest) {
+        if (messageDigest != null) {
+            messageDigest.reset();
+            Pool<MessageDigest> pool = messageDigests.get(new Key(messageDigest.getProvider(), messageDigest.getAlgorithm()));
+            if (pool != null) {
+                pool.offer(messageDigest);
+            }
+        }
+    }
+
+    /**
+     * Acquire a {@link Mac} for the given algorithm from the default providers.
+     *
+     * @param algorithm the MAC algorithm
+     * @return the MAC, which must be initialised before use
+     * @throws NoSuchAlgorithmException if no provider supports the algorithm
+     */
+    public static Mac acquireMac(String algorithm) throws NoSuchAlgorithmException {
+        return acquireMac(algorithm, Security::getProviders);
+    }
+
+    /**
+     * Acquire a {@link Mac} for the given algorithm from the first of the given providers supporting it.
+     *
+     * @param algorithm the MAC algorithm
+     * @param providers the providers to search
+     * @return the MAC, which must be initialised before use
+     * @throws NoSuchAlgorithmException if no provider supports the algorithm
+     */
+    public static Mac acquireMac(String algorithm, Supplier<Provider[]> providers) throws NoSuchAlgorithmException {
+        Provider provider = findProvider(MAC, algorithm, providers);
+        Mac mac = macs.computeIfAbsent(new Key(provider, algorithm), k -> new Pool<>()).poll();
+        return mac != null ? mac : Mac.getInstance(algorithm, provider);
+    }
+
+    /**
+     * Release a {@link Mac} previously acquired from this pool.
+     *
+     * @param mac the MAC to release, may be {@code null}
+     */
+    public static void release(Mac mac) {
+        if (mac != null) {
+            try {
+                // reset() keeps the key, which may be a salted password or a session key
+                mac.init(new SecretKeySpec(THROWAWAY_KEY, mac.getAlgorithm()));
+            } catch (InvalidKeyException | RuntimeException e) {
+                return;
+            }
+            Pool<Mac> pool = macs.get(new Key(mac.getProvider(), mac.getAlgorithm()));
+            if (pool != null) {
+                pool.offer(mac);
+            }
+        }
+    }
+
+    private static Provider findProvider(String type, String algorithm, Supplier<Provider[]> providers) throws NoSuchAlgorithmException {
+        for (Provider provider : providers.get()) {
+            if (provider.getService(type, algorithm) != null) {
+                return provider;
+            }
+        }
+        throw new NoSuchAlgorithmException(algorithm);
+    }
+
+    /**
+     * A bounded pool of reusable instances, also used for primitives which are not shared through this class.
+     *
+     * @param <T> the type of the pooled instances
+     */
+    public static final class Pool<T> {
+
+        private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        /**
+         * Take an instance from the pool.
+         *
+         * @return the instance, or {@code null} if the pool is empty
+         */
+        public T poll() {
+            T instance = queue.poll();
+            if (instance != null) {
+                size.decrementAndGet();
+            }
+            return instance;
+        }
+
+        /**
+         * Return an instance to the pool, the instance is discarded if the pool is full.
+         *
+         * @param instance the instance to return
+         */
+        public void offer(T instance) {
+            if (size.incrementAndGet() <= MAX_POOLED) {
+                queue.offer(instance);
+            } else {
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    private static final class Key {
+
+        private final Provider provider;
+        private final String algorithm;
+        private final int hashCode;
+
+        Key(Provider provider, String algorithm) {
+            this.provider = provider;
+            this.algorithm = algorithm;
+            this.hashCode = System.identityHashCode(provider) * 31 + algorithm.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && provider == ((Key) obj).provider && algorithm.equals(((Key) obj).algorithm);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.util._private;
+
+import static org.wildfly.common.Assert.checkNotNullParam;
+import static org.wildfly.security._private.ElytronMessages.log;
+
+import java.security.InvalidParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Provider.Service;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A cache of the mechanism factories provided as services of a supplied set of security providers.
+ *
+ * <p>The factory of each service of the given type is instantiated once per snapshot of the providers, and the factories are
+ * indexed by the mechanism names they report. A snapshot stays valid as long as the supplier returns the same providers in
+ * the same order and none of them has added or removed services, which is detected through the identity of the service set
+ * returned by {@link Provider#getServices()}, as providers only replace that set when their services change.
+ *
+ * <p>Unlike {@link Service#newInstance(Object)}, a snapshot hands out the same factory instance to every caller, possibly
+ * concurrently, so it must only be used for factory types whose instances hold no state of their own between calls, such as
+ * mechanism factories, which only create the mechanisms.
+ *
+ * @param <F> the factory type
+ */
+public final class ProviderFactoryCache<F> {
+
+    private final Supplier<Provider[]> providerSupplier;
+    private final String serviceType;
+    private final Class<F> factoryType;
+    private final Function<F, String[]> mechanismNames;
+    private volatile Snapshot<F> snapshot;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param providerSupplier the supplier of the providers (must not be {@code null})
+     * @param factoryType the factory type, the simple name of which is the service type (must not be {@code null})
+     * @param mechanismNames the function returning all the mechanism names a factory supports (must not be {@code null})
+     */
+    public ProviderFactoryCache(final Supplier<Provider[]> providerSupplier, final Class<F> factoryType, final Function<F, String[]> mechanismNames) {
+        this.providerSupplier = checkNotNullParam("providerSupplier", providerSupplier);
+        this.factoryType = checkNotNullParam("factoryType", factoryType);
+        this.mechanismNames = checkNotNullParam("mechanismNames", mechanismNames);
+        this.serviceType = factoryType.getSimpleName();
+    }
+
+    /**
+     * Get the snapshot of the current providers, creating it if the providers have changed since the last call.
+     *
+     * @return the snapshot of the current providers (not {@code null})
+     */
+    public Snapshot<F> getSnapshot() {
+        final Provider[] providers = providerSupplier.get();
+        Snapshot<F> snapshot = this.snapshot;
+        if (snapshot == null || ! snapshot.isCurrent(providers)) {
+            this.snapshot = snapshot = new Snapshot<>(providers, serviceType, factoryType, mechanismNames);
+        }
+        return snapshot;
+    }
+
+    /**
+     * The factories of a set of providers.
+     *
+     * @param <F> the factory type
+     */
+    public static final class Snapshot<F> {
+
+        private final Provider[] providers;
+        private final Set<Service>[] services;
+        private final List<ProviderFactory<F>> factories;
+        private final Map<String, List<ProviderFactory<F>>> byMechanism;
+
+        @SuppressWarnings("unchecked")
+        Snapshot(final Provider[] providers, final String serviceType, final Class<F> factoryType, final Function<F, String[]> mechanismNames) {
+            this.providers = providers.clone();
+            this.services = new Set[providers.length];
+            final List<ProviderFactory<F>> factories = new ArrayList<>();
+            final Set<String> allNames = new LinkedHashSet<>();
+            final Map<ProviderFactory<F>, Set<String>> namesOf = new HashMap<>();
+            for (int i = 0; i < providers.length; i++) {
+                final Provider provider = providers[i];
+                final Set<Service> providerServices = provider.getServices();
+                services[i] = providerServices;
+                if (providerServices == null) {
+                    continue;
+                }
+                for (Service service : providerServices) {
+                    if (! serviceType.equals(service.getType())) {
+                        continue;
+                    }
+                    final F factory;
+                    try {
+                        factory = factoryType.cast(service.newInstance(null));
+                    } catch (NoSuchAlgorithmException | ClassCastException | InvalidParameterException e) {
+                        log.tracef(e, "Failed to instantiate %s service %s of provider %s", serviceType, service.getAlgorithm(), provider.getName());
+                        continue;
+                    }
+                    final ProviderFactory<F> providerFactory = new ProviderFactory<>(provider, factory);
+                    factories.add(providerFactory);
+                    String[] names;
+                    try {
+                        names = mechanismNames.apply(factory);
+                    } catch (RuntimeException e) {
+                        log.tracef(e, "Failed to get the mechanism names of %s service %s of provider %s", serviceType, service.getAlgorithm(), provider.getName());
+                        names = null;
+                    }
+                    // a factory without names may still support some mechanism, so it is tried for every mechanism
+                    if (names != null && names.length > 0) {
+                        final Set<String> nameSet = new LinkedHashSet<>();
+                        Collections.addAll(nameSet, names);
+                        namesOf.put(providerFactory, nameSet);
+                        allNames.addAll(nameSet);
+                    }
+                }
+            }
+            final Map<String, List<ProviderFactory<F>>> byMechanism = new HashMap<>(allNames.size());
+            for (String name : allNames) {
+                final List<ProviderFactory<F>> candidates = new ArrayList<>();
+                for (ProviderFactory<F> providerFactory : factories) {
+                    final Set<String> names = namesOf.get(providerFactory);
+                    if (names == null || names.contains(name)) {
+                        candidates.add(providerFactory);
+                    }
+                }
+                byMechanism.put(name, Collections.unmodifiableList(candidates));
+            }
+            this.factories = Collections.unmodifiableList(factories);
+            this.byMechanism = byMechanism;
+        }
+
+        boolean isCurrent(final Provider[] providers) {
+            if (providers.length != this.providers.length) {
+                return false;
+            }
+            for (int i = 0; i < providers.length; i++) {
+                if (providers[i] != this.providers[i] || providers[i].getServices() != services[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Get all the factories, in provider and service order.
+         *
+         * @return the factories (not {@code null})
+         */
+        public List<ProviderFactory<F>> getFactories() {
+            return factories;
+        }
+
+        /**
+         * Get the factories which may support the given mechanism, in provider and service order. If no factory reported the
+         * mechanism, all the factories are returned, as a factory may support mechanisms it does not report.
+         *
+         * @param mechanismName the mechanism name (must not be {@code null})
+         * @return the factories which may support the mechanism (not {@code null})
+         */
+        public List<ProviderFactory<F>> getFactories(final String mechanismName) {
+            return byMechanism.getOrDefault(mechanismName, factories);
+        }
+    }
+
+    /**
+     * A factory along with the provider which provides it.
+     *
+     * @param <F> the factory type
+     */
+    public static final class ProviderFactory<F> {
+
+        private final Provider provider;
+        private final F factory;
+
+        ProviderFactory(final Provider provider, final F factory) {
+            this.provider = provider;
+            this.factory = factory;
+        }
+
+        /**
+         * Get the provider of the factory.
+         *
+         * @return the provider of the factory
+         */
+        public Provider getProvider() {
+            return provider;
+        }
+
+        /**
+         * Get the factory.
+         *
+         * @return the factory
+         */
+        public F getFactory() {
+            return factory;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.security.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link FileAuditEndpoint}.
+ */
+public class FileAuditEndpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSynchronousWrite() throws Exception {
+        Path location = folder.getRoot().toPath().resolve("audit.log");
+        AuditEndpoint endpoint = FileAuditEndpoint.builder()
+                .setLocation(location)
+                .setDateFormatSupplier(() -> new SimpleDateFormat("yyyy-MM-dd"))
+                .build();
+
+        endpoint.accept(EventPriority.WARNING, "first");
+        endpoint.accept(EventPriority.INFORMATIONAL, "second");
+        endpoint.close();
+
+        List<String> lines = Files.readAllLines(location, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0), lines.get(0).matches("\\d{4}-\\d{2}-\\d{2},WARNING,first"));
+        assertTrue(lines.get(1), lines.get(1).endsWith(",INFORMATIONAL,second"));
+    }
+
+    @Test
+    public void testAsynchronousWrite() throws Exception {
+        Path location = folder.getRoot().toPath().resolve("audit.log");
+        AuditEndpoint endpoint = FileAuditEndpoint.builder()
+                .setLocation(location)
+                .setAsynchronous(true)
+                .setQueueCapacity(64)
+                .build();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 1000; i++) {
+                        endpoint.accept(EventPriority.INFORMATIONAL, "event-" + thread + "-" + i);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        endpoint.close();
+
+        List<String> lines = Files.readAllLines(location, StandardCharsets.UTF_8);
+        assertEquals(8000, lines.size());
+        assertEquals(8000, lines.stream().distinct().count());
+        assertEquals(0, ((FileAuditEndpoint) endpoint).getDiscardedEventCount());
+
+        // events accepted after close are ignored
+        endpoint.accept(EventPriority.INFORMATIONAL, "late");
+        assertEquals(8000, Files.readAllLines(location, StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void testSizeRotation() throws Exception {
+        testSizeRotation(false);
+        testSizeRotation(true);
+    }
+
+    private void testSizeRotation(boolean asynchronous) throws Exception {
+        Path directory = folder.newFolder().toPath();
+        Path location = directory.resolve("audit.log");
+        AuditEndpoint endpoint = FileAuditEndpoint.builder()
+                .setLocation(location)
+                .setDateFormatSupplier(() -> new SimpleDateFormat("yyyy"))
+                .setAsynchronous(asynchronous)
+                .setRotateSize(100)
+                .build();
+
+        for (int i = 0; i < 50; i++) {
+            endpoint.accept(EventPriority.NOTICE, String.format("message-%02d", i));
+        }
+        endpoint.close();
+
+        List<Path> files = listFiles(directory);
+        assertTrue(files.size() > 1);
+
+        List<String> lines = new ArrayList<>();
+        for (Path file : files) {
+            assertTrue(file + " is too large", Files.size(file) <= 100);
+            lines.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+        }
+        assertEquals(50, lines.size());
+    }
+
+    @Test
+    public void testTimeRotation() throws Exception {
+        Path location = folder.getRoot().toPath().resolve("audit.log");
+        AuditEndpoint endpoint = FileAuditEndpoint.builder()
+                .setLocation(location)
+                .setAsynchronous(true)
+                .setSyncInterval(50)
+                .setRotateInterval(200)
+                .build();
+
+        endpoint.accept(EventPriority.NOTICE, "before");
+        Thread.sleep(300);
+        endpoint.accept(EventPriority.NOTICE, "after");
+        endpoint.close();
+
+        List<Path> files = listFiles(folder.getRoot().toPath());
+        assertEquals(2, files.size());
+        List<String> current = Files.readAllLines(location, StandardCharsets.UTF_8);
+        assertEquals(1, current.size());
+        assertTrue(current.get(0).endsWith(",after"));
+    }
+
+    @Test
+    public void testOverflowPolicies() throws Exception {
+        EventQueue discarding = new EventQueue(2, OverflowPolicy.DISCARD);
+        assertTrue(discarding.offer(event(EventPriority.DEBUG)));
+        assertTrue(discarding.offer(event(EventPriority.DEBUG)));
+        assertFalse(discarding.offer(event(EventPriority.EMERGENCY)));
+        assertEquals(1, discarding.getDiscardedCount());
+
+        EventQueue lowPriority = new EventQueue(2, OverflowPolicy.DISCARD_LOW_PRIORITY);
+        assertTrue(lowPriority.offer(event(EventPriority.DEBUG)));
+        assertTrue(lowPriority.offer(event(EventPriority.DEBUG)));
+        assertFalse(lowPriority.offer(event(EventPriority.NOTICE)));
+        assertEquals(1, lowPriority.getDiscardedCount());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> blocked = executor.submit(() -> lowPriority.offer(event(EventPriority.WARNING)));
+            Thread.sleep(100);
+            assertFalse(blocked.isDone());
+
+            List<EventQueue.Event> drained = new ArrayList<>();
+            assertEquals(2, lowPriority.drainTo(drained, 10));
+            assertTrue(blocked.get(10, TimeUnit.SECONDS));
+            assertEquals(1, lowPriority.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static EventQueue.Event event(EventPriority priority) {
+        return new EventQueue.Event(System.currentTimeMillis(), priority, priority.toString());
+    }
+
+    private static List<Path> listFiles(Path directory) throws IOException {
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.security.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the asynchronous mode of {@link SyslogAuditEndpoint}.
+ */
+public class SyslogAuditEndpointTest {
+
+    private static final InetAddress LOCALHOST = InetAddress.getLoopbackAddress();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    private ServerSocket serverSocket;
+    private Thread serverThread;
+
+    @After
+    public void stopServer() throws Exception {
+        if (serverSocket != null) {
+            serverSocket.close();
+            serverThread.join(5000);
+        }
+    }
+
+    @Test
+    public void testTcpBatching() throws Exception {
+        startTcpServer(0);
+        SyslogAuditEndpoint endpoint = (SyslogAuditEndpoint) SyslogAuditEndpoint.builder()
+                .setServerAddress(LOCALHOST)
+                .setPort(serverSocket.getLocalPort())
+                .setHostName("localhost")
+                .setAsynchronous(true)
+                .build();
+
+        for (int i = 0; i < 500; i++) {
+            endpoint.accept(EventPriority.WARNING, "event-" + i);
+        }
+        endpoint.close();
+
+        List<String> messages = take(500);
+        for (int i = 0; i < 500; i++) {
+            assertTrue(messages.get(i), messages.get(i).endsWith("event-" + i));
+        }
+        assertEquals(500, endpoint.getSentEventCount());
+        assertEquals(0, endpoint.getDiscardedEventCount());
+        assertEquals(0, endpoint.getQueueDepth());
+        assertTrue(endpoint.getAverageSendLatency() > 0);
+    }
+
+    @Test
+    public void testUdpCoalescing() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(0, LOCALHOST)) {
+            socket.setSoTimeout(10000);
+            SyslogAuditEndpoint endpoint = (SyslogAuditEndpoint) SyslogAuditEndpoint.builder()
+                    .setServerAddress(LOCALHOST)
+                    .setPort(socket.getLocalPort())
+                    .setHostName("localhost")
+                    .setTcp(false)
+                    .setAsynchronous(true)
+                    .setCoalesceDatagrams(true)
+                    .build();
+
+            for (int i = 0; i < 50; i++) {
+                endpoint.accept(EventPriority.NOTICE, "event-" + i);
+            }
+            endpoint.close();
+
+            List<String> messages = new ArrayList<>();
+            int datagrams = 0;
+            byte[] buffer = new byte[SyslogAuditEndpoint.MAX_DATAGRAM_SIZE];
+            while (messages.size() < 50) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+                datagrams++;
+                for (String message : new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8).split("\n")) {
+                    messages.add(message);
+                }
+            }
+            for (int i = 0; i < 50; i++) {
+                assertTrue(messages.get(i), messages.get(i).endsWith("event-" + i));
+            }
+            assertTrue("Expected messages to be coalesced, received " + datagrams + " datagrams", datagrams < 50);
+        }
+    }
+
+    @Test
+    public void testReconnectWithSpill() throws Exception {
+        int port;
+        try (ServerSocket unused = new ServerSocket(0, 50, LOCALHOST)) {
+            port = unused.getLocalPort();
+        }
+        Path spillLocation = folder.getRoot().toPath().resolve("syslog.spill");
+        SyslogAuditEndpoint endpoint = (SyslogAuditEndpoint) SyslogAuditEndpoint.builder()
+                .setServerAddress(LOCALHOST)
+                .setPort(port)
+                .setHostName("localhost")
+                .setAsynchronous(true)
+                .setSpillLocation(spillLocation)
+                .build();
+
+        for (int i = 0; i < 10; i++) {
+            endpoint.accept(EventPriority.ERROR, "event-" + i);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((endpoint.getQueueDepth() > 0 || Files.size(spillLocation) == 0) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, endpoint.getQueueDepth());
+        assertTrue(Files.size(spillLocation) > 0);
+
+        startTcpServer(port);
+        for (int i = 10; i < 15; i++) {
+            endpoint.accept(EventPriority.ERROR, "event-" + i);
+        }
+
+        List<String> messages = take(15);
+        for (int i = 0; i < 15; i++) {
+            assertTrue(messages.get(i), messages.get(i).endsWith("event-" + i));
+        }
+        endpoint.close();
+
+        assertEquals(15, endpoint.getSentEventCount());
+        assertEquals(0, Files.size(spillLocation));
+    }
+
+    private void startTcpServer(int port) throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(LOCALHOST, port));
+        serverThread = new Thread(() -> {
+            try {
+                for (;;) {
+                    try (Socket socket = serverSocket.accept()) {
+                        readFrames(socket.getInputStream());
+                    }
+                }
+            } catch (IOException ignored) {
+                // server closed
+            }
+        });
+        serverThread.start();
+    }
+
+    /**
+     * Read messages framed using octet counting, as defined by RFC 6587.
+     */
+    private void readFrames(InputStream inputStream) throws IOException {
+        DataInputStream input = new DataInputStream(inputStream);
+        for (;;) {
+            int length = 0;
+            int b;
+            while ((b = input.read()) != ' ') {
+                if (b == -1) {
+                    return;
+                }
+                length = length * 10 + (b - '0');
+            }
+            byte[] frame = new byte[length];
+            try {
+                input.readFully(frame);
+            } catch (EOFException e) {
+                return;
+            }
+            received.add(new String(frame, StandardCharsets.UTF_8));
+        }
+    }
+
+    private List<String> take(int count) throws Exception {
+        List<String> messages = new ArrayList<>();
+        while (messages.size() < count) {
+            String message = received.poll(20, TimeUnit.SECONDS);
+            if (message == null) {
+                throw new SocketTimeoutException("Received " + messages.size() + " of " + count + " messages");
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+}
@@ -26,6 +26,8 @@ import org.wildfly.security.auth.principal.NamePrincipal;
 import org.wildfly.security.auth.realm.FileSystemSecurityRealm;
 import org.wildfly.security.auth.server.CloseableIterator;
 import org.wildfly.security.auth.server.ModifiableRealmIdentity;
+import org.wildfly.security.auth.server.NameRewriter;
+import org.wildfly.security.auth.server.RealmIdentity;
 import org.wildfly.security.authz.Attributes;
 import org.wildfly.security.authz.AuthorizationIdentity;
 import org.wildfly.security.authz.MapAttributes;
@@ -67,6 +69,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -391,6 +394,102 @@ public class FileSystemSecurityRealmTest {
         getRootPath(); // will fail on windows if iterator not closed correctly
     }
 
+    @Test
+    public void testIndexedRealm() throws Exception {
+        FileSystemSecurityRealm securityRealm = new FileSystemSecurityRealm(getRootPath(), NameRewriter.IDENTITY_REWRITER, 2, true);
+        try {
+            ModifiableRealmIdentity newIdentity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("plainUser"));
+            newIdentity.create();
+            newIdentity.setCredentials(Collections.singleton(new PasswordCredential(createClearPassword("secretPassword"))));
+            MapAttributes newAttributes = new MapAttributes();
+            newAttributes.addFirst("name", "plainUser");
+            newIdentity.setAttributes(newAttributes);
+            newIdentity.dispose();
+
+            RealmIdentity identity = securityRealm.getRealmIdentity(new NamePrincipal("plainUser"));
+            assertTrue(identity.exists());
+            assertTrue(identity.verifyEvidence(new PasswordGuessEvidence("secretPassword".toCharArray())));
+            assertEquals("plainUser", identity.getAuthorizationIdentity().getAttributes().getFirst("name"));
+            identity.dispose();
+        } finally {
+            securityRealm.close();
+        }
+
+        securityRealm = new FileSystemSecurityRealm(getRootPath(false), NameRewriter.IDENTITY_REWRITER, 2, true);
+        try {
+            assertTrue(securityRealm.isIndexed());
+            ModifiableRealmIdentity existingIdentity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("plainUser"));
+            assertTrue(existingIdentity.exists());
+            assertTrue(existingIdentity.verifyEvidence(new PasswordGuessEvidence("secretPassword".toCharArray())));
+            existingIdentity.delete();
+            assertFalse(existingIdentity.exists());
+            existingIdentity.dispose();
+
+            assertFalse(securityRealm.getRealmIdentity(new NamePrincipal("plainUser")).exists());
+        } finally {
+            securityRealm.close();
+        }
+    }
+
+    @Test
+    public void testIndexedRealmPicksUpExternalChanges() throws Exception {
+        FileSystemSecurityRealm indexedRealm = new FileSystemSecurityRealm(getRootPath(), NameRewriter.IDENTITY_REWRITER, 2, true);
+        try {
+            FileSystemSecurityRealm otherRealm = new FileSystemSecurityRealm(getRootPath(false), 2);
+            ModifiableRealmIdentity newIdentity = otherRealm.getRealmIdentityForUpdate(new NamePrincipal("externalUser"));
+            newIdentity.create();
+            newIdentity.setCredentials(Collections.singleton(new PasswordCredential(createClearPassword("secretPassword"))));
+
+            RealmIdentity identity = indexedRealm.getRealmIdentity(new NamePrincipal("externalUser"));
+            assertTrue(await(() -> identity.verifyEvidence(new PasswordGuessEvidence("secretPassword".toCharArray()))));
+
+            newIdentity.delete();
+            newIdentity.dispose();
+
+            assertTrue(await(() -> ! identity.exists()));
+        } finally {
+            indexedRealm.close();
+        }
+    }
+
+    @Test
+    public void testIndexedRealmWithMissingRoot() throws Exception {
+        Path root = Files.createTempDirectory(getRootPath(), "index").resolve("missing");
+        FileSystemSecurityRealm indexedRealm = new FileSystemSecurityRealm(root, NameRewriter.IDENTITY_REWRITER, 2, true);
+        try {
+            assertTrue(indexedRealm.isIndexed());
+            assertTrue(Files.isDirectory(root));
+
+            FileSystemSecurityRealm otherRealm = new FileSystemSecurityRealm(root, 2);
+            ModifiableRealmIdentity newIdentity = otherRealm.getRealmIdentityForUpdate(new NamePrincipal("externalUser"));
+            newIdentity.create();
+            newIdentity.setCredentials(Collections.singleton(new PasswordCredential(createClearPassword("secretPassword"))));
+            newIdentity.dispose();
+
+            RealmIdentity identity = indexedRealm.getRealmIdentity(new NamePrincipal("externalUser"));
+            assertTrue(await(() -> identity.verifyEvidence(new PasswordGuessEvidence("secretPassword".toCharArray()))));
+        } finally {
+            indexedRealm.close();
+        }
+    }
+
+    private static Password createClearPassword(String password) throws Exception {
+        PasswordFactory factory = PasswordFactory.getInstance(ClearPassword.ALGORITHM_CLEAR);
+        return factory.generatePassword(new ClearPasswordSpec(password.toCharArray()));
+    }
+
+    private static boolean await(Callable<Boolean> condition) throws Exception {
+        // the watch service may poll, give it some time to report the change
+        long deadline = System.currentTimeMillis() + 30000;
+        while (! condition.call()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(50);
+        }
+        return true;
+    }
+
     private void assertCreateIdentityWithPassword(char[] actualPassword, Password credential) throws Exception {
         FileSystemSecurityRealm securityRealm = new FileSystemSecurityRealm(getRootPath(), 1);
         ModifiableRealmIdentity newIdentity = securityRealm.getRealmIdentityForUpdate(new NamePrincipal("plainUser"));
@@ -0,0 +1,286 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.security.auth;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.wildfly.security.WildFlyElytronProvider;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.auth.realm.FileSystemSecurityRealm;
+import org.wildfly.security.auth.realm.SegmentFileSecurityRealm;
+import org.wildfly.security.auth.server.CloseableIterator;
+import org.wildfly.security.auth.server.ModifiableRealmIdentity;
+import org.wildfly.security.auth.server.ModifiableSecurityRealm;
+import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.authz.MapAttributes;
+import org.wildfly.security.credential.PasswordCredential;
+import org.wildfly.security.evidence.PasswordGuessEvidence;
+import org.wildfly.security.password.Password;
+import org.wildfly.security.password.PasswordFactory;
+import org.wildfly.security.password.interfaces.ClearPassword;
+import org.wildfly.security.password.interfaces.SimpleDigestPassword;
+import org.wildfly.security.password.spec.ClearPasswordSpec;
+import org.wildfly.security.password.spec.EncryptablePasswordSpec;
+
+/**
+ * Tests for {@link SegmentFileSecurityRealm}.
+ */
+public class SegmentFileSecurityRealmTest {
+
+    private static final Provider provider = new WildFlyElytronProvider();
+
+    private Path directory;
+
+    @BeforeClass
+    public static void onBefore() throws Exception {
+        Security.addProvider(provider);
+    }
+
+    @AfterClass
+    public static void onAfter() throws Exception {
+        Security.removeProvider(provider.getName());
+    }
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("segment-realm");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void testCreateUpdateAndDelete() throws Exception {
+        Path file = directory.resolve("identities.seg");
+        try (SegmentFileSecurityRealm realm = new SegmentFileSecurityRealm(file)) {
+            createIdentity(realm, "plainUser", "secretPassword", "Employee", "Manager");
+            createIdentity(realm, "otherUser", "otherPassword", "Employee");
+            assertEquals(2, realm.size());
+        }
+
+        try (SegmentFileSecurityRealm realm = new SegmentFileSecurityRealm(file)) {
+            assertEquals(2, realm.size());
+            assertIdentity(realm, "plainUser", "secretPassword", "Employee", "Manager");
+            assertIdentity(realm, "otherUser", "otherPassword", "Employee");
+
+            ModifiableRealmIdentity identity = realm.getRealmIdentityForUpdate(new NamePrincipal("otherUser"));
+            identity.delete();
+            assertFalse(identity.exists());
+            identity.dispose();
+        }
+
+        try (SegmentFileSecurityRealm realm = new SegmentFileSecurityRealm(file)) {
+            assertEquals(1, realm.size());
+            assertFalse(realm.getRealmIdentity(new NamePrincipal("otherUser")).exists());
+            assertIdentity(realm, "plainUser", "secretPassword", "Employee", "Manager");
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        // a memory-mapped file can not be replaced on Windows
+        assumeFalse(System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows"));
+        Path file = directory.resolve("identities.seg");
+        try (SegmentFileSecurityRealm realm = new SegmentFileSecurityRealm(file)) {
+            createIdentity(realm, "plainUser", "password0", "Employee");
+            createIdentity(realm, "otherUser", "otherPassword", "Employee");
+            for (int i = 1; i <= 100; i++) {
+                ModifiableRealmIdentity identity = realm.getRealmIdentityForUpdate(new NamePrincipal("plainUser"));
+                identity.setCredentials(Collections.singleton(new PasswordCredential(createClearPassword("password" + i))));
+                identity.dispose();
+            }
+            long size = realm.getFileSize();
+
+            realm.compact();
+
+            assertTrue(realm.getFileSize() < size / 10);
+            assertEquals(Files.size(file), realm.getFileSize());
+            assertIdentity(realm, "plainUser", "password100", "Employee");
+            assertIdentity(realm, "otherUser", "otherPassword", "Employee");
+        }
+
+        try (SegmentFileSecurityRealm realm = new SegmentFileSecurityRealm(file)) {
+            assertIdentity(realm, "plainUser", "password100", "Employee");
+            assertIdentity(realm, "otherUser", "otherPassword", "Employee");
+        }
+    }
+
+    @Test
+    public void testIncompleteRecordDiscarded() throws Exception {
+        Path file = directory.resolve("identities.seg");
+        try (SegmentFileSecurityRealm realm = new SegmentFileSecurityRealm(file)) {
+            createIdentity(realm, "plainUser", "secretPassword", "Employee");
+        }
+        long size = Files.size(file);
+        Files.write(file, new byte[] { 0, 0, 1, 0, 1, 0, 0, 0, 9, 'p' }, APPEND);
+
+        try (SegmentFileSecurityRealm realm = new SegmentFileSecurityRealm(file)) {
+            assertEquals(size, Files.size(file));
+            assertIdentity(realm, "plainUser", "secretPassword", "Employee");
+            createIdentity(realm, "otherUser", "otherPassword", "Employee");
+        }
+
+        try (SegmentFileSecurityRealm realm = new SegmentFileSecurityRealm(file)) {
+            assertIdentity(realm, "plainUser", "secretPassword", "Employee");
+            assertIdentity(realm, "otherUser", "otherPassword", "Employee");
+        }
+    }
+
+    @Test
+    public void testCorruptRecordRejected() throws Exception {
+        Path file = directory.resolve("identities.seg");
+        try (SegmentFileSecurityRealm realm = new SegmentFileSecurityRealm(file)) {
+            createIdentity(realm, "plainUser", "secretPassword", "Employee");
+            createIdentity(realm, "otherUser", "otherPassword", "Employee");
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[20] ^= 1; // inside the first record
+        Files.write(file, bytes);
+
+        try {
+            new SegmentFileSecurityRealm(file).close();
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+        assertEquals(bytes.length, Files.size(file));
+    }
+
+    @Test
+    public void testFileGrowsAheadOfRecords() throws Exception {
+        Path file = directory.resolve("identities.seg");
+        try (SegmentFileSecurityRealm realm = new SegmentFileSecurityRealm(file)) {
+            createIdentity(realm, "plainUser", "secretPassword", "Employee");
+            assertTrue(Files.size(file) > realm.getFileSize());
+        }
+        long size = Files.size(file);
+
+        try (SegmentFileSecurityRealm realm = new SegmentFileSecurityRealm(file)) {
+            assertEquals(size, realm.getFileSize());
+            assertIdentity(realm, "plainUser", "secretPassword", "Employee");
+            for (int i = 0; i < 1000; i++) {
+                createIdentity(realm, "user" + i, "password" + i, "Employee");
+            }
+            assertIdentity(realm, "user999", "password999", "Employee");
+        }
+
+        try (SegmentFileSecurityRealm realm = new SegmentFileSecurityRealm(file)) {
+            assertEquals(1001, realm.size());
+            assertEquals(Files.size(file), realm.getFileSize());
+            assertIdentity(realm, "user0", "password0", "Employee");
+            assertIdentity(realm, "user999", "password999", "Employee");
+        }
+    }
+
+    @Test
+    public void testImportAndExport() throws Exception {
+        FileSystemSecurityRealm fileSystemRealm = new FileSystemSecurityRealm(directory.resolve("xml"), 2);
+        createIdentity(fileSystemRealm, "plainUser", "secretPassword", "Employee", "Manager");
+        createIdentity(fileSystemRealm, "otherUser", "otherPassword", "Employee");
+        ModifiableRealmIdentity digestIdentity = fileSystemRealm.getRealmIdentityForUpdate(new NamePrincipal("digestUser"));
+        digestIdentity.create();
+        PasswordFactory factory = PasswordFactory.getInstance(SimpleDigestPassword.ALGORITHM_SIMPLE_DIGEST_SHA_256);
+        Password digest = factory.generatePassword(new EncryptablePasswordSpec("digestPassword".toCharArray(), null));
+        digestIdentity.setCredentials(Collections.singleton(new PasswordCredential(digest)));
+        digestIdentity.dispose();
+
+        try (SegmentFileSecurityRealm realm = new SegmentFileSecurityRealm(directory.resolve("identities.seg"))) {
+            assertEquals(3, realm.importIdentities(fileSystemRealm));
+            assertIdentity(realm, "plainUser", "secretPassword", "Employee", "Manager");
+            assertIdentity(realm, "otherUser", "otherPassword", "Employee");
+            RealmIdentity identity = realm.getRealmIdentity(new NamePrincipal("digestUser"));
+            assertTrue(identity.verifyEvidence(new PasswordGuessEvidence("digestPassword".toCharArray())));
+
+            int count = 0;
+            try (CloseableIterator<ModifiableRealmIdentity> iterator = realm.getRealmIdentityIterator()) {
+                while (iterator.hasNext()) {
+                    ModifiableRealmIdentity next = iterator.next();
+                    assertTrue(next.exists());
+                    next.dispose();
+                    count++;
+                }
+            }
+            assertEquals(3, count);
+
+            FileSystemSecurityRealm exported = new FileSystemSecurityRealm(directory.resolve("exported"), 1);
+            assertEquals(3, realm.exportIdentities(exported));
+            assertIdentity(exported, "plainUser", "secretPassword", "Employee", "Manager");
+            assertIdentity(exported, "otherUser", "otherPassword", "Employee");
+        }
+    }
+
+    private static void createIdentity(ModifiableSecurityRealm realm, String name, String password, String... roles) throws Exception {
+        ModifiableRealmIdentity identity = realm.getRealmIdentityForUpdate(new NamePrincipal(name));
+        identity.create();
+        identity.setCredentials(Collections.singleton(new PasswordCredential(createClearPassword(password))));
+        MapAttributes attributes = new MapAttributes();
+        attributes.addAll("roles", Arrays.asList(roles));
+        identity.setAttributes(attributes);
+        identity.dispose();
+    }
+
+    private static void assertIdentity(ModifiableSecurityRealm realm, String name, String password, String... roles) throws Exception {
+        RealmIdentity identity = realm.getRealmIdentity(new NamePrincipal(name));
+        assertTrue(identity.exists());
+        assertTrue(identity.verifyEvidence(new PasswordGuessEvidence(password.toCharArray())));
+        assertFalse(identity.verifyEvidence(new PasswordGuessEvidence("wrongPassword".toCharArray())));
+        assertEquals(new HashSet<>(Arrays.asList(roles)), new HashSet<>(identity.getAuthorizationIdentity().getAttributes().get("roles")));
+        identity.dispose();
+    }
+
+    private static Password createClearPassword(String password) throws Exception {
+        PasswordFactory factory = PasswordFactory.getInstance(ClearPassword.ALGORITHM_CLEAR);
+        return factory.generatePassword(new ClearPasswordSpec(password.toCharArray()));
+    }
+}
@@ -16,6 +16,7 @@
 package org.wildfly.security.auth.client;
 
 import static org.junit.Assert.*;
+import java.net.URI;
 import java.security.GeneralSecurityException;
 import javax.net.ssl.SSLContext;
 import org.junit.Ignore;
@@ -342,4 +343,43 @@ public final class AuthenticationContextTest {
         // assertEquals(expectedRule, rn.getRule());
     }
 
+    @Test
+    public void indexedRuleMatchingIsFirstMatch() {
+        MatchRule[] rules = {
+                MatchRule.ALL.matchHost("host1").matchPort(8080),
+                MatchRule.ALL.matchProtocol("https").matchPurpose("purpose1"),
+                MatchRule.ALL.matchHost("HOST1"),
+                MatchRule.ALL.matchHost("127.0.0.1").matchAbstractType("type1", "authority1"),
+                MatchRule.ALL.matchHost("::1"),
+                MatchRule.ALL.matchProtocol("http").matchPath("/app"),
+                MatchRule.ALL.matchPort(9090),
+                MatchRule.ALL.matchLocalSecurityDomain("domain1"),
+                MatchRule.ALL.matchHost("host2").matchUser("user1"),
+                MatchRule.ALL.matchProtocol("remote"),
+                MatchRule.ALL.matchHost("host2"),
+        };
+        AuthenticationContext ctx = AuthenticationContext.empty();
+        for (int i = 0; i < rules.length; i++) {
+            ctx = ctx.with(rules[i], AuthenticationConfiguration.EMPTY.useName("name" + i));
+        }
+        String[] uris = {
+                "http://host1:8080/", "http://Host1/", "https://host1/", "https://host3/", "http://127.0.0.1/", "http://[::1]:9090/",
+                "http://[0:0:0:0:0:0:0:1]/", "http://host3/app/x", "http://host3/other", "remote://host3:9090", "domain:domain1",
+                "domain:other", "remote://user1@host2", "remote://user2@host2", "ldap://host4", "other:thing", "/relative",
+        };
+        for (int repeat = 0; repeat < 2; repeat++) {
+            for (String uri : uris) {
+                for (String purpose : new String[] { "purpose1", "purpose2" }) {
+                    for (String type : new String[] { null, "type1" }) {
+                        URI u = URI.create(uri);
+                        RuleNode<AuthenticationConfiguration> expected = ctx.authRules;
+                        while (expected != null && ! expected.getRule().matches(u, type, "authority1", purpose)) {
+                            expected = expected.getNext();
+                        }
+                        assertSame(uri + " " + purpose + " " + type, expected, ctx.authRuleMatching(u, type, "authority1", purpose));
+                    }
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.wildfly.security.auth.realm.IdentitySharedExclusiveLock.IdentityLock;
+
+/**
+ * Tests for {@link IdentityLockManager}.
+ */
+public class IdentityLockManagerTest {
+
+    @Test
+    public void testEntriesRemovedWhenReleased() {
+        IdentityLockManager manager = new IdentityLockManager();
+        IdentityLock first = manager.lockShared("user");
+        IdentityLock second = manager.lockShared("user");
+        IdentityLock other = manager.lockExclusive("other");
+        assertEquals(2, manager.size());
+
+        first.release();
+        assertFalse(first.isValid());
+        first.release();
+        assertEquals(2, manager.size());
+        second.release();
+        assertEquals(1, manager.size());
+        other.release();
+        assertEquals(0, manager.size());
+
+        assertEquals(2, manager.getSharedAcquisitionCount());
+        assertEquals(1, manager.getExclusiveAcquisitionCount());
+        assertEquals(0, manager.getContendedAcquisitionCount());
+    }
+
+    @Test
+    public void testIdentitiesLockedIndependently() throws Exception {
+        IdentityLockManager manager = new IdentityLockManager();
+        try (IdentityLock ignored = manager.lockExclusive("user")) {
+            IdentityLock other = manager.tryLockExclusive("other", 0, TimeUnit.MILLISECONDS);
+            assertNotNull(other);
+            other.release();
+        }
+    }
+
+    @Test
+    public void testTimedAcquisition() throws Exception {
+        IdentityLockManager manager = new IdentityLockManager();
+        IdentityLock exclusive = manager.lockExclusive("user");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertNull(executor.submit(() -> manager.tryLockShared("user", 10, TimeUnit.MILLISECONDS)).get());
+            assertNull(executor.submit(() -> manager.tryLockExclusive("user", 10, TimeUnit.MILLISECONDS)).get());
+            assertEquals(2, manager.getTimeoutCount());
+            assertEquals(1, manager.size());
+
+            Future<IdentityLock> waiting = executor.submit(() -> manager.tryLockShared("user", 10, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            exclusive.release();
+            IdentityLock shared = waiting.get();
+            assertNotNull(shared);
+            assertFalse(shared.isExclusive());
+            shared.release();
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, manager.size());
+        assertEquals(3, manager.getContendedAcquisitionCount());
+        assertTrue(manager.getTotalWaitTime() > 0);
+    }
+
+    @Test
+    public void testOptimisticRead() throws Exception {
+        IdentityLockManager manager = new IdentityLockManager();
+        assertEquals("value", manager.readOptimistically("user", () -> "value"));
+        assertEquals(1, manager.getOptimisticReadCount());
+        assertEquals(0, manager.getOptimisticReadFailureCount());
+        assertEquals(0, manager.getSharedAcquisitionCount());
+
+        // a write overlapping the read forces it to be repeated under the shared lock
+        AtomicInteger attempts = new AtomicInteger();
+        String value = manager.readOptimistically("user", () -> {
+            if (attempts.incrementAndGet() == 1) {
+                CountDownLatch written = new CountDownLatch(1);
+                new Thread(() -> {
+                    manager.lockExclusive("user").release();
+                    written.countDown();
+                }).start();
+                written.await();
+                return "stale";
+            }
+            return "fresh";
+        });
+        assertEquals("fresh", value);
+        assertEquals(2, attempts.get());
+        assertEquals(1, manager.getOptimisticReadFailureCount());
+        assertEquals(1, manager.getSharedAcquisitionCount());
+        assertEquals(0, manager.size());
+    }
+
+    @Test
+    public void testConcurrentLocking() throws Exception {
+        IdentityLockManager manager = new IdentityLockManager();
+        int[] counter = new int[1];
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] futures = new Future<?>[4];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(() -> {
+                    for (int j = 0; j < 10000; j++) {
+                        try (IdentityLock ignored = manager.lockExclusive("user")) {
+                            counter[0]++;
+                        }
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(40000, counter[0]);
+        assertEquals(40000, manager.getExclusiveAcquisitionCount());
+        assertEquals(0, manager.size());
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.wildfly.security.auth.SupportLevel;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.cache.SegmentedRealmIdentityCache;
+import org.wildfly.security.credential.Credential;
+import org.wildfly.security.evidence.Evidence;
+
+/**
+ * Tests for {@link SegmentedRealmIdentityCache}.
+ */
+public class SegmentedRealmIdentityCacheTest {
+
+    @Test
+    public void testMaxEntries() {
+        SegmentedRealmIdentityCache cache = new SegmentedRealmIdentityCache(64, -1, 4);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new NamePrincipal("user" + i), createRealmIdentity(null));
+            assertTrue(cache.size() <= 64);
+        }
+
+        assertEquals(1000 - cache.size(), cache.getEvictionCount());
+        assertNotNull(cache.get(new NamePrincipal("user999")));
+        assertNull(cache.get(new NamePrincipal("user0")));
+    }
+
+    @Test
+    public void testRecentlyUsedEntriesSurvive() {
+        SegmentedRealmIdentityCache cache = new SegmentedRealmIdentityCache(5, -1, 1);
+        List<Principal> principals = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            Principal principal = new NamePrincipal("user" + i);
+            principals.add(principal);
+            cache.put(principal, createRealmIdentity(null));
+        }
+
+        Principal hot = principals.get(0);
+
+        for (int i = 5; i < 50; i++) {
+            assertNotNull(cache.get(hot));
+            cache.put(new NamePrincipal("user" + i), createRealmIdentity(null));
+        }
+
+        assertNotNull(cache.get(hot));
+        assertNull(cache.get(principals.get(1)));
+    }
+
+    @Test
+    public void testRemoveByRealmPrincipal() {
+        SegmentedRealmIdentityCache cache = new SegmentedRealmIdentityCache(16);
+        NamePrincipal realmPrincipal = new NamePrincipal("joe");
+        RealmIdentity identity = createRealmIdentity(realmPrincipal);
+
+        cache.put(new NamePrincipal("joe@domain"), identity);
+        cache.put(new NamePrincipal("JOE"), identity);
+
+        assertSame(identity, cache.get(realmPrincipal));
+
+        cache.remove(realmPrincipal);
+
+        assertNull(cache.get(new NamePrincipal("joe@domain")));
+        assertNull(cache.get(new NamePrincipal("JOE")));
+        assertNull(cache.get(realmPrincipal));
+    }
+
+    @Test
+    public void testRemoveAndClear() {
+        SegmentedRealmIdentityCache cache = new SegmentedRealmIdentityCache(16);
+
+        for (int i = 0; i < 5; i++) {
+            cache.put(new NamePrincipal("user" + i), createRealmIdentity(new NamePrincipal("user" + i)));
+        }
+
+        cache.remove(new NamePrincipal("user3"));
+        assertNull(cache.get(new NamePrincipal("user3")));
+        assertNotNull(cache.get(new NamePrincipal("user4")));
+
+        cache.clear();
+
+        for (int i = 0; i < 5; i++) {
+            assertNull(cache.get(new NamePrincipal("user" + i)));
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        SegmentedRealmIdentityCache cache = new SegmentedRealmIdentityCache(16, 100);
+        NamePrincipal principal = new NamePrincipal("joe");
+
+        cache.put(principal, createRealmIdentity(principal));
+        assertNotNull(cache.get(principal));
+
+        Thread.sleep(200);
+
+        assertNull(cache.get(principal));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testStatistics() {
+        SegmentedRealmIdentityCache cache = new SegmentedRealmIdentityCache(16);
+        NamePrincipal principal = new NamePrincipal("joe");
+
+        assertNull(cache.get(principal));
+        cache.put(principal, createRealmIdentity(principal));
+        assertNotNull(cache.get(principal));
+        assertNotNull(cache.get(principal));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        SegmentedRealmIdentityCache cache = new SegmentedRealmIdentityCache(100);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 10000; i++) {
+                        NamePrincipal principal = new NamePrincipal("user" + random.nextInt(500));
+                        if (cache.get(principal) == null) {
+                            cache.put(principal, createRealmIdentity(principal));
+                        }
+                        if (i % 100 == 0) {
+                            cache.remove(principal);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(cache.size() <= 100);
+        assertEquals(80000, cache.getHitCount() + cache.getMissCount());
+    }
+
+    private static RealmIdentity createRealmIdentity(Principal realmPrincipal) {
+        return new RealmIdentity() {
+            @Override
+            public Principal getRealmIdentityPrincipal() {
+                return realmPrincipal;
+            }
+
+            @Override
+            public SupportLevel getCredentialAcquireSupport(Class<? extends Credential> credentialType, String algorithmName) throws RealmUnavailableException {
+                return null;
+            }
+
+            @Override
+            public <C extends Credential> C getCredential(Class<C> credentialType) throws RealmUnavailableException {
+                return null;
+            }
+
+            @Override
+            public SupportLevel getEvidenceVerifySupport(Class<? extends Evidence> evidenceType, String algorithmName) throws RealmUnavailableException {
+                return null;
+            }
+
+            @Override
+            public boolean verifyEvidence(Evidence evidence) throws RealmUnavailableException {
+                return false;
+            }
+
+            @Override
+            public boolean exists() throws RealmUnavailableException {
+                return true;
+            }
+        };
+    }
+}
@@ -32,6 +32,7 @@ import java.sql.Statement;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.auth.realm.jdbc.mapper.AttributeMapper;
 import org.wildfly.security.auth.realm.jdbc.mapper.PasswordKeyMapper;
 import org.wildfly.security.auth.server.RealmIdentity;
 import org.wildfly.security.auth.SupportLevel;
@@ -209,6 +210,34 @@ public class PasswordSupportTest {
         assertArrayEquals(password.getSalt(), storedPassword.getSalt());
     }
 
+    @Test
+    public void testVerifyAndObtainSaltedDigestPasswordCredentialFromBinaryColumns() throws Exception {
+        String algorithm = SaltedSimpleDigestPassword.ALGORITHM_SALT_PASSWORD_DIGEST_SHA_512;
+        String userName = "john";
+        String userPassword = "salted_digest_abcd1234";
+
+        SaltedSimpleDigestPassword password = createSaltedDigestPasswordTable(algorithm, userName, userPassword, "VARBINARY(64)");
+
+        JdbcSecurityRealm securityRealm = JdbcSecurityRealm.builder()
+                .principalQuery("SELECT digest, salt FROM user_salted_digest_password where name = ?")
+                .withMapper(PasswordKeyMapper.builder().setDefaultAlgorithm(algorithm).setHashColumn(1).setSaltColumn(2).build())
+                .withMapper(new AttributeMapper(2, "salt"))
+                .from(dataSourceRule.getDataSource())
+                .build();
+
+        RealmIdentity realmIdentity = securityRealm.getRealmIdentity(new NamePrincipal(userName));
+
+        assertEquals(SupportLevel.SUPPORTED, realmIdentity.getCredentialAcquireSupport(PasswordCredential.class, algorithm));
+        assertTrue(realmIdentity.verifyEvidence(new PasswordGuessEvidence(userPassword.toCharArray())));
+
+        SaltedSimpleDigestPassword storedPassword = realmIdentity.getCredential(PasswordCredential.class, algorithm).getPassword(SaltedSimpleDigestPassword.class);
+
+        assertArrayEquals(password.getDigest(), storedPassword.getDigest());
+        assertArrayEquals(password.getSalt(), storedPassword.getSalt());
+        // the attribute is the string the driver gives for the binary column, not the string of a copied array
+        assertFalse(realmIdentity.getAuthorizationIdentity().getAttributes().getFirst("salt").startsWith("[B@"));
+    }
+
     @Test
     public void testVerifySimpleDigestPasswordCredential() throws Exception {
         assertVerifyAndObtainSimpleDigestPasswordSHA512Credential(SimpleDigestPassword.ALGORITHM_SIMPLE_DIGEST_SHA_512);
@@ -282,12 +311,16 @@ public class PasswordSupportTest {
     }
 
     private SaltedSimpleDigestPassword createSaltedDigestPasswordTable(String algorithm, String userName, String userPassword) throws Exception {
+        return createSaltedDigestPasswordTable(algorithm, userName, userPassword, "OTHER");
+    }
+
+    private SaltedSimpleDigestPassword createSaltedDigestPasswordTable(String algorithm, String userName, String userPassword, String columnType) throws Exception {
         try (
             Connection connection = dataSourceRule.getDataSource().getConnection();
             Statement statement = connection.createStatement();
         ) {
             statement.executeUpdate("DROP TABLE IF EXISTS user_salted_digest_password");
-            statement.executeUpdate("CREATE TABLE user_salted_digest_password ( id INTEGER IDENTITY, name VARCHAR(100), digest OTHER, salt OTHER)");
+            statement.executeUpdate("CREATE TABLE user_salted_digest_password ( id INTEGER IDENTITY, name VARCHAR(100), digest " + columnType + ", salt " + columnType + ")");
         }
 
         try (
@@ -0,0 +1,351 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.security.auth.realm.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.Provider;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.security.auth.x500.X500Principal;
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.wildfly.security.auth.SupportLevel;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.auth.realm.jdbc.mapper.AttributeMapper;
+import org.wildfly.security.auth.realm.jdbc.mapper.PasswordKeyMapper;
+import org.wildfly.security.auth.server.CloseableIterator;
+import org.wildfly.security.auth.server.RealmIdentity;
+import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.authz.Attributes;
+import org.wildfly.security.credential.Credential;
+import org.wildfly.security.credential.PasswordCredential;
+import org.wildfly.security.evidence.PasswordGuessEvidence;
+import org.wildfly.security.password.interfaces.ClearPassword;
+
+/**
+ * Tests that identities are loaded executing each distinct statement at most once, and only when a query of its data source is
+ * needed, using a single connection per data source, and that batch lookups and identity iteration execute statements once per
+ * batch of principals.
+ */
+public class QueryExecutionTest extends AbstractJdbcSecurityRealmTest {
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger statements = new AtomicInteger();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger maxOpenConnections = new AtomicInteger();
+
+    @Test
+    public void testEachStatementExecutedOnce() throws Exception {
+        createUserTable();
+        createRoleTable();
+        createRoleMappingTable();
+        insertUser("plainUser", "plainPassword", "John", "Smith", "jsmith@elytron.org");
+        insertUserRole("plainUser", "admin");
+        insertUserRole("plainUser", "manager");
+
+        DataSource dataSource = countingDataSource(getDataSource());
+        PasswordKeyMapper passwordKeyMapper = PasswordKeyMapper.builder()
+                .setDefaultAlgorithm(ClearPassword.ALGORITHM_CLEAR)
+                .setHashColumn(1)
+                .build();
+
+        JdbcSecurityRealm securityRealm = JdbcSecurityRealm.builder()
+                .principalQuery("SELECT password, firstName, lastName FROM user_table WHERE name = ?")
+                    .withMapper(passwordKeyMapper)
+                    .withMapper(new AttributeMapper(2, "firstName"))
+                    .from(dataSource)
+                .principalQuery("SELECT password, firstName, lastName FROM user_table WHERE name = ?")
+                    .withMapper(new AttributeMapper(3, "lastName"))
+                    .from(dataSource)
+                .principalQuery("SELECT role_name FROM role_mapping_table WHERE user_name = ?")
+                    .withMapper(new AttributeMapper(1, "roles"))
+                    .from(dataSource)
+                .build();
+
+        RealmIdentity identity = securityRealm.getRealmIdentity(new NamePrincipal("plainUser"));
+
+        assertEquals(SupportLevel.SUPPORTED, identity.getCredentialAcquireSupport(PasswordCredential.class, ClearPassword.ALGORITHM_CLEAR));
+        // the statements of the data source are executed together and the connection is released right away
+        assertEquals(1, connections.get());
+        assertEquals(2, statements.get());
+        assertEquals(0, openConnections.get());
+
+        assertTrue(identity.exists());
+        assertTrue(identity.verifyEvidence(new PasswordGuessEvidence("plainPassword".toCharArray())));
+        assertTrue(identity.getCredential(PasswordCredential.class) != null);
+
+        Attributes attributes = identity.getAuthorizationIdentity().getAttributes();
+        assertEquals("John", attributes.getFirst("firstName"));
+        assertEquals("Smith", attributes.getFirst("lastName"));
+        assertEquals(2, attributes.get("roles").size());
+
+        // nothing is left to execute
+        assertEquals(1, connections.get());
+        assertEquals(2, statements.get());
+        assertEquals(0, openConnections.get());
+
+        List<JdbcSecurityRealm.QueryMetrics> metrics = securityRealm.getQueryMetrics();
+        assertEquals(2, metrics.size());
+        for (JdbcSecurityRealm.QueryMetrics queryMetrics : metrics) {
+            assertEquals(1, queryMetrics.getExecutionCount());
+            assertTrue(queryMetrics.getTotalExecutionTime() > 0);
+            assertTrue(queryMetrics.getMaxExecutionTime() <= queryMetrics.getTotalExecutionTime());
+        }
+    }
+
+    @Test
+    public void testBatchLookup() throws Exception {
+        createUserTable();
+        createRoleTable();
+        createRoleMappingTable();
+        for (int i = 0; i < 5; i++) {
+            insertUser("user" + i, "password" + i, "John", "Smith", "jsmith@elytron.org");
+        }
+        insertUserRole("user1", "admin");
+        insertUserRole("user1", "manager");
+        insertUserRole("user3", "employee");
+
+        DataSource dataSource = countingDataSource(getDataSource());
+        JdbcSecurityRealm securityRealm = JdbcSecurityRealm.builder()
+                .setBatchSize(2)
+                .principalQuery("SELECT password, firstName FROM user_table WHERE name = ?")
+                    .batchQuery("SELECT password, firstName, name FROM user_table WHERE name IN (?)")
+                    .withMapper(PasswordKeyMapper.builder().setDefaultAlgorithm(ClearPassword.ALGORITHM_CLEAR).setHashColumn(1).build())
+                    .withMapper(new AttributeMapper(2, "firstName"))
+                    .from(dataSource)
+                .principalQuery("SELECT role_name FROM role_mapping_table WHERE user_name = ?")
+                    .withMapper(new AttributeMapper(1, "roles"))
+                    .from(dataSource)
+                .build();
+
+        List<RealmIdentity> identities = securityRealm.getRealmIdentities(Arrays.asList(new NamePrincipal("user0"),
+                new NamePrincipal("user1"), new X500Principal("CN=user2"), new NamePrincipal("user2"), new NamePrincipal("missing"),
+                new NamePrincipal("user3"), new NamePrincipal("user4")));
+
+        assertEquals(7, identities.size());
+        assertEquals(3, connections.get());
+        assertEquals(6, statements.get());
+
+        assertSame(RealmIdentity.NON_EXISTENT, identities.get(2));
+        assertFalse(identities.get(4).exists());
+        for (int i : new int[] { 0, 1, 3, 5, 6 }) {
+            RealmIdentity identity = identities.get(i);
+            String name = identity.getRealmIdentityPrincipal().getName();
+            assertTrue(identity.verifyEvidence(new PasswordGuessEvidence(name.replace("user", "password").toCharArray())));
+            assertEquals("John", identity.getAuthorizationIdentity().getAttributes().getFirst("firstName"));
+        }
+        assertEquals(2, identities.get(1).getAuthorizationIdentity().getAttributes().get("roles").size());
+        assertEquals(1, identities.get(5).getAuthorizationIdentity().getAttributes().get("roles").size());
+        assertTrue(identities.get(6).getAuthorizationIdentity().getAttributes().get("roles").isEmpty());
+
+        assertEquals(3, connections.get());
+        List<JdbcSecurityRealm.QueryMetrics> metrics = securityRealm.getQueryMetrics();
+        assertEquals(3, metrics.get(0).getExecutionCount());
+        assertEquals(6, metrics.get(1).getExecutionCount());
+    }
+
+    @Test
+    public void testBatchLookupWithResultSetKeyMapper() throws Exception {
+        createUserTable();
+        for (int i = 0; i < 3; i++) {
+            insertUser("user" + i, "password" + i, "John", "Smith", "jsmith@elytron.org");
+        }
+
+        PasswordKeyMapper passwordKeyMapper = PasswordKeyMapper.builder().setDefaultAlgorithm(ClearPassword.ALGORITHM_CLEAR).setHashColumn(1).build();
+        // a key mapper which only maps a whole result set
+        KeyMapper keyMapper = new KeyMapper() {
+            @Override
+            public SupportLevel getCredentialAcquireSupport(Class<? extends Credential> credentialType, String algorithmName) {
+                return passwordKeyMapper.getCredentialAcquireSupport(credentialType, algorithmName);
+            }
+
+            @Override
+            public SupportLevel getCredentialSupport(ResultSet resultSet, Supplier<Provider[]> providers) {
+                return passwordKeyMapper.getCredentialSupport(resultSet, providers);
+            }
+
+            @Override
+            public Credential map(ResultSet resultSet, Supplier<Provider[]> providers) throws SQLException {
+                return passwordKeyMapper.map(resultSet, providers);
+            }
+        };
+
+        DataSource dataSource = countingDataSource(getDataSource());
+        JdbcSecurityRealm securityRealm = JdbcSecurityRealm.builder()
+                .setBatchSize(3)
+                .principalQuery("SELECT password FROM user_table WHERE name = ?")
+                    .batchQuery("SELECT password, name FROM user_table WHERE name IN (?)")
+                    .withMapper(keyMapper)
+                    .from(dataSource)
+                .build();
+
+        List<RealmIdentity> identities = securityRealm.getRealmIdentities(Arrays.asList(new NamePrincipal("user0"),
+                new NamePrincipal("user1"), new NamePrincipal("user2")));
+
+        // the principal query is executed for each principal instead
+        assertEquals(1, connections.get());
+        assertEquals(3, securityRealm.getQueryMetrics().get(0).getExecutionCount());
+        for (RealmIdentity identity : identities) {
+            String name = identity.getRealmIdentityPrincipal().getName();
+            assertTrue(identity.verifyEvidence(new PasswordGuessEvidence(name.replace("user", "password").toCharArray())));
+        }
+    }
+
+    @Test
+    public void testIdentityIterator() throws Exception {
+        createUserTable();
+        for (int i = 0; i < 5; i++) {
+            insertUser("user" + i, "password" + i, "John", "Smith", "jsmith@elytron.org");
+        }
+
+        DataSource dataSource = countingDataSource(getDataSource());
+        JdbcSecurityRealm securityRealm = JdbcSecurityRealm.builder()
+                .setIdentityIteratorQuery("SELECT name FROM user_table ORDER BY name", dataSource)
+                .setFetchSize(2)
+                .setBatchSize(2)
+                .principalQuery("SELECT password FROM user_table WHERE name = ?")
+                    .batchQuery("SELECT password, name FROM user_table WHERE name IN (?)")
+                    .withMapper(PasswordKeyMapper.builder().setDefaultAlgorithm(ClearPassword.ALGORITHM_CLEAR).setHashColumn(1).build())
+                    .from(dataSource)
+                .build();
+
+        List<String> names = new ArrayList<>();
+        try (CloseableIterator<RealmIdentity> iterator = securityRealm.getRealmIdentityIterator()) {
+            while (iterator.hasNext()) {
+                RealmIdentity identity = iterator.next();
+                String name = identity.getRealmIdentityPrincipal().getName();
+                assertTrue(identity.verifyEvidence(new PasswordGuessEvidence(name.replace("user", "password").toCharArray())));
+                names.add(name);
+            }
+        }
+
+        assertEquals(Arrays.asList("user0", "user1", "user2", "user3", "user4"), names);
+        assertEquals(3, securityRealm.getQueryMetrics().get(0).getExecutionCount());
+        // the names are read before the batches are loaded, so a pool of a single connection is enough
+        assertEquals(4, connections.get());
+        assertEquals(1, maxOpenConnections.get());
+    }
+
+    @Test
+    public void testBatchLookupIgnoringCase() throws Exception {
+        try (
+                Connection connection = getDataSource().getConnection();
+                Statement statement = connection.createStatement();
+        ) {
+            statement.executeUpdate("DROP TABLE IF EXISTS role_mapping_table");
+            statement.executeUpdate("DROP TABLE IF EXISTS user_table");
+            statement.executeUpdate("CREATE TABLE user_table (name VARCHAR_IGNORECASE(100), password VARCHAR(50), firstName VARCHAR(50), lastName VARCHAR(50), email VARCHAR(50), PRIMARY KEY(name))");
+        }
+        insertUser("Alice", "password1", "Alice", "Smith", "asmith@elytron.org");
+        insertUser("Bob", "password2", "Bob", "Smith", "bsmith@elytron.org");
+
+        JdbcSecurityRealm securityRealm = JdbcSecurityRealm.builder()
+                .setBatchSize(3)
+                .principalQuery("SELECT password FROM user_table WHERE name = ?")
+                    .batchQuery("SELECT password, name FROM user_table WHERE name IN (?)")
+                    .withMapper(PasswordKeyMapper.builder().setDefaultAlgorithm(ClearPassword.ALGORITHM_CLEAR).setHashColumn(1).build())
+                    .from(getDataSource())
+                .build();
+
+        List<RealmIdentity> identities = securityRealm.getRealmIdentities(Arrays.asList(new NamePrincipal("alice"),
+                new NamePrincipal("ALICE"), new NamePrincipal("bob"), new NamePrincipal("carol")));
+
+        // both spellings of alice get the same rows, so they can not share a batch
+        assertEquals(2, securityRealm.getQueryMetrics().get(0).getExecutionCount());
+        assertTrue(identities.get(0).verifyEvidence(new PasswordGuessEvidence("password1".toCharArray())));
+        assertTrue(identities.get(1).verifyEvidence(new PasswordGuessEvidence("password1".toCharArray())));
+        assertTrue(identities.get(2).verifyEvidence(new PasswordGuessEvidence("password2".toCharArray())));
+        assertFalse(identities.get(3).exists());
+
+        // rows which can not be attributed to any principal are looked up again using the principal query
+        securityRealm = JdbcSecurityRealm.builder()
+                .setBatchSize(3)
+                .principalQuery("SELECT password FROM user_table WHERE name = ?")
+                    .batchQuery("SELECT password, CONCAT(name, '!') FROM user_table WHERE name IN (?)")
+                    .withMapper(PasswordKeyMapper.builder().setDefaultAlgorithm(ClearPassword.ALGORITHM_CLEAR).setHashColumn(1).build())
+                    .from(getDataSource())
+                .build();
+
+        identities = securityRealm.getRealmIdentities(Arrays.asList(new NamePrincipal("alice"), new NamePrincipal("bob"),
+                new NamePrincipal("carol")));
+
+        assertTrue(identities.get(0).verifyEvidence(new PasswordGuessEvidence("password1".toCharArray())));
+        assertTrue(identities.get(1).verifyEvidence(new PasswordGuessEvidence("password2".toCharArray())));
+        assertFalse(identities.get(2).exists());
+    }
+
+    @Test(expected = RealmUnavailableException.class)
+    public void testIdentityIteratorNotConfigured() throws Exception {
+        JdbcSecurityRealm.builder()
+                .principalQuery("SELECT password FROM user_table WHERE name = ?")
+                    .from(getDataSource())
+                .build()
+                .getRealmIdentityIterator();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchQueryWithoutParameter() {
+        JdbcSecurityRealm.builder()
+                .principalQuery("SELECT password FROM user_table WHERE name = ?")
+                    .batchQuery("SELECT password, name FROM user_table");
+    }
+
+    private DataSource countingDataSource(DataSource dataSource) {
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+            Object result = invoke(dataSource, method, args);
+            if ("getConnection".equals(method.getName())) {
+                connections.incrementAndGet();
+                maxOpenConnections.accumulateAndGet(openConnections.incrementAndGet(), Math::max);
+                Connection connection = (Connection) result;
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, (connectionProxy, connectionMethod, connectionArgs) -> {
+                    if ("prepareStatement".equals(connectionMethod.getName())) {
+                        statements.incrementAndGet();
+                    } else if ("close".equals(connectionMethod.getName())) {
+                        openConnections.decrementAndGet();
+                    }
+                    return invoke(connection, connectionMethod, connectionArgs);
+                });
+            }
+            return result;
+        });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
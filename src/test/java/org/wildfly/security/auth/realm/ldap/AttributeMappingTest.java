@@ -0,0 +1,55 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2026 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.ldap;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Test of the filters of {@link AttributeMapping} built using {@link AttributeMapping.Builder#useMatchingRuleInChain()}.
+ */
+public class AttributeMappingTest {
+
+    private static final String IN_CHAIN_FILTER = "(&(objectClass=group)(member:1.2.840.113556.1.4.1941:={1}))";
+
+    @Test
+    public void testMatchingRuleInChain() {
+        AttributeMapping mapping = AttributeMapping.fromFilter("(&(objectClass=group)(member={1}))").useMatchingRuleInChain().roleRecursion(5).from("cn").build();
+        assertEquals(IN_CHAIN_FILTER, mapping.getFilter());
+        assertEquals(0, mapping.getRoleRecursionDepth());
+    }
+
+    @Test
+    public void testMatchingRuleInChainBuiltTwice() {
+        AttributeMapping.Builder builder = AttributeMapping.fromFilter("(&(objectClass=group)(member={1}))").useMatchingRuleInChain().from("cn");
+        assertEquals(IN_CHAIN_FILTER, builder.build().getFilter());
+        assertEquals(IN_CHAIN_FILTER, builder.build().getFilter());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMatchingRuleInChainWithoutDnAssertion() {
+        AttributeMapping.fromFilter("(&(objectClass=group)(memberUid={0}))").useMatchingRuleInChain().from("cn").build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMatchingRuleInChainWithoutFilter() {
+        AttributeMapping.fromReference("memberOf").useMatchingRuleInChain().from("cn").build();
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+
+import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.LdapContext;
+import javax.security.auth.callback.CallbackHandler;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link PooledDirContextFactory}, pooling contexts of a stub {@link DirContextFactory}.
+ */
+public class PooledDirContextFactoryTest {
+
+    private final List<StubConnection> connections = new ArrayList<>();
+
+    @Test
+    public void testContextReused() throws Exception {
+        PooledDirContextFactory factory = builder().build();
+
+        DirContext context = factory.obtainDirContext(DirContextFactory.ReferralMode.IGNORE);
+        context.close();
+        context.close(); // closing twice must not release the connection twice
+        factory.obtainDirContext(DirContextFactory.ReferralMode.IGNORE).close();
+        factory.obtainDirContext(DirContextFactory.ReferralMode.FOLLOW).close();
+
+        PooledDirContextFactory.Pool pool = factory.getServiceAccountPool();
+        assertEquals(2, connections.size());
+        assertEquals(3, pool.getAcquireCount());
+        assertEquals(2, pool.getCreatedCount());
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(0, pool.getActiveCount());
+        assertFalse(connections.get(0).closed);
+
+        factory.close();
+        assertTrue(connections.get(0).closed);
+        assertTrue(connections.get(1).closed);
+        assertEquals(0, pool.getSize());
+    }
+
+    @Test
+    public void testPoolExhausted() throws Exception {
+        PooledDirContextFactory factory = builder().setMaxSize(1).setMaxWait(100).build();
+        PooledDirContextFactory.Pool pool = factory.getServiceAccountPool();
+
+        DirContext context = factory.obtainDirContext(DirContextFactory.ReferralMode.IGNORE);
+        assertEquals(1.0, pool.getUtilization(), 0.0);
+        try {
+            factory.obtainDirContext(DirContextFactory.ReferralMode.IGNORE);
+            fail("Expected NamingException not thrown");
+        } catch (NamingException expected) {
+        }
+        assertEquals(1, pool.getTimeoutCount());
+        assertTrue(pool.getMaxAcquireTime() >= 100_000_000L);
+
+        context.close();
+        // a connection idle for another referral mode is replaced rather than waited for
+        factory.obtainDirContext(DirContextFactory.ReferralMode.FOLLOW).close();
+        assertEquals(1, pool.getSize());
+        assertEquals(1, pool.getDestroyedCount());
+        factory.close();
+    }
+
+    @Test
+    public void testBrokenConnectionDiscarded() throws Exception {
+        PooledDirContextFactory factory = builder().setValidationInterval(0).build();
+
+        factory.obtainDirContext(DirContextFactory.ReferralMode.IGNORE).close();
+        connections.get(0).broken = true;
+        factory.obtainDirContext(DirContextFactory.ReferralMode.IGNORE).close();
+
+        assertEquals(2, connections.size());
+        assertTrue(connections.get(0).closed);
+        assertEquals(1, factory.getServiceAccountPool().getDestroyedCount());
+        factory.close();
+    }
+
+    @Test
+    public void testExpiredConnectionsClosed() throws Exception {
+        PooledDirContextFactory factory = builder().setMaxIdleTime(50).build();
+
+        factory.obtainDirContext(DirContextFactory.ReferralMode.IGNORE).close();
+        Thread.sleep(100);
+        factory.getServiceAccountPool().evict();
+
+        assertTrue(connections.get(0).closed);
+        assertEquals(0, factory.getServiceAccountPool().getSize());
+
+        factory.obtainDirContext(DirContextFactory.ReferralMode.IGNORE).close();
+        assertEquals(2, connections.size());
+        factory.close();
+    }
+
+    @Test
+    public void testIdentityBind() throws Exception {
+        PooledDirContextFactory factory = builder().build();
+        PooledDirContextFactory.PooledLdapContext context = (PooledDirContextFactory.PooledLdapContext) factory.obtainDirContext(DirContextFactory.ReferralMode.IGNORE);
+
+        context.authenticate("uid=joe", "secret".toCharArray());
+        context.authenticate("uid=joe", "secret".toCharArray());
+        try {
+            context.authenticate("uid=joe", "wrong".toCharArray());
+            fail("Expected AuthenticationException not thrown");
+        } catch (AuthenticationException expected) {
+        }
+        context.close();
+
+        PooledDirContextFactory.Pool pool = factory.getIdentityBindPool();
+        assertEquals(3, pool.getAcquireCount());
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(1, pool.getDestroyedCount());
+        assertEquals(2, connections.size());
+        assertNotSame(connections.get(0), connections.get(1));
+        assertEquals(Arrays.asList("uid=joe", "uid=joe", "uid=joe"), connections.get(1).binds);
+        assertFalse(connections.get(1).environment.containsKey(Context.SECURITY_CREDENTIALS));
+        assertEquals(0, factory.getServiceAccountPool().getActiveCount());
+        factory.close();
+    }
+
+    private PooledDirContextFactoryBuilder builder() {
+        return PooledDirContextFactoryBuilder.builder()
+                .setDirContextFactory(new StubDirContextFactory())
+                .setEvictionInterval(0);
+    }
+
+    private final class StubDirContextFactory implements DirContextFactory {
+
+        @Override
+        public DirContext obtainDirContext(ReferralMode mode) throws NamingException {
+            StubConnection connection = new StubConnection();
+            connections.add(connection);
+            LdapContext context = (LdapContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { LdapContext.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "close":
+                        connection.closed = true;
+                        return null;
+                    case "getAttributes":
+                        if (connection.broken) {
+                            throw new CommunicationException();
+                        }
+                        return null;
+                    case "addToEnvironment":
+                        return connection.environment.put((String) args[0], args[1]);
+                    case "removeFromEnvironment":
+                        return connection.environment.remove(args[0]);
+                    case "reconnect":
+                        connection.binds.add((String) connection.environment.get(Context.SECURITY_PRINCIPAL));
+                        if (! "secret".equals(new String((char[]) connection.environment.get(Context.SECURITY_CREDENTIALS)))) {
+                            throw new AuthenticationException();
+                        }
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+            return new DelegatingLdapContext(context, DirContext::close, null);
+        }
+
+        @Override
+        public DirContext obtainDirContext(CallbackHandler handler, ReferralMode mode) throws NamingException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void returnContext(DirContext context) {
+        }
+    }
+
+    private static final class StubConnection {
+        final Hashtable<String, Object> environment = new Hashtable<>();
+        final List<String> binds = new ArrayList<>();
+        volatile boolean closed;
+        volatile boolean broken;
+    }
+}
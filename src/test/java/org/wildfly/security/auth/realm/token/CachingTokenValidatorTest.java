@@ -0,0 +1,149 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.wildfly.security.auth.realm.token.validator.CachingTokenValidator;
+import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.authz.Attributes;
+import org.wildfly.security.authz.MapAttributes;
+import org.wildfly.security.evidence.BearerTokenEvidence;
+
+/**
+ * Tests for {@link CachingTokenValidator}.
+ */
+public class CachingTokenValidatorTest {
+
+    private final AtomicInteger validations = new AtomicInteger();
+
+    @Test
+    public void testValidTokenCached() throws Exception {
+        CachingTokenValidator validator = CachingTokenValidator.builder().validator(createValidator(60)).build();
+
+        for (int i = 0; i < 100; i++) {
+            Attributes attributes = validator.validate(new BearerTokenEvidence("valid"));
+            assertNotNull(attributes);
+            assertEquals("elytron", attributes.getFirst("sub"));
+        }
+
+        assertEquals(1, validations.get());
+        assertEquals(99, validator.getHitCount());
+        assertEquals(1, validator.getMissCount());
+        assertEquals(1, validator.size());
+    }
+
+    @Test
+    public void testExpirationClaimHonoured() throws Exception {
+        CachingTokenValidator validator = CachingTokenValidator.builder().validator(createValidator(1)).build();
+
+        assertNotNull(validator.validate(new BearerTokenEvidence("valid")));
+        assertNotNull(validator.validate(new BearerTokenEvidence("valid")));
+        assertEquals(1, validations.get());
+
+        Thread.sleep(2100);
+
+        validator.validate(new BearerTokenEvidence("valid"));
+        assertEquals(2, validations.get());
+        assertEquals(1, validator.getEvictionCount());
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        CachingTokenValidator validator = CachingTokenValidator.builder().validator(createValidator(60)).maxAge(100).build();
+
+        validator.validate(new BearerTokenEvidence("valid"));
+        Thread.sleep(200);
+        validator.validate(new BearerTokenEvidence("valid"));
+
+        assertEquals(2, validations.get());
+    }
+
+    @Test
+    public void testInvalidTokenCached() throws Exception {
+        CachingTokenValidator validator = CachingTokenValidator.builder().validator(createValidator(60)).build();
+
+        assertNull(validator.validate(new BearerTokenEvidence("invalid")));
+        assertNull(validator.validate(new BearerTokenEvidence("invalid")));
+
+        assertEquals(1, validations.get());
+        assertEquals(1, validator.getNegativeHitCount());
+    }
+
+    @Test
+    public void testNegativeCachingDisabled() throws Exception {
+        CachingTokenValidator validator = CachingTokenValidator.builder().validator(createValidator(60)).maxNegativeAge(0).build();
+
+        assertNull(validator.validate(new BearerTokenEvidence("invalid")));
+        assertNull(validator.validate(new BearerTokenEvidence("invalid")));
+
+        assertEquals(2, validations.get());
+        assertEquals(0, validator.size());
+    }
+
+    @Test
+    public void testFailureNotCached() throws Exception {
+        CachingTokenValidator validator = CachingTokenValidator.builder().validator(createValidator(60)).build();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                validator.validate(new BearerTokenEvidence("failure"));
+                fail("Expected exception not thrown");
+            } catch (RealmUnavailableException expected) {
+            }
+        }
+
+        assertEquals(2, validations.get());
+        assertEquals(0, validator.size());
+    }
+
+    @Test
+    public void testMaxEntries() throws Exception {
+        CachingTokenValidator validator = CachingTokenValidator.builder().validator(createValidator(60)).maxEntries(10).build();
+
+        for (int i = 0; i < 100; i++) {
+            validator.validate(new BearerTokenEvidence("valid" + i));
+            assertTrue(validator.size() <= 10);
+        }
+
+        assertEquals(90, validator.getEvictionCount());
+    }
+
+    private TokenValidator createValidator(int expirationOffset) {
+        return evidence -> {
+            validations.incrementAndGet();
+            if (evidence.getToken().startsWith("valid")) {
+                MapAttributes attributes = new MapAttributes();
+                attributes.addFirst("sub", "elytron");
+                attributes.addFirst("exp", Long.toString(System.currentTimeMillis() / 1000 + expirationOffset));
+                return attributes;
+            } else if (evidence.getToken().equals("failure")) {
+                throw new RealmUnavailableException();
+            }
+            return null;
+        };
+    }
+}
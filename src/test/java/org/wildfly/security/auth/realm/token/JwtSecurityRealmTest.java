@@ -35,11 +35,25 @@ import org.wildfly.security.pem.Pem;
 import org.wildfly.security.sasl.test.BaseTestCase;
 import org.wildfly.security.util.ByteStringBuilder;
 
+import com.sun.net.httpserver.HttpServer;
+
 import javax.json.Json;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonObjectBuilder;
+import java.io.File;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.PrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -205,11 +219,176 @@ public class JwtSecurityRealmTest extends BaseTestCase {
         assertFalse(realmIdentity.exists());
     }
 
+    @Test
+    public void testJsonWebKeySetFromFile() throws Exception {
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        KeyPair anotherKeyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        File jwks = File.createTempFile("jwks", ".json");
+        jwks.deleteOnExit();
+        Files.write(jwks.toPath(), createJwks("key-1", keyPair, "key-2", anotherKeyPair));
+
+        TokenSecurityRealm securityRealm = TokenSecurityRealm.builder()
+                .principalClaimName("sub")
+                .validator(JwtValidator.builder()
+                        .issuer("elytron-oauth2-realm")
+                        .audience("my-app-valid")
+                        .jsonWebKeySetUrl(jwks.toURI().toURL()).build())
+                .build();
+
+        assertTrue(securityRealm.getRealmIdentity(new BearerTokenEvidence(createJwt(keyPair, "key-1", 60, -1))).exists());
+        assertTrue(securityRealm.getRealmIdentity(new BearerTokenEvidence(createJwt(anotherKeyPair, "key-2", 60, -1))).exists());
+        assertTrue(securityRealm.getRealmIdentity(new BearerTokenEvidence(createJwt(keyPair, "key-1", 60, -1))).exists());
+        assertFalse(securityRealm.getRealmIdentity(new BearerTokenEvidence(createJwt(keyPair, "key-2", 60, -1))).exists());
+        assertFalse(securityRealm.getRealmIdentity(new BearerTokenEvidence(createJwt(keyPair, "unknown", 60, -1))).exists());
+    }
+
+    @Test
+    public void testJsonWebKeySetRotation() throws Exception {
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        KeyPair rotatedKeyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        AtomicInteger requests = new AtomicInteger();
+        byte[][] document = { createJwks("key-1", keyPair) };
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/jwks", exchange -> {
+            requests.incrementAndGet();
+            byte[] response = document[0];
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(response);
+            }
+        });
+        server.start();
+
+        try {
+            TokenSecurityRealm securityRealm = TokenSecurityRealm.builder()
+                    .principalClaimName("sub")
+                    .validator(JwtValidator.builder()
+                            .issuer("elytron-oauth2-realm")
+                            .audience("my-app-valid")
+                            .jsonWebKeySetUrl(new URL("http", "localhost", server.getAddress().getPort(), "/jwks"))
+                            .jsonWebKeySetMinimumRefetchInterval(0).build())
+                    .build();
+
+            for (int i = 0; i < 10; i++) {
+                assertTrue(securityRealm.getRealmIdentity(new BearerTokenEvidence(createJwt(keyPair, "key-1", 60, -1))).exists());
+            }
+            assertEquals(1, requests.get());
+
+            document[0] = createJwks("key-2", rotatedKeyPair);
+
+            assertTrue(securityRealm.getRealmIdentity(new BearerTokenEvidence(createJwt(rotatedKeyPair, "key-2", 60, -1))).exists());
+            assertEquals(2, requests.get());
+            assertFalse(securityRealm.getRealmIdentity(new BearerTokenEvidence(createJwt(keyPair, "key-1", 60, -1))).exists());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testJsonWebKeySetRefetchRateLimited() throws Exception {
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        File jwks = File.createTempFile("jwks", ".json");
+        jwks.deleteOnExit();
+        Files.write(jwks.toPath(), createJwks("key-1", keyPair));
+
+        TokenSecurityRealm securityRealm = TokenSecurityRealm.builder()
+                .principalClaimName("sub")
+                .validator(JwtValidator.builder()
+                        .issuer("elytron-oauth2-realm")
+                        .audience("my-app-valid")
+                        .jsonWebKeySetUrl(jwks.toURI().toURL())
+                        .jsonWebKeySetMinimumRefetchInterval(60000).build())
+                .build();
+
+        assertTrue(securityRealm.getRealmIdentity(new BearerTokenEvidence(createJwt(keyPair, "key-1", 60, -1))).exists());
+
+        KeyPair rotatedKeyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        Files.write(jwks.toPath(), createJwks("key-2", rotatedKeyPair));
+
+        // the key set was loaded too recently to be reloaded for an unknown key identifier
+        assertFalse(securityRealm.getRealmIdentity(new BearerTokenEvidence(createJwt(rotatedKeyPair, "key-2", 60, -1))).exists());
+        assertTrue(securityRealm.getRealmIdentity(new BearerTokenEvidence(createJwt(keyPair, "key-1", 60, -1))).exists());
+    }
+
+    @Test
+    public void testJsonWebKeySetFailedRefreshRateLimited() throws Exception {
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        AtomicInteger requests = new AtomicInteger();
+        byte[] document = createJwks("key-1", keyPair);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/jwks", exchange -> {
+            // only the first request succeeds, every background refresh fails
+            if (requests.incrementAndGet() == 1) {
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, document.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(document);
+                }
+            } else {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        try {
+            TokenSecurityRealm securityRealm = TokenSecurityRealm.builder()
+                    .principalClaimName("sub")
+                    .validator(JwtValidator.builder()
+                            .issuer("elytron-oauth2-realm")
+                            .audience("my-app-valid")
+                            .jsonWebKeySetUrl(new URL("http", "localhost", server.getAddress().getPort(), "/jwks"))
+                            .jsonWebKeySetRefreshInterval(0)
+                            .jsonWebKeySetMinimumRefetchInterval(500)
+                            .jsonWebKeySetExecutor(Runnable::run).build())
+                    .build();
+
+            assertTrue(securityRealm.getRealmIdentity(new BearerTokenEvidence(createJwt(keyPair, "key-1", 60, -1))).exists());
+            assertEquals(1, requests.get());
+
+            Thread.sleep(600);
+            for (int i = 0; i < 10; i++) {
+                // the current keys keep being used while the endpoint fails
+                assertTrue(securityRealm.getRealmIdentity(new BearerTokenEvidence(createJwt(keyPair, "key-1", 60, -1))).exists());
+            }
+            assertEquals(2, requests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private byte[] createJwks(Object... keyIdsAndKeyPairs) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        JsonArrayBuilder keys = Json.createArrayBuilder();
+
+        for (int i = 0; i < keyIdsAndKeyPairs.length; i += 2) {
+            RSAPublicKey publicKey = (RSAPublicKey) ((KeyPair) keyIdsAndKeyPairs[i + 1]).getPublic();
+            keys.add(Json.createObjectBuilder()
+                    .add("kty", "RSA")
+                    .add("use", "sig")
+                    .add("kid", (String) keyIdsAndKeyPairs[i])
+                    .add("n", encoder.encodeToString(toUnsignedBytes(publicKey.getModulus())))
+                    .add("e", encoder.encodeToString(toUnsignedBytes(publicKey.getPublicExponent()))));
+        }
+
+        return Json.createObjectBuilder().add("keys", keys).build().toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] toUnsignedBytes(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        return bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+    }
+
     private String createJwt(KeyPair keyPair, int expirationOffset) throws Exception {
         return createJwt(keyPair, expirationOffset, -1);
     }
 
     private String createJwt(KeyPair keyPair, int expirationOffset, int notBeforeOffset) throws Exception {
+        return createJwt(keyPair, null, expirationOffset, notBeforeOffset);
+    }
+
+    private String createJwt(KeyPair keyPair, String keyId, int expirationOffset, int notBeforeOffset) throws Exception {
         PrivateKey privateKey = keyPair.getPrivate();
         JWSSigner signer = new RSASSASigner(privateKey);
         JsonObjectBuilder claimsBuilder = Json.createObjectBuilder()
@@ -224,7 +403,7 @@ public class JwtSecurityRealmTest extends BaseTestCase {
         }
 
         JWSObject jwsObject = new JWSObject(new JWSHeader.Builder(JWSAlgorithm.RS256)
-                .type(new JOSEObjectType("jwt")).build(),
+                .type(new JOSEObjectType("jwt")).keyID(keyId).build(),
                 new Payload(claimsBuilder
                         .build().toString()));
 
@@ -0,0 +1,227 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.auth.realm.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.Json;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wildfly.security.auth.realm.token.validator.OAuth2IntrospectValidator;
+import org.wildfly.security.auth.server.RealmUnavailableException;
+import org.wildfly.security.authz.Attributes;
+import org.wildfly.security.evidence.BearerTokenEvidence;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for {@link OAuth2IntrospectValidator} against a local token introspection endpoint.
+ */
+public class OAuth2IntrospectValidatorTest {
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/introspect", this::introspect);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testIntrospection() throws Exception {
+        OAuth2IntrospectValidator validator = createValidator().build();
+
+        Attributes attributes = validator.validate(new BearerTokenEvidence("active+token/with=special&chars"));
+
+        assertNotNull(attributes);
+        assertEquals("active+token/with=special&chars", attributes.getFirst("username"));
+        assertNull(validator.validate(new BearerTokenEvidence("inactive")));
+    }
+
+    @Test
+    public void testConnectionReused() throws Exception {
+        OAuth2IntrospectValidator validator = createValidator().build();
+
+        for (int i = 0; i < 20; i++) {
+            assertNotNull(validator.validate(new BearerTokenEvidence("active-" + i)));
+        }
+        assertNull(validator.validate(new BearerTokenEvidence("error")));
+        assertNotNull(validator.validate(new BearerTokenEvidence("active")));
+
+        assertEquals(22, requests.get());
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testConcurrentValidationsCoalesced() throws Exception {
+        release = new CountDownLatch(1);
+        OAuth2IntrospectValidator validator = createValidator().build();
+        List<CompletionStage<Attributes>> results = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            results.add(validator.validateAsync(new BearerTokenEvidence("active")));
+        }
+        release.countDown();
+
+        for (CompletionStage<Attributes> result : results) {
+            assertEquals("active", result.toCompletableFuture().get(10, TimeUnit.SECONDS).getFirst("username"));
+        }
+        assertEquals(1, requests.get());
+
+        assertNotNull(validator.validateAsync(new BearerTokenEvidence("active")).toCompletableFuture().get(10, TimeUnit.SECONDS));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testMaxConcurrentRequests() throws Exception {
+        release = new CountDownLatch(1);
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+        OAuth2IntrospectValidator validator = createValidator()
+                .maxConcurrentRequests(2)
+                .transport((url, headers, parameters) -> {
+                    int current = concurrent.incrementAndGet();
+                    maxConcurrent.accumulateAndGet(current, Math::max);
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        concurrent.decrementAndGet();
+                    }
+                    return Json.createObjectBuilder().add("active", true).add("username", parameters.get("token")).build();
+                })
+                .build();
+        List<CompletionStage<Attributes>> results = new ArrayList<>();
+
+        for (int i = 0; i < 6; i++) {
+            results.add(validator.validateAsync(new BearerTokenEvidence("active-" + i)));
+        }
+        Thread.sleep(200);
+        release.countDown();
+
+        for (CompletionStage<Attributes> result : results) {
+            assertNotNull(result.toCompletableFuture().get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(2, maxConcurrent.get());
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception {
+        release = new CountDownLatch(1);
+        OAuth2IntrospectValidator validator = createValidator().readTimeout(200).build();
+
+        try {
+            validator.validateAsync(new BearerTokenEvidence("active")).toCompletableFuture().get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof RealmUnavailableException);
+            return;
+        } finally {
+            release.countDown();
+        }
+        throw new AssertionError("Expected timeout");
+    }
+
+    private OAuth2IntrospectValidator.Builder createValidator() throws Exception {
+        return OAuth2IntrospectValidator.builder()
+                .clientId("wildfly-elytron")
+                .clientSecret("dont_tell_me")
+                .tokenIntrospectionUrl(new URL("http", "localhost", server.getAddress().getPort(), "/introspect"));
+    }
+
+    private void introspect(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        Map<String, String> parameters = readParameters(exchange.getRequestBody());
+
+        try {
+            release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        String token = parameters.get("token");
+        byte[] response;
+        int status = 200;
+        if ("error".equals(token)) {
+            status = 400;
+            response = "{\"error\":\"invalid_request\"}".getBytes(StandardCharsets.UTF_8);
+        } else {
+            response = Json.createObjectBuilder()
+                    .add("active", token.startsWith("active"))
+                    .add("username", token)
+                    .build().toString().getBytes(StandardCharsets.UTF_8);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(response);
+        }
+    }
+
+    private static Map<String, String> readParameters(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        Map<String, String> parameters = new HashMap<>();
+        for (String parameter : new String(body.toByteArray(), StandardCharsets.UTF_8).split("&")) {
+            int index = parameter.indexOf('=');
+            parameters.put(URLDecoder.decode(parameter.substring(0, index), "UTF-8"), URLDecoder.decode(parameter.substring(index + 1), "UTF-8"));
+        }
+        return parameters;
+    }
+}
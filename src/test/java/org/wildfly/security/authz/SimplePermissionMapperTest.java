@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.authz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.security.Permission;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.wildfly.security.auth.principal.NamePrincipal;
+import org.wildfly.security.permission.PermissionVerifier;
+
+/**
+ * Tests for {@link SimplePermissionMapper}.
+ */
+public class SimplePermissionMapperTest {
+
+    private static final List<String> NAMES = Arrays.asList("a", "b", "c", "d");
+
+    private static final PermissionMappable ALICE = mappable("alice");
+
+    @Test
+    public void testFirstMatch() {
+        PermissionVerifier admin = permission -> true;
+        PermissionVerifier alice = permission -> false;
+        PermissionMapper mapper = SimplePermissionMapper.builder()
+                .addMapping(Collections.emptySet(), Collections.singleton("admin"), admin)
+                .addMapping(Collections.singleton("alice"), Collections.singleton("user"), alice)
+                .build();
+
+        assertSame(admin, mapper.mapPermissions(ALICE, roles("admin", "user")));
+        assertSame(alice, mapper.mapPermissions(ALICE, roles("user")));
+        assertSame(alice, mapper.mapPermissions(ALICE, Roles.NONE));
+        assertSame(PermissionVerifier.NONE, mapper.mapPermissions(mappable("bob"), roles("other")));
+    }
+
+    @Test
+    public void testCombinedMappingsMatchFoldedVerifiers() {
+        // the third mapping always matches by principal name, the others by role
+        List<PermissionVerifier> verifiers = Arrays.asList(
+                named("a"), named("a", "b"), named("b", "c"), named("a", "c", "d"), named("d"));
+        for (SimplePermissionMapper.MappingMode mode : SimplePermissionMapper.MappingMode.values()) {
+            SimplePermissionMapper.Builder builder = SimplePermissionMapper.builder().setMappingMode(mode);
+            for (int i = 0; i < verifiers.size(); i++) {
+                builder.addMapping(i == 2 ? Collections.singleton("alice") : Collections.emptySet(), Collections.singleton("r" + i), verifiers.get(i));
+            }
+            PermissionMapper mapper = builder.build();
+
+            for (int assigned = 0; assigned < 1 << verifiers.size(); assigned++) {
+                Set<String> roleNames = new HashSet<>();
+                PermissionVerifier expected = null;
+                for (int i = 0; i < verifiers.size(); i++) {
+                    if ((assigned & 1 << i) != 0) {
+                        roleNames.add("r" + i);
+                    }
+                    if ((assigned & 1 << i) != 0 || i == 2) {
+                        if (expected == null) {
+                            expected = verifiers.get(i);
+                        } else if (mode != SimplePermissionMapper.MappingMode.FIRST_MATCH) {
+                            expected = fold(mode, expected, verifiers.get(i));
+                        }
+                    }
+                }
+                for (int repeat = 0; repeat < 2; repeat++) {
+                    PermissionVerifier actual = mapper.mapPermissions(ALICE, Roles.fromSet(roleNames));
+                    for (String name : NAMES) {
+                        Permission permission = new RuntimePermission(name);
+                        assertEquals(mode + " " + roleNames + " " + name, expected.implies(permission), actual.implies(permission));
+                    }
+                }
+            }
+        }
+    }
+
+    private static PermissionVerifier fold(SimplePermissionMapper.MappingMode mode, PermissionVerifier left, PermissionVerifier right) {
+        switch (mode) {
+            case AND: return left.and(right);
+            case OR: return left.or(right);
+            case XOR: return left.xor(right);
+            case UNLESS: return left.unless(right);
+            default: throw new IllegalArgumentException(mode.toString());
+        }
+    }
+
+    private static PermissionVerifier named(String... names) {
+        Set<String> set = new HashSet<>(Arrays.asList(names));
+        return permission -> set.contains(permission.getName());
+    }
+
+    private static PermissionMappable mappable(String name) {
+        return new PermissionMappable() {
+            @Override
+            public Principal getPrincipal() {
+                return new NamePrincipal(name);
+            }
+        };
+    }
+
+    private static Roles roles(String... names) {
+        return Roles.fromSet(new HashSet<>(Arrays.asList(names)));
+    }
+}
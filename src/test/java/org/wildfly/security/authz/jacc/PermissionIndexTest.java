@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wildfly.security.authz.jacc;
+
+import org.junit.Test;
+
+import javax.security.jacc.EJBMethodPermission;
+import javax.security.jacc.EJBRoleRefPermission;
+import javax.security.jacc.WebResourcePermission;
+import javax.security.jacc.WebRoleRefPermission;
+import javax.security.jacc.WebUserDataPermission;
+import java.security.AllPermission;
+import java.security.Permission;
+import java.security.Permissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link PermissionIndex} and {@link CompiledPolicy}, checking that they make the same decisions as {@link Permissions}.
+ */
+public class PermissionIndexTest {
+
+    private static final List<String> POLICY_PATTERNS = Arrays.asList(
+            "/", "/*", "/admin/*", "/admin/users/*", "*.jsp", "*.tar.gz", "/index.html", "", "/public/*:/public/secret/*",
+            "*.jsp:/app/page.jsp", "/exact/path");
+
+    private static final List<String> CHECKED_PATTERNS = Arrays.asList(
+            "/", "/index.html", "/admin", "/admin/", "/admin/users", "/admin/users/1", "/administrator", "/page.jsp",
+            "/admin/page.jsp", "/archive.tar.gz", "/archive.gz", "/public/file", "/public/secret/file", "/app/page.jsp",
+            "/app/page.html", "/exact/path", "/exact/path/more", "", "*.jsp", "/admin/*", "/other.file.jsp");
+
+    @Test
+    public void testWebPermissionsMatchPermissions() {
+        for (String policyPattern : POLICY_PATTERNS) {
+            Permissions permissions = new Permissions();
+            permissions.add(new WebResourcePermission(policyPattern, "GET,POST"));
+            permissions.add(new WebUserDataPermission(policyPattern, "GET:CONFIDENTIAL"));
+            PermissionIndex index = new PermissionIndex(permissions);
+
+            for (String checkedPattern : CHECKED_PATTERNS) {
+                for (Permission checked : Arrays.<Permission>asList(
+                        new WebResourcePermission(checkedPattern, "GET"),
+                        new WebResourcePermission(checkedPattern, "DELETE"),
+                        new WebUserDataPermission(checkedPattern, "GET:CONFIDENTIAL"),
+                        new WebUserDataPermission(checkedPattern, "PUT:CONFIDENTIAL"))) {
+                    assertEquals(policyPattern + " implies " + checked, permissions.implies(checked), index.implies(checked));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNamedPermissions() {
+        Permissions permissions = new Permissions();
+        permissions.add(new EJBMethodPermission("HelloBean", "sayHello,Remote,java.lang.String"));
+        permissions.add(new EJBRoleRefPermission("HelloBean", "admin"));
+        permissions.add(new WebRoleRefPermission("HelloServlet", "admin"));
+        PermissionIndex index = new PermissionIndex(permissions);
+
+        assertTrue(index.implies(new EJBMethodPermission("HelloBean", "sayHello,Remote,java.lang.String")));
+        assertFalse(index.implies(new EJBMethodPermission("HelloBean", "sayGoodbye,Remote,java.lang.String")));
+        assertFalse(index.implies(new EJBMethodPermission("OtherBean", "sayHello,Remote,java.lang.String")));
+        assertTrue(index.implies(new EJBRoleRefPermission("HelloBean", "admin")));
+        assertFalse(index.implies(new EJBRoleRefPermission("HelloBean", "user")));
+        assertTrue(index.implies(new WebRoleRefPermission("HelloServlet", "admin")));
+        assertFalse(index.implies(new WebRoleRefPermission("OtherServlet", "admin")));
+        assertFalse(index.implies(new WebResourcePermission("/", "GET")));
+
+        Permissions all = new Permissions();
+        all.add(new AllPermission());
+        assertTrue(new PermissionIndex(all).implies(new EJBMethodPermission("OtherBean", "sayHello,Remote,java.lang.String")));
+    }
+
+    @Test
+    public void testCompiledPolicyDecisions() {
+        Permissions excluded = new Permissions();
+        excluded.add(new WebResourcePermission("/admin/internal/*", (String) null));
+        Permissions unchecked = new Permissions();
+        unchecked.add(new WebResourcePermission("/public/*", (String) null));
+        Permissions admin = new Permissions();
+        admin.add(new WebResourcePermission("/admin/*", (String) null));
+        Permissions user = new Permissions();
+        user.add(new WebResourcePermission("/admin/profile", "GET"));
+
+        Map<String, Permissions> rolePermissions = new HashMap<>();
+        rolePermissions.put("admin", admin);
+        rolePermissions.put("user", user);
+        CompiledPolicy policy = new CompiledPolicy(excluded, unchecked, rolePermissions);
+
+        assertSame(CompiledPolicy.Decision.EXCLUDED, policy.decide(new WebResourcePermission("/admin/internal/x", "GET")));
+        assertSame(CompiledPolicy.Decision.UNCHECKED, policy.decide(new WebResourcePermission("/public/x", "GET")));
+        assertSame(CompiledPolicy.Decision.NOT_GRANTED, policy.decide(new WebResourcePermission("/other", "GET")));
+        assertEquals(Collections.singleton("admin"), policy.decide(new WebResourcePermission("/admin/profile", "POST")).getRoles());
+        CompiledPolicy.Decision decision = policy.decide(new WebResourcePermission("/admin/profile", "GET"));
+        assertEquals(new HashSet<>(Arrays.asList("admin", "user")), decision.getRoles());
+        assertSame(decision, policy.decide(new WebResourcePermission("/admin/profile", "GET")));
+    }
+}
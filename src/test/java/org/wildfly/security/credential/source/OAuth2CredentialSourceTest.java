@@ -0,0 +1,210 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.credential.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wildfly.security.credential.BearerTokenCredential;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Tests for {@link OAuth2CredentialSource}.
+ */
+public class OAuth2CredentialSourceTest {
+
+    private MockWebServer server;
+    private final AtomicInteger issued = new AtomicInteger();
+    private final ConcurrentLinkedQueue<String> requests = new ConcurrentLinkedQueue<>();
+    private volatile long expiresIn = 300;
+    private volatile boolean issueRefreshTokens;
+    private volatile boolean rejectRefreshTokens;
+    private volatile long responseDelay;
+
+    @Before
+    public void onBefore() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest recordedRequest) throws InterruptedException {
+                String body = recordedRequest.getBody().readUtf8();
+                requests.add(body);
+
+                if (responseDelay > 0) {
+                    Thread.sleep(responseDelay);
+                }
+                if (! body.contains("client_id=elytron-client") || ! body.contains("client_secret=dont_tell_me")) {
+                    return new MockResponse().setResponseCode(401);
+                }
+                if (body.contains("grant_type=refresh_token") && rejectRefreshTokens) {
+                    return new MockResponse().setResponseCode(400);
+                }
+
+                JsonObjectBuilder tokenBuilder = Json.createObjectBuilder();
+                int id = issued.incrementAndGet();
+
+                tokenBuilder.add("access_token", "token-" + id);
+                if (expiresIn > 0) {
+                    tokenBuilder.add("expires_in", expiresIn);
+                }
+                if (issueRefreshTokens) {
+                    tokenBuilder.add("refresh_token", "refresh-" + id);
+                }
+
+                return new MockResponse().setBody(tokenBuilder.build().toString());
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void onAfter() throws Exception {
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testTokenIsCachedUntilExpiration() throws Exception {
+        OAuth2CredentialSource credentialSource = createCredentialSource().build();
+
+        String first = getToken(credentialSource);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(first, getToken(credentialSource));
+        }
+
+        assertEquals(1, credentialSource.getTokenFetchCount());
+    }
+
+    @Test
+    public void testTokenWithoutExpirationIsNotCached() throws Exception {
+        expiresIn = -1;
+        OAuth2CredentialSource credentialSource = createCredentialSource().build();
+
+        assertNotEquals(getToken(credentialSource), getToken(credentialSource));
+        assertEquals(2, credentialSource.getTokenFetchCount());
+    }
+
+    @Test
+    public void testRefreshAheadOfExpiration() throws Exception {
+        expiresIn = 2;
+        issueRefreshTokens = true;
+        OAuth2CredentialSource credentialSource = createCredentialSource().refreshExecutor(Runnable::run).build();
+
+        assertEquals("token-1", getToken(credentialSource));
+
+        // past three quarters of the lifetime the current token is still returned, and a refresh is triggered
+        Thread.sleep(1600);
+        assertEquals("token-1", getToken(credentialSource));
+        assertEquals("token-2", getToken(credentialSource));
+        assertEquals(2, credentialSource.getTokenFetchCount());
+
+        String refreshRequest = decode(new ArrayList<>(requests).get(1));
+        assertTrue(refreshRequest, refreshRequest.contains("grant_type=refresh_token"));
+        assertTrue(refreshRequest, refreshRequest.contains("refresh_token=refresh-1"));
+    }
+
+    @Test
+    public void testRejectedRefreshTokenFallsBackToGrant() throws Exception {
+        expiresIn = 1;
+        issueRefreshTokens = true;
+        rejectRefreshTokens = true;
+        OAuth2CredentialSource credentialSource = createCredentialSource().refreshExecutor(command -> {}).build();
+
+        assertEquals("token-1", getToken(credentialSource));
+        Thread.sleep(1100);
+        assertEquals("token-2", getToken(credentialSource));
+        assertEquals(3, credentialSource.getTokenFetchCount());
+
+        List<String> bodies = new ArrayList<>(requests);
+        assertTrue(bodies.get(1).contains("grant_type=refresh_token"));
+        assertTrue(bodies.get(2).contains("grant_type=client_credentials"));
+    }
+
+    @Test
+    public void testConcurrentRequestsAreCoalesced() throws Exception {
+        responseDelay = 500;
+        OAuth2CredentialSource credentialSource = createCredentialSource().build();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> futures = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return getToken(credentialSource);
+                }));
+            }
+            start.countDown();
+            for (Future<String> future : futures) {
+                assertEquals("token-1", future.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, credentialSource.getTokenFetchCount());
+    }
+
+    @Test
+    public void testParametersAreEncoded() throws Exception {
+        OAuth2CredentialSource credentialSource = createCredentialSource().grantScopes("read write&admin").build();
+
+        getToken(credentialSource);
+
+        String body = requests.peek();
+        assertTrue(body, body.contains("scope=read+write%26admin"));
+    }
+
+    private OAuth2CredentialSource.Builder createCredentialSource() throws Exception {
+        return OAuth2CredentialSource.builder(server.url("/token").url()).clientCredentials("elytron-client", "dont_tell_me");
+    }
+
+    private static String getToken(OAuth2CredentialSource credentialSource) throws Exception {
+        return credentialSource.getCredential(BearerTokenCredential.class).getToken();
+    }
+
+    private static String decode(String body) throws Exception {
+        return URLDecoder.decode(body, "UTF-8");
+    }
+}
@@ -20,11 +20,16 @@ package org.wildfly.security.credential.store.impl;
 
 import java.io.File;
 import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.security.Provider;
 import java.security.Security;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.After;
 import org.junit.Before;
@@ -45,9 +50,14 @@ import org.wildfly.security.credential.store.CredentialStore.CredentialSourcePro
 import org.wildfly.security.password.Password;
 import org.wildfly.security.password.PasswordFactory;
 import org.wildfly.security.password.interfaces.ClearPassword;
+import org.wildfly.security.password.interfaces.SimpleDigestPassword;
 import org.wildfly.security.password.spec.ClearPasswordSpec;
+import org.wildfly.security.password.spec.EncryptablePasswordSpec;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(Parameterized.class)
@@ -144,4 +154,131 @@ public class KeyStoreCredentialStoreTest {
 
         assertArrayEquals(secretPassword, retrievedPassword.getEncodedPassword());
     }
+
+    @Test
+    public void shouldAppendChangesToChangeLog() throws Exception {
+        final File keyStoreFile = new File(tmp.getRoot(), "keystore");
+        final File changeLogFile = new File(tmp.getRoot(), "keystore.changelog");
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("location", keyStoreFile.getAbsolutePath());
+        attributes.put("create", Boolean.TRUE.toString());
+        attributes.put("keyStoreType", keyStoreFormat);
+        attributes.put("changeLog", Boolean.TRUE.toString());
+
+        final KeyStoreCredentialStore originalStore = new KeyStoreCredentialStore();
+        originalStore.initialize(attributes, storeProtection, null);
+        originalStore.store("key", storedCredential, null);
+        originalStore.flush();
+        assertTrue(keyStoreFile.exists());
+        assertFalse(changeLogFile.exists());
+        final byte[] keyStoreBytes = Files.readAllBytes(keyStoreFile.toPath());
+
+        originalStore.store("other", createCredential("other password"), null);
+        originalStore.flush();
+        originalStore.remove("key", PasswordCredential.class, null, null);
+        originalStore.flush();
+        assertTrue(changeLogFile.exists());
+        assertArrayEquals(keyStoreBytes, Files.readAllBytes(keyStoreFile.toPath()));
+
+        // an interrupted flush leaves an incomplete record behind
+        Files.write(changeLogFile.toPath(), new byte[] { 0, 0, 1, 0, 1, 0 }, StandardOpenOption.APPEND);
+
+        final KeyStoreCredentialStore retrievalStore = new KeyStoreCredentialStore();
+        retrievalStore.initialize(attributes, storeProtection, null);
+        assertNull(retrievalStore.retrieve("key", PasswordCredential.class, null, null, null));
+        assertPassword("other password", retrievalStore.retrieve("other", PasswordCredential.class, null, null, null));
+        assertEquals(1, retrievalStore.getAliases().size());
+    }
+
+    @Test
+    public void shouldCompactChangeLog() throws Exception {
+        final File keyStoreFile = new File(tmp.getRoot(), "keystore");
+        final File changeLogFile = new File(tmp.getRoot(), "keystore.changelog");
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("location", keyStoreFile.getAbsolutePath());
+        attributes.put("create", Boolean.TRUE.toString());
+        attributes.put("keyStoreType", keyStoreFormat);
+        attributes.put("changeLog", Boolean.TRUE.toString());
+
+        final KeyStoreCredentialStore originalStore = new KeyStoreCredentialStore();
+        originalStore.initialize(attributes, storeProtection, null);
+        int i = 0;
+        do {
+            originalStore.store("key", createCredential("password " + ++i), null);
+            originalStore.flush();
+            assertTrue("change log never compacted", i < 500);
+        } while (i == 1 || changeLogFile.exists());
+        originalStore.store("key", createCredential("last password"), null);
+        originalStore.flush();
+        assertTrue(changeLogFile.exists());
+
+        final KeyStoreCredentialStore retrievalStore = new KeyStoreCredentialStore();
+        retrievalStore.initialize(attributes, storeProtection, null);
+        assertPassword("last password", retrievalStore.retrieve("key", PasswordCredential.class, null, null, null));
+    }
+
+    @Test
+    public void shouldKeepOtherCredentialsOfAliasOnRemove() throws Exception {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("create", Boolean.TRUE.toString());
+        attributes.put("keyStoreType", keyStoreFormat);
+
+        final KeyStoreCredentialStore store = new KeyStoreCredentialStore();
+        store.initialize(attributes, storeProtection, null);
+        final PasswordFactory digestFactory = PasswordFactory.getInstance(SimpleDigestPassword.ALGORITHM_SIMPLE_DIGEST_SHA_256);
+        final Password digest = digestFactory.generatePassword(new EncryptablePasswordSpec(secretPassword, null));
+        store.store("key", storedCredential, null);
+        store.store("key", new PasswordCredential(digest), null);
+
+        store.remove("key", PasswordCredential.class, ClearPassword.ALGORITHM_CLEAR, null);
+        assertNull(store.retrieve("key", PasswordCredential.class, ClearPassword.ALGORITHM_CLEAR, null, null));
+        final PasswordCredential retrieved = store.retrieve("key", PasswordCredential.class, SimpleDigestPassword.ALGORITHM_SIMPLE_DIGEST_SHA_256, null, null);
+        assertTrue(digestFactory.verify(retrieved.getPassword(), secretPassword));
+        assertEquals(1, store.getAliases().size());
+
+        store.remove("key", PasswordCredential.class, null, null);
+        assertNull(store.retrieve("key", PasswordCredential.class, null, null, null));
+        assertTrue(store.getAliases().isEmpty());
+    }
+
+    @Test
+    public void shouldExcludeConcurrentWriters() throws Exception {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("create", Boolean.TRUE.toString());
+        attributes.put("keyStoreType", keyStoreFormat);
+
+        final KeyStoreCredentialStore store = new KeyStoreCredentialStore();
+        store.initialize(attributes, storeProtection, null);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Future<?>[] futures = new Future<?>[4];
+            for (int i = 0; i < futures.length; i++) {
+                final int thread = i;
+                futures[i] = executor.submit(() -> {
+                    for (int j = 0; j < 5; j++) {
+                        store.store("key" + thread + "-" + j, storedCredential, null);
+                        assertPassword(new String(secretPassword), store.retrieve("key" + thread + "-" + j, PasswordCredential.class, null, null, null));
+                    }
+                    return null;
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(20, store.getAliases().size());
+    }
+
+    private PasswordCredential createCredential(final String password) throws Exception {
+        return new PasswordCredential(passwordFactory.generatePassword(new ClearPasswordSpec(password.toCharArray())));
+    }
+
+    private void assertPassword(final String expected, final PasswordCredential credential) throws Exception {
+        final ClearPasswordSpec spec = passwordFactory.getKeySpec(credential.getPassword(), ClearPasswordSpec.class);
+        assertArrayEquals(expected.toCharArray(), spec.getEncodedPassword());
+    }
 }
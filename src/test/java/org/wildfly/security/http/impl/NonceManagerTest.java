@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.http.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.wildfly.security.http.util.TimeBucketedNonceStore;
+
+/**
+ * Tests of {@link NonceManager} and the default {@link TimeBucketedNonceStore}.
+ */
+public class NonceManagerTest {
+
+    @Test
+    public void testSingleUse() throws Exception {
+        NonceManager nonceManager = new NonceManager(60000, true, 20, "SHA-256");
+        String nonce = nonceManager.generateNonce();
+
+        assertTrue(nonceManager.useNonce(nonce));
+        assertFalse(nonceManager.useNonce(nonce));
+        assertTrue(nonceManager.useNonce(nonceManager.generateNonce()));
+
+        assertEquals(2, nonceManager.getIssuedCount());
+        assertEquals(1, nonceManager.getReusedCount());
+        assertEquals(0, nonceManager.getRejectedCount());
+    }
+
+    @Test
+    public void testMultipleUse() throws Exception {
+        NonceManager nonceManager = new NonceManager(60000, false, 20, "SHA-256");
+        String nonce = nonceManager.generateNonce();
+
+        assertTrue(nonceManager.useNonce(nonce));
+        assertTrue(nonceManager.useNonce(nonce));
+        assertEquals(0, nonceManager.getReusedCount());
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        NonceManager nonceManager = new NonceManager(100, true, 20, "SHA-256");
+        String nonce = nonceManager.generateNonce("salt".getBytes());
+
+        assertFalse(nonceManager.useNonce(nonce, "pepper".getBytes()));
+        Thread.sleep(200);
+        assertFalse(nonceManager.useNonce(nonce, "salt".getBytes()));
+
+        assertEquals(2, nonceManager.getRejectedCount());
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        NonceManager nonceManager = new NonceManager(60000, true, 20, "SHA-256");
+        String nonce = nonceManager.generateNonce();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger accepted = new AtomicInteger();
+
+        try {
+            for (int i = 0; i < 8; i++) {
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                        if (nonceManager.useNonce(nonce)) {
+                            accepted.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+            }
+            start.countDown();
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+
+        assertEquals(1, accepted.get());
+        assertEquals(7, nonceManager.getReusedCount());
+    }
+
+    @Test
+    public void testStoreDiscardsExpiredWindows() throws Exception {
+        TimeBucketedNonceStore store = new TimeBucketedNonceStore(100, 4);
+        long now = System.currentTimeMillis();
+
+        assertTrue(store.useNonce("a", now + 50));
+        assertFalse(store.useNonce("a", now + 50));
+        assertTrue(store.useNonce("b", now + 100));
+        assertEquals(2, store.size());
+
+        Thread.sleep(250);
+
+        // each further use lands in a new window, eventually overwriting the windows holding the expired nonces
+        for (int i = 0; i < 10; i++) {
+            assertTrue(store.useNonce("c" + i, System.currentTimeMillis() + 100));
+            Thread.sleep(25);
+        }
+
+        assertTrue(store.useNonce("a", System.currentTimeMillis() + 100));
+        assertTrue(store.size() < 12);
+    }
+}
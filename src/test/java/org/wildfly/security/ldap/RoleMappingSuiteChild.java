@@ -20,11 +20,19 @@ package org.wildfly.security.ldap;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
 import org.junit.Test;
 import org.wildfly.security.auth.permission.LoginPermission;
 import org.wildfly.security.auth.realm.AggregateSecurityRealm;
 import org.wildfly.security.auth.realm.LegacyPropertiesSecurityRealm;
 import org.wildfly.security.auth.realm.ldap.AttributeMapping;
+import org.wildfly.security.auth.realm.ldap.GroupMembershipCache;
 import org.wildfly.security.auth.realm.ldap.LdapSecurityRealmBuilder;
 import org.wildfly.security.auth.server.SecurityDomain;
 import org.wildfly.security.authz.RoleDecoder;
@@ -117,6 +125,76 @@ public class RoleMappingSuiteChild extends AbstractAttributeMappingSuiteChild {
         }, AttributeMapping.fromFilter("description={0}").from("cn").roleRecursionName("cn").roleRecursion(1).to(RoleDecoder.KEY_ROLES).build());
     }
 
+    @Test
+    public void testRecursiveRolesWithGroupMembershipCache() throws Exception {
+        GroupMembershipCache cache = new GroupMembershipCache(100, -1);
+        SecurityDomain.Builder builder = SecurityDomain.builder()
+            .setDefaultRealmName("default")
+            .addRealm("default",
+                LdapSecurityRealmBuilder.builder()
+                    .setDirContextSupplier(LdapTestSuite.dirContextFactory.create())
+                    .setGroupMembershipCache(cache)
+                    .identityMapping()
+                        .setSearchDn("dc=elytron,dc=wildfly,dc=org")
+                        .searchRecursive()
+                        .setRdnIdentifier("uid")
+                        .map(AttributeMapping.fromFilter("(&(objectClass=groupOfNames)(member={1}))").from("cn").roleRecursion(10).to(RoleDecoder.KEY_ROLES).build())
+                        .build()
+                    .build()
+            ).build();
+        builder.setPermissionMapper((permissionMappable, roles) -> PermissionVerifier.from(new LoginPermission()));
+        SecurityDomain securityDomain = builder.build();
+
+        for (int i = 0; i < 2; i++) {
+            assertAttributes(securityDomain, "jduke", attributes -> {
+                assertEquals("Expected a single attribute.", 1, attributes.size());
+                assertAttributeValue(attributes.get(RoleDecoder.KEY_ROLES), "R1", "R2", "R3");
+            });
+        }
+
+        assertEquals(3, cache.getMissCount());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(new HashSet<>(Arrays.asList("cn=r1,dc=elytron,dc=wildfly,dc=org", "cn=r2,dc=elytron,dc=wildfly,dc=org", "cn=r3,dc=elytron,dc=wildfly,dc=org")),
+                cache.getAncestors("cn=R1,dc=elytron,dc=wildfly,dc=org"));
+    }
+
+    @Test
+    public void testRecursiveRolesOfSeveralGroupsWithGroupMembershipCache() throws Exception {
+        GroupMembershipCache cache = new GroupMembershipCache(100, -1);
+        SecurityDomain.Builder builder = SecurityDomain.builder()
+            .setDefaultRealmName("default")
+            .addRealm("default",
+                LdapSecurityRealmBuilder.builder()
+                    .setDirContextSupplier(LdapTestSuite.dirContextFactory.create())
+                    .setGroupMembershipCache(cache)
+                    .identityMapping()
+                        .setSearchDn("dc=elytron,dc=wildfly,dc=org")
+                        .searchRecursive()
+                        .setRdnIdentifier("uid")
+                        .map(AttributeMapping.fromFilter("(&(objectClass=groupOfNames)(member={1}))").from("cn").roleRecursion(10).to(RoleDecoder.KEY_ROLES).build())
+                        .build()
+                    .build()
+            ).build();
+        builder.setPermissionMapper((permissionMappable, roles) -> PermissionVerifier.from(new LoginPermission()));
+        SecurityDomain securityDomain = builder.build();
+
+        // the parents of both direct groups are found by one search and attributed to the group they are a member of
+        for (int i = 0; i < 2; i++) {
+            assertAttributes(securityDomain, "ranvir", attributes -> {
+                assertEquals("Expected a single attribute.", 1, attributes.size());
+                assertAttributeValue(attributes.get(RoleDecoder.KEY_ROLES), "MWR1", "MWR2", "MWR3");
+            });
+        }
+
+        Map<String, Set<String>> graph = new HashMap<>();
+        graph.put("cn=mwr1,dc=elytron,dc=wildfly,dc=org", Collections.singleton("cn=mwr2,dc=elytron,dc=wildfly,dc=org"));
+        graph.put("cn=mwr2,dc=elytron,dc=wildfly,dc=org", Collections.singleton("cn=mwr3,dc=elytron,dc=wildfly,dc=org"));
+        graph.put("cn=mwr3,dc=elytron,dc=wildfly,dc=org", Collections.emptySet());
+        assertEquals(graph, cache.getGroupGraph());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(3, cache.getHitCount());
+    }
+
     @Test
     public void testAuthorizationWithDifferentAuthenticationRealm() throws Exception {
         SecurityDomain.Builder builder = SecurityDomain.builder()
@@ -108,6 +108,44 @@ public class ScramServerCompatibilityTest extends BaseTestCase {
         assertEquals("user", saslServer.getAuthorizationID());
     }
 
+    /**
+     * Test the RFC 5802 example, and rejection of a bad password, with the server key cache enabled
+     */
+    @Test
+    public void testServerKeyCache() throws Exception {
+        mockNonce("3rfcNHYJY1ZVvWVs7j");
+        final Map<String, Object> properties = Collections.singletonMap(WildFlySasl.SCRAM_SERVER_KEY_CACHE_SIZE, "10");
+
+        for (int i = 0; i < 2; i++) {
+            final SaslServer saslServer =
+                    new SaslServerBuilder(ScramSaslServerFactory.class, SaslMechanismInformation.Names.SCRAM_SHA_1)
+                            .setUserName("user")
+                            .setPassword(getPassword("pencil", "QSXCR+Q6sek8bf92"))
+                            .setProperties(properties)
+                            .build();
+
+            saslServer.evaluateResponse("n,,n=user,r=fyko+d2lbbFgONRv9qkxdawL".getBytes(StandardCharsets.UTF_8));
+            byte[] message = saslServer.evaluateResponse("c=biws,r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j,p=v0X8v3Bz2T0CJGbJQyF0X+HI4Ts=".getBytes(StandardCharsets.UTF_8));
+            assertEquals("v=rmF9pqV8S7suAoZWja4dJRkFsKQ=", new String(message, StandardCharsets.UTF_8));
+            assertTrue(saslServer.isComplete());
+        }
+
+        final SaslServer saslServer =
+                new SaslServerBuilder(ScramSaslServerFactory.class, SaslMechanismInformation.Names.SCRAM_SHA_1)
+                        .setUserName("user")
+                        .setPassword(getPassword("pen", "QSXCR+Q6sek8bf92"))
+                        .setProperties(properties)
+                        .build();
+
+        saslServer.evaluateResponse("n,,n=user,r=fyko+d2lbbFgONRv9qkxdawL".getBytes(StandardCharsets.UTF_8));
+        try {
+            saslServer.evaluateResponse("c=biws,r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j,p=v0X8v3Bz2T0CJGbJQyF0X+HI4Ts=".getBytes(StandardCharsets.UTF_8));
+            fail("SaslException not thrown");
+        } catch (SaslException e) {
+        }
+        assertFalse(saslServer.isComplete());
+    }
+
     private static Password getPassword(final String password, final String saltString) throws InvalidKeySpecException, NoSuchAlgorithmException {
         final PasswordFactory passwordFactory = PasswordFactory.getInstance(ScramDigestPassword.ALGORITHM_SCRAM_SHA_1);
         return passwordFactory.generatePassword(new EncryptablePasswordSpec(password.toCharArray(), new IteratedSaltedPasswordAlgorithmSpec(
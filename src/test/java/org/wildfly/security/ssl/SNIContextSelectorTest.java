@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.ssl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLContext;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link SNIContextSelector}.
+ */
+public class SNIContextSelectorTest {
+
+    @Test
+    public void testExactWildcardAndDefaultMatches() throws Exception {
+        SSLContext exact = SSLContext.getInstance("TLS");
+        SSLContext wildcard = SSLContext.getInstance("TLS");
+        SSLContext deeperWildcard = SSLContext.getInstance("TLS");
+        SSLContext defaultContext = SSLContext.getInstance("TLS");
+        SNIContextSelector selector = SNIContextSelector.builder()
+                .addMatch("www.example.com", exact)
+                .addMatch("*.example.com", wildcard)
+                .addMatch("*.Tenant.Example.com", deeperWildcard)
+                .setDefaultContext(defaultContext)
+                .build();
+
+        assertSame(exact, selector.selectContext(info("www.example.com")));
+        assertSame(exact, selector.selectContext(info("WWW.Example.COM")));
+        assertSame(wildcard, selector.selectContext(info("mail.example.com")));
+        assertSame(wildcard, selector.selectContext(info("tenant.example.com")));
+        assertSame(deeperWildcard, selector.selectContext(info("a.tenant.example.com")));
+        // a wildcard only matches a single label
+        assertSame(defaultContext, selector.selectContext(info("a.b.example.com")));
+        assertSame(defaultContext, selector.selectContext(info("a.b.tenant.example.com")));
+        assertSame(defaultContext, selector.selectContext(info("example.com")));
+        assertSame(defaultContext, selector.selectContext(info("www.example.org")));
+        assertSame(defaultContext, selector.selectContext(info()));
+
+        assertEquals(10, selector.getLookupCount());
+        assertEquals(2, selector.getExactMatchCount());
+        assertEquals(3, selector.getWildcardMatchCount());
+        assertEquals(5, selector.getDefaultMatchCount());
+    }
+
+    @Test
+    public void testReplaceMappings() throws Exception {
+        SSLContext oldContext = SSLContext.getInstance("TLS");
+        SSLContext newContext = SSLContext.getInstance("TLS");
+        SNIContextSelector selector = SNIContextSelector.builder().addMatch("*.example.com", oldContext).build();
+        assertSame(oldContext, selector.selectContext(info("www.example.com")));
+        assertNull(selector.selectContext(info("www.example.org")));
+
+        selector.replaceMappings(SNIContextSelector.builder()
+                .addMatch("www.example.org", newContext)
+                .setDefaultContext(newContext)
+                .build());
+        assertSame(newContext, selector.selectContext(info("www.example.org")));
+        assertSame(newContext, selector.selectContext(info("www.example.com")));
+    }
+
+    @Test
+    public void testManyHosts() throws Exception {
+        SNIContextSelector.Builder builder = SNIContextSelector.builder();
+        List<SSLContext> contexts = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            SSLContext context = SSLContext.getInstance("TLS");
+            contexts.add(context);
+            builder.addMatch("host" + i + ".tenant" + (i % 50) + ".example.com", context);
+        }
+        SNIContextSelector selector = builder.build();
+        for (int i = 0; i < 2000; i++) {
+            assertSame(contexts.get(i), selector.selectContext(info("host" + i + ".tenant" + (i % 50) + ".example.com")));
+        }
+        assertNull(selector.selectContext(info("host1.tenant2.example.com")));
+    }
+
+    @Test
+    public void testInvalidHostNames() throws Exception {
+        SSLContext context = SSLContext.getInstance("TLS");
+        for (String hostName : new String[] { "", "*", "*.", "a.*.com", "**.example.com", "a..com", ".example.com" }) {
+            try {
+                SNIContextSelector.builder().addMatch(hostName, context);
+                fail("Expected " + hostName + " to be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    private static SSLConnectionInformation info(String... hostNames) {
+        List<SNIServerName> serverNames = new ArrayList<>();
+        for (String hostName : hostNames) {
+            serverNames.add(new SNIHostName(hostName));
+        }
+        return new SSLConnectionInformation() {
+            @Override
+            public List<SNIServerName> getSNIServerNames() {
+                return Collections.unmodifiableList(serverNames);
+            }
+
+            @Override
+            public String getRecordVersion() {
+                return "TLSv1.2";
+            }
+
+            @Override
+            public String getHelloVersion() {
+                return "TLSv1.2";
+            }
+        };
+    }
+}
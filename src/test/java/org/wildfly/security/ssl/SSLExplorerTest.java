@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.ssl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests of the exploration of client hellos by {@link SSLExplorer}.
+ */
+public class SSLExplorerTest {
+
+    private static final String HOST_NAME = "www.example.com";
+
+    private static ByteBuffer clientHello;
+    private static List<String> cipherSuites;
+
+    @BeforeClass
+    public static void recordClientHello() throws Exception {
+        SSLEngine engine = SSLContext.getDefault().createSSLEngine(HOST_NAME, 443);
+        engine.setUseClientMode(true);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setServerNames(Collections.singletonList(new SNIHostName(HOST_NAME)));
+        parameters.setApplicationProtocols(new String[] { "h2", "http/1.1" });
+        engine.setSSLParameters(parameters);
+        clientHello = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        engine.wrap(ByteBuffer.allocate(0), clientHello);
+        clientHello.flip();
+        cipherSuites = new ArrayList<>();
+        for (String cipherSuite : engine.getEnabledCipherSuites()) {
+            if (MechanismDatabase.getInstance().getCipherSuite(cipherSuite) != null) {
+                cipherSuites.add(cipherSuite);
+            }
+        }
+    }
+
+    @Test
+    public void testExploreSingleRecord() throws Exception {
+        assertEquals(clientHello.remaining(), SSLExplorer.getRequiredSize(clientHello));
+        assertExplored(SSLExplorer.explore(clientHello));
+    }
+
+    @Test
+    public void testExploreMultipleRecords() throws Exception {
+        ByteBuffer split = split(clientHello);
+        assertEquals(split.remaining(), SSLExplorer.getRequiredSize(split));
+        assertExplored(SSLExplorer.explore(split));
+    }
+
+    @Test
+    public void testExploreIncompleteRecords() throws Exception {
+        ByteBuffer split = split(clientHello);
+        int firstRecord = SSLExplorer.RECORD_HEADER_SIZE + split.getShort(3);
+        ByteBuffer incomplete = (ByteBuffer) split.duplicate().limit(firstRecord);
+        assertEquals(firstRecord + SSLExplorer.RECORD_HEADER_SIZE, SSLExplorer.getRequiredSize(incomplete));
+        try {
+            SSLExplorer.explore(incomplete);
+            fail("Expected BufferUnderflowException");
+        } catch (BufferUnderflowException expected) {
+        }
+    }
+
+    @Test
+    public void testExplorePartialRecords() throws Exception {
+        ByteBuffer split = split(clientHello);
+        int firstRecord = SSLExplorer.RECORD_HEADER_SIZE + split.getShort(3);
+        // cut inside the first record, then inside the second one
+        for (int limit : new int[] { firstRecord - 1, split.remaining() - 1 }) {
+            ByteBuffer partial = (ByteBuffer) split.duplicate().limit(limit);
+            assertTrue(SSLExplorer.getRequiredSize(partial) > partial.remaining());
+            try {
+                SSLExplorer.explore(partial);
+                fail("Expected BufferUnderflowException");
+            } catch (BufferUnderflowException expected) {
+            }
+        }
+        ByteBuffer partial = (ByteBuffer) split.duplicate().limit(firstRecord - 1);
+        assertEquals(firstRecord, SSLExplorer.getRequiredSize(partial));
+    }
+
+    @Test
+    public void testExploreEmptyFragments() throws Exception {
+        ByteBuffer split = split(clientHello);
+        int firstRecord = SSLExplorer.RECORD_HEADER_SIZE + split.getShort(3);
+        int emptyRecords = 100000;
+        ByteBuffer padded = ByteBuffer.allocate(split.remaining() + emptyRecords * SSLExplorer.RECORD_HEADER_SIZE);
+        padded.put((ByteBuffer) split.duplicate().limit(firstRecord));
+        for (int i = 0; i < emptyRecords; i++) {
+            padded.put(split.get(0)).put(split.get(1)).put(split.get(2)).putShort((short) 0);
+        }
+        padded.put((ByteBuffer) split.duplicate().position(firstRecord));
+        padded.flip();
+
+        // the empty fragments do not make the required size grow
+        assertEquals(firstRecord + SSLExplorer.RECORD_HEADER_SIZE, SSLExplorer.getRequiredSize(padded));
+        try {
+            SSLExplorer.explore(padded);
+            fail("Expected SSLException");
+        } catch (SSLException expected) {
+        }
+    }
+
+    private static void assertExplored(SSLConnectionInformation information) {
+        assertEquals(Collections.singletonList(new SNIHostName(HOST_NAME)), information.getSNIServerNames());
+        assertEquals(Arrays.asList("h2", "http/1.1"), information.getProtocols());
+        // the cipher suites include the ones with an identifier above 0x7F, such as the ECDHE suites
+        assertEquals(cipherSuites, information.getCipherSuites());
+        assertTrue(information.getCipherSuites().stream().anyMatch(cipherSuite -> cipherSuite.startsWith("TLS_ECDHE_")));
+    }
+
+    /**
+     * Split the handshake message of a single record client hello between two records.
+     */
+    private static ByteBuffer split(ByteBuffer record) {
+        int length = record.remaining() - SSLExplorer.RECORD_HEADER_SIZE;
+        int first = length / 2;
+        ByteBuffer split = ByteBuffer.allocate(length + 2 * SSLExplorer.RECORD_HEADER_SIZE);
+        split.put(record.get(0)).put(record.get(1)).put(record.get(2)).putShort((short) first);
+        split.put((ByteBuffer) record.duplicate().position(SSLExplorer.RECORD_HEADER_SIZE).limit(SSLExplorer.RECORD_HEADER_SIZE + first));
+        split.put(record.get(0)).put(record.get(1)).put(record.get(2)).putShort((short) (length - first));
+        split.put((ByteBuffer) record.duplicate().position(SSLExplorer.RECORD_HEADER_SIZE + first));
+        split.flip();
+        return split;
+    }
+}
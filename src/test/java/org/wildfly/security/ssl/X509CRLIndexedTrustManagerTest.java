@@ -0,0 +1,171 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.ssl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of {@link X509CRLIndexedTrustManager}, using the certificate authority in {@code ca/crl}.
+ */
+public class X509CRLIndexedTrustManagerTest {
+
+    private static X509Certificate caCertificate;
+    private static X509Certificate[] trustedChain;
+    private static X509Certificate[] revokedChain;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void loadCertificates() throws Exception {
+        caCertificate = loadCertificate("ca.pem");
+        trustedChain = new X509Certificate[] { loadCertificate("trusted.pem"), caCertificate };
+        revokedChain = new X509Certificate[] { loadCertificate("revoked.pem"), caCertificate };
+    }
+
+    @Test
+    public void testRevokedCertificate() throws Exception {
+        X509CRLIndexedTrustManager trustManager = builder(copy("revoked-crl.pem")).build();
+
+        trustManager.checkClientTrusted(trustedChain, "RSA");
+        assertRevoked(trustManager, revokedChain);
+        assertEquals(caCertificate, trustManager.getAcceptedIssuers()[0]);
+    }
+
+    @Test
+    public void testTrustedChainCache() throws Exception {
+        X509CRLIndexedTrustManager trustManager = builder(copy("empty-crl.pem")).build();
+
+        trustManager.checkClientTrusted(trustedChain, "RSA");
+        trustManager.checkClientTrusted(trustedChain, "RSA");
+        trustManager.checkServerTrusted(trustedChain, "RSA");
+        assertEquals(1, trustManager.getCacheHitCount());
+        assertEquals(2, trustManager.getCacheMissCount());
+
+        trustManager = builder(copy("empty-crl.pem")).setCacheTimeToLive(0).build();
+        trustManager.checkClientTrusted(trustedChain, "RSA");
+        trustManager.checkClientTrusted(trustedChain, "RSA");
+        assertEquals(0, trustManager.getCacheHitCount());
+        assertEquals(0, trustManager.getCacheMissCount());
+    }
+
+    @Test
+    public void testReloadChangedFile() throws Exception {
+        Path crlFile = copy("empty-crl.pem");
+        X509CRLIndexedTrustManager trustManager = builder(crlFile).setReloadCheckInterval(0).build();
+
+        // cache the revoked chain, the cache must not survive the reload
+        trustManager.checkClientTrusted(revokedChain, "RSA");
+        trustManager.checkClientTrusted(revokedChain, "RSA");
+        assertEquals(1, trustManager.getCacheHitCount());
+        assertEquals(0, trustManager.getReloadCount());
+
+        FileTime lastModifiedTime = Files.getLastModifiedTime(crlFile);
+        replace(crlFile, "revoked-crl.pem");
+        Files.setLastModifiedTime(crlFile, FileTime.fromMillis(lastModifiedTime.toMillis() + 2000));
+        assertRevoked(trustManager, revokedChain);
+        assertEquals(1, trustManager.getReloadCount());
+
+        // a file which cannot be read does not replace the loaded lists
+        Files.write(crlFile, new byte[] { 1, 2, 3 });
+        assertRevoked(trustManager, revokedChain);
+        trustManager.checkClientTrusted(trustedChain, "RSA");
+        assertEquals(1, trustManager.getReloadCount());
+
+        replace(crlFile, "empty-crl.pem");
+        trustManager.reload();
+        trustManager.checkClientTrusted(revokedChain, "RSA");
+        assertEquals(2, trustManager.getReloadCount());
+    }
+
+    @Test
+    public void testIssuerKeyRollover() throws Exception {
+        // a certificate authority with the same name but a new key, whose list carries an authority key identifier
+        X509Certificate rolloverCertificate = loadCertificate("rollover-ca.pem");
+        X509Certificate[] rolloverTrustedChain = { loadCertificate("rollover-trusted.pem"), rolloverCertificate };
+        X509Certificate[] rolloverRevokedChain = { loadCertificate("rollover-revoked.pem"), rolloverCertificate };
+
+        KeyStore trustStore = KeyStore.getInstance("JKS");
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("rollover", rolloverCertificate);
+        trustStore.setCertificateEntry("ca", caCertificate);
+        X509CRLIndexedTrustManager trustManager = X509CRLIndexedTrustManager.builder()
+                .setTrustStore(trustStore)
+                .addCRLFile(copy("rollover-crl.pem"))
+                .addCRLFile(copy("revoked-crl.pem"))
+                .build();
+
+        // each list only applies to the certificates issued with its key, although the revoked serial numbers overlap
+        trustManager.checkClientTrusted(trustedChain, "RSA");
+        trustManager.checkClientTrusted(rolloverTrustedChain, "RSA");
+        assertRevoked(trustManager, revokedChain);
+        assertRevoked(trustManager, rolloverRevokedChain);
+    }
+
+    private X509CRLIndexedTrustManager.Builder builder(Path crlFile) throws Exception {
+        KeyStore trustStore = KeyStore.getInstance("JKS");
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("ca", caCertificate);
+        return X509CRLIndexedTrustManager.builder()
+                .setTrustStore(trustStore)
+                .addCRLFile(crlFile);
+    }
+
+    private Path copy(String name) throws Exception {
+        Path crlFile = folder.newFile().toPath();
+        replace(crlFile, name);
+        return crlFile;
+    }
+
+    private static void replace(Path crlFile, String name) throws Exception {
+        try (InputStream is = X509CRLIndexedTrustManagerTest.class.getResourceAsStream("/ca/crl/" + name)) {
+            Files.copy(is, crlFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void assertRevoked(X509CRLIndexedTrustManager trustManager, X509Certificate[] chain) {
+        try {
+            trustManager.checkClientTrusted(chain, "RSA");
+            fail("Expected CertificateException");
+        } catch (CertificateException expected) {
+        }
+    }
+
+    private static X509Certificate loadCertificate(String name) throws Exception {
+        try (InputStream is = X509CRLIndexedTrustManagerTest.class.getResourceAsStream("/ca/crl/" + name)) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(is);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+import org.wildfly.security.util._private.PrimitivePool;
+
+/**
+ * Tests of {@link PrimitivePool}.
+ */
+public class PrimitivePoolTest {
+
+    @Test
+    public void testMessageDigestReuse() throws Exception {
+        MessageDigest first = PrimitivePool.acquireMessageDigest("SHA-256");
+        first.update("partial".getBytes(StandardCharsets.UTF_8));
+        PrimitivePool.release(first);
+
+        MessageDigest second = PrimitivePool.acquireMessageDigest("SHA-256");
+        MessageDigest third = PrimitivePool.acquireMessageDigest("SHA-256");
+        try {
+            assertSame(first, second);
+            assertNotSame(second, third);
+            // released instances are reset
+            assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(), second.digest());
+        } finally {
+            PrimitivePool.release(second);
+            PrimitivePool.release(third);
+        }
+    }
+
+    @Test
+    public void testMacReuse() throws Exception {
+        byte[] key = "key".getBytes(StandardCharsets.UTF_8);
+        byte[] data = "data".getBytes(StandardCharsets.UTF_8);
+        Mac reference = Mac.getInstance("HmacSHA256");
+        reference.init(new SecretKeySpec(key, "HmacSHA256"));
+
+        for (int i = 0; i < 3; i++) {
+            Mac mac = PrimitivePool.acquireMac("HmacSHA256");
+            try {
+                mac.init(new SecretKeySpec(key, "HmacSHA256"));
+                mac.update(data);
+                assertArrayEquals(reference.doFinal(data), mac.doFinal());
+            } finally {
+                PrimitivePool.release(mac);
+            }
+        }
+    }
+
+    @Test
+    public void testMacKeyNotRetained() throws Exception {
+        byte[] key = "key".getBytes(StandardCharsets.UTF_8);
+        byte[] data = "data".getBytes(StandardCharsets.UTF_8);
+        Mac reference = Mac.getInstance("HmacSHA256");
+        reference.init(new SecretKeySpec(key, "HmacSHA256"));
+
+        Mac mac = PrimitivePool.acquireMac("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        PrimitivePool.release(mac);
+
+        Mac pooled = PrimitivePool.acquireMac("HmacSHA256");
+        try {
+            // pooled instances no longer compute MACs with the key of their previous user
+            assertFalse(Arrays.equals(reference.doFinal(data), pooled.doFinal(data)));
+        } finally {
+            PrimitivePool.release(pooled);
+        }
+    }
+
+    @Test
+    public void testProviderSelection() throws Exception {
+        Provider provider = MessageDigest.getInstance("SHA-256").getProvider();
+        MessageDigest messageDigest = PrimitivePool.acquireMessageDigest("SHA-256", () -> new Provider[] { provider });
+        try {
+            assertSame(provider, messageDigest.getProvider());
+        } finally {
+            PrimitivePool.release(messageDigest);
+        }
+    }
+
+    @Test(expected = NoSuchAlgorithmException.class)
+    public void testUnknownAlgorithm() throws Exception {
+        PrimitivePool.acquireMessageDigest("NO-SUCH-DIGEST", Security::getProviders);
+    }
+
+    @Test
+    public void testUnpooledRelease() throws Exception {
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+        PrimitivePool.release(messageDigest);
+        MessageDigest acquired = PrimitivePool.acquireMessageDigest("SHA-1");
+        assertEquals("SHA-1", acquired.getAlgorithm());
+        PrimitivePool.release(acquired);
+    }
+}
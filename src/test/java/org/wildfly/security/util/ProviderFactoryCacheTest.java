@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2017 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wildfly.security.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Provider;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.security.sasl.SaslServerFactory;
+
+import org.junit.Test;
+import org.wildfly.security.sasl.WildFlySasl;
+import org.wildfly.security.sasl.digest.DigestServerFactory;
+import org.wildfly.security.sasl.plain.PlainSaslServerFactory;
+import org.wildfly.security.util._private.ProviderFactoryCache;
+import org.wildfly.security.util._private.ProviderFactoryCache.ProviderFactory;
+
+/**
+ * Tests for {@link ProviderFactoryCache}.
+ */
+public class ProviderFactoryCacheTest {
+
+    @Test
+    public void testSnapshotIndexAndInvalidation() {
+        TestProvider first = new TestProvider("first");
+        first.addSaslServerFactory("PLAIN", PlainSaslServerFactory.class);
+        TestProvider second = new TestProvider("second");
+        second.addSaslServerFactory("DIGEST-MD5", DigestServerFactory.class);
+        AtomicReference<Provider[]> providers = new AtomicReference<>(new Provider[] { first, second });
+        ProviderFactoryCache<SaslServerFactory> cache = new ProviderFactoryCache<>(providers::get, SaslServerFactory.class,
+                factory -> factory.getMechanismNames(Collections.singletonMap(WildFlySasl.MECHANISM_QUERY_ALL, "true")));
+
+        ProviderFactoryCache.Snapshot<SaslServerFactory> snapshot = cache.getSnapshot();
+        assertSame(snapshot, cache.getSnapshot());
+        assertEquals(2, snapshot.getFactories().size());
+        List<ProviderFactory<SaslServerFactory>> plain = snapshot.getFactories("PLAIN");
+        assertEquals(1, plain.size());
+        assertSame(first, plain.get(0).getProvider());
+        assertTrue(plain.get(0).getFactory() instanceof PlainSaslServerFactory);
+        assertSame(second, snapshot.getFactories("DIGEST-SHA-256").get(0).getProvider());
+        // a mechanism no factory reported may still be supported by any of them
+        assertEquals(snapshot.getFactories(), snapshot.getFactories("UNKNOWN"));
+
+        // a changed provider order invalidates the snapshot
+        providers.set(new Provider[] { second, first });
+        ProviderFactoryCache.Snapshot<SaslServerFactory> reordered = cache.getSnapshot();
+        assertNotSame(snapshot, reordered);
+        assertSame(second, reordered.getFactories().get(0).getProvider());
+
+        // so does a service added to a provider
+        second.addSaslServerFactory("PLAIN", PlainSaslServerFactory.class);
+        ProviderFactoryCache.Snapshot<SaslServerFactory> added = cache.getSnapshot();
+        assertNotSame(reordered, added);
+        assertEquals(2, added.getFactories("PLAIN").size());
+        assertSame(second, added.getFactories("PLAIN").get(0).getProvider());
+        assertSame(added, cache.getSnapshot());
+    }
+
+    @Test
+    public void testUninstantiableServiceSkipped() {
+        TestProvider provider = new TestProvider("broken");
+        provider.addSaslServerFactory("BROKEN", String.class);
+        provider.addSaslServerFactory("PLAIN", PlainSaslServerFactory.class);
+        ProviderFactoryCache<SaslServerFactory> cache = new ProviderFactoryCache<>(() -> new Provider[] { provider },
+                SaslServerFactory.class, factory -> factory.getMechanismNames(Collections.emptyMap()));
+        assertEquals(1, cache.getSnapshot().getFactories().size());
+    }
+
+    static final class TestProvider extends Provider {
+
+        private static final long serialVersionUID = 1L;
+
+        TestProvider(String name) {
+            super(name, 1.0, name);
+        }
+
+        void addSaslServerFactory(String algorithm, Class<?> implementation) {
+            putService(new Service(this, SaslServerFactory.class.getSimpleName(), algorithm, implementation.getName(), null, null));
+        }
+    }
+}